@@ -0,0 +1,150 @@
+/*
+ * Sonar, open source software quality management tool.
+ * Copyright (C) 2009 SonarSource
+ * mailto:contact AT sonarsource DOT com
+ *
+ * Sonar is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * Sonar is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with Sonar; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02
+ */
+
+package org.sonar.plugins.jira.metrics;
+
+import java.lang.reflect.Proxy;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.sonar.api.config.Settings;
+import org.sonar.plugins.jira.rest.JiraMetadataCache;
+import org.sonar.plugins.jira.rest.JiraSessionRegistry;
+
+import com.atlassian.jira.rest.client.api.JiraRestClient;
+import com.atlassian.jira.rest.client.api.SearchRestClient;
+import com.atlassian.jira.rest.client.api.domain.BasicPriority;
+import com.atlassian.jira.rest.client.api.domain.Filter;
+import com.atlassian.jira.rest.client.api.domain.Issue;
+import com.atlassian.jira.rest.client.api.domain.SearchResult;
+import com.atlassian.util.concurrent.Promises;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+
+/**
+ * Cost of aggregating the issues of a filter by priority, from pages already
+ * downloaded, so that only the CPU spent by the plugin is measured.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Fork(value = 1, jvmArgsAppend = "-Xmx2g")
+public class JiraSensorBenchmark {
+
+    private static final int PAGE_SIZE = 1000;
+    private static final int PRIORITIES = 5;
+
+    @Param({ "1000", "100000", "1000000" })
+    public int issues;
+
+    private List<SearchResult> pages;
+    private JiraSensor sensor;
+    private JiraRestClient client;
+    private Filter filter;
+
+    @Setup
+    public void setUp() {
+	BasicPriority[] priorities = new BasicPriority[PRIORITIES];
+	for (int i = 0; i < PRIORITIES; i++) {
+	    priorities[i] = new BasicPriority(null, (long) i + 1, "priority"
+		    + (i + 1));
+	}
+	pages = Lists.newArrayList();
+	for (int startAt = 0; startAt < issues; startAt += PAGE_SIZE) {
+	    List<Issue> page = Lists.newArrayListWithCapacity(PAGE_SIZE);
+	    for (int id = startAt; id < Math.min(issues, startAt + PAGE_SIZE); id++) {
+		page.add(newIssue(id, priorities[id % PRIORITIES]));
+	    }
+	    pages.add(new SearchResult(startAt, PAGE_SIZE, issues, page));
+	}
+
+	Settings settings = new Settings();
+	sensor = new JiraSensor(settings, new JiraSessionRegistry(settings),
+		new JiraMetadataCache(settings), new JiraFilterResults());
+	filter = new Filter(null, 10000L, "benchmark", null,
+		"project = SONAR", null, null, null, true);
+	client = newClient(newSearchClient(pages));
+    }
+
+    /**
+     * Folding of the pages alone.
+     */
+    @Benchmark
+    public Map<Long, Integer> aggregatePages() {
+	Map<Long, Integer> issuesByPriority = Maps.newHashMap();
+	for (SearchResult page : pages) {
+	    JiraSensor.countIssuesByPriority(page, issuesByPriority);
+	}
+	return issuesByPriority;
+    }
+
+    /**
+     * Whole paging and aggregation chain, against a client which answers
+     * immediately.
+     */
+    @Benchmark
+    public Map<Long, Integer> collectIssuesByPriority() throws Exception {
+	return sensor.collectIssuesByPriority(client, filter).get();
+    }
+
+    private static Issue newIssue(long id, BasicPriority priority) {
+	return new Issue("summary", null, "SONAR-" + id, id, null, null, null,
+		null, priority, null, null, null, null, null, null, null, null,
+		null, null, null, null, null, null, null, null, null, null,
+		null, null, null, null);
+    }
+
+    private static SearchRestClient newSearchClient(
+	    final List<SearchResult> pages) {
+	return (SearchRestClient) Proxy.newProxyInstance(
+		SearchRestClient.class.getClassLoader(),
+		new Class<?>[] { SearchRestClient.class }, (proxy, method,
+			args) -> {
+		    if ("searchJql".equals(method.getName())
+			    && args.length == 4) {
+			int startAt = (Integer) args[2];
+			return Promises.promise(pages.get(startAt / PAGE_SIZE));
+		    }
+		    throw new UnsupportedOperationException(method.getName());
+		});
+    }
+
+    private static JiraRestClient newClient(final SearchRestClient searchClient) {
+	return (JiraRestClient) Proxy.newProxyInstance(
+		JiraRestClient.class.getClassLoader(),
+		new Class<?>[] { JiraRestClient.class },
+		(proxy, method, args) -> {
+		    if ("getSearchClient".equals(method.getName())) {
+			return searchClient;
+		    }
+		    throw new UnsupportedOperationException(method.getName());
+		});
+    }
+}
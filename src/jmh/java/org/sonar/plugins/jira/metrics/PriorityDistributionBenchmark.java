@@ -0,0 +1,72 @@
+/*
+ * Sonar, open source software quality management tool.
+ * Copyright (C) 2009 SonarSource
+ * mailto:contact AT sonarsource DOT com
+ *
+ * Sonar is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * Sonar is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with Sonar; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02
+ */
+
+package org.sonar.plugins.jira.metrics;
+
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.sonar.api.measures.PropertiesBuilder;
+
+import com.google.common.collect.Maps;
+
+/**
+ * Cost of encoding the issues by priority into the data of the measure.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Fork(1)
+public class PriorityDistributionBenchmark {
+
+    @Param({ "5", "50" })
+    public int priorities;
+
+    private Map<Long, String> names;
+    private Map<Long, Integer> issuesByPriority;
+
+    @Setup
+    public void setUp() {
+	names = Maps.newHashMap();
+	issuesByPriority = Maps.newHashMap();
+	for (long id = 1; id <= priorities; id++) {
+	    names.put(id, "priority" + id);
+	    issuesByPriority.put(id, (int) id * 1000);
+	}
+    }
+
+    @Benchmark
+    public String encodeDistribution() {
+	PropertiesBuilder<String, Integer> distribution = new PropertiesBuilder<String, Integer>();
+	for (Map.Entry<Long, Integer> entry : issuesByPriority.entrySet()) {
+	    distribution.add(names.get(entry.getKey()), entry.getValue());
+	}
+	return distribution.buildData();
+    }
+}
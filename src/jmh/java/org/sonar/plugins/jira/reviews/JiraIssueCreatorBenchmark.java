@@ -0,0 +1,125 @@
+/*
+ * Sonar JIRA Plugin
+ * Copyright (C) 2009 SonarSource
+ * dev@sonar.codehaus.org
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02
+ */
+package org.sonar.plugins.jira.reviews;
+
+import java.lang.reflect.Proxy;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.sonar.api.CoreProperties;
+import org.sonar.api.config.Settings;
+import org.sonar.api.issue.internal.DefaultIssue;
+import org.sonar.api.rule.RuleKey;
+import org.sonar.api.rules.Rule;
+import org.sonar.api.rules.RuleFinder;
+import org.sonar.plugins.jira.JiraConstants;
+import org.sonar.plugins.jira.rest.JiraMetadataCache;
+import org.sonar.plugins.jira.rest.JiraSessionRegistry;
+
+import com.atlassian.jira.rest.client.api.domain.input.IssueInput;
+
+/**
+ * Cost of turning a Sonar issue into a JIRA issue, with the JIRA project
+ * looked up through package hierarchies of growing depth.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Fork(1)
+public class JiraIssueCreatorBenchmark {
+
+    @Param({ "1", "5", "20" })
+    public int depth;
+
+    private JiraIssueCreator creator;
+    private Settings settings;
+    private DefaultIssue sonarIssue;
+
+    @Setup
+    public void setUp() {
+	settings = new Settings();
+	settings.setProperty(CoreProperties.SERVER_BASE_URL,
+		"http://my.sonar.com");
+	settings.setProperty(JiraConstants.JIRA_PROJECT_KEY_PROPERTY, "DEFAULT");
+	settings.setProperty(JiraConstants.JIRA_ISSUE_TYPE_ID, 3);
+	settings.setProperty(JiraConstants.JIRA_MAJOR_PRIORITY_ID, 3);
+	settings.setProperty(JiraConstants.JIRA_TOP_LEVEL_PACKAGE + ".proj",
+		"com.acme");
+	// only the top of the hierarchy is mapped, the lookup walks it all
+	settings.setProperty(JiraConstants.JIRA_PROJECT_KEY_PROPERTY + ".proj",
+		"PROJ");
+
+	StringBuilder packageName = new StringBuilder("com.acme");
+	for (int i = 0; i < depth; i++) {
+	    packageName.append(".p").append(i);
+	}
+	sonarIssue = new DefaultIssue()
+		.setKey("ABCD")
+		.setProjectKey("proj")
+		.setComponentKey(packageName + ":Foo.java")
+		.setSeverity("MAJOR")
+		.setRuleKey(RuleKey.of("squid", "CycleBetweenPackages"))
+		.setMessage(
+			"The Cyclomatic Complexity of this method is 14 which is greater than 10 authorized.");
+
+	final Rule rule = Rule.create().setName(
+		"Avoid cycle between java packages");
+	RuleFinder ruleFinder = (RuleFinder) Proxy.newProxyInstance(
+		RuleFinder.class.getClassLoader(),
+		new Class<?>[] { RuleFinder.class },
+		(proxy, method, args) -> "findByKey".equals(method.getName()) ? rule
+			: null);
+	JiraSessionRegistry sessionRegistry = new JiraSessionRegistry(settings);
+	JiraIssueIndex issueIndex = new JiraIssueIndex(settings);
+	creator = new JiraIssueCreator(new JiraRuleCache(ruleFinder, settings),
+		sessionRegistry,
+		new JiraMetadataCache(settings), new JiraOutbox(settings,
+			sessionRegistry, issueIndex, null), issueIndex);
+    }
+
+    @Benchmark
+    public IssueInput initRemoteIssue() {
+	return creator.initRemoteIssue(sonarIssue,
+		creator.getConfig(settings, sonarIssue.projectKey()), null,
+		null);
+    }
+
+    @Benchmark
+    public String generateIssueDescription() {
+	return creator.generateIssueDescription(sonarIssue,
+		creator.getConfig(settings, sonarIssue.projectKey()));
+    }
+
+    @Benchmark
+    public String getJiraProjectKey() {
+	return creator.getConfig(settings, sonarIssue.projectKey())
+		.getRouting()
+		.getJiraProjectKey(sonarIssue.projectKey(),
+			sonarIssue.componentKey());
+    }
+}
@@ -0,0 +1,123 @@
+/*
+ * Sonar JIRA Plugin
+ * Copyright (C) 2009 SonarSource
+ * dev@sonar.codehaus.org
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02
+ */
+package org.sonar.plugins.jira.reviews;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.infra.Blackhole;
+import org.sonar.api.config.Settings;
+import org.sonar.api.issue.Issue;
+import org.sonar.api.issue.action.Function;
+import org.sonar.api.issue.internal.DefaultIssue;
+import org.sonar.plugins.jira.JiraConstants;
+
+import com.atlassian.jira.rest.client.api.domain.BasicIssue;
+
+/**
+ * Cost of the "Link to JIRA" action around the remote call, JIRA being
+ * replaced by a creator answering immediately.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Fork(1)
+public class LinkFunctionBenchmark {
+
+    private LinkFunction function;
+    private BenchmarkContext context;
+
+    @Setup
+    public void setUp() {
+	Settings settings = new Settings();
+	settings.setProperty(JiraConstants.SERVER_URL_PROPERTY,
+		"http://my.jira.com");
+	settings.setProperty(JiraConstants.SOAP_BASE_URL_PROPERTY,
+		JiraConstants.SOAP_BASE_URL_DEF_VALUE);
+	settings.setProperty(JiraConstants.USERNAME_PROPERTY, "foo");
+	settings.setProperty(JiraConstants.PASSWORD_PROPERTY, "bar");
+	settings.setProperty(JiraConstants.JIRA_PROJECT_KEY_PROPERTY, "TEST");
+	settings.setProperty(JiraConstants.JIRA_INFO_PRIORITY_ID, 5);
+	settings.setProperty(JiraConstants.JIRA_MINOR_PRIORITY_ID, 4);
+	settings.setProperty(JiraConstants.JIRA_MAJOR_PRIORITY_ID, 3);
+	settings.setProperty(JiraConstants.JIRA_CRITICAL_PRIORITY_ID, 2);
+	settings.setProperty(JiraConstants.JIRA_BLOCKER_PRIORITY_ID, 1);
+	settings.setProperty(JiraConstants.JIRA_ISSUE_TYPE_ID, 3);
+
+	final BasicIssue remoteIssue = new BasicIssue(null, "TEST-15", 15L);
+	JiraIssueCreator creator = new JiraIssueCreator(null, null, null, null, null) {
+	    @Override
+	    public BasicIssue createIssue(Issue sonarIssue, Settings settings) {
+		return remoteIssue;
+	    }
+	};
+	function = new LinkFunction(creator, new JiraLinkQueue(new Settings(),
+		creator, null));
+	// the JIRA configuration is looked up by Sonar project
+	context = new BenchmarkContext(new DefaultIssue().setKey("ABCD")
+		.setProjectKey("proj"), settings);
+    }
+
+    @Benchmark
+    public void execute(Blackhole blackhole) {
+	context.blackhole = blackhole;
+	function.execute(context);
+    }
+
+    private static final class BenchmarkContext implements Function.Context {
+	private final Issue issue;
+	private final Settings settings;
+	private Blackhole blackhole;
+
+	private BenchmarkContext(Issue issue, Settings settings) {
+	    this.issue = issue;
+	    this.settings = settings;
+	}
+
+	@Override
+	public Issue issue() {
+	    return issue;
+	}
+
+	@Override
+	public Settings projectSettings() {
+	    return settings;
+	}
+
+	@Override
+	public Function.Context setAttribute(String key, String value) {
+	    blackhole.consume(value);
+	    return this;
+	}
+
+	@Override
+	public Function.Context addComment(String text) {
+	    blackhole.consume(text);
+	    return this;
+	}
+    }
+}
@@ -25,6 +25,7 @@ public final class JiraConstants {
     }
 
     public static final String SONAR_ISSUE_DATA_PROPERTY_KEY = "jira-issue-key";
+    public static final String SONAR_ISSUE_PENDING_PROPERTY_KEY = "jira-link-pending";
 
     // ===================== PLUGIN PROPERTIES =====================
 
@@ -55,4 +56,119 @@ public final class JiraConstants {
     public static final String JIRA_ISSUE_COMPONENT_ID = "sonar.jira.issue.component.id";
 
     public static final String JIRA_TOP_LEVEL_PACKAGE = "sonar.jira.package";
+
+    public static final String STORAGE_PATH_PROPERTY = "sonar.jira.storage.path";
+
+    public static final String JIRA_ISSUE_RULE_DESCRIPTION = "sonar.jira.issue.rule.description";
+    public static final String JIRA_ISSUE_RULE_DESCRIPTION_DEF_VALUE = "false";
+
+    public static final String RULE_CACHE_SIZE_PROPERTY = "sonar.jira.rule.cache.size";
+    public static final String RULE_CACHE_SIZE_DEF_VALUE = "1000";
+
+    // ===================== HTTP CLIENT PROPERTIES =====================
+
+    public static final String HTTP_MAX_CONNECTIONS_PROPERTY = "sonar.jira.http.max.connections";
+    public static final String HTTP_MAX_CONNECTIONS_DEF_VALUE = "20";
+
+    public static final String HTTP_IDLE_TIMEOUT_PROPERTY = "sonar.jira.http.idle.timeout";
+    public static final String HTTP_IDLE_TIMEOUT_DEF_VALUE = "300";
+
+    public static final String HTTP_RATE_LIMIT_PROPERTY = "sonar.jira.http.rate.limit";
+    public static final String HTTP_RATE_LIMIT_DEF_VALUE = "10";
+
+    public static final String HTTP_CONNECT_TIMEOUT_PROPERTY = "sonar.jira.http.connect.timeout";
+    public static final String HTTP_CONNECT_TIMEOUT_DEF_VALUE = "10";
+
+    public static final String HTTP_READ_TIMEOUT_PROPERTY = "sonar.jira.http.read.timeout";
+    public static final String HTTP_READ_TIMEOUT_DEF_VALUE = "30";
+
+    public static final String HTTP_CALL_TIMEOUT_PROPERTY = "sonar.jira.http.call.timeout";
+    public static final String HTTP_CALL_TIMEOUT_DEF_VALUE = "60";
+
+    // ===================== RETRY PROPERTIES =====================
+
+    public static final String RETRY_MAX_ATTEMPTS_PROPERTY = "sonar.jira.retry.max.attempts";
+    public static final String RETRY_MAX_ATTEMPTS_DEF_VALUE = "3";
+
+    public static final String RETRY_HEDGE_PERCENTILE_PROPERTY = "sonar.jira.retry.hedge.percentile";
+    public static final String RETRY_HEDGE_PERCENTILE_DEF_VALUE = "0";
+
+    // ===================== CIRCUIT BREAKER PROPERTIES =====================
+
+    public static final String CIRCUIT_FAILURE_RATE_PROPERTY = "sonar.jira.circuit.failure.rate";
+    public static final String CIRCUIT_FAILURE_RATE_DEF_VALUE = "50";
+
+    public static final String CIRCUIT_SLOW_CALL_RATE_PROPERTY = "sonar.jira.circuit.slow.call.rate";
+    public static final String CIRCUIT_SLOW_CALL_RATE_DEF_VALUE = "80";
+
+    public static final String CIRCUIT_SLOW_CALL_DURATION_PROPERTY = "sonar.jira.circuit.slow.call.duration";
+    public static final String CIRCUIT_SLOW_CALL_DURATION_DEF_VALUE = "10";
+
+    public static final String CIRCUIT_OPEN_DURATION_PROPERTY = "sonar.jira.circuit.open.duration";
+    public static final String CIRCUIT_OPEN_DURATION_DEF_VALUE = "60";
+
+    // ===================== METADATA CACHE PROPERTIES =====================
+
+    public static final String METADATA_TTL_PROPERTY = "sonar.jira.metadata.ttl";
+    public static final String METADATA_TTL_DEF_VALUE = "3600";
+
+    public static final String METADATA_PERSISTENT_PROPERTY = "sonar.jira.metadata.persistent";
+    public static final String METADATA_PERSISTENT_DEF_VALUE = "true";
+
+    // ===================== SEARCH PROPERTIES =====================
+
+    public static final String SEARCH_PAGE_SIZE_PROPERTY = "sonar.jira.search.page.size";
+    public static final String SEARCH_PAGE_SIZE_DEF_VALUE = "100";
+
+    public static final String SEARCH_PARALLELISM_PROPERTY = "sonar.jira.search.parallelism";
+    public static final String SEARCH_PARALLELISM_DEF_VALUE = "4";
+
+    public static final String SEARCH_STRATEGY_PROPERTY = "sonar.jira.search.strategy";
+    public static final String SEARCH_STRATEGY_COUNT = "count";
+    public static final String SEARCH_STRATEGY_FULL = "full";
+    public static final String SEARCH_STRATEGY_INCREMENTAL = "incremental";
+
+    public static final String SEARCH_RECONCILIATION_PROPERTY = "sonar.jira.search.reconciliation.hours";
+    public static final String SEARCH_RECONCILIATION_DEF_VALUE = "168";
+
+    public static final String SEARCH_FIELDS_PROPERTY = "sonar.jira.search.fields";
+
+    public static final String ANALYSIS_TIMEOUT_PROPERTY = "sonar.jira.analysis.timeout";
+    public static final String ANALYSIS_TIMEOUT_DEF_VALUE = "300";
+
+    // ===================== ASYNCHRONOUS LINK PROPERTIES =====================
+
+    public static final String LINK_ASYNC_PROPERTY = "sonar.jira.link.async";
+    public static final String LINK_ASYNC_DEF_VALUE = "false";
+
+    public static final String LINK_WORKERS_PROPERTY = "sonar.jira.link.workers";
+    public static final String LINK_WORKERS_DEF_VALUE = "2";
+
+    public static final String SONAR_LOGIN_PROPERTY = "sonar.jira.sonar.login";
+
+    // ===================== STATUS SYNCHRONIZATION PROPERTIES =====================
+
+    public static final String SYNC_ENABLED_PROPERTY = "sonar.jira.sync.enabled";
+    public static final String SYNC_ENABLED_DEF_VALUE = "false";
+
+    public static final String SYNC_INTERVAL_PROPERTY = "sonar.jira.sync.interval";
+    public static final String SYNC_INTERVAL_DEF_VALUE = "300";
+
+    public static final String SYNC_BATCH_SIZE_PROPERTY = "sonar.jira.sync.batch.size";
+    public static final String SYNC_BATCH_SIZE_DEF_VALUE = "200";
+
+    public static final String SYNC_PARALLELISM_PROPERTY = "sonar.jira.sync.parallelism";
+    public static final String SYNC_PARALLELISM_DEF_VALUE = "4";
+
+    public static final String SYNC_FALSE_POSITIVE_RESOLUTIONS_PROPERTY = "sonar.jira.sync.false.positive.resolutions";
+
+    // ===================== WEBHOOK PROPERTIES =====================
+
+    public static final String WEBHOOK_ENABLED_PROPERTY = "sonar.jira.webhook.enabled";
+    public static final String WEBHOOK_ENABLED_DEF_VALUE = "false";
+
+    public static final String WEBHOOK_SECRET_PROPERTY = "sonar.jira.webhook.secret";
+
+    public static final String WEBHOOK_QUEUE_SIZE_PROPERTY = "sonar.jira.webhook.queue.size";
+    public static final String WEBHOOK_QUEUE_SIZE_DEF_VALUE = "1000";
 }
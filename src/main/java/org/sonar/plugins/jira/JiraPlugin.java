@@ -24,13 +24,23 @@ import com.google.common.collect.ImmutableList;
 import org.sonar.api.Properties;
 import org.sonar.api.Property;
 import org.sonar.api.SonarPlugin;
+import org.sonar.plugins.jira.metrics.JiraFilterResults;
 import org.sonar.plugins.jira.metrics.JiraFilterWidget;
 import org.sonar.plugins.jira.metrics.JiraMetrics;
 import org.sonar.plugins.jira.metrics.JiraSensor;
 import org.sonar.plugins.jira.metrics.JiraWidget;
+import org.sonar.plugins.jira.rest.JiraMetadataCache;
+import org.sonar.plugins.jira.rest.JiraSessionRegistry;
 import org.sonar.plugins.jira.reviews.JiraActionDefinition;
 import org.sonar.plugins.jira.reviews.JiraIssueCreator;
+import org.sonar.plugins.jira.reviews.JiraIssueIndex;
+import org.sonar.plugins.jira.reviews.JiraLinkQueue;
+import org.sonar.plugins.jira.reviews.JiraOutbox;
+import org.sonar.plugins.jira.reviews.JiraRuleCache;
+import org.sonar.plugins.jira.reviews.JiraStatusSynchronizer;
+import org.sonar.plugins.jira.reviews.JiraWebhookReceiver;
 import org.sonar.plugins.jira.reviews.LinkFunction;
+import org.sonar.plugins.jira.reviews.SonarIssueActions;
 import java.util.List;
 
 @Properties({
@@ -56,17 +66,31 @@ import java.util.List;
     global = true,
     project = true,
     module = false
+  ),
+  @Property(
+    key = JiraConstants.STORAGE_PATH_PROPERTY,
+    name = "Storage path",
+    description = "Directory where the plugin keeps its data between two runs. "
+      + "Defaults to the 'jira' folder of the server data directory, or to ~/.sonar/jira during analyses.",
+    global = true,
+    project = false,
+    module = false
   )
 })
 public final class JiraPlugin extends SonarPlugin {
 
   public List getExtensions() {
     return ImmutableList.of(
+      // shared REST sessions and metadata
+      JiraSessionRegistry.class, JiraMetadataCache.class,
+
       // metrics part
-      JiraMetrics.class, JiraSensor.class, JiraWidget.class, JiraFilterWidget.class,
+      JiraMetrics.class, JiraSensor.class, JiraFilterResults.class, JiraWidget.class, JiraFilterWidget.class,
 
       // issues part
-      JiraIssueCreator.class, LinkFunction.class, JiraActionDefinition.class
+      JiraIssueCreator.class, JiraRuleCache.class, LinkFunction.class, JiraActionDefinition.class,
+      SonarIssueActions.class, JiraLinkQueue.class, JiraOutbox.class, JiraIssueIndex.class, JiraStatusSynchronizer.class,
+      JiraWebhookReceiver.class
     );
   }
 }
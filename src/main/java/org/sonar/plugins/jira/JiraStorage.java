@@ -0,0 +1,53 @@
+/*
+ * Sonar JIRA Plugin
+ * Copyright (C) 2009 SonarSource
+ * dev@sonar.codehaus.org
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02
+ */
+package org.sonar.plugins.jira;
+
+import org.apache.commons.lang.StringUtils;
+import org.sonar.api.config.Settings;
+import java.io.File;
+
+/**
+ * Location of the files the plugin keeps from one analysis, or one server
+ * start, to the other.
+ */
+public final class JiraStorage {
+
+    /**
+     * Data directory of the SonarQube server, unknown on the batch side.
+     */
+    private static final String SERVER_DATA_PATH_PROPERTY = "sonar.path.data";
+
+    private JiraStorage() {
+    }
+
+    public static File getDirectory(Settings settings, String name) {
+	String path = settings.getString(JiraConstants.STORAGE_PATH_PROPERTY);
+	if (StringUtils.isBlank(path)) {
+	    String dataPath = settings.getString(SERVER_DATA_PATH_PROPERTY);
+	    if (StringUtils.isNotBlank(dataPath)) {
+		path = new File(dataPath, "jira").getPath();
+	    } else {
+		path = new File(System.getProperty("user.home"), ".sonar"
+			+ File.separator + "jira").getPath();
+	    }
+	}
+	return new File(path, name);
+    }
+}
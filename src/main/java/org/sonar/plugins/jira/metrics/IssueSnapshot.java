@@ -0,0 +1,170 @@
+/*
+ * Sonar, open source software quality management tool.
+ * Copyright (C) 2009 SonarSource
+ * mailto:contact AT sonarsource DOT com
+ *
+ * Sonar is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * Sonar is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with Sonar; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02
+ */
+
+package org.sonar.plugins.jira.metrics;
+
+import com.atlassian.jira.rest.client.api.domain.Issue;
+import com.google.common.collect.Maps;
+import org.apache.commons.io.IOUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Map;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Last known priority of every issue of a JIRA filter. It is kept on disk
+ * between two analyses so that only the issues updated in the meantime have
+ * to be downloaded again.
+ */
+public class IssueSnapshot {
+    private static final Logger LOG = LoggerFactory
+	    .getLogger(IssueSnapshot.class);
+
+    static final long NO_PRIORITY = -1L;
+    private static final int MAGIC = 0x4A495353;
+    private static final int VERSION = 1;
+
+    private final Map<Long, Long> priorityByIssue;
+    private final long lastReconciliation;
+    private long lastUpdate;
+
+    public IssueSnapshot(long lastReconciliation) {
+	this(lastReconciliation, lastReconciliation, Maps
+		.<Long, Long> newHashMap());
+    }
+
+    private IssueSnapshot(long lastReconciliation, long lastUpdate,
+	    Map<Long, Long> priorityByIssue) {
+	this.lastReconciliation = lastReconciliation;
+	this.lastUpdate = lastUpdate;
+	this.priorityByIssue = priorityByIssue;
+    }
+
+    /**
+     * Time of the last run which downloaded the whole filter.
+     */
+    public long getLastReconciliation() {
+	return lastReconciliation;
+    }
+
+    /**
+     * Time from which the issues have to be downloaded again.
+     */
+    public long getLastUpdate() {
+	return lastUpdate;
+    }
+
+    public void setLastUpdate(long lastUpdate) {
+	this.lastUpdate = lastUpdate;
+    }
+
+    public void put(Issue issue) {
+	Long priority = issue.getPriority() == null ? NO_PRIORITY : issue
+		.getPriority().getId();
+	priorityByIssue.put(issue.getId(), priority);
+    }
+
+    public int size() {
+	return priorityByIssue.size();
+    }
+
+    public Map<Long, Integer> countByPriority() {
+	Map<Long, Integer> issuesByPriority = Maps.newHashMap();
+	for (Long priority : priorityByIssue.values()) {
+	    if (priority == NO_PRIORITY) {
+		continue;
+	    }
+	    Integer count = issuesByPriority.get(priority);
+	    issuesByPriority.put(priority, count == null ? 1 : count + 1);
+	}
+	return issuesByPriority;
+    }
+
+    /**
+     * Returns the snapshot saved in the given file, or <code>null</code> if
+     * there is none or if it can not be read.
+     */
+    public static IssueSnapshot load(File file) {
+	if (!file.isFile()) {
+	    return null;
+	}
+	DataInputStream input = null;
+	try {
+	    input = new DataInputStream(new GZIPInputStream(
+		    new BufferedInputStream(new FileInputStream(file))));
+	    if (input.readInt() != MAGIC || input.readInt() != VERSION) {
+		LOG.warn("Ignoring JIRA issue snapshot of unknown format: {}",
+			file);
+		return null;
+	    }
+	    long lastReconciliation = input.readLong();
+	    long lastUpdate = input.readLong();
+	    int size = input.readInt();
+	    Map<Long, Long> priorityByIssue = Maps
+		    .newHashMapWithExpectedSize(size);
+	    for (int i = 0; i < size; i++) {
+		priorityByIssue.put(input.readLong(), input.readLong());
+	    }
+	    return new IssueSnapshot(lastReconciliation, lastUpdate,
+		    priorityByIssue);
+	} catch (IOException e) {
+	    LOG.warn("Unable to read the JIRA issue snapshot " + file, e);
+	    return null;
+	} finally {
+	    IOUtils.closeQuietly(input);
+	}
+    }
+
+    public void save(File file) throws IOException {
+	File dir = file.getParentFile();
+	if (!dir.isDirectory() && !dir.mkdirs()) {
+	    throw new IOException("Unable to create directory " + dir);
+	}
+	// written aside first so that a failure never leaves a truncated file
+	File tmp = new File(dir, file.getName() + ".tmp");
+	DataOutputStream output = new DataOutputStream(new GZIPOutputStream(
+		new BufferedOutputStream(new FileOutputStream(tmp))));
+	try {
+	    output.writeInt(MAGIC);
+	    output.writeInt(VERSION);
+	    output.writeLong(lastReconciliation);
+	    output.writeLong(lastUpdate);
+	    output.writeInt(priorityByIssue.size());
+	    for (Map.Entry<Long, Long> entry : priorityByIssue.entrySet()) {
+		output.writeLong(entry.getKey());
+		output.writeLong(entry.getValue());
+	    }
+	} finally {
+	    output.close();
+	}
+	if (file.exists() && !file.delete() || !tmp.renameTo(file)) {
+	    throw new IOException("Unable to write " + file);
+	}
+    }
+}
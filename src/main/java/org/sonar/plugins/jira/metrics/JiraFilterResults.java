@@ -0,0 +1,85 @@
+/*
+ * Sonar, open source software quality management tool.
+ * Copyright (C) 2009 SonarSource
+ * mailto:contact AT sonarsource DOT com
+ *
+ * Sonar is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * Sonar is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with Sonar; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02
+ */
+
+package org.sonar.plugins.jira.metrics;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.collect.Maps;
+import org.sonar.api.BatchExtension;
+import org.sonar.api.batch.InstantiationStrategy;
+import java.util.Collections;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentMap;
+import java.util.function.Supplier;
+
+/**
+ * Issues by priority of the JIRA filters already read during the analysis.
+ * The modules of a multi-module project usually inherit the same filter, it
+ * is then queried by the first of them and the others reuse its result, or
+ * wait for it when they are analysed concurrently.
+ */
+@InstantiationStrategy(InstantiationStrategy.PER_BATCH)
+public class JiraFilterResults implements BatchExtension {
+
+    private final ConcurrentMap<String, CompletableFuture<Map<Long, Integer>>> results = Maps
+	    .newConcurrentMap();
+
+    /**
+     * Returns the result computed for the given server, user, filter and
+     * query, or computes it with the given loader if it is the first time it
+     * is asked for. The user is part of the key, the issues visible in JIRA
+     * depending on it. A failed computation is not kept, so that the next
+     * module tries again.
+     */
+    public CompletableFuture<Map<Long, Integer>> get(String serverUrl,
+	    String userName, long filterId, String jql, String strategy,
+	    Supplier<CompletableFuture<Map<Long, Integer>>> loader) {
+	String key = serverUrl + '|' + userName + '|' + filterId + '|'
+		+ strategy + '|' + jql;
+	CompletableFuture<Map<Long, Integer>> result = new CompletableFuture<Map<Long, Integer>>();
+	CompletableFuture<Map<Long, Integer>> existing = results.putIfAbsent(
+		key, result);
+	if (existing != null) {
+	    return existing;
+	}
+	CompletableFuture<Map<Long, Integer>> loaded;
+	try {
+	    loaded = loader.get();
+	} catch (RuntimeException e) {
+	    loaded = new CompletableFuture<Map<Long, Integer>>();
+	    loaded.completeExceptionally(e);
+	}
+	loaded.whenComplete((issuesByPriority, failure) -> {
+	    if (failure == null) {
+		result.complete(Collections.unmodifiableMap(issuesByPriority));
+	    } else {
+		results.remove(key, result);
+		result.completeExceptionally(failure);
+	    }
+	});
+	return result;
+    }
+
+    @VisibleForTesting
+    int size() {
+	return results.size();
+    }
+}
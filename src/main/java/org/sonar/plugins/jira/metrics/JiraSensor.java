@@ -24,14 +24,17 @@ import com.atlassian.jira.rest.client.api.JiraRestClient;
 import com.atlassian.jira.rest.client.api.SearchRestClient;
 import com.atlassian.jira.rest.client.api.domain.Filter;
 import com.atlassian.jira.rest.client.api.domain.Issue;
-import com.atlassian.jira.rest.client.api.domain.Priority;
 import com.atlassian.jira.rest.client.api.domain.SearchResult;
+import com.google.common.base.Charsets;
+import com.google.common.hash.Hashing;
+import com.google.common.collect.ImmutableSet;
 import com.google.common.collect.Maps;
 import org.apache.commons.lang.StringUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.sonar.api.Properties;
 import org.sonar.api.Property;
+import org.sonar.api.PropertyType;
 import org.sonar.api.batch.Sensor;
 import org.sonar.api.batch.SensorContext;
 import org.sonar.api.config.Settings;
@@ -39,21 +42,65 @@ import org.sonar.api.measures.Measure;
 import org.sonar.api.measures.PropertiesBuilder;
 import org.sonar.api.resources.Project;
 import org.sonar.plugins.jira.JiraConstants;
+import org.sonar.plugins.jira.JiraStorage;
+import org.sonar.plugins.jira.rest.JiraFutures;
+import org.sonar.plugins.jira.rest.JiraCircuitOpenException;
+import org.sonar.plugins.jira.rest.JiraMetadataCache;
 import org.sonar.plugins.jira.rest.JiraSession;
+import org.sonar.plugins.jira.rest.JiraSessionRegistry;
+import java.io.File;
+import java.io.IOException;
 import java.net.MalformedURLException;
 import java.net.URL;
 import java.rmi.RemoteException;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ExecutionException;
-
-@Properties({ @Property(key = JiraConstants.FILTER_PROPERTY, defaultValue = "", name = "Filter name", description = "Case sensitive, example : SONAR-current-iteration", global = false, project = true, module = true) })
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+import java.util.regex.Pattern;
+
+@Properties({
+	@Property(key = JiraConstants.FILTER_PROPERTY, defaultValue = "", name = "Filter name", description = "Case sensitive, example : SONAR-current-iteration", global = false, project = true, module = true),
+	@Property(key = JiraConstants.SEARCH_PAGE_SIZE_PROPERTY, defaultValue = JiraConstants.SEARCH_PAGE_SIZE_DEF_VALUE, name = "Search page size", description = "Number of issues requested per page when reading the filter results. JIRA may return less.", global = true, project = false, type = PropertyType.INTEGER),
+	@Property(key = JiraConstants.SEARCH_PARALLELISM_PROPERTY, defaultValue = JiraConstants.SEARCH_PARALLELISM_DEF_VALUE, name = "Search parallelism", description = "Maximum number of result pages fetched concurrently from JIRA.", global = true, project = false, type = PropertyType.INTEGER),
+	@Property(key = JiraConstants.ANALYSIS_TIMEOUT_PROPERTY, defaultValue = JiraConstants.ANALYSIS_TIMEOUT_DEF_VALUE, name = "Analysis timeout", description = "Number of seconds after which the analysis stops waiting for JIRA.", global = true, project = true, module = false, type = PropertyType.INTEGER),
+	@Property(key = JiraConstants.SEARCH_STRATEGY_PROPERTY, defaultValue = JiraConstants.SEARCH_STRATEGY_COUNT, name = "Search strategy", description = "'count' only asks JIRA for the number of issues of each priority, 'full' downloads every issue of the filter, 'incremental' only downloads the issues updated since the previous analysis.", global = true, project = true, module = true, type = PropertyType.SINGLE_SELECT_LIST, options = {
+		JiraConstants.SEARCH_STRATEGY_COUNT, JiraConstants.SEARCH_STRATEGY_FULL, JiraConstants.SEARCH_STRATEGY_INCREMENTAL }),
+	@Property(key = JiraConstants.SEARCH_RECONCILIATION_PROPERTY, defaultValue = JiraConstants.SEARCH_RECONCILIATION_DEF_VALUE, name = "Full reconciliation period", description = "With the 'incremental' strategy, number of hours after which the whole filter is downloaded again to forget the deleted issues and the ones which left the filter.", global = true, project = true, module = true, type = PropertyType.INTEGER),
+	@Property(key = JiraConstants.SEARCH_FIELDS_PROPERTY, defaultValue = "", name = "Additional search fields", description = "Comma separated list of issue fields to download with the 'full' strategy, on top of the ones used to compute the measures.", global = true, project = true, module = true) })
 public class JiraSensor implements Sensor {
     private static final Logger LOG = LoggerFactory.getLogger(JiraSensor.class);
+    /**
+     * Issue fields read by the aggregation. JRJC cannot parse an issue
+     * without its summary, type, dates, project and status, so these are
+     * always requested.
+     */
+    static final Set<String> AGGREGATED_FIELDS = ImmutableSet.of("summary",
+	    "issuetype", "created", "updated", "project", "status", "priority");
+    /**
+     * Margin taken on the updated-since cursor to absorb the clock difference
+     * between the batch and JIRA. Issues fetched twice are simply merged
+     * again.
+     */
+    private static final long UPDATE_MARGIN_MINUTES = 10;
+    private static final Pattern ORDER_BY = Pattern.compile(
+	    "\\s*\\bORDER\\s+BY\\b.*$", Pattern.CASE_INSENSITIVE | Pattern.DOTALL);
 
     private final Settings settings;
+    private final JiraSessionRegistry sessionRegistry;
+    private final JiraMetadataCache metadataCache;
+    private final JiraFilterResults filterResults;
 
-    public JiraSensor(Settings settings) {
+    public JiraSensor(Settings settings, JiraSessionRegistry sessionRegistry,
+	    JiraMetadataCache metadataCache, JiraFilterResults filterResults) {
 	this.settings = settings;
+	this.sessionRegistry = sessionRegistry;
+	this.metadataCache = metadataCache;
+	this.filterResults = filterResults;
     }
 
     private String getServerUrl() {
@@ -72,6 +119,55 @@ public class JiraSensor implements Sensor {
 	return settings.getString(JiraConstants.FILTER_PROPERTY);
     }
 
+    private int getPageSize() {
+	return getPositiveInt(JiraConstants.SEARCH_PAGE_SIZE_PROPERTY,
+		JiraConstants.SEARCH_PAGE_SIZE_DEF_VALUE);
+    }
+
+    private int getParallelism() {
+	return getPositiveInt(JiraConstants.SEARCH_PARALLELISM_PROPERTY,
+		JiraConstants.SEARCH_PARALLELISM_DEF_VALUE);
+    }
+
+    /**
+     * Fields asked to JIRA when issues are downloaded, instead of the default
+     * navigable ones which embed descriptions, comments and custom fields.
+     */
+    protected Set<String> getSearchFields() {
+	ImmutableSet.Builder<String> fields = ImmutableSet.builder();
+	fields.addAll(AGGREGATED_FIELDS);
+	for (String field : settings
+		.getStringArray(JiraConstants.SEARCH_FIELDS_PROPERTY)) {
+	    if (StringUtils.isNotBlank(field)) {
+		fields.add(field.trim());
+	    }
+	}
+	return fields.build();
+    }
+
+    private String getStrategy() {
+	String strategy = settings
+		.getString(JiraConstants.SEARCH_STRATEGY_PROPERTY);
+	return StringUtils.isBlank(strategy) ? JiraConstants.SEARCH_STRATEGY_COUNT
+		: strategy;
+    }
+
+    private int getTimeout() {
+	return getPositiveInt(JiraConstants.ANALYSIS_TIMEOUT_PROPERTY,
+		JiraConstants.ANALYSIS_TIMEOUT_DEF_VALUE);
+    }
+
+    private long getReconciliationPeriod() {
+	return TimeUnit.HOURS.toMillis(getPositiveInt(
+		JiraConstants.SEARCH_RECONCILIATION_PROPERTY,
+		JiraConstants.SEARCH_RECONCILIATION_DEF_VALUE));
+    }
+
+    private int getPositiveInt(String key, String defaultValue) {
+	int value = settings.getInt(key);
+	return value > 0 ? value : Integer.parseInt(defaultValue);
+    }
+
     public boolean shouldExecuteOnProject(Project project) {
 	if (missingMandatoryParameters()) {
 	    LOG.info("JIRA issues sensor will not run as some parameters are missing.");
@@ -84,13 +180,11 @@ public class JiraSensor implements Sensor {
 	JiraSession session = null;
 
 	try {
-	    session = new JiraSession(new URL(jiraUrl));
+	    session = sessionRegistry.acquire(new URL(jiraUrl), getUsername(),
+		    getPassword());
 	} catch (MalformedURLException e) {
 	    throw new IllegalStateException(
 		    "Exception during JiraSoapService contruction", e);
-	}
-	try {
-	    session.connect(getUsername(), getPassword());
 	} catch (RemoteException e) {
 	    throw new IllegalStateException(
 		    "Exception during JiraSoapService contruction", e);
@@ -100,94 +194,330 @@ public class JiraSensor implements Sensor {
 
 	try {
 	    runAnalysis(context, service);
-	} catch (RemoteException e) {
+	} catch (TimeoutException e) {
 
-	    throw new IllegalStateException("Exception during analysis", e);
+	    throw new IllegalStateException("JIRA did not answer within "
+		    + getTimeout() + " seconds", e);
 	} catch (InterruptedException e) {
 
 	    throw new IllegalStateException("Exception during analysis", e);
 	} catch (ExecutionException e) {
-
-	    throw new IllegalStateException("Exception during analysis", e);
+	    if (e.getCause() instanceof JiraCircuitOpenException) {
+		// JIRA is known to be down, do not fail the build for that
+		LOG.warn("JIRA issues are not counted: {}", e.getCause()
+			.getMessage());
+		return;
+	    }
+	    if (e.getCause() instanceof RuntimeException) {
+		throw (RuntimeException) e.getCause();
+	    }
+	    throw new IllegalStateException("Exception during analysis",
+		    e.getCause());
+	} finally {
+	    sessionRegistry.release(session);
 	}
-
-	session.disconnect();
     }
 
+    /**
+     * Resolves the priorities and the filter at the same time, counts the
+     * issues as soon as what they depend on is known, and only waits for the
+     * whole chain, bounded by {@link JiraConstants#ANALYSIS_TIMEOUT_PROPERTY}.
+     * The measures are saved from the calling thread.
+     */
     protected void runAnalysis(SensorContext context, JiraRestClient service)
-	    throws RemoteException, InterruptedException, ExecutionException {
-	Map<Long, String> priorities = collectPriorities(service);
-	Filter filter = findJiraFilter(service);
-	Map<Long, Integer> issuesByPriority = collectIssuesByPriority(service,
-		filter);
+	    throws InterruptedException, ExecutionException, TimeoutException {
+	long startedAt = System.nanoTime();
+	String strategy = getStrategy();
+	CompletableFuture<Map<Long, String>> priorities = timed("priorities",
+		() -> collectPriorities(service));
+	CompletableFuture<Filter> filter = timed("filter",
+		() -> findJiraFilter(service));
+	CompletableFuture<Map<Long, Integer>> issuesByPriority = filter
+		.thenCompose(f -> filterResults.get(getServerUrl(),
+			getUsername(), f.getId(), f.getJql(), strategy,
+			() -> timed("issues", () -> collectIssues(service, f,
+				strategy, priorities))));
+	CompletableFuture.allOf(priorities, filter, issuesByPriority).get(
+		getTimeout(), TimeUnit.SECONDS);
+	LOG.info("JIRA issues read in {} ms", elapsedMillis(startedAt));
 
 	double total = 0;
 	PropertiesBuilder<String, Integer> distribution = new PropertiesBuilder<String, Integer>();
-	for (Map.Entry<Long, Integer> entry : issuesByPriority.entrySet()) {
+	for (Map.Entry<Long, Integer> entry : issuesByPriority.get().entrySet()) {
 	    total += entry.getValue();
-	    distribution.add(priorities.get(entry.getKey()), entry.getValue());
+	    distribution.add(priorities.get().get(entry.getKey()),
+		    entry.getValue());
 	}
 
 	String url = getServerUrl()
 		+ "/secure/IssueNavigator.jspa?mode=hide&requestId="
-		+ filter.getId();
+		+ filter.get().getId();
 	saveMeasures(context, url, total, distribution.buildData());
     }
 
-    protected Map<Long, String> collectPriorities(JiraRestClient service)
-	    throws RemoteException, InterruptedException, ExecutionException {
-	Map<Long, String> priorities = Maps.newHashMap();
-
-	for (Priority priority : service.getMetadataClient().getPriorities()
-		.get()) {
-	    priorities.put(priority.getId(), priority.getName());
+    private CompletableFuture<Map<Long, Integer>> collectIssues(
+	    JiraRestClient service, Filter filter, String strategy,
+	    CompletableFuture<Map<Long, String>> priorities) {
+	if (JiraConstants.SEARCH_STRATEGY_FULL.equals(strategy)) {
+	    return collectIssuesByPriority(service, filter);
+	} else if (JiraConstants.SEARCH_STRATEGY_INCREMENTAL.equals(strategy)) {
+	    return collectIssuesIncrementally(service, filter);
 	}
+	return priorities.thenCompose(p -> countIssuesByPriority(service,
+		filter, p.keySet()));
+    }
 
-	return priorities;
+    private static <T> CompletableFuture<T> timed(String phase,
+	    Supplier<CompletableFuture<T>> supplier) {
+	long startedAt = System.nanoTime();
+	return supplier.get().whenComplete(
+		(result, failure) -> LOG.debug("JIRA {} phase took {} ms",
+			phase, elapsedMillis(startedAt)));
     }
 
-    protected Map<Long, Integer> collectIssuesByPriority(
-	    JiraRestClient service, Filter filter) throws RemoteException,
-	    InterruptedException, ExecutionException {
+    private static long elapsedMillis(long startedAt) {
+	return TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startedAt);
+    }
+
+    protected CompletableFuture<Map<Long, String>> collectPriorities(
+	    JiraRestClient service) {
+	return metadataCache.getPrioritiesAsync(getServerUrl(),
+		service.getMetadataClient());
+    }
+
+    /**
+     * Counts the issues of the filter by priority, downloading all of them.
+     */
+    protected CompletableFuture<Map<Long, Integer>> collectIssuesByPriority(
+	    JiraRestClient service, Filter filter) {
 	Map<Long, Integer> issuesByPriority = Maps.newHashMap();
-	SearchResult result;
+	return searchAll(service.getSearchClient(), filter.getJql(),
+		page -> countIssuesByPriority(page, issuesByPriority))
+		.thenApply(total -> {
+		    LOG.debug("Counted {} JIRA issues", total);
+		    return issuesByPriority;
+		});
+    }
 
-	result = service.getSearchClient().searchJql(filter.getJql()).get();
-	// RemoteIssue[] issues =
-	// service.getIssuesFromFilter(filter.getId());
-	for (Issue issue : result.getIssues()) {
-	    Long priority = issue.getPriority().getId();
-	    if (!issuesByPriority.containsKey(priority)) {
-		issuesByPriority.put(priority, 1);
-	    } else {
-		issuesByPriority.put(priority,
-			issuesByPriority.get(priority) + 1);
-	    }
+    /**
+     * Counts the issues of the filter by priority from the snapshot left by
+     * the previous analysis, only downloading the issues updated since. The
+     * whole filter is downloaded again when the snapshot is too old, or when
+     * its size differs from the number of issues in the filter, which means
+     * that some of them were deleted or left the filter.
+     */
+    protected CompletableFuture<Map<Long, Integer>> collectIssuesIncrementally(
+	    JiraRestClient service, Filter filter) {
+	SearchRestClient searchClient = service.getSearchClient();
+	File file = getSnapshotFile(filter);
+	long startedAt = System.currentTimeMillis();
+	IssueSnapshot snapshot = IssueSnapshot.load(file);
+
+	CompletableFuture<IssueSnapshot> merged;
+	if (snapshot != null
+		&& startedAt - snapshot.getLastReconciliation() < getReconciliationPeriod()) {
+	    merged = mergeUpdatedIssues(searchClient, filter, snapshot,
+		    startedAt);
+	} else {
+	    merged = CompletableFuture.completedFuture(null);
 	}
+	return merged.thenCompose(
+		s -> s != null ? CompletableFuture.completedFuture(s)
+			: downloadSnapshot(searchClient, filter, startedAt))
+		.thenApply(s -> {
+		    s.setLastUpdate(startedAt);
+		    try {
+			s.save(file);
+		    } catch (IOException e) {
+			LOG.warn("Unable to save the JIRA issue snapshot "
+				+ file, e);
+		    }
+		    return s.countByPriority();
+		});
+    }
+
+    /**
+     * Merges the issues updated since the previous analysis into the
+     * snapshot, which is dropped when it no longer has the size of the
+     * filter.
+     */
+    private CompletableFuture<IssueSnapshot> mergeUpdatedIssues(
+	    SearchRestClient searchClient, Filter filter,
+	    IssueSnapshot snapshot, long startedAt) {
+	long minutes = TimeUnit.MILLISECONDS.toMinutes(startedAt
+		- snapshot.getLastUpdate())
+		+ UPDATE_MARGIN_MINUTES;
+	CompletableFuture<SearchResult> filterCount = JiraFutures
+		.toCompletableFuture(searchClient.searchJql(filter.getJql(), 0,
+			0, null));
+	return searchAll(searchClient,
+		restrictToUpdatedSince(filter.getJql(), minutes),
+		page -> putIssues(page, snapshot)).thenCombine(
+		filterCount, (updated, count) -> {
+		    if (count.getTotal() != snapshot.size()) {
+			LOG.info("JIRA filter holds {} issues but {} are known, downloading all of them",
+				count.getTotal(), snapshot.size());
+			return null;
+		    }
+		    LOG.debug("Merged {} JIRA issues updated in the last {} minutes",
+			    updated, minutes);
+		    return snapshot;
+		});
+    }
+
+    private CompletableFuture<IssueSnapshot> downloadSnapshot(
+	    SearchRestClient searchClient, Filter filter, long startedAt) {
+	IssueSnapshot snapshot = new IssueSnapshot(startedAt);
+	return searchAll(searchClient, filter.getJql(),
+		page -> putIssues(page, snapshot)).thenApply(total -> snapshot);
+    }
 
-	return issuesByPriority;
+    private File getSnapshotFile(Filter filter) {
+	String key = getServerUrl() + '|' + filter.getId() + '|'
+		+ filter.getJql();
+	return new File(JiraStorage.getDirectory(settings, "snapshots"),
+		Hashing.sha1().hashString(key, Charsets.UTF_8) + ".bin");
     }
 
-    protected Filter findJiraFilter(JiraRestClient service)
-	    throws RemoteException, InterruptedException, ExecutionException {
-	Filter filter = null;
-	Iterable<Filter> filters = null;
+    /**
+     * Runs the query and hands every page of its result to the consumer. The
+     * first page gives the total number of issues, the remaining pages are
+     * then split between {@link JiraConstants#SEARCH_PARALLELISM_PROPERTY}
+     * lanes, each of them asking for its next page once the previous one has
+     * arrived. Pages are handed over one at a time and dropped right away.
+     *
+     * @return the total number of issues
+     */
+    private CompletableFuture<Integer> searchAll(
+	    SearchRestClient searchClient, String jql,
+	    Consumer<SearchResult> consumer) {
+	Set<String> fields = getSearchFields();
+	int parallelism = getParallelism();
+	Object lock = new Object();
+	Consumer<SearchResult> serialConsumer = page -> {
+	    synchronized (lock) {
+		consumer.accept(page);
+	    }
+	};
+
+	return JiraFutures.toCompletableFuture(
+		searchClient.searchJql(jql, getPageSize(), 0, fields))
+		.thenCompose(firstPage -> {
+		    serialConsumer.accept(firstPage);
+		    // JIRA may serve smaller pages than requested
+		    int pageSize = Math.max(1, firstPage.getMaxResults());
+		    int total = firstPage.getTotal();
+		    CompletableFuture<?>[] lanes = new CompletableFuture<?>[parallelism];
+		    for (int i = 0; i < parallelism; i++) {
+			lanes[i] = searchLane(searchClient, jql, fields,
+				pageSize * (i + 1), pageSize, pageSize
+					* parallelism, total, serialConsumer);
+		    }
+		    return CompletableFuture.allOf(lanes).thenApply(
+			    v -> total);
+		});
+    }
+
+    private static CompletableFuture<Void> searchLane(
+	    SearchRestClient searchClient, String jql, Set<String> fields,
+	    int startAt, int pageSize, int stride, int total,
+	    Consumer<SearchResult> consumer) {
+	if (startAt >= total) {
+	    return CompletableFuture.completedFuture(null);
+	}
+	return JiraFutures.toCompletableFuture(
+		searchClient.searchJql(jql, pageSize, startAt, fields))
+		.thenCompose(page -> {
+		    consumer.accept(page);
+		    return searchLane(searchClient, jql, fields, startAt
+			    + stride, pageSize, stride, total, consumer);
+		});
+    }
+
+    /**
+     * Counts the issues of the filter by priority without downloading them:
+     * one search restricted to each priority is sent at once, asking for no
+     * issue at all, and only the totals are read.
+     */
+    protected CompletableFuture<Map<Long, Integer>> countIssuesByPriority(
+	    JiraRestClient service, Filter filter, Set<Long> priorityIds) {
 	SearchRestClient searchClient = service.getSearchClient();
+	Map<Long, CompletableFuture<SearchResult>> counts = Maps
+		.newLinkedHashMap();
+	for (Long priorityId : priorityIds) {
+	    counts.put(priorityId, JiraFutures.toCompletableFuture(
+		    searchClient.searchJql(
+			    restrictToPriority(filter.getJql(), priorityId), 0,
+			    0, null)));
+	}
+
+	return CompletableFuture.allOf(
+		counts.values().toArray(new CompletableFuture<?>[counts.size()]))
+		.thenApply(v -> {
+		    Map<Long, Integer> issuesByPriority = Maps.newHashMap();
+		    for (Map.Entry<Long, CompletableFuture<SearchResult>> count : counts
+			    .entrySet()) {
+			int total = count.getValue().join().getTotal();
+			if (total > 0) {
+			    issuesByPriority.put(count.getKey(), total);
+			}
+		    }
+		    return issuesByPriority;
+		});
+    }
 
-	filters = searchClient.getFavouriteFilters().get();
+    static String restrictToPriority(String jql, long priorityId) {
+	return restrict(jql, "priority = " + priorityId);
+    }
+
+    static String restrictToUpdatedSince(String jql, long minutes) {
+	// relative to the clock of JIRA, whatever its time zone
+	return restrict(jql, "updated >= -" + minutes + "m");
+    }
+
+    private static String restrict(String jql, String clause) {
+	// the ordering clause has to stay at the end of the query, and is
+	// useless when counting
+	String query = ORDER_BY.matcher(StringUtils.defaultString(jql))
+		.replaceFirst("").trim();
+	if (query.isEmpty()) {
+	    return clause;
+	}
+	return "(" + query + ") AND " + clause;
+    }
+
+    private static void putIssues(SearchResult page, IssueSnapshot snapshot) {
+	for (Issue issue : page.getIssues()) {
+	    snapshot.put(issue);
+	}
+    }
 
-	for (Filter f : filters) {
-	    if (getFilterName().equals(f.getName())) {
-		filter = f;
+    static void countIssuesByPriority(SearchResult page,
+	    Map<Long, Integer> issuesByPriority) {
+	for (Issue issue : page.getIssues()) {
+	    if (issue.getPriority() == null) {
 		continue;
 	    }
+	    Long priority = issue.getPriority().getId();
+	    if (!issuesByPriority.containsKey(priority)) {
+		issuesByPriority.put(priority, 1);
+	    } else {
+		issuesByPriority.put(priority,
+			issuesByPriority.get(priority) + 1);
+	    }
 	}
+    }
 
-	if (filter == null) {
-	    throw new IllegalStateException("Unable to find filter '"
-		    + getFilterName() + "' in JIRA");
-	}
-	return filter;
+    protected CompletableFuture<Filter> findJiraFilter(JiraRestClient service) {
+	return metadataCache.getFavouriteFilterAsync(getServerUrl(),
+		getUsername(), service.getSearchClient(), getFilterName())
+		.thenApply(filter -> {
+		    if (filter == null) {
+			throw new IllegalStateException("Unable to find filter '"
+				+ getFilterName() + "' in JIRA");
+		    }
+		    return filter;
+		});
     }
 
     protected boolean missingMandatoryParameters() {
@@ -0,0 +1,141 @@
+/*
+ * Sonar, open source software quality management tool.
+ * Copyright (C) 2009 SonarSource
+ * mailto:contact AT sonarsource DOT com
+ *
+ * Sonar is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * Sonar is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with Sonar; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02
+ */
+
+package org.sonar.plugins.jira.rest;
+
+import com.atlassian.jira.rest.client.api.JiraRestClient;
+import com.atlassian.util.concurrent.Promise;
+import com.atlassian.util.concurrent.Promises;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.function.Supplier;
+
+/**
+ * Decorates a {@link JiraRestClient} so that every call returning a
+ * {@link Promise}, whatever the sub-client it is made on, goes through a chain
+ * of {@link JiraCallInterceptor}. The first interceptor of the list is the
+ * outermost one.
+ */
+final class InterceptedJiraRestClient {
+
+    private InterceptedJiraRestClient() {
+    }
+
+    static JiraRestClient wrap(JiraRestClient client,
+	    List<JiraCallInterceptor> interceptors) {
+	if (interceptors.isEmpty()) {
+	    return client;
+	}
+	return proxy(JiraRestClient.class, client, interceptors);
+    }
+
+    private static <T> T proxy(Class<T> type, Object target,
+	    List<JiraCallInterceptor> interceptors) {
+	return type.cast(Proxy.newProxyInstance(type.getClassLoader(),
+		new Class<?>[] { type }, new Handler(target, interceptors)));
+    }
+
+    private static final class Handler implements InvocationHandler {
+	private final Object target;
+	private final List<JiraCallInterceptor> interceptors;
+	private final ConcurrentMap<Method, Object> clients = new ConcurrentHashMap<Method, Object>();
+
+	private Handler(Object target, List<JiraCallInterceptor> interceptors) {
+	    this.target = target;
+	    this.interceptors = interceptors;
+	}
+
+	@Override
+	public Object invoke(Object proxy, Method method, Object[] args)
+		throws Throwable {
+	    Class<?> returnType = method.getReturnType();
+	    if (method.getDeclaringClass() == Object.class) {
+		return invokeObjectMethod(proxy, method, args);
+	    }
+	    if (Promise.class.isAssignableFrom(returnType)) {
+		return intercept(JiraEndpoint.of(method), method, args);
+	    }
+	    if (isSubClient(method)) {
+		Object client = clients.get(method);
+		if (client == null) {
+		    client = proxy(returnType, invokeTarget(method, args),
+			    interceptors);
+		    clients.putIfAbsent(method, client);
+		}
+		return client;
+	    }
+	    return invokeTarget(method, args);
+	}
+
+	private Promise<Object> intercept(JiraEndpoint endpoint,
+		Method method, Object[] args) {
+	    Supplier<ListenableFuture<Object>> call = () -> send(method, args);
+	    for (int i = interceptors.size() - 1; i >= 0; i--) {
+		JiraCallInterceptor interceptor = interceptors.get(i);
+		Supplier<ListenableFuture<Object>> next = call;
+		call = () -> interceptor.intercept(endpoint, next);
+	    }
+	    return Promises.forListenableFuture(call.get());
+	}
+
+	@SuppressWarnings("unchecked")
+	private ListenableFuture<Object> send(Method method, Object[] args) {
+	    try {
+		return (ListenableFuture<Object>) invokeTarget(method, args);
+	    } catch (Throwable e) {
+		return Futures.immediateFailedFuture(e);
+	    }
+	}
+
+	private Object invokeTarget(Method method, Object[] args)
+		throws Throwable {
+	    try {
+		return method.invoke(target, args);
+	    } catch (InvocationTargetException e) {
+		throw e.getCause();
+	    }
+	}
+
+	private Object invokeObjectMethod(Object proxy, Method method,
+		Object[] args) throws Throwable {
+	    if ("equals".equals(method.getName())) {
+		return proxy == args[0];
+	    }
+	    if ("hashCode".equals(method.getName())) {
+		return System.identityHashCode(proxy);
+	    }
+	    return invokeTarget(method, args);
+	}
+
+	private static boolean isSubClient(Method method) {
+	    Class<?> returnType = method.getReturnType();
+	    return method.getParameterTypes().length == 0
+		    && returnType.isInterface()
+		    && returnType.getName().endsWith("RestClient");
+	}
+    }
+}
@@ -0,0 +1,35 @@
+/*
+ * Sonar, open source software quality management tool.
+ * Copyright (C) 2009 SonarSource
+ * mailto:contact AT sonarsource DOT com
+ *
+ * Sonar is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * Sonar is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with Sonar; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02
+ */
+
+package org.sonar.plugins.jira.rest;
+
+import com.google.common.util.concurrent.ListenableFuture;
+import java.util.function.Supplier;
+
+/**
+ * Wraps the asynchronous calls made through the REST client of a
+ * {@link JiraSession}. An interceptor decides when and how often the given
+ * call is sent, and completes the returned future with its outcome.
+ */
+public interface JiraCallInterceptor {
+
+    <T> ListenableFuture<T> intercept(JiraEndpoint endpoint,
+	    Supplier<ListenableFuture<T>> call);
+}
@@ -0,0 +1,134 @@
+/*
+ * Sonar, open source software quality management tool.
+ * Copyright (C) 2009 SonarSource
+ * mailto:contact AT sonarsource DOT com
+ *
+ * Sonar is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * Sonar is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with Sonar; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02
+ */
+
+package org.sonar.plugins.jira.rest;
+
+import com.google.common.collect.Maps;
+import com.google.common.util.concurrent.FutureCallback;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import java.lang.management.ManagementFactory;
+import java.util.Locale;
+import java.util.Map;
+import java.util.function.Supplier;
+import javax.management.InstanceAlreadyExistsException;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+/**
+ * Measures every call sent to a JIRA server and publishes the figures of each
+ * {@link JiraEndpoint} as an MBean named
+ * {@code org.sonar.plugins.jira:type=Endpoint,server="<url>",name=<endpoint>}.
+ */
+public class JiraCallMetrics implements JiraCallInterceptor {
+
+    private static final Logger LOG = LoggerFactory
+	    .getLogger(JiraCallMetrics.class);
+
+    static final String DOMAIN = "org.sonar.plugins.jira";
+
+    private final String serverUrl;
+    private final Map<JiraEndpoint, JiraEndpointMetrics> metrics = Maps
+	    .newEnumMap(JiraEndpoint.class);
+
+    public JiraCallMetrics(String serverUrl) {
+	this.serverUrl = serverUrl;
+	for (JiraEndpoint endpoint : JiraEndpoint.values()) {
+	    metrics.put(endpoint, new JiraEndpointMetrics());
+	}
+    }
+
+    @Override
+    public <T> ListenableFuture<T> intercept(JiraEndpoint endpoint,
+	    Supplier<ListenableFuture<T>> call) {
+	JiraEndpointMetrics endpointMetrics = metrics.get(endpoint);
+	long startedAt = System.nanoTime();
+	endpointMetrics.onStart();
+	ListenableFuture<T> future;
+	try {
+	    future = call.get();
+	} catch (RuntimeException e) {
+	    endpointMetrics.onEnd(System.nanoTime() - startedAt, true);
+	    throw e;
+	}
+	Futures.addCallback(future, new FutureCallback<T>() {
+	    @Override
+	    public void onSuccess(T value) {
+		endpointMetrics.onEnd(System.nanoTime() - startedAt, false);
+	    }
+
+	    @Override
+	    public void onFailure(Throwable t) {
+		endpointMetrics.onEnd(System.nanoTime() - startedAt, true);
+	    }
+	}, Runnable::run);
+	return future;
+    }
+
+    public JiraEndpointMetrics getMetrics(JiraEndpoint endpoint) {
+	return metrics.get(endpoint);
+    }
+
+    /**
+     * Publishes the metrics to the platform MBean server, replacing those
+     * previously published for the same JIRA server.
+     */
+    public void register() {
+	MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+	for (Map.Entry<JiraEndpoint, JiraEndpointMetrics> entry : metrics
+		.entrySet()) {
+	    try {
+		ObjectName name = objectName(entry.getKey());
+		try {
+		    server.registerMBean(entry.getValue(), name);
+		} catch (InstanceAlreadyExistsException e) {
+		    server.unregisterMBean(name);
+		    server.registerMBean(entry.getValue(), name);
+		}
+	    } catch (JMException e) {
+		LOG.warn("Unable to publish the JIRA metrics over JMX", e);
+		return;
+	    }
+	}
+    }
+
+    public void unregister() {
+	MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+	for (JiraEndpoint endpoint : metrics.keySet()) {
+	    try {
+		ObjectName name = objectName(endpoint);
+		if (server.isRegistered(name)) {
+		    server.unregisterMBean(name);
+		}
+	    } catch (JMException e) {
+		LOG.debug("Unable to unregister the JIRA metrics", e);
+	    }
+	}
+    }
+
+    ObjectName objectName(JiraEndpoint endpoint) throws JMException {
+	return new ObjectName(DOMAIN + ":type=Endpoint,server="
+		+ ObjectName.quote(serverUrl) + ",name="
+		+ endpoint.name().toLowerCase(Locale.ENGLISH));
+    }
+}
@@ -0,0 +1,248 @@
+/*
+ * Sonar, open source software quality management tool.
+ * Copyright (C) 2009 SonarSource
+ * mailto:contact AT sonarsource DOT com
+ *
+ * Sonar is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * Sonar is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with Sonar; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02
+ */
+
+package org.sonar.plugins.jira.rest;
+
+import com.atlassian.jira.rest.client.api.RestClientException;
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.Optional;
+import com.google.common.util.concurrent.FutureCallback;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.SettableFuture;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.sonar.api.config.Settings;
+import org.sonar.plugins.jira.JiraConstants;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.function.Supplier;
+
+/**
+ * Stops calling a JIRA server which keeps failing or answering slowly.
+ * <p>
+ * The outcome of the last calls is kept in a sliding window. Once the share of
+ * failed calls or of slow calls in it goes over its threshold, the circuit
+ * opens and every call fails immediately with a
+ * {@link JiraCircuitOpenException}. After a while a few trial calls are let
+ * through (half-open): the circuit closes again if they all succeed, and opens
+ * for another period otherwise. Every call is also bounded by an overall
+ * deadline, counted as a failure when it expires.
+ */
+public class JiraCircuitBreaker implements JiraCallInterceptor {
+
+    private static final Logger LOG = LoggerFactory
+	    .getLogger(JiraCircuitBreaker.class);
+
+    static final int WINDOW_SIZE = 20;
+    static final int MIN_CALLS = 10;
+    static final int HALF_OPEN_CALLS = 3;
+
+    enum State {
+	CLOSED, OPEN, HALF_OPEN
+    }
+
+    private final String serverUrl;
+    private final ScheduledExecutorService scheduler;
+    private final int failureRateThreshold;
+    private final int slowCallRateThreshold;
+    private final long slowCallDuration;
+    private final long openDuration;
+    private final long callTimeout;
+
+    private final boolean[] failedCalls = new boolean[WINDOW_SIZE];
+    private final boolean[] slowCalls = new boolean[WINDOW_SIZE];
+    private int recordedCalls;
+    private int nextCall;
+    private int failureCount;
+    private int slowCount;
+    private State state = State.CLOSED;
+    private long openedAt;
+    private int trialPermits;
+    private int trialSuccesses;
+
+    public JiraCircuitBreaker(String serverUrl, Settings settings,
+	    ScheduledExecutorService scheduler) {
+	this.serverUrl = serverUrl;
+	this.scheduler = scheduler;
+	this.failureRateThreshold = getPositiveInt(settings,
+		JiraConstants.CIRCUIT_FAILURE_RATE_PROPERTY,
+		JiraConstants.CIRCUIT_FAILURE_RATE_DEF_VALUE);
+	this.slowCallRateThreshold = getPositiveInt(settings,
+		JiraConstants.CIRCUIT_SLOW_CALL_RATE_PROPERTY,
+		JiraConstants.CIRCUIT_SLOW_CALL_RATE_DEF_VALUE);
+	this.slowCallDuration = TimeUnit.SECONDS.toNanos(getPositiveInt(
+		settings, JiraConstants.CIRCUIT_SLOW_CALL_DURATION_PROPERTY,
+		JiraConstants.CIRCUIT_SLOW_CALL_DURATION_DEF_VALUE));
+	this.openDuration = TimeUnit.SECONDS.toNanos(getPositiveInt(settings,
+		JiraConstants.CIRCUIT_OPEN_DURATION_PROPERTY,
+		JiraConstants.CIRCUIT_OPEN_DURATION_DEF_VALUE));
+	this.callTimeout = TimeUnit.SECONDS.toNanos(getPositiveInt(settings,
+		JiraConstants.HTTP_CALL_TIMEOUT_PROPERTY,
+		JiraConstants.HTTP_CALL_TIMEOUT_DEF_VALUE));
+    }
+
+    @Override
+    public <T> ListenableFuture<T> intercept(JiraEndpoint endpoint,
+	    Supplier<ListenableFuture<T>> call) {
+	long startedAt = System.nanoTime();
+	if (!tryAcquirePermission(startedAt)) {
+	    return Futures.immediateFailedFuture(new JiraCircuitOpenException(
+		    "JIRA server " + serverUrl
+			    + " is unavailable, calls are suspended for "
+			    + TimeUnit.NANOSECONDS.toSeconds(openDuration)
+			    + " seconds after repeated failures"));
+	}
+	ListenableFuture<T> future;
+	try {
+	    future = call.get();
+	} catch (RuntimeException e) {
+	    future = Futures.immediateFailedFuture(e);
+	}
+	SettableFuture<T> result = SettableFuture.create();
+	ListenableFuture<T> sent = future;
+	ScheduledFuture<?> deadline = scheduler.schedule(() -> {
+	    if (result.setException(new TimeoutException("JIRA server "
+		    + serverUrl + " did not answer a " + endpoint
+		    + " call within "
+		    + TimeUnit.NANOSECONDS.toSeconds(callTimeout) + " seconds"))) {
+		onResult(System.nanoTime(), callTimeout, true);
+		sent.cancel(true);
+	    }
+	}, callTimeout, TimeUnit.NANOSECONDS);
+	Futures.addCallback(future, new FutureCallback<T>() {
+	    @Override
+	    public void onSuccess(T value) {
+		deadline.cancel(false);
+		if (result.set(value)) {
+		    long now = System.nanoTime();
+		    onResult(now, now - startedAt, false);
+		}
+	    }
+
+	    @Override
+	    public void onFailure(Throwable t) {
+		deadline.cancel(false);
+		if (result.setException(t)) {
+		    long now = System.nanoTime();
+		    onResult(now, now - startedAt, isFailure(t));
+		}
+	    }
+	}, Runnable::run);
+	return result;
+    }
+
+    public synchronized State getState() {
+	return state;
+    }
+
+    @VisibleForTesting
+    synchronized boolean tryAcquirePermission(long now) {
+	if (state == State.OPEN) {
+	    if (now - openedAt < openDuration) {
+		return false;
+	    }
+	    LOG.info("Trying JIRA server {} again", serverUrl);
+	    state = State.HALF_OPEN;
+	    trialPermits = HALF_OPEN_CALLS;
+	    trialSuccesses = 0;
+	}
+	if (state == State.HALF_OPEN) {
+	    if (trialPermits == 0) {
+		return false;
+	    }
+	    trialPermits--;
+	}
+	return true;
+    }
+
+    @VisibleForTesting
+    synchronized void onResult(long now, long duration, boolean failed) {
+	boolean slow = duration >= slowCallDuration;
+	if (state == State.HALF_OPEN) {
+	    if (failed || slow) {
+		open(now);
+	    } else if (++trialSuccesses == HALF_OPEN_CALLS) {
+		LOG.info("JIRA server {} is available again", serverUrl);
+		state = State.CLOSED;
+		resetWindow();
+	    }
+	} else if (state == State.CLOSED) {
+	    record(failed, slow);
+	    if (recordedCalls >= MIN_CALLS
+		    && (failureCount * 100 >= failureRateThreshold
+			    * recordedCalls || slowCount * 100 >= slowCallRateThreshold
+			    * recordedCalls)) {
+		open(now);
+	    }
+	}
+	// results of calls started before the circuit opened are ignored
+    }
+
+    private void record(boolean failed, boolean slow) {
+	if (recordedCalls == WINDOW_SIZE) {
+	    failureCount -= failedCalls[nextCall] ? 1 : 0;
+	    slowCount -= slowCalls[nextCall] ? 1 : 0;
+	} else {
+	    recordedCalls++;
+	}
+	failedCalls[nextCall] = failed;
+	slowCalls[nextCall] = slow;
+	failureCount += failed ? 1 : 0;
+	slowCount += slow ? 1 : 0;
+	nextCall = (nextCall + 1) % WINDOW_SIZE;
+    }
+
+    private void open(long now) {
+	LOG.warn("Suspending the calls to JIRA server {} for {} seconds",
+		serverUrl, TimeUnit.NANOSECONDS.toSeconds(openDuration));
+	state = State.OPEN;
+	openedAt = now;
+	resetWindow();
+    }
+
+    private void resetWindow() {
+	recordedCalls = 0;
+	nextCall = 0;
+	failureCount = 0;
+	slowCount = 0;
+    }
+
+    /**
+     * Client errors prove that the server is up: only the other failures count.
+     */
+    static boolean isFailure(Throwable t) {
+	if (t instanceof RestClientException) {
+	    Optional<Integer> status = ((RestClientException) t)
+		    .getStatusCode();
+	    return status == null || !status.isPresent() || status.get() < 400
+		    || status.get() >= 500;
+	}
+	return true;
+    }
+
+    private static int getPositiveInt(Settings settings, String key,
+	    String defaultValue) {
+	int value = settings.getInt(key);
+	return value > 0 ? value : Integer.parseInt(defaultValue);
+    }
+}
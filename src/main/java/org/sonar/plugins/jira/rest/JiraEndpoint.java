@@ -0,0 +1,68 @@
+/*
+ * Sonar, open source software quality management tool.
+ * Copyright (C) 2009 SonarSource
+ * mailto:contact AT sonarsource DOT com
+ *
+ * Sonar is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * Sonar is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with Sonar; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02
+ */
+
+package org.sonar.plugins.jira.rest;
+
+import com.atlassian.jira.rest.client.api.IssueRestClient;
+import com.atlassian.jira.rest.client.api.MetadataRestClient;
+import com.atlassian.jira.rest.client.api.ProjectRestClient;
+import com.atlassian.jira.rest.client.api.SearchRestClient;
+import java.lang.reflect.Method;
+
+/**
+ * The JIRA REST resources called by the plugin, used to classify the calls
+ * going through a {@link JiraSession}.
+ */
+public enum JiraEndpoint {
+
+    SEARCH(true), FILTERS(true), PRIORITIES(true), PROJECT(true), CREATE_ISSUE(
+	    false), OTHER(false);
+
+    private final boolean idempotent;
+
+    private JiraEndpoint(boolean idempotent) {
+	this.idempotent = idempotent;
+    }
+
+    /**
+     * Whether a call can be sent again without side effects on JIRA.
+     */
+    public boolean isIdempotent() {
+	return idempotent;
+    }
+
+    public static JiraEndpoint of(Method method) {
+	Class<?> client = method.getDeclaringClass();
+	String name = method.getName();
+	if (client == SearchRestClient.class) {
+	    return "searchJql".equals(name) ? SEARCH : FILTERS;
+	}
+	if (client == MetadataRestClient.class && "getPriorities".equals(name)) {
+	    return PRIORITIES;
+	}
+	if (client == ProjectRestClient.class && "getProject".equals(name)) {
+	    return PROJECT;
+	}
+	if (client == IssueRestClient.class && name.startsWith("createIssue")) {
+	    return CREATE_ISSUE;
+	}
+	return OTHER;
+    }
+}
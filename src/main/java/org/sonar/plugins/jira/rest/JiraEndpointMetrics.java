@@ -0,0 +1,92 @@
+/*
+ * Sonar, open source software quality management tool.
+ * Copyright (C) 2009 SonarSource
+ * mailto:contact AT sonarsource DOT com
+ *
+ * Sonar is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * Sonar is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with Sonar; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02
+ */
+
+package org.sonar.plugins.jira.rest;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Counters and latency histogram of the calls made to one endpoint of a JIRA
+ * server.
+ */
+public class JiraEndpointMetrics implements JiraEndpointMetricsMXBean {
+
+    private static final double MICROS_PER_MILLI = 1000.0;
+
+    private final AtomicLong requests = new AtomicLong();
+    private final AtomicLong errors = new AtomicLong();
+    private final AtomicInteger inFlight = new AtomicInteger();
+    private final LatencyHistogram latencies = new LatencyHistogram();
+
+    void onStart() {
+	requests.incrementAndGet();
+	inFlight.incrementAndGet();
+    }
+
+    void onEnd(long durationNanos, boolean failed) {
+	inFlight.decrementAndGet();
+	if (failed) {
+	    errors.incrementAndGet();
+	}
+	latencies.record(durationNanos, TimeUnit.NANOSECONDS);
+    }
+
+    @Override
+    public long getRequestCount() {
+	return requests.get();
+    }
+
+    @Override
+    public long getErrorCount() {
+	return errors.get();
+    }
+
+    @Override
+    public int getInFlight() {
+	return inFlight.get();
+    }
+
+    @Override
+    public double getLatencyMean() {
+	return latencies.getMeanMicros() / MICROS_PER_MILLI;
+    }
+
+    @Override
+    public double getLatency50thPercentile() {
+	return latencies.getPercentileMicros(50.0) / MICROS_PER_MILLI;
+    }
+
+    @Override
+    public double getLatency95thPercentile() {
+	return latencies.getPercentileMicros(95.0) / MICROS_PER_MILLI;
+    }
+
+    @Override
+    public double getLatency99thPercentile() {
+	return latencies.getPercentileMicros(99.0) / MICROS_PER_MILLI;
+    }
+
+    @Override
+    public double getLatencyMax() {
+	return latencies.getMaxMicros() / MICROS_PER_MILLI;
+    }
+}
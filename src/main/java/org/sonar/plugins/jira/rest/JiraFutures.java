@@ -0,0 +1,60 @@
+/*
+ * Sonar, open source software quality management tool.
+ * Copyright (C) 2009 SonarSource
+ * mailto:contact AT sonarsource DOT com
+ *
+ * Sonar is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * Sonar is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with Sonar; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02
+ */
+
+package org.sonar.plugins.jira.rest;
+
+import com.google.common.util.concurrent.ListenableFuture;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+
+/**
+ * Bridges the promises returned by the JIRA REST client to
+ * {@link CompletableFuture}, so that they can be composed without blocking.
+ */
+public final class JiraFutures {
+
+    private JiraFutures() {
+    }
+
+    /**
+     * Returns a future completed with the outcome of the given one, from the
+     * thread which completes it. A failure is reported with its own cause
+     * rather than wrapped in an {@link ExecutionException}.
+     */
+    public static <T> CompletableFuture<T> toCompletableFuture(
+	    final ListenableFuture<T> future) {
+	final CompletableFuture<T> result = new CompletableFuture<T>();
+	future.addListener(() -> {
+	    try {
+		result.complete(future.get());
+	    } catch (ExecutionException e) {
+		result.completeExceptionally(e.getCause());
+	    } catch (CancellationException e) {
+		result.cancel(false);
+	    } catch (InterruptedException e) {
+		// the future is done, get() does not wait
+		Thread.currentThread().interrupt();
+		result.completeExceptionally(e);
+	    }
+	}, Runnable::run);
+	return result;
+    }
+}
@@ -0,0 +1,412 @@
+/*
+ * Sonar, open source software quality management tool.
+ * Copyright (C) 2009 SonarSource
+ * mailto:contact AT sonarsource DOT com
+ *
+ * Sonar is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * Sonar is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with Sonar; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02
+ */
+
+package org.sonar.plugins.jira.rest;
+
+import com.atlassian.jira.rest.client.api.MetadataRestClient;
+import com.atlassian.jira.rest.client.api.ProjectRestClient;
+import com.atlassian.jira.rest.client.api.SearchRestClient;
+import com.atlassian.jira.rest.client.api.domain.BasicComponent;
+import com.atlassian.jira.rest.client.api.domain.Filter;
+import com.atlassian.jira.rest.client.api.domain.Priority;
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.collect.Maps;
+import org.apache.commons.io.IOUtils;
+import org.apache.commons.lang.StringUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.sonar.api.BatchExtension;
+import org.sonar.api.Properties;
+import org.sonar.api.Property;
+import org.sonar.api.PropertyType;
+import org.sonar.api.ServerExtension;
+import org.sonar.api.batch.InstantiationStrategy;
+import org.sonar.api.config.Settings;
+import org.sonar.plugins.jira.JiraConstants;
+import org.sonar.plugins.jira.JiraStorage;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+
+/**
+ * Keeps the JIRA metadata which hardly ever changes (priorities, project
+ * components) for a configurable time, so that it is not downloaded again by
+ * every analysis or every created issue. The cache is
+ * written to disk when the container stops and read back when it starts, so
+ * that it also survives from one batch to the other.
+ * <p>
+ * An entry used during the last fifth of its life is downloaded again in the
+ * background, the cached one being returned meanwhile, so that frequently used
+ * entries never expire in front of a caller.
+ * <p>
+ * The favourite filters are not kept: their JQL is edited in JIRA, and the
+ * next analysis must measure the edited filter. Only the concurrent downloads
+ * are shared.
+ */
+@Properties({
+	@Property(key = JiraConstants.METADATA_TTL_PROPERTY, defaultValue = JiraConstants.METADATA_TTL_DEF_VALUE, name = "Metadata cache duration", description = "Number of seconds during which the priorities and project components read from JIRA are reused.", global = true, project = false, type = PropertyType.INTEGER),
+	@Property(key = JiraConstants.METADATA_PERSISTENT_PROPERTY, defaultValue = JiraConstants.METADATA_PERSISTENT_DEF_VALUE, name = "Persistent metadata cache", description = "Keep the JIRA metadata cache on disk from one analysis to the other.", global = true, project = false, type = PropertyType.BOOLEAN) })
+@InstantiationStrategy(InstantiationStrategy.PER_BATCH)
+public class JiraMetadataCache implements BatchExtension, ServerExtension {
+
+    private static final Logger LOG = LoggerFactory
+	    .getLogger(JiraMetadataCache.class);
+
+    private static final int MAGIC = 0x4A49524D;
+    private static final int VERSION = 1;
+    private static final double REFRESH_AHEAD_RATIO = 0.8;
+    /** Minimum age of the components to download them again on a miss. */
+    private static final long COMPONENTS_RELOAD_MILLIS = TimeUnit.MINUTES
+	    .toMillis(1);
+
+    private final Map<String, Entry> entries = Maps.newHashMap();
+    /**
+     * Downloads in progress, by key. The values of a key are always of the
+     * same type.
+     */
+    private final ConcurrentMap<String, CompletableFuture<?>> loads = new ConcurrentHashMap<String, CompletableFuture<?>>();
+    private final long ttlMillis;
+    private final File file;
+
+    public JiraMetadataCache(Settings settings) {
+	int ttl = settings.getInt(JiraConstants.METADATA_TTL_PROPERTY);
+	this.ttlMillis = TimeUnit.SECONDS.toMillis(ttl > 0 ? ttl : Integer
+		.parseInt(JiraConstants.METADATA_TTL_DEF_VALUE));
+	String persistent = settings
+		.getString(JiraConstants.METADATA_PERSISTENT_PROPERTY);
+	this.file = StringUtils.isBlank(persistent)
+		|| Boolean.parseBoolean(persistent) ? new File(
+		JiraStorage.getDirectory(settings, "metadata"), "cache.bin")
+		: null;
+    }
+
+    public void start() {
+	if (file != null) {
+	    load();
+	}
+    }
+
+    public void stop() {
+	if (file != null) {
+	    save();
+	}
+    }
+
+    /**
+     * Returns the names of the priorities of the server, by id.
+     */
+    public Map<Long, String> getPriorities(String serverUrl,
+	    MetadataRestClient client) throws InterruptedException,
+	    ExecutionException {
+	return getPrioritiesAsync(serverUrl, client).get();
+    }
+
+    /**
+     * Same as {@link #getPriorities(String, MetadataRestClient)}, without
+     * waiting for JIRA.
+     */
+    public CompletableFuture<Map<Long, String>> getPrioritiesAsync(
+	    String serverUrl, MetadataRestClient client) {
+	String key = serverUrl + "|priorities";
+	return lookup(key, () -> JiraFutures.toCompletableFuture(
+		client.getPriorities()).thenApply(priorities -> {
+	    Map<String, String> values = Maps.newHashMap();
+	    for (Priority priority : priorities) {
+		values.put(String.valueOf(priority.getId()), priority.getName());
+	    }
+	    return values;
+	})).thenApply(values -> {
+	    Map<Long, String> priorities = Maps.newHashMap();
+	    for (Map.Entry<String, String> entry : values.entrySet()) {
+		priorities.put(Long.valueOf(entry.getKey()), entry.getValue());
+	    }
+	    return priorities;
+	});
+    }
+
+    /**
+     * Returns the favourite filter of the user with the given name, or
+     * <code>null</code> if there is none. The filters are downloaded on each
+     * call, not to miss an edited JQL.
+     */
+    public Filter getFavouriteFilter(String serverUrl, String userName,
+	    SearchRestClient client, String name) throws InterruptedException,
+	    ExecutionException {
+	return getFavouriteFilterAsync(serverUrl, userName, client, name).get();
+    }
+
+    /**
+     * Same as
+     * {@link #getFavouriteFilter(String, String, SearchRestClient, String)},
+     * without waiting for JIRA.
+     */
+    public CompletableFuture<Filter> getFavouriteFilterAsync(
+	    String serverUrl, String userName, SearchRestClient client,
+	    String name) {
+	String key = serverUrl + '|' + userName + "|filters";
+	return share(key, () -> JiraFutures.toCompletableFuture(
+		client.getFavouriteFilters()).thenApply(filters -> {
+	    Map<String, Filter> values = Maps.newHashMap();
+	    for (Filter filter : filters) {
+		values.put(filter.getName(), filter);
+	    }
+	    return values;
+	}), values -> {
+	}).thenApply(values -> values.get(name));
+    }
+
+    /**
+     * Returns the component of the project with the given id, or
+     * <code>null</code> if there is none. The components are downloaded again
+     * if they are not found and were not downloaded recently, in case the
+     * component was just created.
+     */
+    public BasicComponent getComponent(String serverUrl,
+	    ProjectRestClient client, String projectKey, long componentId)
+	    throws InterruptedException, ExecutionException {
+	String key = serverUrl + "|components|" + projectKey;
+	Supplier<CompletableFuture<Map<String, String>>> loader = () -> JiraFutures
+		.toCompletableFuture(client.getProject(projectKey)).thenApply(
+			project -> {
+			    Map<String, String> values = Maps.newHashMap();
+			    for (BasicComponent component : project
+				    .getComponents()) {
+				values.put(String.valueOf(component.getId()),
+					component.getName());
+			    }
+			    return values;
+			});
+	String id = String.valueOf(componentId);
+	String name = lookup(key, loader).get().get(id);
+	if (name == null) {
+	    Entry entry = getEntry(key);
+	    if (entry == null
+		    || System.currentTimeMillis() - entry.loadedAt >= COMPONENTS_RELOAD_MILLIS) {
+		name = load(key, loader, true).get().get(id);
+	    }
+	}
+	if (name == null) {
+	    return null;
+	}
+	return new BasicComponent(null, componentId, name, null);
+    }
+
+    public synchronized void invalidateAll() {
+	entries.clear();
+    }
+
+    @VisibleForTesting
+    synchronized void evictExpiredEntries(long now) {
+	Iterator<Entry> it = entries.values().iterator();
+	while (it.hasNext()) {
+	    if (now - it.next().loadedAt >= ttlMillis) {
+		it.remove();
+	    }
+	}
+    }
+
+    private CompletableFuture<Map<String, String>> lookup(String key,
+	    Supplier<CompletableFuture<Map<String, String>>> loader) {
+	Entry entry = getEntry(key);
+	if (entry == null) {
+	    return load(key, loader, true);
+	}
+	if (System.currentTimeMillis() - entry.loadedAt >= ttlMillis
+		* REFRESH_AHEAD_RATIO) {
+	    load(key, loader, true).whenComplete((loaded, failure) -> {
+		if (failure != null) {
+		    LOG.debug("Unable to refresh the JIRA metadata " + key,
+			    failure);
+		}
+	    });
+	}
+	return CompletableFuture.completedFuture(entry.values);
+    }
+
+    /**
+     * Downloads an entry, unless it is already being downloaded.
+     * 
+     * @param keep
+     *            whether the downloaded entry is cached
+     */
+    private CompletableFuture<Map<String, String>> load(String key,
+	    Supplier<CompletableFuture<Map<String, String>>> loader,
+	    boolean keep) {
+	return share(key, loader, values -> {
+	    if (keep) {
+		put(key, values);
+	    }
+	});
+    }
+
+    /**
+     * Downloads values, unless they are already being downloaded.
+     * 
+     * @param downloaded
+     *            called with the downloaded values, before they are returned
+     */
+    @SuppressWarnings("unchecked")
+    private <V> CompletableFuture<Map<String, V>> share(String key,
+	    Supplier<CompletableFuture<Map<String, V>>> loader,
+	    Consumer<Map<String, V>> downloaded) {
+	CompletableFuture<Map<String, V>> loading = new CompletableFuture<Map<String, V>>();
+	CompletableFuture<Map<String, V>> inFlight = (CompletableFuture<Map<String, V>>) loads
+		.putIfAbsent(key, loading);
+	if (inFlight != null) {
+	    return inFlight;
+	}
+	CompletableFuture<Map<String, V>> loaded;
+	try {
+	    loaded = loader.get();
+	} catch (RuntimeException e) {
+	    loaded = new CompletableFuture<Map<String, V>>();
+	    loaded.completeExceptionally(e);
+	}
+	loaded.whenComplete((values, failure) -> {
+	    if (failure == null) {
+		downloaded.accept(values);
+	    }
+	    loads.remove(key, loading);
+	    if (failure == null) {
+		loading.complete(Collections.unmodifiableMap(values));
+	    } else {
+		loading.completeExceptionally(failure);
+	    }
+	});
+	return loading;
+    }
+
+    private synchronized Entry getEntry(String key) {
+	Entry entry = entries.get(key);
+	if (entry == null
+		|| System.currentTimeMillis() - entry.loadedAt >= ttlMillis) {
+	    return null;
+	}
+	return entry;
+    }
+
+    private synchronized void put(String key, Map<String, String> values) {
+	entries.put(key, new Entry(System.currentTimeMillis(), Collections
+		.unmodifiableMap(values)));
+    }
+
+    private synchronized void load() {
+	if (!file.isFile()) {
+	    return;
+	}
+	DataInputStream input = null;
+	try {
+	    input = new DataInputStream(new BufferedInputStream(
+		    new FileInputStream(file)));
+	    if (input.readInt() != MAGIC || input.readInt() != VERSION) {
+		LOG.warn("Ignoring JIRA metadata cache of unknown format: {}",
+			file);
+		return;
+	    }
+	    int count = input.readInt();
+	    for (int i = 0; i < count; i++) {
+		String key = input.readUTF();
+		long loadedAt = input.readLong();
+		int size = input.readInt();
+		Map<String, String> values = Maps.newHashMap();
+		for (int j = 0; j < size; j++) {
+		    values.put(input.readUTF(), input.readUTF());
+		}
+		entries.put(key, new Entry(loadedAt, Collections
+			.unmodifiableMap(values)));
+	    }
+	    evictExpiredEntries(System.currentTimeMillis());
+	} catch (IOException e) {
+	    LOG.warn("Unable to read the JIRA metadata cache " + file, e);
+	    entries.clear();
+	} finally {
+	    IOUtils.closeQuietly(input);
+	}
+    }
+
+    private synchronized void save() {
+	evictExpiredEntries(System.currentTimeMillis());
+	File dir = file.getParentFile();
+	File tmp = null;
+	DataOutputStream output = null;
+	try {
+	    if (!dir.isDirectory() && !dir.mkdirs()) {
+		throw new IOException("Unable to create directory " + dir);
+	    }
+	    // one temporary file by writer, the analyses may stop together
+	    tmp = Files.createTempFile(dir.toPath(), file.getName(), ".tmp")
+		    .toFile();
+	    output = new DataOutputStream(new BufferedOutputStream(
+		    new FileOutputStream(tmp)));
+	    output.writeInt(MAGIC);
+	    output.writeInt(VERSION);
+	    output.writeInt(entries.size());
+	    for (Map.Entry<String, Entry> entry : entries.entrySet()) {
+		output.writeUTF(entry.getKey());
+		output.writeLong(entry.getValue().loadedAt);
+		output.writeInt(entry.getValue().values.size());
+		for (Map.Entry<String, String> value : entry.getValue().values
+			.entrySet()) {
+		    output.writeUTF(StringUtils.defaultString(value.getKey()));
+		    output.writeUTF(StringUtils.defaultString(value.getValue()));
+		}
+	    }
+	    output.close();
+	    output = null;
+	    Files.move(tmp.toPath(), file.toPath(),
+		    StandardCopyOption.REPLACE_EXISTING,
+		    StandardCopyOption.ATOMIC_MOVE);
+	} catch (IOException e) {
+	    LOG.warn("Unable to save the JIRA metadata cache " + file, e);
+	} finally {
+	    IOUtils.closeQuietly(output);
+	    if (tmp != null && tmp.exists() && !tmp.delete()) {
+		LOG.debug("Unable to delete {}", tmp);
+	    }
+	}
+    }
+
+    private static final class Entry {
+	private final long loadedAt;
+	private final Map<String, String> values;
+
+	private Entry(long loadedAt, Map<String, String> values) {
+	    this.loadedAt = loadedAt;
+	    this.values = values;
+	}
+    }
+}
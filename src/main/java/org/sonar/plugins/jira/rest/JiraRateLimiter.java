@@ -0,0 +1,169 @@
+/*
+ * Sonar, open source software quality management tool.
+ * Copyright (C) 2009 SonarSource
+ * mailto:contact AT sonarsource DOT com
+ *
+ * Sonar is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * Sonar is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with Sonar; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02
+ */
+
+package org.sonar.plugins.jira.rest;
+
+import com.atlassian.jira.rest.client.api.RestClientException;
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.Optional;
+import com.google.common.util.concurrent.FutureCallback;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.SettableFuture;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+/**
+ * Token bucket shared by all the calls made to one JIRA server. Calls exceeding
+ * the current rate are delayed rather than rejected, and the rate adapts to
+ * the server: it is halved each time JIRA answers 429 (Too Many Requests), the
+ * throttled call being queued again after a cool down, and slowly increases
+ * back to the configured maximum while calls succeed.
+ */
+public class JiraRateLimiter implements JiraCallInterceptor {
+
+    private static final Logger LOG = LoggerFactory
+	    .getLogger(JiraRateLimiter.class);
+
+    static final int TOO_MANY_REQUESTS = 429;
+    static final double MIN_RATE = 0.5;
+    static final long INITIAL_COOLDOWN_NANOS = TimeUnit.SECONDS.toNanos(1);
+    static final long MAX_COOLDOWN_NANOS = TimeUnit.SECONDS.toNanos(60);
+    static final int MAX_THROTTLED_ATTEMPTS = 8;
+    private static final double INCREASE_STEP = 0.1;
+    private static final long NANOS_PER_SECOND = TimeUnit.SECONDS.toNanos(1);
+
+    private final ScheduledExecutorService scheduler;
+    private final double maxRate;
+    private double rate;
+    private long nextSlot;
+    private long pausedUntil;
+    private long cooldown = INITIAL_COOLDOWN_NANOS;
+
+    /**
+     * @param maxRate
+     *            the maximum number of calls per second
+     * @param scheduler
+     *            runs the calls which have to wait for a token
+     */
+    public JiraRateLimiter(double maxRate, ScheduledExecutorService scheduler) {
+	this.maxRate = maxRate;
+	this.rate = maxRate;
+	this.scheduler = scheduler;
+	this.nextSlot = System.nanoTime();
+	this.pausedUntil = nextSlot;
+    }
+
+    @Override
+    public <T> ListenableFuture<T> intercept(JiraEndpoint endpoint,
+	    Supplier<ListenableFuture<T>> call) {
+	SettableFuture<T> result = SettableFuture.create();
+	submit(call, result, 1);
+	return result;
+    }
+
+    public synchronized double getRate() {
+	return rate;
+    }
+
+    private <T> void submit(Supplier<ListenableFuture<T>> call,
+	    SettableFuture<T> result, int attempt) {
+	long delay = reserve(System.nanoTime());
+	if (delay <= 0) {
+	    send(call, result, attempt);
+	} else {
+	    scheduler.schedule(() -> send(call, result, attempt), delay,
+		    TimeUnit.NANOSECONDS);
+	}
+    }
+
+    private <T> void send(Supplier<ListenableFuture<T>> call,
+	    SettableFuture<T> result, int attempt) {
+	if (result.isCancelled()) {
+	    return;
+	}
+	ListenableFuture<T> future;
+	try {
+	    future = call.get();
+	} catch (RuntimeException e) {
+	    result.setException(e);
+	    return;
+	}
+	Futures.addCallback(future, new FutureCallback<T>() {
+	    @Override
+	    public void onSuccess(T value) {
+		onAccepted();
+		result.set(value);
+	    }
+
+	    @Override
+	    public void onFailure(Throwable t) {
+		if (isThrottled(t) && attempt < MAX_THROTTLED_ATTEMPTS) {
+		    onThrottled(System.nanoTime());
+		    submit(call, result, attempt + 1);
+		} else {
+		    result.setException(t);
+		}
+	    }
+	}, Runnable::run);
+    }
+
+    /**
+     * Takes the next token and returns how long, in nanoseconds, the caller
+     * has to wait for it. Up to one second worth of calls can be sent at once
+     * after an idle period.
+     */
+    @VisibleForTesting
+    synchronized long reserve(long now) {
+	long interval = (long) (NANOS_PER_SECOND / rate);
+	long burst = Math.max(0L, NANOS_PER_SECOND - interval);
+	long slot = Math.max(Math.max(nextSlot, now - burst), pausedUntil);
+	nextSlot = slot + interval;
+	return slot - now;
+    }
+
+    @VisibleForTesting
+    synchronized void onThrottled(long now) {
+	rate = Math.max(MIN_RATE, rate / 2);
+	pausedUntil = Math.max(pausedUntil, now + cooldown);
+	LOG.debug(
+		"JIRA is throttling requests, pausing for {} ms and lowering the rate to {} calls/s",
+		TimeUnit.NANOSECONDS.toMillis(cooldown), rate);
+	cooldown = Math.min(MAX_COOLDOWN_NANOS, cooldown * 2);
+    }
+
+    @VisibleForTesting
+    synchronized void onAccepted() {
+	rate = Math.min(maxRate, rate + INCREASE_STEP);
+	cooldown = INITIAL_COOLDOWN_NANOS;
+    }
+
+    static boolean isThrottled(Throwable t) {
+	if (!(t instanceof RestClientException)) {
+	    return false;
+	}
+	Optional<Integer> status = ((RestClientException) t).getStatusCode();
+	return status != null && status.isPresent()
+		&& status.get() == TOO_MANY_REQUESTS;
+    }
+}
@@ -0,0 +1,252 @@
+/*
+ * Sonar, open source software quality management tool.
+ * Copyright (C) 2009 SonarSource
+ * mailto:contact AT sonarsource DOT com
+ *
+ * Sonar is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * Sonar is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with Sonar; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02
+ */
+
+package org.sonar.plugins.jira.rest;
+
+import com.atlassian.jira.rest.client.api.RestClientException;
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.Optional;
+import com.google.common.collect.Maps;
+import com.google.common.util.concurrent.FutureCallback;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.SettableFuture;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.sonar.api.config.Settings;
+import org.sonar.plugins.jira.JiraConstants;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.function.Supplier;
+
+/**
+ * Sends the idempotent calls again when they fail for a transient reason (I/O
+ * error, timeout, 5xx answer), after an exponential backoff with full jitter.
+ * Other calls, such as issue creations, go through untouched.
+ * <p>
+ * When a hedging percentile is configured, a second identical call is also sent
+ * once the first one has been running for longer than that percentile of the
+ * recent latencies of its endpoint, and the first answer wins.
+ */
+public class JiraRetryPolicy implements JiraCallInterceptor {
+
+    private static final Logger LOG = LoggerFactory
+	    .getLogger(JiraRetryPolicy.class);
+
+    static final long BASE_DELAY_MILLIS = 200L;
+    static final long MAX_DELAY_MILLIS = 5000L;
+    static final int MIN_SAMPLES = 20;
+    private static final int MAX_SAMPLES = 100;
+
+    private final ScheduledExecutorService scheduler;
+    private final int maxAttempts;
+    private final int hedgePercentile;
+    private final Map<JiraEndpoint, LatencySamples> latencies = Maps
+	    .newEnumMap(JiraEndpoint.class);
+
+    public JiraRetryPolicy(Settings settings,
+	    ScheduledExecutorService scheduler) {
+	this.scheduler = scheduler;
+	int attempts = settings
+		.getInt(JiraConstants.RETRY_MAX_ATTEMPTS_PROPERTY);
+	this.maxAttempts = attempts > 0 ? attempts : Integer
+		.parseInt(JiraConstants.RETRY_MAX_ATTEMPTS_DEF_VALUE);
+	int percentile = settings
+		.getInt(JiraConstants.RETRY_HEDGE_PERCENTILE_PROPERTY);
+	// hedging stays disabled unless a valid percentile is given
+	this.hedgePercentile = percentile > 0 && percentile < 100 ? percentile
+		: 0;
+	for (JiraEndpoint endpoint : JiraEndpoint.values()) {
+	    latencies.put(endpoint, new LatencySamples());
+	}
+    }
+
+    @Override
+    public <T> ListenableFuture<T> intercept(JiraEndpoint endpoint,
+	    Supplier<ListenableFuture<T>> call) {
+	if (!endpoint.isIdempotent()) {
+	    return call.get();
+	}
+	SettableFuture<T> result = SettableFuture.create();
+	attempt(endpoint, call, result, 1);
+	return result;
+    }
+
+    private <T> void attempt(JiraEndpoint endpoint,
+	    Supplier<ListenableFuture<T>> call, SettableFuture<T> result,
+	    int attempt) {
+	if (result.isCancelled()) {
+	    return;
+	}
+	Futures.addCallback(hedge(endpoint, call), new FutureCallback<T>() {
+	    @Override
+	    public void onSuccess(T value) {
+		result.set(value);
+	    }
+
+	    @Override
+	    public void onFailure(Throwable t) {
+		if (attempt < maxAttempts && isRetryable(t)) {
+		    long delay = backoff(attempt);
+		    LOG.debug("{} call to JIRA failed ({}), retrying in {} ms",
+			    endpoint, t.getMessage(), delay);
+		    scheduler.schedule(
+			    () -> attempt(endpoint, call, result, attempt + 1),
+			    delay, TimeUnit.MILLISECONDS);
+		} else {
+		    result.setException(t);
+		}
+	    }
+	}, Runnable::run);
+    }
+
+    /**
+     * Sends the call, and a copy of it if the first one is slower than usual.
+     * The first of them to complete gives the result, the other is cancelled.
+     */
+    private <T> ListenableFuture<T> hedge(JiraEndpoint endpoint,
+	    Supplier<ListenableFuture<T>> call) {
+	ListenableFuture<T> first = send(endpoint, call);
+	long delay = getHedgeDelay(endpoint);
+	if (delay <= 0) {
+	    return first;
+	}
+	SettableFuture<T> winner = SettableFuture.create();
+	forward(first, winner);
+	ScheduledFuture<?> hedge = scheduler.schedule(() -> {
+	    if (!winner.isDone()) {
+		LOG.debug("{} call to JIRA is slow, sending it again",
+			endpoint);
+		ListenableFuture<T> second = send(endpoint, call);
+		forward(second, winner);
+		winner.addListener(() -> second.cancel(true), Runnable::run);
+	    }
+	}, delay, TimeUnit.NANOSECONDS);
+	winner.addListener(() -> {
+	    hedge.cancel(false);
+	    first.cancel(true);
+	}, Runnable::run);
+	return winner;
+    }
+
+    private <T> ListenableFuture<T> send(JiraEndpoint endpoint,
+	    Supplier<ListenableFuture<T>> call) {
+	long startedAt = System.nanoTime();
+	ListenableFuture<T> future;
+	try {
+	    future = call.get();
+	} catch (RuntimeException e) {
+	    return Futures.immediateFailedFuture(e);
+	}
+	Futures.addCallback(future, new FutureCallback<T>() {
+	    @Override
+	    public void onSuccess(T value) {
+		latencies.get(endpoint).add(System.nanoTime() - startedAt);
+	    }
+
+	    @Override
+	    public void onFailure(Throwable t) {
+		// only the latency of successful calls is relevant for hedging
+	    }
+	}, Runnable::run);
+	return future;
+    }
+
+    private static <T> void forward(ListenableFuture<T> source,
+	    SettableFuture<T> target) {
+	Futures.addCallback(source, new FutureCallback<T>() {
+	    @Override
+	    public void onSuccess(T value) {
+		target.set(value);
+	    }
+
+	    @Override
+	    public void onFailure(Throwable t) {
+		target.setException(t);
+	    }
+	}, Runnable::run);
+    }
+
+    /**
+     * @return the delay, in nanoseconds, after which a call to the given
+     *         endpoint is hedged, or 0 if it must not be
+     */
+    @VisibleForTesting
+    long getHedgeDelay(JiraEndpoint endpoint) {
+	if (hedgePercentile == 0) {
+	    return 0L;
+	}
+	return latencies.get(endpoint).percentile(hedgePercentile);
+    }
+
+    /**
+     * @return a random delay, in milliseconds, between 0 and an exponentially
+     *         growing bound
+     */
+    static long backoff(int attempt) {
+	long bound = Math.min(MAX_DELAY_MILLIS,
+		BASE_DELAY_MILLIS << Math.min(attempt - 1, 20));
+	return ThreadLocalRandom.current().nextLong(bound + 1);
+    }
+
+    static boolean isRetryable(Throwable t) {
+	if (t instanceof JiraCircuitOpenException) {
+	    return false;
+	}
+	if (t instanceof RestClientException) {
+	    Optional<Integer> status = ((RestClientException) t)
+		    .getStatusCode();
+	    // no status means that no answer was received
+	    return status == null || !status.isPresent() || status.get() >= 500;
+	}
+	return t instanceof TimeoutException || t instanceof IOException
+		|| t.getCause() instanceof IOException;
+    }
+
+    /**
+     * The latest latencies of an endpoint, in nanoseconds.
+     */
+    private static final class LatencySamples {
+	private final long[] samples = new long[MAX_SAMPLES];
+	private int count;
+	private int next;
+
+	synchronized void add(long latency) {
+	    samples[next] = latency;
+	    next = (next + 1) % MAX_SAMPLES;
+	    count = Math.min(count + 1, MAX_SAMPLES);
+	}
+
+	synchronized long percentile(int percentile) {
+	    if (count < MIN_SAMPLES) {
+		return 0L;
+	    }
+	    long[] sorted = Arrays.copyOf(samples, count);
+	    Arrays.sort(sorted);
+	    return sorted[Math.min(count - 1, count * percentile / 100)];
+	}
+    }
+}
@@ -38,7 +38,9 @@ import java.net.URI;
 import java.net.URISyntaxException;
 import java.net.URL;
 import java.rmi.RemoteException;
+import java.util.Collections;
 import java.util.Date;
+import java.util.List;
 
 /**
  * This represents a SOAP session with JIRA including that state of being logged
@@ -48,10 +50,29 @@ public class JiraSession {
     private static final Logger LOG = LoggerFactory
 	    .getLogger(JiraSession.class);
     private JiraRestClient restClient;
-    private URL webServiceUrl;
+    private DisposableHttpClient httpClient;
+    private final URL webServiceUrl;
+    private final HttpClientOptions options;
+    private final List<JiraCallInterceptor> interceptors;
 
     public JiraSession(URL url) {
+	this(url, new HttpClientOptions());
+    }
+
+    public JiraSession(URL url, HttpClientOptions options) {
+	this(url, options, Collections.<JiraCallInterceptor> emptyList());
+    }
+
+    /**
+     * @param interceptors
+     *            applied, outermost first, to every call made through
+     *            {@link #getJiraRestClient()}
+     */
+    public JiraSession(URL url, HttpClientOptions options,
+	    List<JiraCallInterceptor> interceptors) {
 	this.webServiceUrl = url;
+	this.options = options;
+	this.interceptors = interceptors;
     }
 
     public void connect(String userName, String password)
@@ -63,21 +84,20 @@ public class JiraSession {
 		// does, but, also provide ApplicationProperties without the bug.  Here's the link to the issue so we can go
 		// back to the factory gets fixed: https://ecosystem.atlassian.net/browse/JRJC-149
 		final AuthenticationHandler authenticationHandler = new BasicHttpAuthenticationHandler(userName, password);
-		final HttpClientOptions options = new HttpClientOptions();
 		options.setRequestPreparer((request) -> { authenticationHandler.configure(request); });
 		final DefaultHttpClient defaultHttpClient = new DefaultHttpClient(
 				new MioNoOpEventPublisher(),
 				new MioRestClientApplicationProperties(webServiceUrl.toURI()),
 				ThreadLocalContextManagers.noop(),
 				options);
-		final DisposableHttpClient httpClient = new AtlassianHttpClientDecorator(defaultHttpClient) {
+		httpClient = new AtlassianHttpClientDecorator(defaultHttpClient) {
 
 			@Override
 			public void destroy() throws Exception {
 				defaultHttpClient.destroy();
 			}
 		};
-		restClient = new AsynchronousJiraRestClient(webServiceUrl.toURI(), httpClient);
+		restClient = InterceptedJiraRestClient.wrap(new AsynchronousJiraRestClient(webServiceUrl.toURI(), httpClient), interceptors);
 	} catch (URISyntaxException e) {
 	    throw new IllegalStateException(
 		    "Exception during JiraService contruction", e);
@@ -86,6 +106,14 @@ public class JiraSession {
     }
 
     public void disconnect() {
+	if (httpClient != null) {
+	    try {
+		httpClient.destroy();
+	    } catch (Exception e) {
+		LOG.warn("Unable to release the HTTP client of " + webServiceUrl, e);
+	    }
+	}
+	httpClient = null;
 	restClient = null;
     }
 
@@ -93,6 +121,10 @@ public class JiraSession {
 	return restClient;
     }
 
+    public URL getWebServiceUrl() {
+	return webServiceUrl;
+    }
+
 
 	private static class MioNoOpEventPublisher implements EventPublisher {
 		@Override
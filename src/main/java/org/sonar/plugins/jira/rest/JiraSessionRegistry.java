@@ -0,0 +1,261 @@
+/*
+ * Sonar, open source software quality management tool.
+ * Copyright (C) 2009 SonarSource
+ * mailto:contact AT sonarsource DOT com
+ *
+ * Sonar is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * Sonar is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with Sonar; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02
+ */
+
+package org.sonar.plugins.jira.rest;
+
+import com.atlassian.httpclient.api.factory.HttpClientOptions;
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.Objects;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.sonar.api.BatchExtension;
+import org.sonar.api.Properties;
+import org.sonar.api.Property;
+import org.sonar.api.PropertyType;
+import org.sonar.api.ServerExtension;
+import org.sonar.api.batch.InstantiationStrategy;
+import org.sonar.api.config.Settings;
+import org.sonar.plugins.jira.JiraConstants;
+import java.net.URL;
+import java.rmi.RemoteException;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Keeps one connected {@link JiraSession} per JIRA server and user, so that
+ * its pooled keep-alive connections are reused from one call to the other.
+ * Sessions which have not been used for a while are disconnected, and all of
+ * them are released when the container stops. All the sessions opened on the
+ * same server share a {@link JiraRetryPolicy}, a {@link JiraRateLimiter}, a
+ * {@link JiraCircuitBreaker} and the {@link JiraCallMetrics} published over
+ * JMX.
+ */
+@Properties({
+	@Property(key = JiraConstants.HTTP_MAX_CONNECTIONS_PROPERTY, defaultValue = JiraConstants.HTTP_MAX_CONNECTIONS_DEF_VALUE, name = "Maximum HTTP connections", description = "Maximum number of connections kept open to a JIRA server.", global = true, project = false, type = PropertyType.INTEGER),
+	@Property(key = JiraConstants.HTTP_IDLE_TIMEOUT_PROPERTY, defaultValue = JiraConstants.HTTP_IDLE_TIMEOUT_DEF_VALUE, name = "HTTP idle timeout", description = "Number of seconds after which an unused JIRA client and its connections are released.", global = true, project = false, type = PropertyType.INTEGER),
+	@Property(key = JiraConstants.HTTP_RATE_LIMIT_PROPERTY, defaultValue = JiraConstants.HTTP_RATE_LIMIT_DEF_VALUE, name = "HTTP rate limit", description = "Maximum number of calls per second sent to a JIRA server. The rate is lowered automatically while the server throttles requests.", global = true, project = false, type = PropertyType.INTEGER),
+	@Property(key = JiraConstants.HTTP_CONNECT_TIMEOUT_PROPERTY, defaultValue = JiraConstants.HTTP_CONNECT_TIMEOUT_DEF_VALUE, name = "HTTP connect timeout", description = "Number of seconds to wait for a connection to the JIRA server.", global = true, project = false, type = PropertyType.INTEGER),
+	@Property(key = JiraConstants.HTTP_READ_TIMEOUT_PROPERTY, defaultValue = JiraConstants.HTTP_READ_TIMEOUT_DEF_VALUE, name = "HTTP read timeout", description = "Number of seconds to wait for data from the JIRA server.", global = true, project = false, type = PropertyType.INTEGER),
+	@Property(key = JiraConstants.HTTP_CALL_TIMEOUT_PROPERTY, defaultValue = JiraConstants.HTTP_CALL_TIMEOUT_DEF_VALUE, name = "HTTP call timeout", description = "Number of seconds after which a call to JIRA is abandoned, whatever its progress.", global = true, project = false, type = PropertyType.INTEGER),
+	@Property(key = JiraConstants.CIRCUIT_FAILURE_RATE_PROPERTY, defaultValue = JiraConstants.CIRCUIT_FAILURE_RATE_DEF_VALUE, name = "Circuit breaker failure rate", description = "Percentage of failed calls among the last ones above which calls to JIRA are suspended.", global = true, project = false, type = PropertyType.INTEGER),
+	@Property(key = JiraConstants.CIRCUIT_SLOW_CALL_RATE_PROPERTY, defaultValue = JiraConstants.CIRCUIT_SLOW_CALL_RATE_DEF_VALUE, name = "Circuit breaker slow call rate", description = "Percentage of slow calls among the last ones above which calls to JIRA are suspended.", global = true, project = false, type = PropertyType.INTEGER),
+	@Property(key = JiraConstants.CIRCUIT_SLOW_CALL_DURATION_PROPERTY, defaultValue = JiraConstants.CIRCUIT_SLOW_CALL_DURATION_DEF_VALUE, name = "Circuit breaker slow call duration", description = "Number of seconds above which a call to JIRA is considered slow.", global = true, project = false, type = PropertyType.INTEGER),
+	@Property(key = JiraConstants.CIRCUIT_OPEN_DURATION_PROPERTY, defaultValue = JiraConstants.CIRCUIT_OPEN_DURATION_DEF_VALUE, name = "Circuit breaker open duration", description = "Number of seconds during which calls to a failing JIRA server are suspended before being tried again.", global = true, project = false, type = PropertyType.INTEGER),
+	@Property(key = JiraConstants.RETRY_MAX_ATTEMPTS_PROPERTY, defaultValue = JiraConstants.RETRY_MAX_ATTEMPTS_DEF_VALUE, name = "Maximum attempts", description = "Maximum number of times a read from JIRA is attempted when it fails for a transient reason. Issue creations are never retried.", global = true, project = false, type = PropertyType.INTEGER),
+	@Property(key = JiraConstants.RETRY_HEDGE_PERCENTILE_PROPERTY, defaultValue = JiraConstants.RETRY_HEDGE_PERCENTILE_DEF_VALUE, name = "Hedging percentile", description = "When set between 1 and 99, a read from JIRA taking longer than this percentile of the recent ones is sent a second time and the first answer is used. 0 disables hedging.", global = true, project = false, type = PropertyType.INTEGER) })
+@InstantiationStrategy(InstantiationStrategy.PER_BATCH)
+public class JiraSessionRegistry implements BatchExtension, ServerExtension {
+
+    private static final Logger LOG = LoggerFactory
+	    .getLogger(JiraSessionRegistry.class);
+
+    private final Map<SessionKey, PooledSession> sessions = Maps.newHashMap();
+    private final Map<String, List<JiraCallInterceptor>> interceptors = Maps
+	    .newHashMap();
+    private final List<JiraCallMetrics> callMetrics = Lists.newArrayList();
+    private final Settings settings;
+    private final int maxConnections;
+    private final long idleTimeoutMillis;
+    private final int rateLimit;
+    private final ScheduledExecutorService scheduler;
+
+    public JiraSessionRegistry(Settings settings) {
+	this.settings = settings;
+	this.maxConnections = getPositiveInt(settings,
+		JiraConstants.HTTP_MAX_CONNECTIONS_PROPERTY,
+		JiraConstants.HTTP_MAX_CONNECTIONS_DEF_VALUE);
+	this.idleTimeoutMillis = TimeUnit.SECONDS.toMillis(getPositiveInt(
+		settings, JiraConstants.HTTP_IDLE_TIMEOUT_PROPERTY,
+		JiraConstants.HTTP_IDLE_TIMEOUT_DEF_VALUE));
+	this.rateLimit = getPositiveInt(settings,
+		JiraConstants.HTTP_RATE_LIMIT_PROPERTY,
+		JiraConstants.HTTP_RATE_LIMIT_DEF_VALUE);
+	// no thread is created until a task is scheduled
+	this.scheduler = Executors
+		.newSingleThreadScheduledExecutor(new ThreadFactoryBuilder()
+			.setDaemon(true).setNameFormat("jira-session-scheduler")
+			.build());
+    }
+
+    public void start() {
+	long period = Math.max(1000L, idleTimeoutMillis / 2);
+	scheduler.scheduleWithFixedDelay(new Runnable() {
+	    @Override
+	    public void run() {
+		evictIdleSessions(System.currentTimeMillis());
+	    }
+	}, period, period, TimeUnit.MILLISECONDS);
+    }
+
+    public void stop() {
+	scheduler.shutdownNow();
+	synchronized (this) {
+	    for (PooledSession pooled : sessions.values()) {
+		pooled.session.disconnect();
+	    }
+	    sessions.clear();
+	    for (JiraCallMetrics metrics : callMetrics) {
+		metrics.unregister();
+	    }
+	}
+    }
+
+    /**
+     * Returns the connected session shared by all the callers using the same
+     * server and credentials. Every call must be balanced by a call to
+     * {@link #release(JiraSession)}.
+     */
+    public synchronized JiraSession acquire(URL url, String userName,
+	    String password) throws RemoteException {
+	SessionKey key = new SessionKey(url, userName, password);
+	PooledSession pooled = sessions.get(key);
+	if (pooled == null) {
+	    JiraSession session = newSession(url);
+	    session.connect(userName, password);
+	    pooled = new PooledSession(session);
+	    sessions.put(key, pooled);
+	    LOG.debug("Opened a new JIRA session on {} for {}", url, userName);
+	}
+	pooled.leases++;
+	pooled.lastUsed = System.currentTimeMillis();
+	return pooled.session;
+    }
+
+    public synchronized void release(JiraSession session) {
+	for (PooledSession pooled : sessions.values()) {
+	    if (pooled.session == session) {
+		pooled.leases--;
+		pooled.lastUsed = System.currentTimeMillis();
+		return;
+	    }
+	}
+    }
+
+    @VisibleForTesting
+    synchronized void evictIdleSessions(long now) {
+	Iterator<PooledSession> it = sessions.values().iterator();
+	while (it.hasNext()) {
+	    PooledSession pooled = it.next();
+	    if (pooled.leases <= 0 && now - pooled.lastUsed >= idleTimeoutMillis) {
+		LOG.debug("Closing idle JIRA session on {}",
+			pooled.session.getWebServiceUrl());
+		pooled.session.disconnect();
+		it.remove();
+	    }
+	}
+    }
+
+    @VisibleForTesting
+    synchronized int size() {
+	return sessions.size();
+    }
+
+    protected JiraSession newSession(URL url) {
+	HttpClientOptions options = new HttpClientOptions();
+	options.setMaxTotalConnections(maxConnections);
+	options.setMaxConnectionsPerHost(maxConnections);
+	options.setConnectionPoolTimeToLive((int) idleTimeoutMillis,
+		TimeUnit.MILLISECONDS);
+	options.setConnectionTimeout(getPositiveInt(settings,
+		JiraConstants.HTTP_CONNECT_TIMEOUT_PROPERTY,
+		JiraConstants.HTTP_CONNECT_TIMEOUT_DEF_VALUE), TimeUnit.SECONDS);
+	options.setSocketTimeout(getPositiveInt(settings,
+		JiraConstants.HTTP_READ_TIMEOUT_PROPERTY,
+		JiraConstants.HTTP_READ_TIMEOUT_DEF_VALUE), TimeUnit.SECONDS);
+	return new JiraSession(url, options, getInterceptors(url));
+    }
+
+    /**
+     * Every attempt of a retried call waits for the rate limiter, throttled
+     * calls are queued before reaching the circuit breaker, and only the calls
+     * actually sent to JIRA are measured.
+     */
+    protected synchronized List<JiraCallInterceptor> getInterceptors(URL url) {
+	String key = url.toExternalForm();
+	List<JiraCallInterceptor> serverInterceptors = interceptors.get(key);
+	if (serverInterceptors == null) {
+	    JiraCallMetrics metrics = new JiraCallMetrics(key);
+	    metrics.register();
+	    callMetrics.add(metrics);
+	    serverInterceptors = ImmutableList.of(new JiraRetryPolicy(
+		    settings, scheduler), new JiraRateLimiter(rateLimit,
+		    scheduler), new JiraCircuitBreaker(key, settings,
+		    scheduler), metrics);
+	    interceptors.put(key, serverInterceptors);
+	}
+	return serverInterceptors;
+    }
+
+    private static int getPositiveInt(Settings settings, String key,
+	    String defaultValue) {
+	int value = settings.getInt(key);
+	return value > 0 ? value : Integer.parseInt(defaultValue);
+    }
+
+    private static final class PooledSession {
+	private final JiraSession session;
+	private int leases;
+	private long lastUsed;
+
+	private PooledSession(JiraSession session) {
+	    this.session = session;
+	}
+    }
+
+    private static final class SessionKey {
+	private final String url;
+	private final String userName;
+	private final String password;
+
+	private SessionKey(URL url, String userName, String password) {
+	    // URL#equals resolves host names, compare the textual form instead
+	    this.url = url.toExternalForm();
+	    this.userName = userName;
+	    this.password = password;
+	}
+
+	@Override
+	public boolean equals(Object o) {
+	    if (this == o) {
+		return true;
+	    }
+	    if (!(o instanceof SessionKey)) {
+		return false;
+	    }
+	    SessionKey other = (SessionKey) o;
+	    return url.equals(other.url)
+		    && Objects.equal(userName, other.userName)
+		    && Objects.equal(password, other.password);
+	}
+
+	@Override
+	public int hashCode() {
+	    return Objects.hashCode(url, userName, password);
+	}
+    }
+}
@@ -0,0 +1,110 @@
+/*
+ * Sonar, open source software quality management tool.
+ * Copyright (C) 2009 SonarSource
+ * mailto:contact AT sonarsource DOT com
+ *
+ * Sonar is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * Sonar is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with Sonar; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02
+ */
+
+package org.sonar.plugins.jira.rest;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Lock free histogram of durations, recorded in microseconds. Like an HDR
+ * histogram, each power of two is split into 16 linear buckets, so that
+ * percentiles are reported within about 6% of the recorded values whatever
+ * their magnitude.
+ */
+public final class LatencyHistogram {
+
+    private static final int SUB_BUCKET_BITS = 4;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+    // a bit more than 12 days, in microseconds
+    private static final int MAX_EXPONENT = 40;
+    private static final long MAX_VALUE = (1L << MAX_EXPONENT) - 1;
+
+    private final AtomicLongArray counts = new AtomicLongArray(
+	    (MAX_EXPONENT - SUB_BUCKET_BITS + 1) * SUB_BUCKETS);
+    private final AtomicLong totalCount = new AtomicLong();
+    private final AtomicLong totalMicros = new AtomicLong();
+    private final AtomicLong maxMicros = new AtomicLong();
+
+    public void record(long duration, TimeUnit unit) {
+	long micros = Math.min(MAX_VALUE,
+		Math.max(0L, unit.toMicros(duration)));
+	counts.incrementAndGet(indexOf(micros));
+	totalCount.incrementAndGet();
+	totalMicros.addAndGet(micros);
+	long max = maxMicros.get();
+	while (micros > max && !maxMicros.compareAndSet(max, micros)) {
+	    max = maxMicros.get();
+	}
+    }
+
+    public long getCount() {
+	return totalCount.get();
+    }
+
+    public long getMaxMicros() {
+	return maxMicros.get();
+    }
+
+    public double getMeanMicros() {
+	long count = totalCount.get();
+	return count == 0 ? 0.0 : (double) totalMicros.get() / count;
+    }
+
+    /**
+     * @return the highest value of the bucket holding the given percentile,
+     *         or 0 if nothing was recorded
+     */
+    public long getPercentileMicros(double percentile) {
+	long count = totalCount.get();
+	if (count == 0) {
+	    return 0L;
+	}
+	long rank = Math.max(1L, (long) Math.ceil(percentile / 100.0 * count));
+	long seen = 0;
+	for (int i = 0; i < counts.length(); i++) {
+	    seen += counts.get(i);
+	    if (seen >= rank) {
+		return Math.min(highestValueOf(i), maxMicros.get());
+	    }
+	}
+	return maxMicros.get();
+    }
+
+    static int indexOf(long value) {
+	if (value < SUB_BUCKETS) {
+	    return (int) value;
+	}
+	int exponent = 63 - Long.numberOfLeadingZeros(value);
+	int shift = exponent - SUB_BUCKET_BITS;
+	int subBucket = (int) (value >>> shift) & (SUB_BUCKETS - 1);
+	return (shift + 1) * SUB_BUCKETS + subBucket;
+    }
+
+    static long highestValueOf(int index) {
+	if (index < SUB_BUCKETS) {
+	    return index;
+	}
+	int shift = index / SUB_BUCKETS - 1;
+	long lowest = (long) (SUB_BUCKETS + index % SUB_BUCKETS) << shift;
+	return lowest + (1L << shift) - 1;
+    }
+}
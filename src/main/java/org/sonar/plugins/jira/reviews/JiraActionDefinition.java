@@ -28,20 +28,24 @@ import org.sonar.plugins.jira.JiraConstants;
 
 public final class JiraActionDefinition implements ServerExtension {
 
-  private static final String LINK_TO_JIRA_ID = "link-to-jira";
+  static final String LINK_TO_JIRA_ID = "link-to-jira";
   private final Actions actions;
   private final LinkFunction linkFunction;
+  private final JiraLinkQueue linkQueue;
 
-  public JiraActionDefinition(Actions actions, LinkFunction linkFunction) {
+  public JiraActionDefinition(Actions actions, LinkFunction linkFunction, JiraLinkQueue linkQueue) {
     this.actions = actions;
     this.linkFunction = linkFunction;
+    this.linkQueue = linkQueue;
   }
 
   public void start() {
     actions.add(LINK_TO_JIRA_ID)
       .setConditions(
         new NotCondition(new HasIssuePropertyCondition(JiraConstants.SONAR_ISSUE_DATA_PROPERTY_KEY)),
-        new IsUnResolved()
+        new IsUnResolved(),
+        // hidden while its JIRA issue is created in the background
+        issue -> !linkQueue.isPending(issue.key())
       )
       .setFunctions(linkFunction);
   }
@@ -22,28 +22,32 @@ package org.sonar.plugins.jira.reviews;
 import com.atlassian.jira.rest.client.api.IssueRestClient;
 import com.atlassian.jira.rest.client.api.JiraRestClient;
 import com.atlassian.jira.rest.client.api.ProjectRestClient;
+import com.atlassian.jira.rest.client.api.RestClientException;
 import com.atlassian.jira.rest.client.api.domain.BasicComponent;
 import com.atlassian.jira.rest.client.api.domain.BasicIssue;
 import com.atlassian.jira.rest.client.api.domain.input.IssueInput;
 import com.atlassian.jira.rest.client.api.domain.input.IssueInputBuilder;
+import com.google.common.base.Optional;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
-import org.sonar.api.CoreProperties;
 import org.sonar.api.Properties;
 import org.sonar.api.Property;
 import org.sonar.api.PropertyType;
 import org.sonar.api.ServerExtension;
 import org.sonar.api.config.Settings;
 import org.sonar.api.issue.Issue;
-import org.sonar.api.rules.Rule;
-import org.sonar.api.rules.RuleFinder;
 import org.sonar.api.rules.RulePriority;
-import org.sonar.api.utils.SonarException;
 import org.sonar.plugins.jira.JiraConstants;
+import org.sonar.plugins.jira.rest.JiraCircuitOpenException;
+import org.sonar.plugins.jira.rest.JiraMetadataCache;
 import org.sonar.plugins.jira.rest.JiraSession;
+import org.sonar.plugins.jira.rest.JiraSessionRegistry;
 import java.net.MalformedURLException;
 import java.net.URL;
 import java.rmi.RemoteException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.ExecutionException;
 
 /**
@@ -58,40 +62,112 @@ import java.util.concurrent.ExecutionException;
 	@Property(key = JiraConstants.JIRA_CRITICAL_PRIORITY_ID, defaultValue = "2", name = "JIRA priority id for CRITICAL", description = "JIRA priority id used to create issues for Sonar violations with severity CRITICAL. Default is 2 (Critical).", global = true, project = true, type = PropertyType.INTEGER),
 	@Property(key = JiraConstants.JIRA_BLOCKER_PRIORITY_ID, defaultValue = "1", name = "JIRA priority id for BLOCKER", description = "JIRA priority id used to create issues for Sonar violations with severity BLOCKER. Default is 1 (Blocker).", global = true, project = true, type = PropertyType.INTEGER),
 	@Property(key = JiraConstants.JIRA_ISSUE_TYPE_ID, defaultValue = "3", name = "Id of JIRA issue type", description = "JIRA issue type id used to create issues for Sonar violations. Default is 3 (= Task in a default JIRA installation).", global = true, project = true, type = PropertyType.INTEGER),
-	@Property(key = JiraConstants.JIRA_ISSUE_COMPONENT_ID, defaultValue = "", name = "Id of JIRA component", description = "JIRA component id used to create issues for Sonar violations. By default no component is set.", global = false, project = true, type = PropertyType.INTEGER) })
+	@Property(key = JiraConstants.JIRA_ISSUE_COMPONENT_ID, defaultValue = "", name = "Id of JIRA component", description = "JIRA component id used to create issues for Sonar violations. By default no component is set.", global = false, project = true, type = PropertyType.INTEGER),
+	@Property(key = JiraConstants.JIRA_ISSUE_RULE_DESCRIPTION, defaultValue = JiraConstants.JIRA_ISSUE_RULE_DESCRIPTION_DEF_VALUE, name = "Rule description in JIRA issues", description = "Whether the description of the violated rule is added to the description of the JIRA issues.", global = true, project = true, type = PropertyType.BOOLEAN) })
 public class JiraIssueCreator implements ServerExtension {
 
+    static final String SUMMARY_PREFIX = "Sonar Issue #";
     private static final String QUOTE = "\n{quote}\n";
     private static final Logger LOG = LoggerFactory
 	    .getLogger(JiraIssueCreator.class);
-    private final RuleFinder ruleFinder;
+    private final JiraRuleCache ruleCache;
+    private final JiraSessionRegistry sessionRegistry;
+    private final JiraMetadataCache metadataCache;
+    private final JiraOutbox outbox;
+    private final JiraIssueIndex issueIndex;
+    /** JIRA configurations, by Sonar project key. */
+    private final ConcurrentMap<String, JiraProjectConfig> configs = new ConcurrentHashMap<String, JiraProjectConfig>();
 
-    public JiraIssueCreator(RuleFinder ruleFinder) {
-	this.ruleFinder = ruleFinder;
+    public JiraIssueCreator(JiraRuleCache ruleCache,
+	    JiraSessionRegistry sessionRegistry,
+	    JiraMetadataCache metadataCache, JiraOutbox outbox,
+	    JiraIssueIndex issueIndex) {
+	this.ruleCache = ruleCache;
+	this.sessionRegistry = sessionRegistry;
+	this.metadataCache = metadataCache;
+	this.outbox = outbox;
+	this.issueIndex = issueIndex;
     }
 
     public BasicIssue createIssue(Issue sonarIssue, Settings settings)
 	    throws RemoteException {
+	// created on start, if linked before a restart
+	BasicIssue replayed = outbox.takeReplayed(sonarIssue.key());
+	if (replayed != null) {
+	    return replayed;
+	}
+
+	// concurrent links of the same issue, and its creation on start, share
+	// the first one's creation
+	CompletableFuture<BasicIssue> creation = new CompletableFuture<BasicIssue>();
+	CompletableFuture<BasicIssue> inFlight = outbox.beginCreation(
+		sonarIssue.key(), creation);
+	if (inFlight != null) {
+	    LOG.debug("JIRA issue of Sonar issue {} already being created",
+		    sonarIssue.key());
+	    BasicIssue issue = await(inFlight);
+	    outbox.takeReplayed(sonarIssue.key());
+	    return issue;
+	}
+	try {
+	    BasicIssue issue = createSessionAndIssue(sonarIssue, settings);
+	    creation.complete(issue);
+	    return issue;
+	} catch (RemoteException | RuntimeException e) {
+	    creation.completeExceptionally(e);
+	    throw e;
+	} finally {
+	    outbox.endCreation(sonarIssue.key(), creation);
+	}
+    }
+
+    private BasicIssue createSessionAndIssue(Issue sonarIssue,
+	    Settings settings) throws RemoteException {
 	JiraSession soapSession = createSession(settings);
 
-	return doCreateIssue(sonarIssue, soapSession, settings);
+	try {
+	    return doCreateIssue(sonarIssue, soapSession, settings);
+	} finally {
+	    sessionRegistry.release(soapSession);
+	}
+    }
+
+    private static BasicIssue await(CompletableFuture<BasicIssue> creation)
+	    throws RemoteException {
+	try {
+	    return creation.get();
+	} catch (InterruptedException e) {
+	    Thread.currentThread().interrupt();
+	    throw new IllegalStateException("Exception during issue creation",
+		    e);
+	} catch (ExecutionException e) {
+	    if (e.getCause() instanceof RemoteException) {
+		throw (RemoteException) e.getCause();
+	    }
+	    if (e.getCause() instanceof RuntimeException) {
+		throw (RuntimeException) e.getCause();
+	    }
+	    throw new IllegalStateException("Exception during issue creation",
+		    e.getCause());
+	}
     }
 
     protected JiraSession createSession(Settings settings) {
 	String jiraUrl = settings.getString(JiraConstants.SERVER_URL_PROPERTY);
 
-	// get handle to the JIRA SOAP Service from a client point of view
-	JiraSession soapSession = null;
+	// get handle to the shared JIRA session from a client point of view
+	URL url;
 	try {
-	    soapSession = new JiraSession(new URL(jiraUrl));
+	    url = new URL(jiraUrl);
 	} catch (MalformedURLException e) {
 	    LOG.error("The JIRA server URL is not a valid one: " + jiraUrl,
 		    e);
 	    throw new IllegalStateException(
 		    "The JIRA server URL is not a valid one: " + jiraUrl, e);
 	}
+	JiraSession soapSession;
 	try {
-		soapSession.connect(
+		soapSession = sessionRegistry.acquire(url,
 				settings.getString(JiraConstants.USERNAME_PROPERTY),
 				settings.getString(JiraConstants.PASSWORD_PROPERTY));
 	} catch (RemoteException e) {
@@ -109,11 +185,33 @@ public class JiraIssueCreator implements ServerExtension {
 	// String authToken = session.getAuthenticationToken();
 	IssueRestClient issueClient = service.getIssueClient();
 	ProjectRestClient prjClient = service.getProjectClient();
+	JiraProjectConfig config = getConfig(settings, sonarIssue.projectKey());
+
+	// double click, or retry of a request JIRA answered too late
+	BasicIssue existing = findCreatedIssue(sonarIssue, session, config);
+	if (existing != null) {
+	    LOG.info("Sonar issue {} is already linked to JIRA issue {}",
+		    sonarIssue.key(), existing.getKey());
+	    return existing;
+	}
 
 	// And create the issue
-	IssueInput issue = initRemoteIssue(sonarIssue, settings, issueClient,
+	IssueInput issue = initRemoteIssue(sonarIssue, config, issueClient,
 		prjClient);
-	BasicIssue returnedIssue = sendRequest(issueClient, issue);
+	outbox.append(sonarIssue.key(), config.getServerUrl(),
+		config.getUserName(), issue);
+	BasicIssue returnedIssue;
+	try {
+	    returnedIssue = sendRequest(issueClient, issue);
+	} catch (IllegalStateException e) {
+	    // sending it again on restart would be rejected as well
+	    if (isRejected(e)) {
+		outbox.discard(sonarIssue.key());
+	    }
+	    throw e;
+	}
+	outbox.acknowledge(sonarIssue.key(), returnedIssue);
+	recordCreatedIssue(sonarIssue, session, returnedIssue);
 
 	String issueKey = returnedIssue.getKey();
 	LOG.debug("Successfully created issue {}", issueKey);
@@ -131,6 +229,9 @@ public class JiraIssueCreator implements ServerExtension {
 	    throw new IllegalStateException("Exception during issue creation",
 		    e);
 	} catch (ExecutionException e) {
+	    if (e.getCause() instanceof JiraCircuitOpenException) {
+		throw (JiraCircuitOpenException) e.getCause();
+	    }
 
 	    throw new IllegalStateException("Exception during issue creation",
 		    e);
@@ -158,36 +259,70 @@ public class JiraIssueCreator implements ServerExtension {
 	 */
     }
 
-    protected IssueInput initRemoteIssue(Issue sonarIssue, Settings settings,
-	    IssueRestClient issueClient, ProjectRestClient prjClient) {
-	String jiraProjectKey = getJiraProjectKey(settings, sonarIssue.projectKey(), sonarIssue.componentKey());
+    /**
+     * @return the JIRA issue already created for the Sonar issue, or null
+     */
+    protected BasicIssue findCreatedIssue(Issue sonarIssue,
+	    JiraSession session, JiraProjectConfig config) {
+	return issueIndex.find(session, config.getRouting().getJiraProjectKey(
+		sonarIssue.projectKey(), sonarIssue.componentKey()), sonarIssue
+		.key());
+    }
+
+    protected void recordCreatedIssue(Issue sonarIssue, JiraSession session,
+	    BasicIssue issue) {
+	issueIndex.put(session, sonarIssue.key(), issue);
+    }
+
+    /**
+     * @return true if JIRA refused the request, as opposed to failing to
+     *         answer it
+     */
+    static boolean isRejected(Throwable t) {
+	for (Throwable cause = t; cause != null; cause = cause.getCause()) {
+	    if (cause instanceof RestClientException) {
+		Optional<Integer> status = ((RestClientException) cause)
+			.getStatusCode();
+		return status != null && status.isPresent()
+			&& status.get() / 100 == 4;
+	    }
+	}
+	return false;
+    }
+
+    protected IssueInput initRemoteIssue(Issue sonarIssue,
+	    JiraProjectConfig config, IssueRestClient issueClient,
+	    ProjectRestClient prjClient) {
+	String jiraProjectKey = config.getRouting().getJiraProjectKey(
+		sonarIssue.projectKey(), sonarIssue.componentKey());
 	IssueInputBuilder builder = new IssueInputBuilder(
 		jiraProjectKey,
-		settings.getLong(JiraConstants.JIRA_ISSUE_TYPE_ID),
+		config.getIssueTypeId(),
 		generateIssueSummary(sonarIssue));
-	builder.setPriorityId(sonarSeverityToJiraPriorityId(
-		RulePriority.valueOf(sonarIssue.severity()), settings));
-	builder.setDescription(generateIssueDescription(sonarIssue, settings));
-	if (settings.hasKey(JiraConstants.JIRA_ISSUE_COMPONENT_ID)) {
-		long componentId = settings
-			.getLong(JiraConstants.JIRA_ISSUE_COMPONENT_ID);
-	    BasicComponent comp = null;
+	builder.setPriorityId(config.getPriorityId(RulePriority
+		.valueOf(sonarIssue.severity())));
+	builder.setDescription(generateIssueDescription(sonarIssue, config));
+	if (config.getComponentId() != null) {
+	    long componentId = config.getComponentId();
 	    try {
-		Iterable<BasicComponent> comps = prjClient
-			.getProject(
-				settings.getString(JiraConstants.JIRA_PROJECT_KEY_PROPERTY))
-			.get().getComponents();
-		for (BasicComponent bc : comps) {
-		    if (bc.getId() == componentId) {
-			comp = bc;
-		    }
+		String componentProjectKey = config.getProjectKey();
+		BasicComponent comp = metadataCache.getComponent(
+			config.getServerUrl(), prjClient, componentProjectKey,
+			componentId);
+		if (comp == null) {
+		    throw new IllegalStateException("The JIRA component "
+			    + componentId + " does not exist in JIRA project "
+			    + componentProjectKey + ", check the property \""
+			    + JiraConstants.JIRA_ISSUE_COMPONENT_ID + "\"");
 		}
-		// TODO: raise exception for component not found?
 		builder.setComponents(comp);
 	    } catch (InterruptedException e) {
 		throw new IllegalStateException(
 			"Exception during components retrieval", e);
 	    } catch (ExecutionException e) {
+		if (e.getCause() instanceof JiraCircuitOpenException) {
+		    throw (JiraCircuitOpenException) e.getCause();
+		}
 		throw new IllegalStateException(
 			"Exception during components retrieval", e);
 	    }
@@ -195,95 +330,52 @@ public class JiraIssueCreator implements ServerExtension {
 	return builder.build();
     }
 
-	private String getJiraProjectKey(Settings settings, String projectKey, String componentKey) {
-		final String topLevelPackage = settings.getString(JiraConstants.JIRA_TOP_LEVEL_PACKAGE + "." + projectKey);
-		if (topLevelPackage != null) {
-			componentKey = convertComponentKey(projectKey, componentKey, topLevelPackage);
-			String jiraProjectKey = findJiraProjectKey(settings, componentKey);
-			if (jiraProjectKey != null) {
-				return jiraProjectKey;
-			}
-		}
-		return settings.getString(JiraConstants.JIRA_PROJECT_KEY_PROPERTY);
-	}
-
-	private String convertComponentKey(String projectKey, String componentKey, String topLevelPackage) {
-		componentKey = componentKey.replace(topLevelPackage, projectKey);
-		componentKey = removePathFromComponentKey(componentKey);
-		return componentKey.replaceAll(":", ".");
-	}
-
-	private String findJiraProjectKey(Settings settings, String componentKey) {
-		String settingKey = JiraConstants.JIRA_PROJECT_KEY_PROPERTY + "." + componentKey;
-		String projectKey = settings.getString(settingKey);
-		if (projectKey != null) {
-			return projectKey;
-		}
-		int index = componentKey.lastIndexOf('.');
-		if (index == -1) {
-			return null;
-		}
-		componentKey = componentKey.substring(0, index);
-		return findJiraProjectKey(settings, componentKey);
-	}
-
-	private String removePathFromComponentKey(String componentKey) {
-		int index = componentKey.lastIndexOf(':');
-		return componentKey.substring(0, index);
+    /**
+     * @return the JIRA configuration of the Sonar project, read again when its
+     *         properties change. Resolve it once by link, and pass it down.
+     */
+    JiraProjectConfig getConfig(Settings settings, String projectKey) {
+	JiraProjectConfig config = configs.get(projectKey);
+	if (config == null || !config.isReadFrom(settings)) {
+	    config = new JiraProjectConfig(settings);
+	    configs.put(projectKey, config);
 	}
+	return config;
+    }
 
-	protected String generateIssueSummary(Issue sonarIssue) {
-	Rule rule = ruleFinder.findByKey(sonarIssue.ruleKey());
+    protected String generateIssueSummary(Issue sonarIssue) {
+	String ruleName = ruleCache.getName(sonarIssue.ruleKey());
 
-	StringBuilder summary = new StringBuilder("Sonar Issue #");
+	StringBuilder summary = new StringBuilder(SUMMARY_PREFIX);
 	summary.append(sonarIssue.key());
-	if (rule != null && rule.getName() != null) {
+	if (ruleName != null) {
 	    summary.append(" - ");
-	    summary.append(rule.getName().toString());
+	    summary.append(ruleName);
 	}
 	return summary.toString();
     }
 
     protected String generateIssueDescription(Issue sonarIssue,
-	    Settings settings) {
+	    JiraProjectConfig config) {
 	StringBuilder description = new StringBuilder("Issue detail:");
 	description.append(QUOTE);
 	description.append(sonarIssue.message());
 	description.append(QUOTE);
+	if (config.isRuleDescription()) {
+	    String ruleDescription = ruleCache.getDescription(sonarIssue
+		    .ruleKey());
+	    if (ruleDescription != null) {
+		description.append("\n\nRule description:");
+		description.append(QUOTE);
+		description.append(ruleDescription);
+		description.append(QUOTE);
+	    }
+	}
 	description.append("\n\nCheck it on Sonar: ");
-	description.append(settings.getString(CoreProperties.SERVER_BASE_URL));
+	description.append(config.getSonarUrl());
 	description.append("/issue/show/");
 	description.append(sonarIssue.key());
 	return description.toString();
     }
 
-    protected long sonarSeverityToJiraPriorityId(RulePriority reviewSeverity,
-	    Settings settings) {
-	final long priorityId;
-	switch (reviewSeverity) {
-	case INFO:
-	    priorityId = settings.getLong(JiraConstants.JIRA_INFO_PRIORITY_ID);
-	    break;
-	case MINOR:
-	    priorityId = settings.getLong(JiraConstants.JIRA_MINOR_PRIORITY_ID);
-	    break;
-	case MAJOR:
-	    priorityId = settings.getLong(JiraConstants.JIRA_MAJOR_PRIORITY_ID);
-	    break;
-	case CRITICAL:
-	    priorityId = settings
-		    .getLong(JiraConstants.JIRA_CRITICAL_PRIORITY_ID);
-	    break;
-	case BLOCKER:
-	    priorityId = settings
-		    .getLong(JiraConstants.JIRA_BLOCKER_PRIORITY_ID);
-	    break;
-	default:
-	    throw new SonarException(
-		    "Unable to convert review severity to JIRA priority: "
-			    + reviewSeverity);
-	}
-	return priorityId;
-    }
-
 }
@@ -0,0 +1,419 @@
+/*
+ * Sonar JIRA Plugin
+ * Copyright (C) 2009 SonarSource
+ * dev@sonar.codehaus.org
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02
+ */
+package org.sonar.plugins.jira.reviews;
+
+import com.atlassian.jira.rest.client.api.SearchRestClient;
+import com.atlassian.jira.rest.client.api.domain.BasicIssue;
+import com.atlassian.jira.rest.client.api.domain.Issue;
+import com.atlassian.jira.rest.client.api.domain.SearchResult;
+import com.google.common.collect.ArrayListMultimap;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.ListMultimap;
+import com.google.common.collect.Sets;
+import org.apache.commons.io.IOUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.sonar.api.ServerExtension;
+import org.sonar.api.config.Settings;
+import org.sonar.plugins.jira.JiraStorage;
+import org.sonar.plugins.jira.rest.JiraCircuitOpenException;
+import org.sonar.plugins.jira.rest.JiraSession;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Collection;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Keys of the JIRA issues already created for Sonar issues, by JIRA server.
+ * <p>
+ * The JIRA issues created by the plugin are found back by their summary, which
+ * holds the key of their Sonar issue. Each JIRA project is searched once, the
+ * first time an issue is linked to it, then the index is kept up to date with
+ * the issues created from this server. The links of the other projects do not
+ * wait for the search, and a JIRA issue found in the index is checked to
+ * still exist in JIRA before it is returned. It is saved in the storage
+ * directory of the plugin when the server stops. If the server stops without
+ * saving it, the previous save is read again and the JIRA projects are
+ * searched again for the issues created meanwhile.
+ */
+public class JiraIssueIndex implements ServerExtension {
+
+    private static final Logger LOG = LoggerFactory
+	    .getLogger(JiraIssueIndex.class);
+
+    private static final int MAGIC = 0x4A495249;
+    private static final int VERSION = 1;
+    private static final int PAGE_SIZE = 100;
+    /** Fields the REST client needs to read the found issues. */
+    private static final Set<String> SEARCH_FIELDS = ImmutableSet.of(
+	    "summary", "issuetype", "created", "updated", "project", "status");
+    private static final Pattern SUMMARY = Pattern.compile("^"
+	    + Pattern.quote(JiraIssueCreator.SUMMARY_PREFIX) + "(\\S+)");
+
+    /** JIRA issue keys, by server and Sonar issue key. */
+    private final ConcurrentMap<String, String> jiraKeys = new ConcurrentHashMap<String, String>();
+    /** JIRA projects already searched, by server and project key. */
+    private final Set<String> indexedProjects = Sets.newConcurrentHashSet();
+    /** Searches in progress, by server and project key. */
+    private final ConcurrentMap<String, CompletableFuture<Void>> indexings = new ConcurrentHashMap<String, CompletableFuture<Void>>();
+    private final File file;
+    /** Exists while the index is used, until it is saved. */
+    private final File openFile;
+
+    public JiraIssueIndex(Settings settings) {
+	this.file = new File(JiraStorage.getDirectory(settings, "index"),
+		"keys.bin");
+	this.openFile = new File(file.getParentFile(), file.getName() + ".open");
+    }
+
+    public void start() {
+	load();
+    }
+
+    public void stop() {
+	save();
+    }
+
+    /**
+     * Returns the JIRA issue already created for a Sonar issue, searching the
+     * JIRA project first if it was never searched. A JIRA issue deleted since
+     * it was indexed is forgotten.
+     * 
+     * @return null if the Sonar issue is not linked to any JIRA issue yet
+     */
+    public BasicIssue find(JiraSession session, String jiraProjectKey,
+	    String sonarIssueKey) {
+	String server = session.getWebServiceUrl().toString();
+	if (jiraProjectKey != null) {
+	    indexProject(session, server, jiraProjectKey);
+	}
+	String key = key(server, sonarIssueKey);
+	String jiraKey = jiraKeys.get(key);
+	if (jiraKey == null) {
+	    return null;
+	}
+	if (!exists(session, jiraKey)) {
+	    LOG.info("JIRA issue {} of Sonar issue {} was deleted", jiraKey,
+		    sonarIssueKey);
+	    jiraKeys.remove(key, jiraKey);
+	    return null;
+	}
+	return new BasicIssue(null, jiraKey, null);
+    }
+
+    /**
+     * Searches the JIRA projects which were never searched.
+     */
+    public void index(JiraSession session, Collection<String> jiraProjectKeys) {
+	String server = session.getWebServiceUrl().toString();
+	for (String jiraProjectKey : jiraProjectKeys) {
+	    indexProject(session, server, jiraProjectKey);
+	}
+    }
+
+    public void put(JiraSession session, String sonarIssueKey,
+	    BasicIssue issue) {
+	jiraKeys.put(key(session.getWebServiceUrl().toString(), sonarIssueKey),
+		issue.getKey());
+    }
+
+    /**
+     * Forgets a deleted JIRA issue of the server of the session.
+     */
+    public void remove(JiraSession session, String jiraKey) {
+	String prefix = key(session.getWebServiceUrl().toString(), "");
+	for (Map.Entry<String, String> entry : jiraKeys.entrySet()) {
+	    if (entry.getKey().startsWith(prefix)
+		    && entry.getValue().equals(jiraKey)) {
+		jiraKeys.remove(entry.getKey(), jiraKey);
+	    }
+	}
+    }
+
+    /**
+     * @return the keys of the Sonar issues linked to the JIRA issues of the
+     *         server of the session, by JIRA issue key
+     */
+    public ListMultimap<String, String> getSonarIssueKeys(JiraSession session) {
+	String prefix = key(session.getWebServiceUrl().toString(), "");
+	ListMultimap<String, String> keys = ArrayListMultimap.create();
+	for (Map.Entry<String, String> entry : jiraKeys.entrySet()) {
+	    if (entry.getKey().startsWith(prefix)) {
+		keys.put(entry.getValue(),
+			entry.getKey().substring(prefix.length()));
+	    }
+	}
+	return keys;
+    }
+
+    int size() {
+	return jiraKeys.size();
+    }
+
+    /**
+     * @return the key of the Sonar issue of a JIRA issue created by the
+     *         plugin, or null
+     */
+    static String sonarIssueKeyOf(String summary) {
+	if (summary == null) {
+	    return null;
+	}
+	Matcher matcher = SUMMARY.matcher(summary);
+	return matcher.find() ? matcher.group(1) : null;
+    }
+
+    /**
+     * @return false if JIRA refuses to search the issue, as it does for the
+     *         deleted ones
+     */
+    private static boolean exists(JiraSession session, String jiraKey) {
+	try {
+	    session.getJiraRestClient().getSearchClient()
+		    .searchJql("key in (" + jiraKey + ")", 1, 0, SEARCH_FIELDS)
+		    .get();
+	    return true;
+	} catch (InterruptedException e) {
+	    Thread.currentThread().interrupt();
+	    throw new IllegalStateException(
+		    "Exception during JIRA issue search", e);
+	} catch (ExecutionException e) {
+	    if (e.getCause() instanceof JiraCircuitOpenException) {
+		throw (JiraCircuitOpenException) e.getCause();
+	    }
+	    if (JiraIssueCreator.isRejected(e.getCause())) {
+		return false;
+	    }
+	    LOG.debug("Unable to check JIRA issue " + jiraKey, e.getCause());
+	    return true;
+	}
+    }
+
+    /**
+     * Searches the JIRA project unless it was already searched. Concurrent
+     * links to the project wait for the first one's search, the links to the
+     * other projects do not.
+     */
+    private void indexProject(JiraSession session, String server,
+	    String jiraProjectKey) {
+	String project = key(server, jiraProjectKey);
+	if (indexedProjects.contains(project)) {
+	    return;
+	}
+	CompletableFuture<Void> indexing = new CompletableFuture<Void>();
+	CompletableFuture<Void> inFlight = indexings.putIfAbsent(project,
+		indexing);
+	if (inFlight != null) {
+	    await(inFlight);
+	    return;
+	}
+	try {
+	    if (!indexedProjects.contains(project)) {
+		search(session, server, jiraProjectKey);
+	    }
+	    indexing.complete(null);
+	} catch (RuntimeException e) {
+	    indexing.completeExceptionally(e);
+	    throw e;
+	} finally {
+	    indexings.remove(project, indexing);
+	}
+    }
+
+    private static void await(CompletableFuture<Void> indexing) {
+	try {
+	    indexing.get();
+	} catch (InterruptedException e) {
+	    Thread.currentThread().interrupt();
+	    throw new IllegalStateException(
+		    "Exception during JIRA issues indexing", e);
+	} catch (ExecutionException e) {
+	    if (e.getCause() instanceof RuntimeException) {
+		throw (RuntimeException) e.getCause();
+	    }
+	    throw new IllegalStateException(
+		    "Exception during JIRA issues indexing", e.getCause());
+	}
+    }
+
+    private void search(JiraSession session, String server,
+	    String jiraProjectKey) {
+	String project = key(server, jiraProjectKey);
+	SearchRestClient searchClient = session.getJiraRestClient()
+		.getSearchClient();
+	String jql = "project = \"" + jiraProjectKey
+		+ "\" AND summary ~ \"\\\""
+		+ JiraIssueCreator.SUMMARY_PREFIX.trim()
+		+ "\\\"\" ORDER BY created ASC";
+	int startAt = 0;
+	int found = 0;
+	try {
+	    while (true) {
+		SearchResult page = searchClient.searchJql(jql, PAGE_SIZE,
+			startAt, SEARCH_FIELDS).get();
+		int size = 0;
+		for (Issue issue : page.getIssues()) {
+		    size++;
+		    String sonarIssueKey = sonarIssueKeyOf(issue
+			    .getSummary());
+		    // the oldest one wins if there are duplicates already
+		    if (sonarIssueKey != null
+			    && jiraKeys.putIfAbsent(
+				    key(server, sonarIssueKey),
+				    issue.getKey()) == null) {
+			found++;
+		    }
+		}
+		startAt += size;
+		if (size == 0 || startAt >= page.getTotal()) {
+		    break;
+		}
+	    }
+	} catch (InterruptedException e) {
+	    Thread.currentThread().interrupt();
+	    throw new IllegalStateException(
+		    "Exception during JIRA issues indexing", e);
+	} catch (ExecutionException e) {
+	    if (e.getCause() instanceof JiraCircuitOpenException) {
+		throw (JiraCircuitOpenException) e.getCause();
+	    }
+	    LOG.warn("Unable to index the JIRA issues of project "
+		    + jiraProjectKey + ", their duplicates are not detected",
+		    e.getCause());
+	    return;
+	}
+	indexedProjects.add(project);
+	LOG.info("Indexed {} JIRA issues of Sonar issues in project {}",
+		found, jiraProjectKey);
+    }
+
+    private static String key(String server, String key) {
+	return server + ' ' + key;
+    }
+
+    /**
+     * Reads the index saved on stop. The file is kept until the next save, but
+     * if the previous run did not save it, the issues it created meanwhile are
+     * missing, so the JIRA projects are searched again.
+     */
+    private synchronized void load() {
+	if (file.isFile()) {
+	    read();
+	}
+	markOpen();
+    }
+
+    private void read() {
+	DataInputStream input = null;
+	try {
+	    input = new DataInputStream(new BufferedInputStream(
+		    new FileInputStream(file)));
+	    if (input.readInt() != MAGIC || input.readInt() != VERSION) {
+		LOG.warn("Ignoring JIRA issue index of unknown format: {}",
+			file);
+		return;
+	    }
+	    int projects = input.readInt();
+	    for (int i = 0; i < projects; i++) {
+		indexedProjects.add(input.readUTF());
+	    }
+	    int count = input.readInt();
+	    for (int i = 0; i < count; i++) {
+		jiraKeys.put(input.readUTF(), input.readUTF());
+	    }
+	    if (openFile.exists()) {
+		LOG.info("JIRA issue index {} was not saved, its projects are searched again",
+			file);
+		indexedProjects.clear();
+	    }
+	} catch (IOException e) {
+	    LOG.warn("Unable to read the JIRA issue index " + file, e);
+	    indexedProjects.clear();
+	    jiraKeys.clear();
+	} finally {
+	    IOUtils.closeQuietly(input);
+	}
+    }
+
+    private void markOpen() {
+	try {
+	    File dir = openFile.getParentFile();
+	    if (!dir.isDirectory() && !dir.mkdirs()) {
+		throw new IOException("Unable to create directory " + dir);
+	    }
+	    if (!openFile.exists() && !openFile.createNewFile()) {
+		throw new IOException("Unable to create " + openFile);
+	    }
+	} catch (IOException e) {
+	    LOG.warn("Unable to mark the JIRA issue index as in use", e);
+	}
+    }
+
+    private synchronized void save() {
+	File dir = file.getParentFile();
+	File tmp = new File(dir, file.getName() + ".tmp");
+	DataOutputStream output = null;
+	try {
+	    if (!dir.isDirectory() && !dir.mkdirs()) {
+		throw new IOException("Unable to create directory " + dir);
+	    }
+	    output = new DataOutputStream(new BufferedOutputStream(
+		    new FileOutputStream(tmp)));
+	    output.writeInt(MAGIC);
+	    output.writeInt(VERSION);
+	    Set<String> projects = ImmutableSet.copyOf(indexedProjects);
+	    output.writeInt(projects.size());
+	    for (String project : projects) {
+		output.writeUTF(project);
+	    }
+	    Map<String, String> keys = new ConcurrentHashMap<String, String>(
+		    jiraKeys);
+	    output.writeInt(keys.size());
+	    for (Map.Entry<String, String> entry : keys.entrySet()) {
+		output.writeUTF(entry.getKey());
+		output.writeUTF(entry.getValue());
+	    }
+	    output.close();
+	    output = null;
+	    if (file.exists() && !file.delete() || !tmp.renameTo(file)) {
+		throw new IOException("Unable to write " + file);
+	    }
+	    if (!openFile.delete()) {
+		LOG.debug("JIRA issue index {} was not marked as in use", file);
+	    }
+	} catch (IOException e) {
+	    LOG.warn("Unable to save the JIRA issue index " + file, e);
+	} finally {
+	    IOUtils.closeQuietly(output);
+	}
+    }
+}
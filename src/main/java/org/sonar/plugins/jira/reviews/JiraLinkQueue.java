@@ -0,0 +1,271 @@
+/*
+ * Sonar JIRA Plugin
+ * Copyright (C) 2009 SonarSource
+ * dev@sonar.codehaus.org
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02
+ */
+package org.sonar.plugins.jira.reviews;
+
+import com.atlassian.jira.rest.client.api.domain.BasicIssue;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.sonar.api.Properties;
+import org.sonar.api.Property;
+import org.sonar.api.PropertyType;
+import org.sonar.api.ServerExtension;
+import org.sonar.api.config.Settings;
+import org.sonar.api.issue.Issue;
+import org.sonar.plugins.jira.JiraConstants;
+import org.sonar.plugins.jira.rest.LatencyHistogram;
+import java.lang.management.ManagementFactory;
+import java.rmi.RemoteException;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+/**
+ * Creates the JIRA issues of "Link to JIRA" in the background, so that the
+ * action returns immediately.
+ * <p>
+ * A pool of workers creates the queued JIRA issues. Each created issue is kept
+ * until {@link LinkFunction} runs again on its Sonar issue and writes the JIRA
+ * issue key back. The action is hidden while the creation is pending, so that
+ * a second click does not queue it again. The worker then asks Sonar to run the action through
+ * {@link SonarIssueActions} when it is configured. Otherwise, the key is
+ * written back the next time a user clicks "Link to JIRA". A failed creation
+ * is kept and reported the same way, so that the Sonar issue is no longer
+ * marked as pending. At most {@value #MAX_KEPT_ISSUES} created and failed
+ * issues are kept, the oldest being dropped: the JIRA issues are also in the
+ * {@link JiraIssueIndex}, which links them on the next click.
+ * <p>
+ * The queue is enabled or not when the server starts, changing the property
+ * afterwards takes effect on the next restart.
+ */
+@Properties({
+	@Property(key = JiraConstants.LINK_ASYNC_PROPERTY, defaultValue = JiraConstants.LINK_ASYNC_DEF_VALUE, name = "Asynchronous link", description = "Whether \"Link to JIRA\" creates the JIRA issue in the background instead of waiting for JIRA. Takes effect on the next restart.", global = true, project = false, type = PropertyType.BOOLEAN),
+	@Property(key = JiraConstants.LINK_WORKERS_PROPERTY, defaultValue = JiraConstants.LINK_WORKERS_DEF_VALUE, name = "Asynchronous link workers", description = "Number of JIRA issues created at the same time in the background.", global = true, project = false, type = PropertyType.INTEGER),
+	@Property(key = JiraConstants.SONAR_LOGIN_PROPERTY, defaultValue = "", name = "Sonar login", description = "Sonar user the JIRA issue keys written back in the background are attributed to. No password is needed, the issues are updated inside the Sonar server.", global = true, project = false) })
+public class JiraLinkQueue implements ServerExtension, JiraLinkQueueMXBean {
+
+    private static final Logger LOG = LoggerFactory
+	    .getLogger(JiraLinkQueue.class);
+
+    static final String OBJECT_NAME = "org.sonar.plugins.jira:type=LinkQueue";
+    private static final double MICROS_PER_MILLI = 1000.0;
+    static final int MAX_KEPT_ISSUES = 10000;
+
+    private final Settings settings;
+    private final JiraIssueCreator jiraIssueCreator;
+    private final SonarIssueActions sonarIssueActions;
+    private final ConcurrentMap<String, Long> pending = new ConcurrentHashMap<String, Long>();
+    private final Map<String, BasicIssue> created = newBoundedMap();
+    /** Failure messages of the creations not reported yet. */
+    private final Map<String, String> failures = newBoundedMap();
+    private final AtomicLong processed = new AtomicLong();
+    private final AtomicLong failed = new AtomicLong();
+    private final LatencyHistogram latencies = new LatencyHistogram();
+    private volatile ExecutorService workers;
+
+    public JiraLinkQueue(Settings settings, JiraIssueCreator jiraIssueCreator,
+	    SonarIssueActions sonarIssueActions) {
+	this.settings = settings;
+	this.jiraIssueCreator = jiraIssueCreator;
+	this.sonarIssueActions = sonarIssueActions;
+    }
+
+    public void start() {
+	if (!settings.getBoolean(JiraConstants.LINK_ASYNC_PROPERTY)) {
+	    return;
+	}
+	int count = settings.getInt(JiraConstants.LINK_WORKERS_PROPERTY);
+	count = count > 0 ? count : Integer
+		.parseInt(JiraConstants.LINK_WORKERS_DEF_VALUE);
+	workers = new ThreadPoolExecutor(count, count, 0L,
+		TimeUnit.MILLISECONDS, new LinkedBlockingQueue<Runnable>(),
+		new ThreadFactoryBuilder().setDaemon(true)
+			.setNameFormat("jira-link-worker-%d").build());
+	try {
+	    MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+	    ObjectName name = new ObjectName(OBJECT_NAME);
+	    if (server.isRegistered(name)) {
+		server.unregisterMBean(name);
+	    }
+	    server.registerMBean(this, name);
+	} catch (JMException e) {
+	    LOG.warn("Unable to publish the JIRA link queue over JMX", e);
+	}
+    }
+
+    public void stop() {
+	if (workers == null) {
+	    return;
+	}
+	workers.shutdown();
+	try {
+	    if (!workers.awaitTermination(10, TimeUnit.SECONDS)) {
+		LOG.warn("{} JIRA issues were not created before shutdown",
+			pending.size());
+		workers.shutdownNow();
+	    }
+	} catch (InterruptedException e) {
+	    Thread.currentThread().interrupt();
+	}
+	workers = null;
+	try {
+	    ManagementFactory.getPlatformMBeanServer().unregisterMBean(
+		    new ObjectName(OBJECT_NAME));
+	} catch (JMException e) {
+	    LOG.debug("Unable to unregister the JIRA link queue", e);
+	}
+    }
+
+    /**
+     * @return whether the queue was enabled when the server started
+     */
+    public boolean isEnabled() {
+	return workers != null;
+    }
+
+    /**
+     * Queues the creation of the JIRA issue of a Sonar issue.
+     * 
+     * @return false if the creation is already queued
+     */
+    public boolean enqueue(Issue sonarIssue, Settings projectSettings) {
+	if (workers == null) {
+	    throw new IllegalStateException(
+		    "The asynchronous link to JIRA is not enabled");
+	}
+	long enqueuedAt = System.nanoTime();
+	if (pending.putIfAbsent(sonarIssue.key(), enqueuedAt) != null) {
+	    return false;
+	}
+	workers.execute(() -> process(sonarIssue, projectSettings, enqueuedAt));
+	return true;
+    }
+
+    public boolean isPending(String sonarIssueKey) {
+	return pending.containsKey(sonarIssueKey);
+    }
+
+    /**
+     * Returns, only once, the JIRA issue created in the background for a Sonar
+     * issue.
+     */
+    public BasicIssue takeCreated(String sonarIssueKey) {
+	return created.remove(sonarIssueKey);
+    }
+
+    /**
+     * Returns, only once, why the JIRA issue of a Sonar issue could not be
+     * created in the background.
+     */
+    public String takeFailure(String sonarIssueKey) {
+	return failures.remove(sonarIssueKey);
+    }
+
+    private void process(Issue sonarIssue, Settings projectSettings,
+	    long enqueuedAt) {
+	String key = sonarIssue.key();
+	try {
+	    BasicIssue issue = jiraIssueCreator.createIssue(sonarIssue,
+		    projectSettings);
+	    created.put(key, issue);
+	    processed.incrementAndGet();
+	    LOG.debug("Created JIRA issue {} for Sonar issue {}",
+		    issue.getKey(), key);
+	    latencies.record(System.nanoTime() - enqueuedAt,
+		    TimeUnit.NANOSECONDS);
+	} catch (RemoteException | RuntimeException e) {
+	    failed.incrementAndGet();
+	    LOG.error("Unable to create the JIRA issue of Sonar issue " + key,
+		    e);
+	    failures.put(key, e.getMessage());
+	} finally {
+	    // the action is hidden while pending, and available again to
+	    // write the result back
+	    pending.remove(key);
+	}
+	writeBack(key);
+    }
+
+    /**
+     * Runs the action again, for {@link LinkFunction} to take the created
+     * issue or the failure.
+     */
+    private void writeBack(String key) {
+	if (!sonarIssueActions.isConfigured()) {
+	    return;
+	}
+	try {
+	    sonarIssueActions.doAction(key,
+		    JiraActionDefinition.LINK_TO_JIRA_ID);
+	} catch (RuntimeException e) {
+	    LOG.warn("Unable to link Sonar issue " + key
+		    + " to its JIRA issue, it will be on the next click", e);
+	}
+    }
+
+    private static <V> Map<String, V> newBoundedMap() {
+	return Collections.synchronizedMap(new LinkedHashMap<String, V>() {
+	    @Override
+	    protected boolean removeEldestEntry(Map.Entry<String, V> eldest) {
+		return size() > MAX_KEPT_ISSUES;
+	    }
+	});
+    }
+
+    @Override
+    public int getQueueDepth() {
+	return pending.size();
+    }
+
+    @Override
+    public long getProcessedCount() {
+	return processed.get();
+    }
+
+    @Override
+    public long getFailedCount() {
+	return failed.get();
+    }
+
+    @Override
+    public double getLatencyMean() {
+	return latencies.getMeanMicros() / MICROS_PER_MILLI;
+    }
+
+    @Override
+    public double getLatency95thPercentile() {
+	return latencies.getPercentileMicros(95.0) / MICROS_PER_MILLI;
+    }
+
+    @Override
+    public double getLatencyMax() {
+	return latencies.getMaxMicros() / MICROS_PER_MILLI;
+    }
+}
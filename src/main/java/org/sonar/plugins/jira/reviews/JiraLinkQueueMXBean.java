@@ -0,0 +1,39 @@
+/*
+ * Sonar JIRA Plugin
+ * Copyright (C) 2009 SonarSource
+ * dev@sonar.codehaus.org
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02
+ */
+package org.sonar.plugins.jira.reviews;
+
+/**
+ * Management interface of the {@link JiraLinkQueue}. Latencies are in
+ * milliseconds, from the link request to the creation of the JIRA issue.
+ */
+public interface JiraLinkQueueMXBean {
+
+    int getQueueDepth();
+
+    long getProcessedCount();
+
+    long getFailedCount();
+
+    double getLatencyMean();
+
+    double getLatency95thPercentile();
+
+    double getLatencyMax();
+}
@@ -0,0 +1,660 @@
+/*
+ * Sonar JIRA Plugin
+ * Copyright (C) 2009 SonarSource
+ * dev@sonar.codehaus.org
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02
+ */
+package org.sonar.plugins.jira.reviews;
+
+import com.atlassian.jira.rest.client.api.domain.BasicIssue;
+import com.atlassian.jira.rest.client.api.domain.input.ComplexIssueInputFieldValue;
+import com.atlassian.jira.rest.client.api.domain.input.FieldInput;
+import com.atlassian.jira.rest.client.api.domain.input.IssueInput;
+import com.google.common.base.Charsets;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
+import org.apache.commons.lang.StringUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.sonar.api.ServerExtension;
+import org.sonar.api.config.Settings;
+import org.sonar.plugins.jira.JiraConstants;
+import org.sonar.plugins.jira.JiraStorage;
+import org.sonar.plugins.jira.rest.JiraSession;
+import org.sonar.plugins.jira.rest.JiraSessionRegistry;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.net.URL;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.zip.CRC32;
+
+/**
+ * Append-only journal of the JIRA issues being created, kept in the storage
+ * directory of the plugin so that they survive a restart of the server.
+ * <p>
+ * Each {@link IssueInput} is recorded before it is sent to JIRA, under the key
+ * of its Sonar issue, which is also its idempotency key, and acknowledged once
+ * JIRA created it. The journal is split into segments, the oldest ones being
+ * deleted once all their entries are acknowledged. On start, the entries left
+ * pending are sent again in the background, with the global JIRA credentials.
+ * The other ones are sent on the next link of their Sonar issue.
+ * <p>
+ * The creations in progress, on a click or on start, are registered here by
+ * Sonar issue key, so that a Sonar issue linked while it is sent again shares
+ * a single creation.
+ */
+public class JiraOutbox implements ServerExtension {
+
+    private static final Logger LOG = LoggerFactory.getLogger(JiraOutbox.class);
+
+    static final long SEGMENT_SIZE = 1024L * 1024L;
+
+    private static final int MAGIC = 0x4A49524F;
+    private static final int VERSION = 1;
+    private static final int HEADER_SIZE = 8;
+    private static final int FRAME_SIZE = 8;
+    private static final String SEGMENT_PREFIX = "segment-";
+    private static final String SEGMENT_SUFFIX = ".log";
+
+    private static final byte PENDING = 1;
+    private static final byte ACKNOWLEDGED = 2;
+
+    private static final byte NULL_VALUE = 0;
+    private static final byte STRING_VALUE = 1;
+    private static final byte NUMBER_VALUE = 2;
+    private static final byte COMPLEX_VALUE = 3;
+    private static final byte LIST_VALUE = 4;
+
+    private final Settings settings;
+    private final JiraSessionRegistry sessionRegistry;
+    private final JiraIssueIndex issueIndex;
+    private final SonarIssueActions sonarIssueActions;
+    private final File directory;
+    private final long segmentSize;
+
+    private final Map<String, Entry> pending = Maps.newLinkedHashMap();
+    /** Keys of the entries each segment holds that are still pending. */
+    private final SortedMap<Long, Set<String>> segments = new TreeMap<Long, Set<String>>();
+    private final Map<String, BasicIssue> replayed = Maps.newConcurrentMap();
+    /** Creations in progress, by Sonar issue key. */
+    private final ConcurrentMap<String, CompletableFuture<BasicIssue>> creations = new ConcurrentHashMap<String, CompletableFuture<BasicIssue>>();
+    private FileChannel channel;
+    private long activeSegment;
+    private Thread replay;
+
+    public JiraOutbox(Settings settings, JiraSessionRegistry sessionRegistry,
+	    JiraIssueIndex issueIndex, SonarIssueActions sonarIssueActions) {
+	this(settings, sessionRegistry, issueIndex, sonarIssueActions,
+		SEGMENT_SIZE);
+    }
+
+    JiraOutbox(Settings settings, JiraSessionRegistry sessionRegistry,
+	    JiraIssueIndex issueIndex, SonarIssueActions sonarIssueActions,
+	    long segmentSize) {
+	this.settings = settings;
+	this.sessionRegistry = sessionRegistry;
+	this.issueIndex = issueIndex;
+	this.sonarIssueActions = sonarIssueActions;
+	this.directory = JiraStorage.getDirectory(settings, "outbox");
+	this.segmentSize = segmentSize;
+    }
+
+    public void start() {
+	try {
+	    open();
+	} catch (IOException e) {
+	    LOG.warn("Unable to open the JIRA outbox " + directory
+		    + ", the JIRA issues being created will not survive a restart",
+		    e);
+	    close();
+	    return;
+	}
+	if (!getPending().isEmpty()) {
+	    replay = new Thread(this::replay, "jira-outbox-replay");
+	    replay.setDaemon(true);
+	    replay.start();
+	}
+    }
+
+    public void stop() {
+	if (replay != null) {
+	    replay.interrupt();
+	    replay = null;
+	}
+	close();
+    }
+
+    /**
+     * Records that a JIRA issue is about to be created for a Sonar issue.
+     */
+    public synchronized void append(String sonarIssueKey, String serverUrl,
+	    String userName, IssueInput input) {
+	if (channel == null) {
+	    return;
+	}
+	Entry entry = new Entry(sonarIssueKey, serverUrl, userName, input);
+	try {
+	    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+	    DataOutputStream output = new DataOutputStream(bytes);
+	    output.writeByte(PENDING);
+	    output.writeUTF(sonarIssueKey);
+	    output.writeUTF(StringUtils.defaultString(serverUrl));
+	    output.writeUTF(StringUtils.defaultString(userName));
+	    writeInput(output, input);
+	    write(bytes.toByteArray());
+	} catch (IllegalArgumentException e) {
+	    LOG.warn("Unable to journal the JIRA issue of Sonar issue "
+		    + sonarIssueKey, e);
+	    return;
+	} catch (IOException e) {
+	    LOG.warn("Unable to journal the JIRA issue of Sonar issue "
+		    + sonarIssueKey, e);
+	    return;
+	}
+	pending.put(sonarIssueKey, entry);
+	segments.get(activeSegment).add(sonarIssueKey);
+    }
+
+    /**
+     * Records that JIRA created the issue of a Sonar issue, and deletes the
+     * oldest segments once all their entries are acknowledged.
+     */
+    public void acknowledge(String sonarIssueKey, BasicIssue issue) {
+	remove(sonarIssueKey, issue.getKey());
+    }
+
+    /**
+     * Records that the JIRA issue of a Sonar issue must not be sent again, as
+     * JIRA rejected it.
+     */
+    public void discard(String sonarIssueKey) {
+	remove(sonarIssueKey, "");
+    }
+
+    private synchronized void remove(String sonarIssueKey, String jiraIssueKey) {
+	if (channel == null || !pending.containsKey(sonarIssueKey)) {
+	    return;
+	}
+	try {
+	    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+	    DataOutputStream output = new DataOutputStream(bytes);
+	    output.writeByte(ACKNOWLEDGED);
+	    output.writeUTF(sonarIssueKey);
+	    output.writeUTF(StringUtils.defaultString(jiraIssueKey));
+	    write(bytes.toByteArray());
+	} catch (IOException e) {
+	    LOG.warn("Unable to acknowledge the JIRA issue of Sonar issue "
+		    + sonarIssueKey, e);
+	    return;
+	}
+	pending.remove(sonarIssueKey);
+	for (Set<String> keys : segments.values()) {
+	    keys.remove(sonarIssueKey);
+	}
+	compact();
+    }
+
+    public synchronized List<Entry> getPending() {
+	return Lists.newArrayList(pending.values());
+    }
+
+    public synchronized Entry getPending(String sonarIssueKey) {
+	return pending.get(sonarIssueKey);
+    }
+
+    /**
+     * Returns, only once, the JIRA issue created on start for a Sonar issue
+     * linked before the restart.
+     */
+    public BasicIssue takeReplayed(String sonarIssueKey) {
+	return replayed.remove(sonarIssueKey);
+    }
+
+    /**
+     * Registers the creation of the JIRA issue of a Sonar issue, unless
+     * another one is in progress.
+     * 
+     * @return the creation in progress, or null if the given one was
+     *         registered and must be ended by {@link #endCreation}
+     */
+    CompletableFuture<BasicIssue> beginCreation(String sonarIssueKey,
+	    CompletableFuture<BasicIssue> creation) {
+	return creations.putIfAbsent(sonarIssueKey, creation);
+    }
+
+    void endCreation(String sonarIssueKey,
+	    CompletableFuture<BasicIssue> creation) {
+	creations.remove(sonarIssueKey, creation);
+    }
+
+    private void replay() {
+	String serverUrl = settings
+		.getString(JiraConstants.SERVER_URL_PROPERTY);
+	String userName = settings.getString(JiraConstants.USERNAME_PROPERTY);
+	for (Entry entry : getPending()) {
+	    if (Thread.currentThread().isInterrupted()) {
+		return;
+	    }
+	    if (!StringUtils.equals(serverUrl, entry.getServerUrl())
+		    || !StringUtils.equals(userName, entry.getUserName())) {
+		LOG.info(
+			"The JIRA issue of Sonar issue {} will be created on its next link to {}",
+			entry.getSonarIssueKey(), entry.getServerUrl());
+		continue;
+	    }
+	    CompletableFuture<BasicIssue> creation = new CompletableFuture<BasicIssue>();
+	    if (beginCreation(entry.getSonarIssueKey(), creation) != null) {
+		// the link in progress finds or creates it
+		continue;
+	    }
+	    BasicIssue issue = null;
+	    try {
+		issue = send(entry);
+		creation.complete(issue);
+	    } catch (InterruptedException e) {
+		creation.completeExceptionally(e);
+		Thread.currentThread().interrupt();
+		return;
+	    } catch (ExecutionException | IOException | RuntimeException e) {
+		creation.completeExceptionally(e);
+		LOG.warn("Unable to create the JIRA issue of Sonar issue "
+			+ entry.getSonarIssueKey()
+			+ ", it will be on its next link", e);
+	    } finally {
+		endCreation(entry.getSonarIssueKey(), creation);
+	    }
+	    if (issue != null && sonarIssueActions.isConfigured()) {
+		try {
+		    sonarIssueActions.doAction(entry.getSonarIssueKey(),
+			    JiraActionDefinition.LINK_TO_JIRA_ID);
+		} catch (RuntimeException e) {
+		    LOG.warn("Unable to link Sonar issue "
+			    + entry.getSonarIssueKey()
+			    + " to its JIRA issue, it will be on the next click",
+			    e);
+		}
+	    }
+	}
+    }
+
+    private BasicIssue send(Entry entry) throws IOException,
+	    InterruptedException, ExecutionException {
+	JiraSession session = sessionRegistry.acquire(
+		new URL(entry.getServerUrl()), entry.getUserName(),
+		settings.getString(JiraConstants.PASSWORD_PROPERTY));
+	try {
+	    // linked again since the restart
+	    if (getPending(entry.getSonarIssueKey()) != entry) {
+		return null;
+	    }
+	    // JIRA may have created it before the restart, without answering
+	    BasicIssue issue = issueIndex.find(session,
+		    projectKeyOf(entry.getInput()), entry.getSonarIssueKey());
+	    if (issue == null) {
+		issue = session.getJiraRestClient().getIssueClient()
+			.createIssue(entry.getInput()).get();
+		issueIndex.put(session, entry.getSonarIssueKey(), issue);
+	    }
+	    replayed.put(entry.getSonarIssueKey(), issue);
+	    acknowledge(entry.getSonarIssueKey(), issue);
+	    LOG.info("Created JIRA issue {} for Sonar issue {} linked before restart",
+		    issue.getKey(), entry.getSonarIssueKey());
+	    return issue;
+	} finally {
+	    sessionRegistry.release(session);
+	}
+    }
+
+    private static String projectKeyOf(IssueInput input) {
+	FieldInput project = input.getField("project");
+	if (project == null
+		|| !(project.getValue() instanceof ComplexIssueInputFieldValue)) {
+	    return null;
+	}
+	Object key = ((ComplexIssueInputFieldValue) project.getValue())
+		.getValuesMap().get("key");
+	return key == null ? null : key.toString();
+    }
+
+    private synchronized void open() throws IOException {
+	if (!directory.isDirectory() && !directory.mkdirs()) {
+	    throw new IOException("Unable to create directory " + directory);
+	}
+	File[] files = directory.listFiles((dir, name) -> name
+		.startsWith(SEGMENT_PREFIX) && name.endsWith(SEGMENT_SUFFIX));
+	Arrays.sort(files);
+	long last = -1L;
+	boolean lastValid = false;
+	for (File file : files) {
+	    long segment = Long.parseLong(StringUtils.substringBetween(
+		    file.getName(), SEGMENT_PREFIX, SEGMENT_SUFFIX));
+	    segments.put(segment, Sets.<String> newHashSet());
+	    lastValid = load(file, segment);
+	    last = segment;
+	}
+	if (pending.isEmpty()) {
+	    // start over when everything was acknowledged
+	    for (File file : files) {
+		delete(file);
+	    }
+	    segments.clear();
+	    roll(last + 1);
+	} else if (!lastValid) {
+	    roll(last + 1);
+	} else {
+	    activeSegment = last;
+	    channel = FileChannel.open(segmentFile(last).toPath(),
+		    StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+	    compact();
+	}
+	if (!pending.isEmpty()) {
+	    LOG.info("{} JIRA issues were being created before the restart",
+		    pending.size());
+	}
+    }
+
+    /**
+     * @return false if the segment is not a segment of the outbox
+     */
+    private boolean load(File file, long segment) throws IOException {
+	long valid = HEADER_SIZE;
+	FileChannel input = FileChannel.open(file.toPath(),
+		StandardOpenOption.READ, StandardOpenOption.WRITE);
+	try {
+	    ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+	    if (readFully(input, header) < HEADER_SIZE
+		    || header.getInt(0) != MAGIC || header.getInt(4) != VERSION) {
+		LOG.warn("Ignoring JIRA outbox segment of unknown format: {}",
+			file);
+		return false;
+	    }
+	    ByteBuffer frame = ByteBuffer.allocate(FRAME_SIZE);
+	    while (true) {
+		frame.clear();
+		if (readFully(input, frame) < FRAME_SIZE) {
+		    break;
+		}
+		int length = frame.getInt(0);
+		if (length <= 0 || length > input.size() - input.position()) {
+		    break;
+		}
+		ByteBuffer payload = ByteBuffer.allocate(length);
+		readFully(input, payload);
+		CRC32 crc = new CRC32();
+		crc.update(payload.array());
+		if ((int) crc.getValue() != frame.getInt(4)) {
+		    break;
+		}
+		apply(payload.array(), segment);
+		valid = input.position();
+	    }
+	    if (valid < input.size()) {
+		// the server stopped in the middle of a write
+		LOG.warn("Truncating the JIRA outbox segment {} to {} bytes",
+			file, valid);
+		input.truncate(valid);
+	    }
+	    return true;
+	} finally {
+	    input.close();
+	}
+    }
+
+    private void apply(byte[] record, long segment) throws IOException {
+	DataInputStream input = new DataInputStream(new ByteArrayInputStream(
+		record));
+	byte type = input.readByte();
+	String key = input.readUTF();
+	if (type == PENDING) {
+	    pending.put(key, new Entry(key, input.readUTF(), input.readUTF(),
+		    readInput(input)));
+	    segments.get(segment).add(key);
+	} else if (type == ACKNOWLEDGED) {
+	    pending.remove(key);
+	    for (Set<String> keys : segments.values()) {
+		keys.remove(key);
+	    }
+	} else {
+	    throw new IOException("Unknown JIRA outbox record type: " + type);
+	}
+    }
+
+    private void write(byte[] record) throws IOException {
+	if (channel.size() >= segmentSize) {
+	    roll(activeSegment + 1);
+	}
+	CRC32 crc = new CRC32();
+	crc.update(record);
+	ByteBuffer buffer = ByteBuffer.allocate(FRAME_SIZE + record.length);
+	buffer.putInt(record.length).putInt((int) crc.getValue()).put(record);
+	buffer.flip();
+	while (buffer.hasRemaining()) {
+	    channel.write(buffer);
+	}
+	channel.force(false);
+    }
+
+    private void roll(long segment) throws IOException {
+	if (channel != null) {
+	    channel.close();
+	}
+	channel = FileChannel.open(segmentFile(segment).toPath(),
+		StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE,
+		StandardOpenOption.APPEND);
+	ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+	header.putInt(MAGIC).putInt(VERSION).flip();
+	while (header.hasRemaining()) {
+	    channel.write(header);
+	}
+	channel.force(true);
+	activeSegment = segment;
+	segments.put(segment, Sets.<String> newHashSet());
+	compact();
+    }
+
+    /**
+     * Deletes the oldest segments all entries of which are acknowledged. The
+     * newer ones are kept, even if acknowledged, since the acknowledgments
+     * they hold may be the ones of entries of older segments.
+     */
+    private void compact() {
+	Iterator<Map.Entry<Long, Set<String>>> it = segments.entrySet()
+		.iterator();
+	while (it.hasNext()) {
+	    Map.Entry<Long, Set<String>> segment = it.next();
+	    if (!segment.getValue().isEmpty()
+		    || segment.getKey() == activeSegment) {
+		return;
+	    }
+	    delete(segmentFile(segment.getKey()));
+	    it.remove();
+	}
+    }
+
+    private synchronized void close() {
+	if (channel != null) {
+	    try {
+		channel.close();
+	    } catch (IOException e) {
+		LOG.warn("Unable to close the JIRA outbox " + directory, e);
+	    }
+	}
+	channel = null;
+	pending.clear();
+	segments.clear();
+    }
+
+    private File segmentFile(long segment) {
+	return new File(directory, String.format("%s%016d%s", SEGMENT_PREFIX,
+		segment, SEGMENT_SUFFIX));
+    }
+
+    private static void delete(File file) {
+	if (file.exists() && !file.delete()) {
+	    LOG.warn("Unable to delete the JIRA outbox segment {}", file);
+	}
+    }
+
+    private static int readFully(FileChannel input, ByteBuffer buffer)
+	    throws IOException {
+	while (buffer.hasRemaining()) {
+	    if (input.read(buffer) < 0) {
+		break;
+	    }
+	}
+	return buffer.position();
+    }
+
+    private static void writeInput(DataOutputStream output, IssueInput input)
+	    throws IOException {
+	List<FieldInput> fields = Lists.newArrayList(input.getFields());
+	output.writeInt(fields.size());
+	for (FieldInput field : fields) {
+	    output.writeUTF(field.getId());
+	    writeValue(output, field.getValue());
+	}
+    }
+
+    private static IssueInput readInput(DataInputStream input)
+	    throws IOException {
+	int count = input.readInt();
+	Map<String, FieldInput> fields = Maps.newLinkedHashMap();
+	for (int i = 0; i < count; i++) {
+	    String id = input.readUTF();
+	    fields.put(id, new FieldInput(id, readValue(input)));
+	}
+	return new IssueInput(fields);
+    }
+
+    private static void writeValue(DataOutputStream output, Object value)
+	    throws IOException {
+	if (value == null) {
+	    output.writeByte(NULL_VALUE);
+	} else if (value instanceof String) {
+	    // may be longer than writeUTF allows, as descriptions
+	    byte[] bytes = ((String) value).getBytes(Charsets.UTF_8);
+	    output.writeByte(STRING_VALUE);
+	    output.writeInt(bytes.length);
+	    output.write(bytes);
+	} else if (value instanceof Long || value instanceof Integer) {
+	    output.writeByte(NUMBER_VALUE);
+	    output.writeLong(((Number) value).longValue());
+	} else if (value instanceof ComplexIssueInputFieldValue) {
+	    Map<String, Object> values = ((ComplexIssueInputFieldValue) value)
+		    .getValuesMap();
+	    output.writeByte(COMPLEX_VALUE);
+	    output.writeInt(values.size());
+	    for (Map.Entry<String, Object> entry : values.entrySet()) {
+		output.writeUTF(entry.getKey());
+		writeValue(output, entry.getValue());
+	    }
+	} else if (value instanceof Iterable) {
+	    List<Object> values = Lists.newArrayList((Iterable<?>) value);
+	    output.writeByte(LIST_VALUE);
+	    output.writeInt(values.size());
+	    for (Object item : values) {
+		writeValue(output, item);
+	    }
+	} else {
+	    throw new IllegalArgumentException(
+		    "Unsupported JIRA issue field value: " + value.getClass());
+	}
+    }
+
+    private static Object readValue(DataInputStream input) throws IOException {
+	byte type = input.readByte();
+	switch (type) {
+	case NULL_VALUE:
+	    return null;
+	case STRING_VALUE:
+	    byte[] bytes = new byte[input.readInt()];
+	    input.readFully(bytes);
+	    return new String(bytes, Charsets.UTF_8);
+	case NUMBER_VALUE:
+	    return input.readLong();
+	case COMPLEX_VALUE:
+	    int size = input.readInt();
+	    Map<String, Object> values = Maps.newLinkedHashMap();
+	    for (int i = 0; i < size; i++) {
+		values.put(input.readUTF(), readValue(input));
+	    }
+	    return new ComplexIssueInputFieldValue(values);
+	case LIST_VALUE:
+	    int count = input.readInt();
+	    List<Object> items = Lists.newArrayListWithCapacity(count);
+	    for (int i = 0; i < count; i++) {
+		items.add(readValue(input));
+	    }
+	    return items;
+	default:
+	    throw new EOFException("Unknown JIRA issue field value type: "
+		    + type);
+	}
+    }
+
+    /**
+     * A JIRA issue not acknowledged yet.
+     */
+    public static final class Entry {
+	private final String sonarIssueKey;
+	private final String serverUrl;
+	private final String userName;
+	private final IssueInput input;
+
+	private Entry(String sonarIssueKey, String serverUrl, String userName,
+		IssueInput input) {
+	    this.sonarIssueKey = sonarIssueKey;
+	    this.serverUrl = serverUrl;
+	    this.userName = userName;
+	    this.input = input;
+	}
+
+	public String getSonarIssueKey() {
+	    return sonarIssueKey;
+	}
+
+	public String getServerUrl() {
+	    return serverUrl;
+	}
+
+	public String getUserName() {
+	    return userName;
+	}
+
+	public IssueInput getInput() {
+	    return input;
+	}
+    }
+}
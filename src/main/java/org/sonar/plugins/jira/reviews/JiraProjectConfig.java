@@ -0,0 +1,257 @@
+/*
+ * Sonar JIRA Plugin
+ * Copyright (C) 2009 SonarSource
+ * dev@sonar.codehaus.org
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02
+ */
+package org.sonar.plugins.jira.reviews;
+
+import org.apache.commons.lang.StringUtils;
+import org.sonar.api.CoreProperties;
+import org.sonar.api.config.Settings;
+import org.sonar.api.rules.RulePriority;
+import org.sonar.api.utils.SonarException;
+import org.sonar.plugins.jira.JiraConstants;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The JIRA properties of a Sonar project, read and checked once, then shared
+ * by all the issues linked from the project until the properties change.
+ */
+final class JiraProjectConfig {
+
+    private static final String PROPERTY_PREFIX = "sonar.jira.";
+    /** Properties which must be set to link an issue. */
+    private static final String[] REQUIRED_PROPERTIES = {
+	    JiraConstants.SERVER_URL_PROPERTY,
+	    JiraConstants.SOAP_BASE_URL_PROPERTY,
+	    JiraConstants.USERNAME_PROPERTY, JiraConstants.PASSWORD_PROPERTY,
+	    JiraConstants.JIRA_PROJECT_KEY_PROPERTY,
+	    JiraConstants.JIRA_INFO_PRIORITY_ID,
+	    JiraConstants.JIRA_MINOR_PRIORITY_ID,
+	    JiraConstants.JIRA_MAJOR_PRIORITY_ID,
+	    JiraConstants.JIRA_CRITICAL_PRIORITY_ID,
+	    JiraConstants.JIRA_BLOCKER_PRIORITY_ID,
+	    JiraConstants.JIRA_ISSUE_TYPE_ID };
+    /** Properties which must be numbers when they are set. */
+    private static final String[] ID_PROPERTIES = {
+	    JiraConstants.JIRA_INFO_PRIORITY_ID,
+	    JiraConstants.JIRA_MINOR_PRIORITY_ID,
+	    JiraConstants.JIRA_MAJOR_PRIORITY_ID,
+	    JiraConstants.JIRA_CRITICAL_PRIORITY_ID,
+	    JiraConstants.JIRA_BLOCKER_PRIORITY_ID,
+	    JiraConstants.JIRA_ISSUE_TYPE_ID,
+	    JiraConstants.JIRA_ISSUE_COMPONENT_ID };
+
+    /** Properties this configuration is read from. */
+    private final Map<String, String> properties = new HashMap<String, String>();
+    /** Fingerprint of the properties this configuration is read from. */
+    private final long fingerprint;
+    /** Why an issue can not be linked, or null. */
+    private final String error;
+    private final String serverUrl;
+    private final String userName;
+    private final String sonarUrl;
+    private final String projectKey;
+    private final Long issueTypeId;
+    private final Long componentId;
+    private final boolean ruleDescription;
+    /** JIRA priority ids, by Sonar severity ordinal. */
+    private final Long[] priorityIds = new Long[RulePriority.values().length];
+    private final JiraProjectRouting routing;
+
+    JiraProjectConfig(Settings settings) {
+	long hash = 0;
+	for (String key : getConfigKeys(settings)) {
+	    String value = settings.getString(key);
+	    properties.put(key, value);
+	    hash += hash(key, value);
+	}
+	fingerprint = hash;
+	String missing = null;
+	for (String property : REQUIRED_PROPERTIES) {
+	    if (!settings.hasKey(property)
+		    && !settings.hasDefaultValue(property)) {
+		missing = property;
+		break;
+	    }
+	}
+	String invalid = null;
+	for (String property : ID_PROPERTIES) {
+	    String value = StringUtils.trim(settings.getString(property));
+	    if (StringUtils.isNotEmpty(value) && parseId(value) == null) {
+		invalid = "The JIRA property \"" + property
+			+ "\" must be a number: " + value;
+		break;
+	    }
+	}
+	if (missing != null) {
+	    error = "The JIRA property \"" + missing
+		    + "\" must be defined before you can use the \"Link to Jira\" button";
+	} else {
+	    error = invalid;
+	}
+
+	for (RulePriority severity : RulePriority.values()) {
+	    priorityIds[severity.ordinal()] = getId(settings,
+		    getPriorityProperty(severity));
+	}
+	issueTypeId = getId(settings, JiraConstants.JIRA_ISSUE_TYPE_ID);
+	componentId = getId(settings, JiraConstants.JIRA_ISSUE_COMPONENT_ID);
+	serverUrl = settings.getString(JiraConstants.SERVER_URL_PROPERTY);
+	userName = settings.getString(JiraConstants.USERNAME_PROPERTY);
+	sonarUrl = settings.getString(CoreProperties.SERVER_BASE_URL);
+	projectKey = settings.getString(JiraConstants.JIRA_PROJECT_KEY_PROPERTY);
+	ruleDescription = settings
+		.getBoolean(JiraConstants.JIRA_ISSUE_RULE_DESCRIPTION);
+	routing = new JiraProjectRouting(properties, projectKey);
+    }
+
+    /**
+     * @return true if the JIRA properties of the settings are the ones this
+     *         configuration is read from
+     */
+    boolean isReadFrom(Settings settings) {
+	List<String> keys = getConfigKeys(settings);
+	if (keys.size() != properties.size()) {
+	    return false;
+	}
+	long hash = 0;
+	for (String key : keys) {
+	    hash += hash(key, settings.getString(key));
+	}
+	return hash == fingerprint;
+    }
+
+    /**
+     * @throws IllegalStateException
+     *             if issues can not be linked to JIRA with this configuration
+     */
+    void checkConditions() {
+	if (error != null) {
+	    throw new IllegalStateException(error);
+	}
+    }
+
+    String getServerUrl() {
+	return serverUrl;
+    }
+
+    String getUserName() {
+	return userName;
+    }
+
+    String getSonarUrl() {
+	return sonarUrl;
+    }
+
+    /**
+     * @return the default JIRA project key, the one of the components which
+     *         are not routed to another JIRA project
+     */
+    String getProjectKey() {
+	return projectKey;
+    }
+
+    Long getIssueTypeId() {
+	return issueTypeId;
+    }
+
+    /**
+     * @return the JIRA component id, or null if the issues have no component
+     */
+    Long getComponentId() {
+	return componentId;
+    }
+
+    boolean isRuleDescription() {
+	return ruleDescription;
+    }
+
+    Long getPriorityId(RulePriority severity) {
+	return priorityIds[severity.ordinal()];
+    }
+
+    JiraProjectRouting getRouting() {
+	return routing;
+    }
+
+    private static String getPriorityProperty(RulePriority severity) {
+	switch (severity) {
+	case INFO:
+	    return JiraConstants.JIRA_INFO_PRIORITY_ID;
+	case MINOR:
+	    return JiraConstants.JIRA_MINOR_PRIORITY_ID;
+	case MAJOR:
+	    return JiraConstants.JIRA_MAJOR_PRIORITY_ID;
+	case CRITICAL:
+	    return JiraConstants.JIRA_CRITICAL_PRIORITY_ID;
+	case BLOCKER:
+	    return JiraConstants.JIRA_BLOCKER_PRIORITY_ID;
+	default:
+	    throw new SonarException(
+		    "Unable to convert review severity to JIRA priority: "
+			    + severity);
+	}
+    }
+
+    /**
+     * @return the id the property is set to, or null if it is not set or not a
+     *         number
+     */
+    private static Long getId(Settings settings, String property) {
+	return parseId(StringUtils.trim(settings.getString(property)));
+    }
+
+    private static Long parseId(String value) {
+	if (StringUtils.isEmpty(value)) {
+	    return null;
+	}
+	try {
+	    return Long.valueOf(value);
+	} catch (NumberFormatException e) {
+	    return null;
+	}
+    }
+
+    /**
+     * @return the keys of the JIRA properties set in the settings. Only these
+     *         keys are read, not all the properties of the project.
+     */
+    private static List<String> getConfigKeys(Settings settings) {
+	List<String> keys = new ArrayList<String>(
+		settings.getKeysStartingWith(PROPERTY_PREFIX));
+	if (settings.hasKey(CoreProperties.SERVER_BASE_URL)) {
+	    keys.add(CoreProperties.SERVER_BASE_URL);
+	}
+	return keys;
+    }
+
+    /**
+     * @return the hash of a property, summed with the others into the
+     *         fingerprint so that their order does not matter. The hash codes
+     *         of the strings are cached, so no characters are compared.
+     */
+    private static long hash(String key, String value) {
+	long hash = ((long) key.hashCode() << 32)
+		| (StringUtils.defaultString(value).hashCode() & 0xffffffffL);
+	hash *= 0x9E3779B97F4A7C15L;
+	return hash ^ (hash >>> 32);
+    }
+}
@@ -0,0 +1,180 @@
+/*
+ * Sonar JIRA Plugin
+ * Copyright (C) 2009 SonarSource
+ * dev@sonar.codehaus.org
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02
+ */
+package org.sonar.plugins.jira.reviews;
+
+import org.apache.commons.lang.StringUtils;
+import org.sonar.plugins.jira.JiraConstants;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Routing of the Sonar components to the JIRA projects, read from the
+ * "sonar.jira.package.&lt;project&gt;" and
+ * "sonar.jira.project.key.&lt;package&gt;" properties.
+ * <p>
+ * The package of a component is its key up to the last ':', the top level
+ * package of its Sonar project being replaced by the key of this project. The
+ * JIRA project of the longest mapped parent package is used, or the default
+ * JIRA project when none is mapped. The mapped packages are kept in a trie so
+ * that a component is matched in one pass over its key, without building its
+ * package name. A routing is immutable, it can be shared by any number of
+ * threads and issues.
+ */
+class JiraProjectRouting {
+
+    private static final String PACKAGE_PREFIX = JiraConstants.JIRA_TOP_LEVEL_PACKAGE
+	    + ".";
+    private static final String PROJECT_KEY_PREFIX = JiraConstants.JIRA_PROJECT_KEY_PROPERTY
+	    + ".";
+
+    private final String defaultProjectKey;
+    /** Top level packages, by Sonar project key. */
+    private final Map<String, String> topLevelPackages = new HashMap<String, String>();
+    private final Node root = new Node();
+
+    JiraProjectRouting(Map<String, String> properties, String defaultProjectKey) {
+	this.defaultProjectKey = defaultProjectKey;
+	for (Map.Entry<String, String> property : properties.entrySet()) {
+	    String key = property.getKey();
+	    String value = property.getValue();
+	    if (!isRoutingProperty(key, value)) {
+		continue;
+	    }
+	    if (key.startsWith(PACKAGE_PREFIX)) {
+		topLevelPackages.put(key.substring(PACKAGE_PREFIX.length()),
+			value);
+	    } else {
+		root.put(key, PROJECT_KEY_PREFIX.length(), value);
+	    }
+	}
+    }
+
+    String getJiraProjectKey(String projectKey, String componentKey) {
+	String topLevelPackage = topLevelPackages.get(projectKey);
+	if (topLevelPackage == null) {
+	    return defaultProjectKey;
+	}
+
+	// first pass: position of the last ':' once the top level package is
+	// replaced, the package ends there
+	int end = -1;
+	int length = 0;
+	for (int i = 0; i < componentKey.length();) {
+	    if (componentKey.startsWith(topLevelPackage, i)) {
+		int colon = projectKey.lastIndexOf(':');
+		if (colon >= 0) {
+		    end = length + colon;
+		}
+		length += projectKey.length();
+		i += topLevelPackage.length();
+	    } else {
+		if (componentKey.charAt(i) == ':') {
+		    end = length;
+		}
+		length++;
+		i++;
+	    }
+	}
+	if (end < 0) {
+	    return defaultProjectKey;
+	}
+
+	// second pass: walk the trie along the package, remembering the project
+	// of the last mapped parent package
+	String found = null;
+	Node node = root;
+	int position = 0;
+	for (int i = 0; node != null && position < end;) {
+	    boolean replaced = componentKey.startsWith(topLevelPackage, i);
+	    String source = replaced ? projectKey : componentKey;
+	    int from = replaced ? 0 : i;
+	    int to = replaced ? from + Math.min(projectKey.length(), end
+		    - position) : i + 1;
+	    for (int j = from; node != null && j < to; j++) {
+		char c = source.charAt(j);
+		if (c == ':') {
+		    c = '.';
+		}
+		if (c == '.' && node.projectKey != null) {
+		    found = node.projectKey;
+		}
+		node = node.child(c);
+	    }
+	    position += to - from;
+	    i += replaced ? topLevelPackage.length() : 1;
+	}
+	if (node != null && node.projectKey != null) {
+	    found = node.projectKey;
+	}
+	return found != null ? found : defaultProjectKey;
+    }
+
+    private static boolean isRoutingProperty(String key, String value) {
+	return (isPrefixOf(PACKAGE_PREFIX, key) || isPrefixOf(
+		PROJECT_KEY_PREFIX, key))
+		&& StringUtils.isNotBlank(value);
+    }
+
+    private static boolean isPrefixOf(String prefix, String key) {
+	return key.length() > prefix.length() && key.startsWith(prefix);
+    }
+
+    private static final class Node {
+	/** Sorted labels of the children. */
+	private char[] labels = new char[0];
+	private Node[] children = new Node[0];
+	private String projectKey;
+
+	Node child(char label) {
+	    int index = Arrays.binarySearch(labels, label);
+	    return index >= 0 ? children[index] : null;
+	}
+
+	void put(String key, int from, String value) {
+	    Node node = this;
+	    for (int i = from; i < key.length(); i++) {
+		node = node.getOrAddChild(key.charAt(i));
+	    }
+	    node.projectKey = value;
+	}
+
+	private Node getOrAddChild(char label) {
+	    int index = Arrays.binarySearch(labels, label);
+	    if (index >= 0) {
+		return children[index];
+	    }
+	    index = -index - 1;
+	    char[] newLabels = new char[labels.length + 1];
+	    Node[] newChildren = new Node[children.length + 1];
+	    System.arraycopy(labels, 0, newLabels, 0, index);
+	    System.arraycopy(children, 0, newChildren, 0, index);
+	    System.arraycopy(labels, index, newLabels, index + 1, labels.length
+		    - index);
+	    System.arraycopy(children, index, newChildren, index + 1,
+		    children.length - index);
+	    newLabels[index] = label;
+	    newChildren[index] = new Node();
+	    labels = newLabels;
+	    children = newChildren;
+	    return newChildren[index];
+	}
+    }
+}
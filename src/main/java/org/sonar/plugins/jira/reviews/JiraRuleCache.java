@@ -0,0 +1,175 @@
+/*
+ * Sonar JIRA Plugin
+ * Copyright (C) 2009 SonarSource
+ * dev@sonar.codehaus.org
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02
+ */
+package org.sonar.plugins.jira.reviews;
+
+import org.apache.commons.lang.StringEscapeUtils;
+import org.apache.commons.lang.StringUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.sonar.api.Properties;
+import org.sonar.api.Property;
+import org.sonar.api.PropertyType;
+import org.sonar.api.ServerExtension;
+import org.sonar.api.config.Settings;
+import org.sonar.api.rule.RuleKey;
+import org.sonar.api.rules.Rule;
+import org.sonar.api.rules.RuleFinder;
+import org.sonar.plugins.jira.JiraConstants;
+import java.lang.management.ManagementFactory;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+/**
+ * Keeps the names and descriptions of the most recently used rules, so that
+ * the summaries and descriptions of the JIRA issues do not read the rule from
+ * the database for every linked Sonar issue. The rules hardly ever change on a
+ * running server, so the cached ones are only evicted when the cache is full,
+ * least recently used first.
+ */
+@Properties({ @Property(key = JiraConstants.RULE_CACHE_SIZE_PROPERTY, defaultValue = JiraConstants.RULE_CACHE_SIZE_DEF_VALUE, name = "Rule cache size", description = "Number of rules whose name and description are kept in memory to write the JIRA issues.", global = true, project = false, type = PropertyType.INTEGER) })
+public class JiraRuleCache implements ServerExtension, JiraRuleCacheMXBean {
+
+    private static final Logger LOG = LoggerFactory
+	    .getLogger(JiraRuleCache.class);
+
+    static final String OBJECT_NAME = "org.sonar.plugins.jira:type=RuleCache";
+    /** Cached for the rules which do not exist. */
+    private static final CachedRule UNKNOWN = new CachedRule(null, null);
+
+    private final RuleFinder ruleFinder;
+    private final Map<RuleKey, CachedRule> rules;
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+
+    public JiraRuleCache(RuleFinder ruleFinder, Settings settings) {
+	this.ruleFinder = ruleFinder;
+	int size = settings.getInt(JiraConstants.RULE_CACHE_SIZE_PROPERTY);
+	final int capacity = size > 0 ? size : Integer
+		.parseInt(JiraConstants.RULE_CACHE_SIZE_DEF_VALUE);
+	this.rules = new LinkedHashMap<RuleKey, CachedRule>(16, 0.75f, true) {
+	    @Override
+	    protected boolean removeEldestEntry(
+		    Map.Entry<RuleKey, CachedRule> eldest) {
+		return size() > capacity;
+	    }
+	};
+    }
+
+    public void start() {
+	try {
+	    MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+	    ObjectName name = new ObjectName(OBJECT_NAME);
+	    if (server.isRegistered(name)) {
+		server.unregisterMBean(name);
+	    }
+	    server.registerMBean(this, name);
+	} catch (JMException e) {
+	    LOG.warn("Unable to publish the JIRA rule cache over JMX", e);
+	}
+    }
+
+    public void stop() {
+	try {
+	    ManagementFactory.getPlatformMBeanServer().unregisterMBean(
+		    new ObjectName(OBJECT_NAME));
+	} catch (JMException e) {
+	    LOG.debug("Unable to unregister the JIRA rule cache", e);
+	}
+    }
+
+    /**
+     * @return the name of the rule, or <code>null</code> if the rule does not
+     *         exist or has no name
+     */
+    public String getName(RuleKey ruleKey) {
+	return get(ruleKey).name;
+    }
+
+    /**
+     * @return the description of the rule as plain text, or <code>null</code>
+     *         if the rule does not exist or has no description
+     */
+    public String getDescription(RuleKey ruleKey) {
+	return get(ruleKey).description;
+    }
+
+    private CachedRule get(RuleKey ruleKey) {
+	CachedRule cached;
+	synchronized (rules) {
+	    cached = rules.get(ruleKey);
+	}
+	if (cached != null) {
+	    hits.incrementAndGet();
+	    return cached;
+	}
+	misses.incrementAndGet();
+	// read outside of the lock, two threads may read the same rule
+	Rule rule = ruleFinder.findByKey(ruleKey);
+	cached = rule == null ? UNKNOWN : new CachedRule(rule.getName(),
+		toText(rule.getDescription()));
+	synchronized (rules) {
+	    rules.put(ruleKey, cached);
+	}
+	return cached;
+    }
+
+    /**
+     * The rule descriptions are HTML, which JIRA does not render.
+     */
+    private static String toText(String html) {
+	if (html == null) {
+	    return null;
+	}
+	String text = StringEscapeUtils.unescapeHtml(html.replaceAll(
+		"(?i)<br\\s*/?>|</p>|</li>", "\n").replaceAll("<[^>]+>", ""));
+	return StringUtils.isBlank(text) ? null : text.trim();
+    }
+
+    @Override
+    public int getSize() {
+	synchronized (rules) {
+	    return rules.size();
+	}
+    }
+
+    @Override
+    public long getHitCount() {
+	return hits.get();
+    }
+
+    @Override
+    public long getMissCount() {
+	return misses.get();
+    }
+
+    private static final class CachedRule {
+	private final String name;
+	private final String description;
+
+	CachedRule(String name, String description) {
+	    this.name = name;
+	    this.description = description;
+	}
+    }
+}
@@ -0,0 +1,683 @@
+/*
+ * Sonar JIRA Plugin
+ * Copyright (C) 2009 SonarSource
+ * dev@sonar.codehaus.org
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02
+ */
+package org.sonar.plugins.jira.reviews;
+
+import com.atlassian.jira.rest.client.api.SearchRestClient;
+import com.atlassian.jira.rest.client.api.domain.Issue;
+import com.atlassian.jira.rest.client.api.domain.SearchResult;
+import com.google.common.base.Joiner;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.ListMultimap;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import org.apache.commons.io.IOUtils;
+import org.apache.commons.lang.StringUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.sonar.api.Properties;
+import org.sonar.api.Property;
+import org.sonar.api.PropertyType;
+import org.sonar.api.ServerExtension;
+import org.sonar.api.config.Settings;
+import org.sonar.plugins.jira.JiraConstants;
+import org.sonar.plugins.jira.JiraStorage;
+import org.sonar.plugins.jira.rest.JiraCircuitOpenException;
+import org.sonar.plugins.jira.rest.JiraSession;
+import org.sonar.plugins.jira.rest.JiraSessionRegistry;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.rmi.RemoteException;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Brings the resolutions of the JIRA issues back to the Sonar issues linked to
+ * them: a Sonar issue is resolved, or marked as false positive, when its JIRA
+ * issue is resolved, and reopened when its JIRA issue is reopened.
+ * <p>
+ * The linked issues are the ones of the {@link JiraIssueIndex}, on the JIRA
+ * server of the global settings, the JIRA projects of the global settings being
+ * searched first if they never were. The JIRA issues deleted are removed from
+ * the index. JIRA is searched by batches of issue keys, on
+ * a few lanes. Once every issue has been searched, only the issues updated
+ * since the previous synchronization are asked for. The Sonar issues are
+ * updated through {@link SonarIssueActions} on the same lanes, once the
+ * searches are over. What was read from JIRA and applied to Sonar is kept in
+ * the storage directory of the plugin, so that a restart neither searches
+ * every issue again nor misses the updates made meanwhile.
+ */
+@Properties({
+	@Property(key = JiraConstants.SYNC_ENABLED_PROPERTY, defaultValue = JiraConstants.SYNC_ENABLED_DEF_VALUE, name = "Status synchronization", description = "Whether the Sonar issues linked to JIRA are resolved and reopened with their JIRA issues. Requires the Sonar login of the asynchronous link.", global = true, project = false, type = PropertyType.BOOLEAN),
+	@Property(key = JiraConstants.SYNC_INTERVAL_PROPERTY, defaultValue = JiraConstants.SYNC_INTERVAL_DEF_VALUE, name = "Status synchronization interval", description = "Number of seconds between two synchronizations of the JIRA resolutions.", global = true, project = false, type = PropertyType.INTEGER),
+	@Property(key = JiraConstants.SYNC_BATCH_SIZE_PROPERTY, defaultValue = JiraConstants.SYNC_BATCH_SIZE_DEF_VALUE, name = "Status synchronization batch size", description = "Number of JIRA issue keys searched by a single JQL query.", global = true, project = false, type = PropertyType.INTEGER),
+	@Property(key = JiraConstants.SYNC_PARALLELISM_PROPERTY, defaultValue = JiraConstants.SYNC_PARALLELISM_DEF_VALUE, name = "Status synchronization parallelism", description = "Number of JIRA searches, then of Sonar updates, run at the same time.", global = true, project = false, type = PropertyType.INTEGER),
+	@Property(key = JiraConstants.SYNC_FALSE_POSITIVE_RESOLUTIONS_PROPERTY, defaultValue = "", name = "False positive resolutions", description = "Comma-separated names of the JIRA resolutions which mark the Sonar issues as false positives, \"Won't Fix\" for instance. The other resolutions resolve them.", global = true, project = false) })
+public class JiraStatusSynchronizer implements ServerExtension {
+
+    private static final Logger LOG = LoggerFactory
+	    .getLogger(JiraStatusSynchronizer.class);
+
+    static final String RESOLVE = "resolve";
+    static final String FALSE_POSITIVE = "falsepositive";
+    static final String REOPEN = "reopen";
+
+    private static final int MAGIC = 0x4A495253;
+    private static final int VERSION = 1;
+    /**
+     * Added to the "updated" clause, the JQL dates being rounded to the minute
+     * and the clocks of the servers not quite in sync.
+     */
+    private static final long CURSOR_OVERLAP_MINUTES = 2;
+    private static final long MAX_INITIAL_DELAY_SECONDS = 60;
+    /** Fields the REST client needs to read the found issues. */
+    private static final Set<String> SEARCH_FIELDS = ImmutableSet.of(
+	    "summary", "issuetype", "created", "updated", "project", "status",
+	    "resolution");
+
+    private final Settings settings;
+    private final JiraSessionRegistry sessionRegistry;
+    private final JiraIssueIndex issueIndex;
+    private final SonarIssueActions sonarIssueActions;
+    private final File file;
+
+    // what is known of the JIRA server of the settings
+    private String server;
+    /** Start of the last synchronization, 0 if none. */
+    private long cursor;
+    /** JIRA issues searched at least once. */
+    private final Set<String> searched = Sets.newHashSet();
+    /** Resolutions of the resolved JIRA issues, by JIRA issue key. */
+    private final Map<String, String> resolutions = Maps.newHashMap();
+    /** Transitions applied to the Sonar issues, by JIRA issue key. */
+    private final Map<String, String> transitions = Maps.newHashMap();
+    private ScheduledExecutorService scheduler;
+
+    public JiraStatusSynchronizer(Settings settings,
+	    JiraSessionRegistry sessionRegistry, JiraIssueIndex issueIndex,
+	    SonarIssueActions sonarIssueActions) {
+	this.settings = settings;
+	this.sessionRegistry = sessionRegistry;
+	this.issueIndex = issueIndex;
+	this.sonarIssueActions = sonarIssueActions;
+	this.file = new File(JiraStorage.getDirectory(settings, "sync"),
+		"state.bin");
+    }
+
+    public void start() {
+	load();
+	if (!settings.getBoolean(JiraConstants.SYNC_ENABLED_PROPERTY)) {
+	    return;
+	}
+	if (!sonarIssueActions.isConfigured()) {
+	    LOG.warn("The JIRA status synchronization is disabled, the property \""
+		    + JiraConstants.SONAR_LOGIN_PROPERTY + "\" is not set");
+	    return;
+	}
+	long interval = getPositiveInt(JiraConstants.SYNC_INTERVAL_PROPERTY,
+		JiraConstants.SYNC_INTERVAL_DEF_VALUE);
+	scheduler = Executors
+		.newSingleThreadScheduledExecutor(new ThreadFactoryBuilder()
+			.setDaemon(true).setNameFormat("jira-status-sync")
+			.build());
+	scheduler.scheduleWithFixedDelay(() -> {
+	    try {
+		synchronize();
+	    } catch (RuntimeException e) {
+		LOG.warn("Unable to synchronize the JIRA issue statuses", e);
+	    }
+	}, Math.min(interval, MAX_INITIAL_DELAY_SECONDS), interval,
+		TimeUnit.SECONDS);
+    }
+
+    public void stop() {
+	if (scheduler != null) {
+	    scheduler.shutdownNow();
+	    try {
+		scheduler.awaitTermination(10, TimeUnit.SECONDS);
+	    } catch (InterruptedException e) {
+		Thread.currentThread().interrupt();
+	    }
+	    scheduler = null;
+	}
+	save();
+    }
+
+    /**
+     * Searches JIRA for the linked issues updated since the last
+     * synchronization, then updates their Sonar issues.
+     * 
+     * @return the number of Sonar issues updated
+     */
+    synchronized int synchronize() {
+	JiraSession session = acquireSession();
+	try {
+	    return synchronize(session);
+	} finally {
+	    sessionRegistry.release(session);
+	}
+    }
+
+    /**
+     * Searches JIRA for some JIRA issues, whatever their update date, then
+     * updates their Sonar issues. The JIRA issues which are not linked are
+     * ignored.
+     * 
+     * @return the number of Sonar issues updated
+     */
+    synchronized int refresh(Collection<String> jiraKeys) {
+	JiraSession session = acquireSession();
+	try {
+	    ListMultimap<String, String> sonarKeys = issueIndex
+		    .getSonarIssueKeys(session);
+	    List<String> linked = Lists.newArrayList();
+	    for (String jiraKey : jiraKeys) {
+		if (sonarKeys.containsKey(jiraKey)) {
+		    linked.add(jiraKey);
+		}
+	    }
+	    if (linked.isEmpty()) {
+		return 0;
+	    }
+	    int batchSize = getPositiveInt(
+		    JiraConstants.SYNC_BATCH_SIZE_PROPERTY,
+		    JiraConstants.SYNC_BATCH_SIZE_DEF_VALUE);
+	    int parallelism = getPositiveInt(
+		    JiraConstants.SYNC_PARALLELISM_PROPERTY,
+		    JiraConstants.SYNC_PARALLELISM_DEF_VALUE);
+	    List<Search> searches = Lists.newArrayList();
+	    for (List<String> keys : Lists.partition(linked, batchSize)) {
+		searches.add(new Search(keys, ""));
+	    }
+	    ExecutorService lanes = newLanes(parallelism);
+	    try {
+		Map<String, String> found = search(session, lanes,
+			parallelism, searches);
+		searched.addAll(found.keySet());
+		return applyUpdates(lanes, parallelism,
+			getUpdates(sonarKeys, found.keySet()));
+	    } finally {
+		lanes.shutdownNow();
+	    }
+	} finally {
+	    sessionRegistry.release(session);
+	}
+    }
+
+    /**
+     * Opens a session on the JIRA server of the global settings, forgetting
+     * what was known of the previous server if it changed.
+     */
+    private JiraSession acquireSession() {
+	String serverUrl = settings.getString(JiraConstants.SERVER_URL_PROPERTY);
+	URL url;
+	try {
+	    url = new URL(serverUrl);
+	} catch (MalformedURLException e) {
+	    throw new IllegalStateException(
+		    "The JIRA server URL is not a valid one: " + serverUrl, e);
+	}
+	JiraSession session;
+	try {
+	    session = sessionRegistry.acquire(url,
+		    settings.getString(JiraConstants.USERNAME_PROPERTY),
+		    settings.getString(JiraConstants.PASSWORD_PROPERTY));
+	} catch (RemoteException e) {
+	    throw new IllegalStateException("Impossible to connect to "
+		    + serverUrl, e);
+	}
+	if (!serverUrl.equals(server)) {
+	    clear();
+	    server = serverUrl;
+	}
+	return session;
+    }
+
+    /**
+     * Forgets a deleted JIRA issue.
+     */
+    private void forget(JiraSession session, String jiraKey) {
+	issueIndex.remove(session, jiraKey);
+	searched.remove(jiraKey);
+	resolutions.remove(jiraKey);
+	transitions.remove(jiraKey);
+    }
+
+    /**
+     * @return the default JIRA project key of the global settings, and the
+     *         ones the components are routed to
+     */
+    private Set<String> getJiraProjectKeys() {
+	Set<String> keys = Sets.newLinkedHashSet();
+	String prefix = JiraConstants.JIRA_PROJECT_KEY_PROPERTY + '.';
+	for (Map.Entry<String, String> property : settings.getProperties()
+		.entrySet()) {
+	    if (property.getKey().startsWith(prefix)
+		    && StringUtils.isNotBlank(property.getValue())) {
+		keys.add(property.getValue().trim());
+	    }
+	}
+	String key = settings
+		.getString(JiraConstants.JIRA_PROJECT_KEY_PROPERTY);
+	if (StringUtils.isNotBlank(key)) {
+	    keys.add(key.trim());
+	}
+	return keys;
+    }
+
+    private int synchronize(JiraSession session) {
+	long start = System.currentTimeMillis();
+	// the issues linked before the index was kept, or linked by hand
+	issueIndex.index(session, getJiraProjectKeys());
+	ListMultimap<String, String> sonarKeys = issueIndex
+		.getSonarIssueKeys(session);
+	List<String> known = Lists.newArrayList();
+	List<String> unknown = Lists.newArrayList();
+	for (String jiraKey : sonarKeys.keySet()) {
+	    (searched.contains(jiraKey) ? known : unknown).add(jiraKey);
+	}
+	int batchSize = getPositiveInt(JiraConstants.SYNC_BATCH_SIZE_PROPERTY,
+		JiraConstants.SYNC_BATCH_SIZE_DEF_VALUE);
+	int parallelism = getPositiveInt(
+		JiraConstants.SYNC_PARALLELISM_PROPERTY,
+		JiraConstants.SYNC_PARALLELISM_DEF_VALUE);
+	List<Search> searches = Lists.newArrayList();
+	String updated = cursor > 0 ? " AND updated >= -"
+		+ (TimeUnit.MILLISECONDS.toMinutes(start - cursor) + CURSOR_OVERLAP_MINUTES)
+		+ "m" : "";
+	for (List<String> keys : Lists.partition(known, batchSize)) {
+	    searches.add(new Search(keys, updated));
+	}
+	for (List<String> keys : Lists.partition(unknown, batchSize)) {
+	    searches.add(new Search(keys, ""));
+	}
+
+	ExecutorService lanes = newLanes(parallelism);
+	try {
+	    Map<String, String> found = search(session, lanes, parallelism,
+		    searches);
+	    // every unknown issue which still exists was found
+	    searched.addAll(found.keySet());
+	    cursor = start;
+
+	    int count = applyUpdates(lanes, parallelism, getUpdates(sonarKeys,
+		    Sets.union(resolutions.keySet(), transitions.keySet())));
+	    LOG.info(
+		    "{} JIRA issues synchronized, {} found updated, {} Sonar issues updated",
+		    sonarKeys.keySet().size(), found.size(), count);
+	    return count;
+	} finally {
+	    lanes.shutdownNow();
+	}
+    }
+
+    /**
+     * Runs the searches on the lanes, forgets the JIRA issues which were
+     * deleted and keeps the resolutions of the others.
+     * 
+     * @return the resolution of the found issues, "" if unresolved
+     */
+    private Map<String, String> search(JiraSession session,
+	    ExecutorService lanes, int parallelism, List<Search> searches) {
+	ConcurrentMap<String, String> found = new ConcurrentHashMap<String, String>();
+	Set<String> deleted = Sets.newConcurrentHashSet();
+	SearchRestClient searchClient = session.getJiraRestClient()
+		.getSearchClient();
+	runOnLanes(lanes, parallelism, searches,
+		search -> search(searchClient, search.keys, search.updated,
+			found, deleted));
+	for (String jiraKey : deleted) {
+	    forget(session, jiraKey);
+	}
+	record(found);
+	return found;
+    }
+
+    /**
+     * Keeps the resolutions read from JIRA, "" meaning unresolved.
+     */
+    private void record(Map<String, String> found) {
+	for (Map.Entry<String, String> entry : found.entrySet()) {
+	    if (entry.getValue().isEmpty()) {
+		resolutions.remove(entry.getKey());
+	    } else {
+		resolutions.put(entry.getKey(), entry.getValue());
+	    }
+	}
+    }
+
+    /**
+     * Applies the updates, and keeps the transitions of the ones which
+     * succeeded.
+     * 
+     * @return the number of Sonar issues updated
+     */
+    private int applyUpdates(ExecutorService lanes, int parallelism,
+	    List<Update> updates) {
+	runOnLanes(lanes, parallelism, updates, update -> update.apply());
+	int count = 0;
+	for (Update update : updates) {
+	    if (update.applied) {
+		if (update.target == null) {
+		    transitions.remove(update.jiraKey);
+		} else {
+		    transitions.put(update.jiraKey, update.target);
+		}
+		count += update.changed;
+	    }
+	}
+	return count;
+    }
+
+    /**
+     * Compares the resolution of each JIRA issue with the transition applied
+     * to its Sonar issues, the updates which failed being tried again.
+     */
+    private List<Update> getUpdates(ListMultimap<String, String> sonarKeys,
+	    Collection<String> jiraKeys) {
+	Set<String> falsePositiveResolutions = Sets.newHashSet();
+	for (String resolution : settings
+		.getStringArray(JiraConstants.SYNC_FALSE_POSITIVE_RESOLUTIONS_PROPERTY)) {
+	    falsePositiveResolutions.add(resolution.trim().toLowerCase());
+	}
+	List<Update> updates = Lists.newArrayList();
+	for (String jiraKey : jiraKeys) {
+	    List<String> keys = sonarKeys.get(jiraKey);
+	    String resolution = resolutions.get(jiraKey);
+	    String target = null;
+	    if (resolution != null) {
+		target = falsePositiveResolutions.contains(resolution
+			.toLowerCase()) ? FALSE_POSITIVE : RESOLVE;
+	    }
+	    String applied = transitions.get(jiraKey);
+	    if (keys.isEmpty() || StringUtils.equals(target, applied)) {
+		continue;
+	    }
+	    List<String> steps = Lists.newArrayList();
+	    if (applied != null) {
+		steps.add(REOPEN);
+	    }
+	    if (target != null) {
+		steps.add(target);
+	    }
+	    updates.add(new Update(jiraKey, keys, steps, target));
+	}
+	return updates;
+    }
+
+    private void search(SearchRestClient searchClient, List<String> keys,
+	    String updated, Map<String, String> found, Set<String> deleted)
+	    throws InterruptedException {
+	String jql = "key in (" + Joiner.on(',').join(keys) + ")" + updated;
+	int startAt = 0;
+	try {
+	    while (true) {
+		SearchResult page = searchClient.searchJql(jql, keys.size(),
+			startAt, SEARCH_FIELDS).get();
+		int size = 0;
+		for (Issue issue : page.getIssues()) {
+		    size++;
+		    found.put(issue.getKey(), issue.getResolution() == null ? ""
+			    : issue.getResolution().getName());
+		}
+		startAt += size;
+		if (size == 0 || startAt >= page.getTotal()) {
+		    break;
+		}
+	    }
+	} catch (ExecutionException e) {
+	    if (e.getCause() instanceof JiraCircuitOpenException) {
+		throw (JiraCircuitOpenException) e.getCause();
+	    }
+	    if (!JiraIssueCreator.isRejected(e.getCause())) {
+		throw new IllegalStateException(
+			"Exception during JIRA issues search", e.getCause());
+	    }
+	    // JIRA refuses the whole query if one of the issues was deleted
+	    if (keys.size() == 1) {
+		LOG.debug("JIRA issue {} can not be searched: {}", keys.get(0),
+			e.getCause().getMessage());
+		deleted.add(keys.get(0));
+		return;
+	    }
+	    int half = keys.size() / 2;
+	    search(searchClient, keys.subList(0, half), updated, found,
+		    deleted);
+	    search(searchClient, keys.subList(half, keys.size()), updated,
+		    found, deleted);
+	}
+    }
+
+    /**
+     * Runs the task on each item, each lane taking the items one after the
+     * other, and waits for all of them.
+     */
+    private static <T> void runOnLanes(ExecutorService lanes, int parallelism,
+	    List<T> items, Task<T> task) {
+	List<Future<?>> running = Lists.newArrayList();
+	for (int lane = 0; lane < Math.min(parallelism, items.size()); lane++) {
+	    final int first = lane;
+	    running.add(lanes.submit(() -> {
+		for (int i = first; i < items.size(); i += parallelism) {
+		    task.run(items.get(i));
+		}
+		return null;
+	    }));
+	}
+	try {
+	    for (Future<?> lane : running) {
+		lane.get();
+	    }
+	} catch (InterruptedException e) {
+	    Thread.currentThread().interrupt();
+	    throw new IllegalStateException(
+		    "Interrupted during JIRA status synchronization", e);
+	} catch (ExecutionException e) {
+	    if (e.getCause() instanceof RuntimeException) {
+		throw (RuntimeException) e.getCause();
+	    }
+	    throw new IllegalStateException(
+		    "Exception during JIRA status synchronization", e.getCause());
+	} finally {
+	    for (Future<?> lane : running) {
+		lane.cancel(true);
+	    }
+	}
+    }
+
+    private static ExecutorService newLanes(int parallelism) {
+	return Executors.newFixedThreadPool(parallelism,
+		new ThreadFactoryBuilder().setDaemon(true)
+			.setNameFormat("jira-status-sync-%d").build());
+    }
+
+    private int getPositiveInt(String key, String defaultValue) {
+	int value = settings.getInt(key);
+	return value > 0 ? value : Integer.parseInt(defaultValue);
+    }
+
+    private void clear() {
+	cursor = 0;
+	searched.clear();
+	resolutions.clear();
+	transitions.clear();
+    }
+
+    private synchronized void load() {
+	if (!file.isFile()) {
+	    return;
+	}
+	DataInputStream input = null;
+	try {
+	    input = new DataInputStream(new BufferedInputStream(
+		    new FileInputStream(file)));
+	    if (input.readInt() != MAGIC || input.readInt() != VERSION) {
+		LOG.warn("Ignoring JIRA status synchronization state of unknown format: {}",
+			file);
+		return;
+	    }
+	    server = input.readUTF();
+	    cursor = input.readLong();
+	    int count = input.readInt();
+	    for (int i = 0; i < count; i++) {
+		searched.add(input.readUTF());
+	    }
+	    readMap(input, resolutions);
+	    readMap(input, transitions);
+	} catch (IOException e) {
+	    LOG.warn("Unable to read the JIRA status synchronization state "
+		    + file, e);
+	    server = null;
+	    clear();
+	} finally {
+	    IOUtils.closeQuietly(input);
+	}
+    }
+
+    private synchronized void save() {
+	if (server == null) {
+	    return;
+	}
+	File dir = file.getParentFile();
+	File tmp = new File(dir, file.getName() + ".tmp");
+	DataOutputStream output = null;
+	try {
+	    if (!dir.isDirectory() && !dir.mkdirs()) {
+		throw new IOException("Unable to create directory " + dir);
+	    }
+	    output = new DataOutputStream(new BufferedOutputStream(
+		    new FileOutputStream(tmp)));
+	    output.writeInt(MAGIC);
+	    output.writeInt(VERSION);
+	    output.writeUTF(server);
+	    output.writeLong(cursor);
+	    output.writeInt(searched.size());
+	    for (String jiraKey : searched) {
+		output.writeUTF(jiraKey);
+	    }
+	    writeMap(output, resolutions);
+	    writeMap(output, transitions);
+	    output.close();
+	    output = null;
+	    if (file.exists() && !file.delete() || !tmp.renameTo(file)) {
+		throw new IOException("Unable to write " + file);
+	    }
+	} catch (IOException e) {
+	    LOG.warn("Unable to save the JIRA status synchronization state "
+		    + file, e);
+	} finally {
+	    IOUtils.closeQuietly(output);
+	}
+    }
+
+    private static void readMap(DataInputStream input, Map<String, String> map)
+	    throws IOException {
+	int count = input.readInt();
+	for (int i = 0; i < count; i++) {
+	    map.put(input.readUTF(), input.readUTF());
+	}
+    }
+
+    private static void writeMap(DataOutputStream output,
+	    Map<String, String> map) throws IOException {
+	output.writeInt(map.size());
+	for (Map.Entry<String, String> entry : map.entrySet()) {
+	    output.writeUTF(entry.getKey());
+	    output.writeUTF(entry.getValue());
+	}
+    }
+
+    private interface Task<T> {
+	void run(T item) throws Exception;
+    }
+
+    private static final class Search {
+	private final List<String> keys;
+	private final String updated;
+
+	Search(List<String> keys, String updated) {
+	    this.keys = keys;
+	    this.updated = updated;
+	}
+    }
+
+    /**
+     * Transitions to apply to the Sonar issues of a JIRA issue.
+     */
+    private final class Update {
+	private final String jiraKey;
+	private final Collection<String> sonarKeys;
+	private final List<String> steps;
+	/** Transition applied once done, null once reopened. */
+	private final String target;
+	private volatile boolean applied;
+	/** Sonar issues which took the last step. */
+	private volatile int changed;
+
+	Update(String jiraKey, Collection<String> sonarKeys,
+		List<String> steps, String target) {
+	    this.jiraKey = jiraKey;
+	    this.sonarKeys = ImmutableList.copyOf(sonarKeys);
+	    this.steps = steps;
+	    this.target = target;
+	}
+
+	void apply() {
+	    try {
+		int count = 0;
+		for (String sonarKey : sonarKeys) {
+		    boolean done = false;
+		    for (String step : steps) {
+			// refused when the Sonar issue is already there
+			done = sonarIssueActions.doTransition(sonarKey, step);
+		    }
+		    if (done) {
+			count++;
+		    }
+		}
+		changed = count;
+		applied = true;
+	    } catch (RuntimeException e) {
+		LOG.warn("Unable to update the Sonar issues of JIRA issue "
+			+ jiraKey + ", will try again", e);
+	    }
+	}
+    }
+}
@@ -0,0 +1,211 @@
+/*
+ * Sonar JIRA Plugin
+ * Copyright (C) 2009 SonarSource
+ * dev@sonar.codehaus.org
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02
+ */
+package org.sonar.plugins.jira.reviews;
+
+import com.google.common.base.Charsets;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Sets;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import org.apache.commons.lang.StringUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.sonar.api.Properties;
+import org.sonar.api.Property;
+import org.sonar.api.PropertyType;
+import org.sonar.api.config.Settings;
+import org.sonar.api.server.ws.Request;
+import org.sonar.api.server.ws.RequestHandler;
+import org.sonar.api.server.ws.Response;
+import org.sonar.api.server.ws.WebService;
+import org.sonar.plugins.jira.JiraConstants;
+import java.security.MessageDigest;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Receives the "issue updated" and "issue deleted" webhooks of JIRA, so that
+ * the resolutions reach the linked Sonar issues without waiting for the
+ * {@link JiraStatusSynchronizer} to search them.
+ * <p>
+ * The webhook is the {@value #ACTION} action of the {@value #CONTROLLER} web
+ * service of Sonar, the key of the JIRA issue being given by the
+ * {@value #ISSUE_PARAM} parameter of the URL registered in JIRA, and the secret
+ * shared with JIRA by the {@value #SECRET_PARAM} parameter. The requests
+ * without the secret are refused before being queued. Nothing else of the
+ * request is trusted: the JIRA issues are searched again with the credentials
+ * of the plugin, and the ones which are not linked are ignored. The keys are
+ * only queued, so that JIRA is answered at once. When the queue
+ * is full, JIRA is answered 503 until the worker catches up. The worker
+ * refreshes the queued keys by batches, and the synchronizer stays the safety
+ * net for the events which were lost.
+ */
+@Properties({
+	@Property(key = JiraConstants.WEBHOOK_ENABLED_PROPERTY, defaultValue = JiraConstants.WEBHOOK_ENABLED_DEF_VALUE, name = "Webhook", description = "Whether the JIRA webhook is received, at " + JiraWebhookReceiver.URL + ". Requires the Sonar login of the asynchronous link. Takes effect on the next restart.", global = true, project = false, type = PropertyType.BOOLEAN),
+	@Property(key = JiraConstants.WEBHOOK_SECRET_PROPERTY, defaultValue = "", name = "Webhook secret", description = "Secret shared with JIRA, given by the \"" + JiraWebhookReceiver.SECRET_PARAM + "\" parameter of the webhook URL. The webhook is disabled until it is set.", global = true, project = false, type = PropertyType.PASSWORD),
+	@Property(key = JiraConstants.WEBHOOK_QUEUE_SIZE_PROPERTY, defaultValue = JiraConstants.WEBHOOK_QUEUE_SIZE_DEF_VALUE, name = "Webhook queue size", description = "Number of JIRA issues waiting to be refreshed, beyond which JIRA is asked to retry later.", global = true, project = false, type = PropertyType.INTEGER) })
+public class JiraWebhookReceiver implements WebService, RequestHandler {
+
+    private static final Logger LOG = LoggerFactory
+	    .getLogger(JiraWebhookReceiver.class);
+
+    static final String CONTROLLER = "api/jira";
+    static final String ACTION = "webhook";
+    static final String ISSUE_PARAM = "issue";
+    static final String SECRET_PARAM = "secret";
+    static final String URL = "/" + CONTROLLER + "/" + ACTION + "?"
+	    + ISSUE_PARAM + "=${issue.key}&" + SECRET_PARAM + "=...";
+
+    private final Settings settings;
+    private final JiraStatusSynchronizer synchronizer;
+    private final SonarIssueActions sonarIssueActions;
+    private volatile BlockingQueue<String> queue;
+    private volatile byte[] secret;
+    private Thread worker;
+
+    public JiraWebhookReceiver(Settings settings,
+	    JiraStatusSynchronizer synchronizer,
+	    SonarIssueActions sonarIssueActions) {
+	this.settings = settings;
+	this.synchronizer = synchronizer;
+	this.sonarIssueActions = sonarIssueActions;
+    }
+
+    @Override
+    public void define(Context context) {
+	NewController controller = context.createController(CONTROLLER)
+		.setDescription("JIRA plugin");
+	NewAction action = controller.createAction(ACTION)
+		.setDescription("Webhook of JIRA, registered for the \"issue updated\" and \"issue deleted\" events.")
+		.setPost(true).setInternal(true).setHandler(this);
+	action.createParam(ISSUE_PARAM)
+		.setDescription("Key of the JIRA issue")
+		.setExampleValue("TEST-1").setRequired(true);
+	action.createParam(SECRET_PARAM)
+		.setDescription("Secret shared with JIRA").setRequired(true);
+	controller.done();
+    }
+
+    public void start() {
+	if (!settings.getBoolean(JiraConstants.WEBHOOK_ENABLED_PROPERTY)) {
+	    return;
+	}
+	String configured = settings
+		.getString(JiraConstants.WEBHOOK_SECRET_PROPERTY);
+	if (StringUtils.isBlank(configured)) {
+	    LOG.warn("The JIRA webhook is disabled, the property \""
+		    + JiraConstants.WEBHOOK_SECRET_PROPERTY + "\" is not set");
+	    return;
+	}
+	if (!sonarIssueActions.isConfigured()) {
+	    LOG.warn("The JIRA webhook is disabled, the property \""
+		    + JiraConstants.SONAR_LOGIN_PROPERTY + "\" is not set");
+	    return;
+	}
+	int size = settings.getInt(JiraConstants.WEBHOOK_QUEUE_SIZE_PROPERTY);
+	BlockingQueue<String> keys = new ArrayBlockingQueue<String>(
+		size > 0 ? size : Integer
+			.parseInt(JiraConstants.WEBHOOK_QUEUE_SIZE_DEF_VALUE));
+	worker = new ThreadFactoryBuilder().setDaemon(true)
+		.setNameFormat("jira-webhook-worker").build()
+		.newThread(() -> work(keys));
+	worker.start();
+	secret = configured.getBytes(Charsets.UTF_8);
+	queue = keys;
+	LOG.info("JIRA webhook received at {}", URL);
+    }
+
+    public void stop() {
+	BlockingQueue<String> keys = queue;
+	if (keys == null) {
+	    return;
+	}
+	queue = null;
+	worker.interrupt();
+	try {
+	    worker.join(TimeUnit.SECONDS.toMillis(10));
+	} catch (InterruptedException e) {
+	    Thread.currentThread().interrupt();
+	}
+	if (!keys.isEmpty()) {
+	    LOG.warn("{} JIRA issues were not refreshed before shutdown",
+		    keys.size());
+	}
+	worker = null;
+    }
+
+    /**
+     * Queues the JIRA issue of the request, once its secret checked.
+     */
+    @Override
+    public void handle(Request request, Response response) {
+	BlockingQueue<String> keys = queue;
+	if (keys == null) {
+	    response.stream().setStatus(404);
+	    return;
+	}
+	if (!isSecretValid(request.param(SECRET_PARAM))) {
+	    response.stream().setStatus(403);
+	    return;
+	}
+	String jiraKey = StringUtils.trim(request.mandatoryParam(ISSUE_PARAM));
+	if (StringUtils.isEmpty(jiraKey)) {
+	    response.stream().setStatus(400);
+	    return;
+	}
+	if (!keys.offer(jiraKey)) {
+	    response.stream().setStatus(503);
+	    return;
+	}
+	response.noContent();
+    }
+
+    private boolean isSecretValid(String given) {
+	if (given == null) {
+	    return false;
+	}
+	// constant time, not to tell how much of the secret was guessed
+	return MessageDigest.isEqual(given.getBytes(Charsets.UTF_8), secret);
+    }
+
+    private void work(BlockingQueue<String> keys) {
+	while (!Thread.currentThread().isInterrupted()) {
+	    List<String> batch = Lists.newArrayList();
+	    try {
+		batch.add(keys.take());
+	    } catch (InterruptedException e) {
+		return;
+	    }
+	    keys.drainTo(batch);
+	    // the events of a JIRA issue are read back by a single search
+	    Set<String> jiraKeys = Sets.newLinkedHashSet(batch);
+	    try {
+		int count = synchronizer.refresh(jiraKeys);
+		LOG.debug("{} JIRA issues refreshed, {} Sonar issues updated",
+			jiraKeys.size(), count);
+	    } catch (RuntimeException e) {
+		LOG.warn("Unable to refresh " + jiraKeys.size()
+			+ " JIRA issues", e);
+	    }
+	}
+    }
+}
@@ -30,14 +30,47 @@ import java.rmi.RemoteException;
 public class LinkFunction implements Function, ServerExtension {
 
     private final JiraIssueCreator jiraIssueCreator;
+    private final JiraLinkQueue linkQueue;
 
-    public LinkFunction(JiraIssueCreator jiraIssueCreator) {
+    public LinkFunction(JiraIssueCreator jiraIssueCreator,
+	    JiraLinkQueue linkQueue) {
 	this.jiraIssueCreator = jiraIssueCreator;
+	this.linkQueue = linkQueue;
     }
 
     public void execute(Context context) {
-	checkConditions(context.projectSettings());
-	createJiraIssue(context);
+	checkConditions(context);
+	String failure = linkQueue.takeFailure(context.issue().key());
+	if (failure != null) {
+	    context.addComment("Impossible to create an issue on JIRA: "
+		    + failure);
+	    context.setAttribute(
+		    JiraConstants.SONAR_ISSUE_PENDING_PROPERTY_KEY, null);
+	    return;
+	}
+	BasicIssue created = linkQueue.takeCreated(context.issue().key());
+	if (created != null) {
+	    linkToJiraIssue(created, context);
+	    context.setAttribute(
+		    JiraConstants.SONAR_ISSUE_PENDING_PROPERTY_KEY, null);
+	} else if (linkQueue.isEnabled()) {
+	    enqueueJiraIssue(context);
+	} else {
+	    createJiraIssue(context);
+	}
+    }
+
+    /**
+     * Leaves the creation of the JIRA issue to the {@link JiraLinkQueue}. The
+     * Sonar issue is linked when the action runs again once the JIRA issue
+     * exists.
+     */
+    protected void enqueueJiraIssue(Context context) {
+	if (linkQueue.enqueue(context.issue(), context.projectSettings())) {
+	    context.addComment("JIRA issue creation pending");
+	    context.setAttribute(
+		    JiraConstants.SONAR_ISSUE_PENDING_PROPERTY_KEY, "true");
+	}
     }
 
     protected void createJiraIssue(Context context) {
@@ -51,34 +84,29 @@ public class LinkFunction implements Function, ServerExtension {
 			    + e.getMessage(), e);
 	}
 
+	linkToJiraIssue(issue, context);
+    }
+
+    /**
+     * Records on the Sonar issue of the context that it is tracked by the given
+     * JIRA issue.
+     */
+    protected void linkToJiraIssue(BasicIssue issue, Context context) {
 	createComment(issue, context);
 	// and add the property
 	context.setAttribute(JiraConstants.SONAR_ISSUE_DATA_PROPERTY_KEY,
 		issue.getKey());
     }
 
+    /**
+     * @throws IllegalStateException
+     *             if the JIRA properties of the project of the issue are not
+     *             defined
+     */
     @VisibleForTesting
-    void checkConditions(Settings settings) {
-	checkProperty(JiraConstants.SERVER_URL_PROPERTY, settings);
-	checkProperty(JiraConstants.SOAP_BASE_URL_PROPERTY, settings);
-	checkProperty(JiraConstants.USERNAME_PROPERTY, settings);
-	checkProperty(JiraConstants.PASSWORD_PROPERTY, settings);
-	checkProperty(JiraConstants.JIRA_PROJECT_KEY_PROPERTY, settings);
-	checkProperty(JiraConstants.JIRA_INFO_PRIORITY_ID, settings);
-	checkProperty(JiraConstants.JIRA_MINOR_PRIORITY_ID, settings);
-	checkProperty(JiraConstants.JIRA_MAJOR_PRIORITY_ID, settings);
-	checkProperty(JiraConstants.JIRA_CRITICAL_PRIORITY_ID, settings);
-	checkProperty(JiraConstants.JIRA_BLOCKER_PRIORITY_ID, settings);
-	checkProperty(JiraConstants.JIRA_ISSUE_TYPE_ID, settings);
-    }
-
-    private void checkProperty(String property, Settings settings) {
-	if (!settings.hasKey(property) && !settings.hasDefaultValue(property)) {
-	    throw new IllegalStateException(
-		    "The JIRA property \""
-			    + property
-			    + "\" must be defined before you can use the \"Link to Jira\" button");
-	}
+    void checkConditions(Context context) {
+	jiraIssueCreator.getConfig(context.projectSettings(),
+		context.issue().projectKey()).checkConditions();
     }
 
     protected void createComment(BasicIssue issue, Context context) {
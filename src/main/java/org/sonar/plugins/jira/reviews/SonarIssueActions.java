@@ -0,0 +1,119 @@
+/*
+ * Sonar JIRA Plugin
+ * Copyright (C) 2009 SonarSource
+ * dev@sonar.codehaus.org
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02
+ */
+package org.sonar.plugins.jira.reviews;
+
+import org.apache.commons.lang.StringUtils;
+import org.sonar.api.ServerExtension;
+import org.sonar.api.config.Settings;
+import org.sonar.core.issue.workflow.Transition;
+import org.sonar.core.user.UserDao;
+import org.sonar.core.user.UserDto;
+import org.sonar.plugins.jira.JiraConstants;
+import org.sonar.server.issue.ActionService;
+import org.sonar.server.issue.IssueCommentService;
+import org.sonar.server.issue.IssueService;
+import org.sonar.server.user.RubyUserSession;
+import org.sonar.server.user.UserSession;
+import java.util.function.Supplier;
+
+/**
+ * Updates Sonar issues through the issue services of the Sonar server, for the
+ * changes made outside of an issue action, once its context is gone. The
+ * changes are made in the calling thread, on behalf of the Sonar user
+ * {@link JiraConstants#SONAR_LOGIN_PROPERTY}: no HTTP call and no password are
+ * involved.
+ */
+public class SonarIssueActions implements ServerExtension {
+
+    private final Settings settings;
+    private final ActionService actionService;
+    private final IssueCommentService issueCommentService;
+    private final IssueService issueService;
+    private final UserDao userDao;
+
+    public SonarIssueActions(Settings settings, ActionService actionService,
+	    IssueCommentService issueCommentService,
+	    IssueService issueService, UserDao userDao) {
+	this.settings = settings;
+	this.actionService = actionService;
+	this.issueCommentService = issueCommentService;
+	this.issueService = issueService;
+	this.userDao = userDao;
+    }
+
+    public boolean isConfigured() {
+	return StringUtils.isNotBlank(settings
+		.getString(JiraConstants.SONAR_LOGIN_PROPERTY));
+    }
+
+    /**
+     * Runs an action, such as "link-to-jira", on a Sonar issue.
+     */
+    public void doAction(String issueKey, String actionKey) {
+	runAsUser(() -> actionService.execute(issueKey, actionKey,
+		UserSession.get()));
+    }
+
+    public void addComment(String issueKey, String text) {
+	runAsUser(() -> issueCommentService.addComment(issueKey, text,
+		UserSession.get()));
+    }
+
+    /**
+     * Applies a workflow transition, such as "resolve", to a Sonar issue.
+     * 
+     * @return false if Sonar refused the transition, the issue not being in a
+     *         status it applies to
+     */
+    public boolean doTransition(String issueKey, String transition) {
+	return runAsUser(() -> {
+	    for (Transition available : issueService
+		    .listTransitions(issueKey)) {
+		if (available.key().equals(transition)) {
+		    issueService.doTransition(issueKey, transition);
+		    return true;
+		}
+	    }
+	    return false;
+	});
+    }
+
+    /**
+     * Runs a call of the issue services in a session of the Sonar user, which
+     * they check and record as the author of the changes.
+     */
+    private <T> T runAsUser(Supplier<T> call) {
+	String login = settings.getString(JiraConstants.SONAR_LOGIN_PROPERTY);
+	UserDto user = userDao.selectActiveUserByLogin(login);
+	if (user == null) {
+	    throw new IllegalStateException("The Sonar user \"" + login
+		    + "\" of the property \""
+		    + JiraConstants.SONAR_LOGIN_PROPERTY
+		    + "\" does not exist or is not active");
+	}
+	RubyUserSession.setSession(user.getId().intValue(), user.getLogin(),
+		user.getName(), null, null);
+	try {
+	    return call.get();
+	} finally {
+	    RubyUserSession.setSession(null, null, null, null, null);
+	}
+    }
+}
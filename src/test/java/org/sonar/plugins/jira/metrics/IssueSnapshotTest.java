@@ -0,0 +1,93 @@
+/*
+ * Sonar, open source software quality management tool.
+ * Copyright (C) 2009 SonarSource
+ * mailto:contact AT sonarsource DOT com
+ *
+ * Sonar is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * Sonar is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with Sonar; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02
+ */
+
+
+package org.sonar.plugins.jira.metrics;
+
+import static org.fest.assertions.Assertions.*;
+import static org.mockito.Mockito.*;
+
+import java.io.File;
+import java.util.Map;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import com.atlassian.jira.rest.client.api.domain.BasicPriority;
+import com.atlassian.jira.rest.client.api.domain.Issue;
+
+public class IssueSnapshotTest {
+
+    @Rule
+    public TemporaryFolder temp = new TemporaryFolder();
+
+    @Test
+    public void shouldCountLatestPriorityOfEveryIssue() {
+	IssueSnapshot snapshot = new IssueSnapshot(1000L);
+	snapshot.put(issue(1L, 2L));
+	snapshot.put(issue(2L, 2L));
+	snapshot.put(issue(3L, null));
+	// issue 1 was updated
+	snapshot.put(issue(1L, 4L));
+
+	assertThat(snapshot.size()).isEqualTo(3);
+	Map<Long, Integer> issuesByPriority = snapshot.countByPriority();
+	assertThat(issuesByPriority.size()).isEqualTo(2);
+	assertThat(issuesByPriority.get(2L)).isEqualTo(1);
+	assertThat(issuesByPriority.get(4L)).isEqualTo(1);
+    }
+
+    @Test
+    public void shouldSaveAndLoad() throws Exception {
+	File file = new File(temp.newFolder(), "snapshots/filter.bin");
+	IssueSnapshot snapshot = new IssueSnapshot(1000L);
+	snapshot.setLastUpdate(2000L);
+	snapshot.put(issue(1L, 2L));
+	snapshot.put(issue(2L, 3L));
+	snapshot.save(file);
+
+	IssueSnapshot loaded = IssueSnapshot.load(file);
+	assertThat(loaded.getLastReconciliation()).isEqualTo(1000L);
+	assertThat(loaded.getLastUpdate()).isEqualTo(2000L);
+	assertThat(loaded.countByPriority()).isEqualTo(
+		snapshot.countByPriority());
+    }
+
+    @Test
+    public void shouldIgnoreMissingOrCorruptedFile() throws Exception {
+	File file = new File(temp.newFolder(), "filter.bin");
+	assertThat(IssueSnapshot.load(file)).isNull();
+
+	FileUtils.writeStringToFile(file, "not a snapshot");
+	assertThat(IssueSnapshot.load(file)).isNull();
+    }
+
+    private static Issue issue(long id, Long priorityId) {
+	Issue issue = mock(Issue.class);
+	when(issue.getId()).thenReturn(id);
+	if (priorityId != null) {
+	    when(issue.getPriority()).thenReturn(
+		    new BasicPriority(null, priorityId, "priority" + priorityId));
+	}
+	return issue;
+    }
+}
@@ -0,0 +1,124 @@
+/*
+ * Sonar, open source software quality management tool.
+ * Copyright (C) 2009 SonarSource
+ * mailto:contact AT sonarsource DOT com
+ *
+ * Sonar is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * Sonar is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with Sonar; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02
+ */
+
+package org.sonar.plugins.jira.metrics;
+
+import static org.fest.assertions.Assertions.*;
+import static org.junit.Assert.fail;
+
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+import org.junit.Test;
+
+import com.google.common.collect.ImmutableMap;
+
+public class JiraFilterResultsTest {
+
+    private final JiraFilterResults results = new JiraFilterResults();
+    private final AtomicInteger calls = new AtomicInteger();
+
+    @Test
+    public void shouldComputeSameFilterOnce() throws Exception {
+	Map<Long, Integer> first = results.get("http://my.jira.server",
+		"admin", 1L, "project = SONAR", "count", countingLoader())
+		.get();
+	Map<Long, Integer> second = results.get("http://my.jira.server",
+		"admin", 1L, "project = SONAR", "count", countingLoader())
+		.get();
+
+	assertThat(second).isEqualTo(first);
+	assertThat(calls.get()).isEqualTo(1);
+    }
+
+    @Test
+    public void shouldComputeDifferentQueriesSeparately() throws Exception {
+	results.get("http://my.jira.server", "admin", 1L, "project = SONAR",
+		"count", countingLoader());
+	results.get("http://my.jira.server", "admin", 1L, "project = JIRA",
+		"count", countingLoader());
+	results.get("http://other.jira.server", "admin", 1L, "project = SONAR",
+		"count", countingLoader());
+
+	assertThat(calls.get()).isEqualTo(3);
+	assertThat(results.size()).isEqualTo(3);
+    }
+
+    @Test
+    public void shouldComputeSeparatelyForEachUser() throws Exception {
+	results.get("http://my.jira.server", "admin", 1L, "project = SONAR",
+		"count", countingLoader());
+	results.get("http://my.jira.server", "guest", 1L, "project = SONAR",
+		"count", countingLoader());
+
+	assertThat(calls.get()).isEqualTo(2);
+    }
+
+    @Test
+    public void shouldComputeOnceForConcurrentModules() throws Exception {
+	CompletableFuture<Map<Long, Integer>> pending = new CompletableFuture<Map<Long, Integer>>();
+	Supplier<CompletableFuture<Map<Long, Integer>>> slowLoader = () -> {
+	    calls.incrementAndGet();
+	    return pending;
+	};
+
+	CompletableFuture<Map<Long, Integer>> first = results.get(
+		"http://my.jira.server", "admin", 1L, "project = SONAR",
+		"count", slowLoader);
+	CompletableFuture<Map<Long, Integer>> second = results.get(
+		"http://my.jira.server", "admin", 1L, "project = SONAR",
+		"count", slowLoader);
+	assertThat(second.isDone()).isFalse();
+	pending.complete(ImmutableMap.of(1L, 5));
+
+	assertThat(first.get().get(1L)).isEqualTo(5);
+	assertThat(second.get().get(1L)).isEqualTo(5);
+	assertThat(calls.get()).isEqualTo(1);
+    }
+
+    @Test
+    public void shouldNotKeepFailures() throws Exception {
+	try {
+	    CompletableFuture<Map<Long, Integer>> failure = new CompletableFuture<Map<Long, Integer>>();
+	    failure.completeExceptionally(new IllegalStateException(
+		    "JIRA is down"));
+	    results.get("http://my.jira.server", "admin", 1L, "project = SONAR",
+		    "count", () -> failure).get();
+	    fail();
+	} catch (ExecutionException e) {
+	    assertThat(e.getCause()).isInstanceOf(IllegalStateException.class);
+	}
+
+	results.get("http://my.jira.server", "admin", 1L, "project = SONAR",
+		"count", countingLoader()).get();
+	assertThat(calls.get()).isEqualTo(1);
+    }
+
+    private Supplier<CompletableFuture<Map<Long, Integer>>> countingLoader() {
+	return () -> {
+	    calls.incrementAndGet();
+	    return CompletableFuture.<Map<Long, Integer>> completedFuture(
+		    ImmutableMap.of(1L, 2, 2L, 3));
+	};
+    }
+}
@@ -0,0 +1,163 @@
+/*
+ * Sonar, open source software quality management tool.
+ * Copyright (C) 2009 SonarSource
+ * mailto:contact AT sonarsource DOT com
+ *
+ * Sonar is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * Sonar is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with Sonar; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02
+ */
+
+package org.sonar.plugins.jira.metrics;
+
+import static org.fest.assertions.Assertions.*;
+import static org.mockito.Matchers.*;
+import static org.mockito.Mockito.*;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.sonar.api.batch.SensorContext;
+import org.sonar.api.config.Settings;
+import org.sonar.api.measures.Measure;
+import org.sonar.api.resources.Project;
+import org.sonar.api.test.IsMeasure;
+import org.sonar.plugins.jira.JiraConstants;
+import org.sonar.plugins.jira.rest.FakeJiraServer;
+import org.sonar.plugins.jira.rest.JiraMetadataCache;
+import org.sonar.plugins.jira.rest.JiraSessionRegistry;
+
+/**
+ * Runs the sensor against {@link FakeJiraServer}, through HTTP and the JSON
+ * parsing of the REST client.
+ */
+public class JiraSensorServerTest {
+
+    private static final String[] PRIORITIES = { "Blocker", "Critical",
+	    "Major", "Minor", "Trivial" };
+
+    @Rule
+    public TemporaryFolder temp = new TemporaryFolder();
+
+    private FakeJiraServer server;
+    private Settings settings;
+    private JiraSessionRegistry sessionRegistry;
+
+    @Before
+    public void setUp() throws Exception {
+	server = new FakeJiraServer(2500).setMaxPageSize(1000).start();
+	settings = new Settings();
+	settings.setProperty(JiraConstants.SERVER_URL_PROPERTY, server.getUrl());
+	settings.setProperty(JiraConstants.USERNAME_PROPERTY, "admin");
+	settings.setProperty(JiraConstants.PASSWORD_PROPERTY, "adminPwd");
+	settings.setProperty(JiraConstants.FILTER_PROPERTY, "myFilter");
+	settings.setProperty(JiraConstants.METADATA_PERSISTENT_PROPERTY, false);
+	settings.setProperty(JiraConstants.STORAGE_PATH_PROPERTY, temp
+		.newFolder().getAbsolutePath());
+	sessionRegistry = new JiraSessionRegistry(settings);
+    }
+
+    @After
+    public void tearDown() {
+	sessionRegistry.stop();
+	server.stop();
+    }
+
+    @Test
+    public void shouldCountIssuesOfFilter() {
+	SensorContext context = analyse();
+
+	verify(context).saveMeasure(
+		argThat(new IsMeasure(JiraMetrics.ISSUES, 2500.0,
+			expectedDistribution())));
+	assertThat(server.getRequestCount("search")).isEqualTo(5);
+    }
+
+    @Test
+    public void shouldDownloadAllPagesOfFilter() {
+	settings.setProperty(JiraConstants.SEARCH_STRATEGY_PROPERTY,
+		JiraConstants.SEARCH_STRATEGY_FULL);
+	settings.setProperty(JiraConstants.SEARCH_PAGE_SIZE_PROPERTY, 1000);
+
+	SensorContext context = analyse();
+
+	verify(context).saveMeasure(
+		argThat(new IsMeasure(JiraMetrics.ISSUES, 2500.0,
+			expectedDistribution())));
+	assertThat(server.getRequestCount("search")).isEqualTo(3);
+    }
+
+    @Test
+    public void shouldOnlyDownloadUpdatedIssues() {
+	settings.setProperty(JiraConstants.SEARCH_STRATEGY_PROPERTY,
+		JiraConstants.SEARCH_STRATEGY_INCREMENTAL);
+	analyse();
+	server.updateIssue(0, 1L);
+	server.updateIssue(1, 1L);
+
+	SensorContext context = analyse();
+
+	verify(context).saveMeasure(
+		argThat(new IsMeasure(JiraMetrics.ISSUES, 2500.0,
+			expectedDistribution())));
+    }
+
+    @Test
+    public void shouldWaitWhileJiraThrottlesRequests() {
+	server.setThrottleRate(0.2);
+
+	SensorContext context = analyse();
+
+	verify(context).saveMeasure(
+		argThat(new IsMeasure(JiraMetrics.ISSUES, 2500.0,
+			expectedDistribution())));
+    }
+
+    @Test
+    public void shouldSkipAnalysisWhileJiraIsDown() {
+	server.setErrorRate(1.0);
+	SensorContext context = null;
+	for (int i = 0; i < 10 && context == null; i++) {
+	    try {
+		context = analyse();
+	    } catch (RuntimeException e) {
+		// recorded by the circuit breaker until it opens
+	    }
+	}
+
+	assertThat(context).isNotNull();
+	verify(context, never()).saveMeasure(any(Measure.class));
+    }
+
+    private SensorContext analyse() {
+	SensorContext context = mock(SensorContext.class);
+	new JiraSensor(settings, sessionRegistry,
+		new JiraMetadataCache(settings), new JiraFilterResults())
+		.analyse(mock(Project.class), context);
+	return context;
+    }
+
+    private String expectedDistribution() {
+	StringBuilder distribution = new StringBuilder();
+	for (int i = 0; i < PRIORITIES.length; i++) {
+	    if (i > 0) {
+		distribution.append(';');
+	    }
+	    distribution.append(PRIORITIES[i]).append('=')
+		    .append(server.countIssues(i + 1));
+	}
+	return distribution.toString();
+    }
+}
@@ -27,40 +27,56 @@ import static org.mockito.Mockito.*;
 import java.net.URI;
 import java.rmi.RemoteException;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Map;
+import java.util.concurrent.ExecutionException;
 
 import org.junit.Before;
 import org.junit.Rule;
 import org.junit.Test;
 import org.junit.rules.ExpectedException;
+import org.junit.rules.TemporaryFolder;
 import org.sonar.api.batch.SensorContext;
 import org.sonar.api.config.Settings;
 import org.sonar.api.resources.Project;
 import org.sonar.api.test.IsMeasure;
 import org.sonar.plugins.jira.JiraConstants;
+import org.sonar.plugins.jira.rest.JiraMetadataCache;
+import org.sonar.plugins.jira.rest.JiraSessionRegistry;
 
 import com.atlassian.jira.rest.client.api.JiraRestClient;
+import com.atlassian.jira.rest.client.api.SearchRestClient;
+import com.atlassian.jira.rest.client.api.domain.BasicPriority;
 import com.atlassian.jira.rest.client.api.domain.Filter;
 import com.atlassian.jira.rest.client.api.domain.Issue;
 import com.atlassian.jira.rest.client.api.domain.Priority;
+import com.atlassian.jira.rest.client.api.domain.SearchResult;
+import com.atlassian.util.concurrent.Promises;
+import com.google.common.collect.ImmutableSet;
 
 public class JiraSensorTest {
 
     @Rule
     public ExpectedException thrown = ExpectedException.none();
 
+    @Rule
+    public TemporaryFolder temp = new TemporaryFolder();
+
     private JiraSensor sensor;
     private Settings settings;
+    private JiraSessionRegistry sessionRegistry;
 
     @Before
     public void setUp() {
+	sessionRegistry = mock(JiraSessionRegistry.class);
 	settings = new Settings();
 	settings.setProperty(JiraConstants.SERVER_URL_PROPERTY,
 		"http://my.jira.server");
 	settings.setProperty(JiraConstants.USERNAME_PROPERTY, "admin");
 	settings.setProperty(JiraConstants.PASSWORD_PROPERTY, "adminPwd");
 	settings.setProperty(JiraConstants.FILTER_PROPERTY, "myFilter");
-	sensor = new JiraSensor(settings);
+	sensor = new JiraSensor(settings, sessionRegistry,
+		new JiraMetadataCache(settings), new JiraFilterResults());
     }
 
     @Test
@@ -73,19 +89,23 @@ public class JiraSensorTest {
 	assertThat(sensor.missingMandatoryParameters()).isEqualTo(false);
 
 	settings.removeProperty(JiraConstants.PASSWORD_PROPERTY);
-	sensor = new JiraSensor(settings);
+	sensor = new JiraSensor(settings, sessionRegistry,
+		new JiraMetadataCache(settings), new JiraFilterResults());
 	assertThat(sensor.missingMandatoryParameters()).isEqualTo(true);
 
 	settings.removeProperty(JiraConstants.USERNAME_PROPERTY);
-	sensor = new JiraSensor(settings);
+	sensor = new JiraSensor(settings, sessionRegistry,
+		new JiraMetadataCache(settings), new JiraFilterResults());
 	assertThat(sensor.missingMandatoryParameters()).isEqualTo(true);
 
 	settings.removeProperty(JiraConstants.FILTER_PROPERTY);
-	sensor = new JiraSensor(settings);
+	sensor = new JiraSensor(settings, sessionRegistry,
+		new JiraMetadataCache(settings), new JiraFilterResults());
 	assertThat(sensor.missingMandatoryParameters()).isEqualTo(true);
 
 	settings.removeProperty(JiraConstants.SERVER_URL_PROPERTY);
-	sensor = new JiraSensor(settings);
+	sensor = new JiraSensor(settings, sessionRegistry,
+		new JiraMetadataCache(settings), new JiraFilterResults());
 	assertThat(sensor.missingMandatoryParameters()).isEqualTo(true);
     }
 
@@ -110,7 +130,8 @@ public class JiraSensorTest {
 	when(project.isRoot()).thenReturn(true).thenReturn(false);
 
 	settings.removeProperty(JiraConstants.SERVER_URL_PROPERTY);
-	sensor = new JiraSensor(settings);
+	sensor = new JiraSensor(settings, sessionRegistry,
+		new JiraMetadataCache(settings), new JiraFilterResults());
 
 	assertThat(sensor.shouldExecuteOnProject(project)).isEqualTo(false);
     }
@@ -129,6 +150,36 @@ public class JiraSensorTest {
 	verifyNoMoreInteractions(context);
     }
 
+    @Test
+    public void shouldSaveMeasuresOfFilter() throws Exception {
+	JiraRestClient jiraRestClient = mock(JiraRestClient.class,
+		RETURNS_DEEP_STUBS);
+	Iterable<Priority> priorities = Arrays.asList(new Priority(null, 1L,
+		"Blocker", null, null, null), new Priority(null, 2L,
+		"Critical", null, null, null));
+	when(jiraRestClient.getMetadataClient().getPriorities()).thenReturn(
+		Promises.promise(priorities));
+	SearchRestClient searchClient = jiraRestClient.getSearchClient();
+	Iterable<Filter> filters = Arrays.asList(new Filter(null, 10000L,
+		"myFilter", null, "project = SONAR", null, null, null, true));
+	when(searchClient.getFavouriteFilters()).thenReturn(
+		Promises.promise(filters));
+	when(searchClient.searchJql("(project = SONAR) AND priority = 1", 0,
+		0, null)).thenReturn(
+		Promises.promise(new SearchResult(0, 0, 3,
+			new ArrayList<Issue>())));
+	when(searchClient.searchJql("(project = SONAR) AND priority = 2", 0,
+		0, null)).thenReturn(
+		Promises.promise(new SearchResult(0, 0, 0,
+			new ArrayList<Issue>())));
+	SensorContext context = mock(SensorContext.class);
+
+	sensor.runAnalysis(context, jiraRestClient);
+
+	verify(context).saveMeasure(
+		argThat(new IsMeasure(JiraMetrics.ISSUES, 3.0, "Blocker=3")));
+    }
+
     @Test
     public void shouldCollectPriorities() throws Exception {
 	JiraRestClient jiraSoapService = mock(JiraRestClient.class);
@@ -140,30 +191,187 @@ public class JiraSensorTest {
 		.thenReturn(expected);
 
 	Map<Long, String> foundPriorities = sensor
-		.collectPriorities(jiraSoapService);
+		.collectPriorities(jiraSoapService).get();
 	assertThat(foundPriorities.size()).isEqualTo(1);
 	assertThat(foundPriorities.get(1)).isEqualTo("Minor");
     }
 
     @Test
     public void shouldCollectIssuesByPriority() throws Exception {
-	Filter filter = new Filter();
-	filter.setId("1");
-	JiraRestClient jiraSoapService = mock(JiraRestClient.class);
-	Issue issue1 = new Issue();
-	issue1.setPriority("minor");
-	Issue issue2 = new Issue();
-	issue2.setPriority("critical");
-	Issue issue3 = new Issue();
-	issue3.setPriority("critical");
-	when(jiraSoapService.getIssuesFromFilter(1)).thenReturn(
-		new Issue[] { issue1, issue2, issue3 });
+	Filter filter = mock(Filter.class);
+	when(filter.getJql()).thenReturn("project = SONAR");
+	JiraRestClient jiraRestClient = mock(JiraRestClient.class,
+		RETURNS_DEEP_STUBS);
+	SearchResult page = new SearchResult(0, 100, 3, Arrays.asList(
+		issue(4L), issue(2L), issue(2L)));
+	when(jiraRestClient.getSearchClient().searchJql("project = SONAR",
+		100, 0, JiraSensor.AGGREGATED_FIELDS)).thenReturn(
+		Promises.promise(page));
 
 	Map<Long, Integer> foundIssues = sensor.collectIssuesByPriority(
-		jiraSoapService, filter);
+		jiraRestClient, filter).get();
 	assertThat(foundIssues.size()).isEqualTo(2);
-	assertThat(foundIssues.get("critical")).isEqualTo(2);
-	assertThat(foundIssues.get("minor")).isEqualTo(1);
+	assertThat(foundIssues.get(2L)).isEqualTo(2);
+	assertThat(foundIssues.get(4L)).isEqualTo(1);
+    }
+
+    @Test
+    public void shouldCollectIssuesOfAllPages() throws Exception {
+	settings.setProperty(JiraConstants.SEARCH_PARALLELISM_PROPERTY, 2);
+	Filter filter = mock(Filter.class);
+	when(filter.getJql()).thenReturn("project = SONAR");
+	JiraRestClient jiraRestClient = mock(JiraRestClient.class,
+		RETURNS_DEEP_STUBS);
+	SearchRestClient searchClient = jiraRestClient.getSearchClient();
+	// JIRA only serves 2 issues per page
+	when(searchClient.searchJql("project = SONAR", 100, 0,
+		JiraSensor.AGGREGATED_FIELDS))
+		.thenReturn(Promises.promise(new SearchResult(0, 2, 5, Arrays
+			.asList(issue(1L), issue(1L)))));
+	when(searchClient.searchJql("project = SONAR", 2, 2,
+		JiraSensor.AGGREGATED_FIELDS))
+		.thenReturn(Promises.promise(new SearchResult(2, 2, 5, Arrays
+			.asList(issue(2L), issue(2L)))));
+	when(searchClient.searchJql("project = SONAR", 2, 4,
+		JiraSensor.AGGREGATED_FIELDS))
+		.thenReturn(Promises.promise(new SearchResult(4, 2, 5, Arrays
+			.asList(issue(3L)))));
+
+	Map<Long, Integer> foundIssues = sensor.collectIssuesByPriority(
+		jiraRestClient, filter).get();
+	assertThat(foundIssues.get(1L)).isEqualTo(2);
+	assertThat(foundIssues.get(2L)).isEqualTo(2);
+	assertThat(foundIssues.get(3L)).isEqualTo(1);
+    }
+
+    @Test
+    public void shouldCountIssuesByPriority() throws Exception {
+	Filter filter = mock(Filter.class);
+	when(filter.getJql()).thenReturn("project = SONAR ORDER BY key");
+	JiraRestClient jiraRestClient = mock(JiraRestClient.class,
+		RETURNS_DEEP_STUBS);
+	SearchRestClient searchClient = jiraRestClient.getSearchClient();
+	when(searchClient.searchJql("(project = SONAR) AND priority = 1", 0,
+		0, null)).thenReturn(
+		Promises.promise(new SearchResult(0, 0, 12,
+			new ArrayList<Issue>())));
+	when(searchClient.searchJql("(project = SONAR) AND priority = 2", 0,
+		0, null)).thenReturn(
+		Promises.promise(new SearchResult(0, 0, 0,
+			new ArrayList<Issue>())));
+
+	Map<Long, Integer> foundIssues = sensor.countIssuesByPriority(
+		jiraRestClient, filter, ImmutableSet.of(1L, 2L)).get();
+	assertThat(foundIssues.size()).isEqualTo(1);
+	assertThat(foundIssues.get(1L)).isEqualTo(12);
+    }
+
+    @Test
+    public void shouldOnlyFetchIssuesUpdatedSincePreviousAnalysis()
+	    throws Exception {
+	settings.setProperty(JiraConstants.STORAGE_PATH_PROPERTY, temp
+		.newFolder().getAbsolutePath());
+	Filter filter = mock(Filter.class);
+	when(filter.getId()).thenReturn(10000L);
+	when(filter.getJql()).thenReturn("project = SONAR");
+	JiraRestClient jiraRestClient = mock(JiraRestClient.class,
+		RETURNS_DEEP_STUBS);
+	SearchRestClient searchClient = jiraRestClient.getSearchClient();
+	when(searchClient.searchJql("project = SONAR", 100, 0,
+		JiraSensor.AGGREGATED_FIELDS)).thenReturn(
+		Promises.promise(new SearchResult(0, 100, 2, Arrays.asList(
+			issue(1L, 2L), issue(2L, 2L)))));
+
+	Map<Long, Integer> foundIssues = sensor.collectIssuesIncrementally(
+		jiraRestClient, filter).get();
+	assertThat(foundIssues.get(2L)).isEqualTo(2);
+
+	// second analysis: issue 2 changed of priority
+	when(searchClient.searchJql("project = SONAR", 0, 0, null))
+		.thenReturn(
+			Promises.promise(new SearchResult(0, 0, 2,
+				new ArrayList<Issue>())));
+	when(searchClient.searchJql(
+		startsWith("(project = SONAR) AND updated >= -"), eq(100),
+		eq(0), eq(JiraSensor.AGGREGATED_FIELDS))).thenReturn(
+		Promises.promise(new SearchResult(0, 100, 1, Arrays
+			.asList(issue(2L, 3L)))));
+
+	foundIssues = sensor.collectIssuesIncrementally(jiraRestClient, filter)
+		.get();
+	assertThat(foundIssues.get(2L)).isEqualTo(1);
+	assertThat(foundIssues.get(3L)).isEqualTo(1);
+	verify(searchClient, times(1)).searchJql("project = SONAR", 100, 0,
+		JiraSensor.AGGREGATED_FIELDS);
+    }
+
+    @Test
+    public void shouldFetchWholeFilterWhenIssuesLeftIt() throws Exception {
+	settings.setProperty(JiraConstants.STORAGE_PATH_PROPERTY, temp
+		.newFolder().getAbsolutePath());
+	Filter filter = mock(Filter.class);
+	when(filter.getId()).thenReturn(10000L);
+	when(filter.getJql()).thenReturn("project = SONAR");
+	JiraRestClient jiraRestClient = mock(JiraRestClient.class,
+		RETURNS_DEEP_STUBS);
+	SearchRestClient searchClient = jiraRestClient.getSearchClient();
+	when(searchClient.searchJql("project = SONAR", 100, 0,
+		JiraSensor.AGGREGATED_FIELDS)).thenReturn(
+		Promises.promise(new SearchResult(0, 100, 2, Arrays.asList(
+			issue(1L, 2L), issue(2L, 2L)))),
+		Promises.promise(new SearchResult(0, 100, 1, Arrays
+			.asList(issue(1L, 2L)))));
+	sensor.collectIssuesIncrementally(jiraRestClient, filter).get();
+
+	// issue 2 was deleted
+	when(searchClient.searchJql("project = SONAR", 0, 0, null))
+		.thenReturn(
+			Promises.promise(new SearchResult(0, 0, 1,
+				new ArrayList<Issue>())));
+	when(searchClient.searchJql(
+		startsWith("(project = SONAR) AND updated >= -"), eq(100),
+		eq(0), eq(JiraSensor.AGGREGATED_FIELDS))).thenReturn(
+		Promises.promise(new SearchResult(0, 100, 0,
+			new ArrayList<Issue>())));
+
+	Map<Long, Integer> foundIssues = sensor.collectIssuesIncrementally(
+		jiraRestClient, filter).get();
+	assertThat(foundIssues.get(2L)).isEqualTo(1);
+	verify(searchClient, times(2)).searchJql("project = SONAR", 100, 0,
+		JiraSensor.AGGREGATED_FIELDS);
+    }
+
+    @Test
+    public void shouldRestrictJqlToUpdatedSince() {
+	assertThat(
+		JiraSensor.restrictToUpdatedSince(
+			"project = SONAR ORDER BY key", 70)).isEqualTo(
+		"(project = SONAR) AND updated >= -70m");
+    }
+
+    @Test
+    public void shouldRestrictJqlToPriority() {
+	assertThat(JiraSensor.restrictToPriority("project = SONAR", 3))
+		.isEqualTo("(project = SONAR) AND priority = 3");
+	assertThat(
+		JiraSensor.restrictToPriority(
+			"status = Open order by priority DESC", 3)).isEqualTo(
+		"(status = Open) AND priority = 3");
+	assertThat(JiraSensor.restrictToPriority("ORDER BY created", 3))
+		.isEqualTo("priority = 3");
+	assertThat(JiraSensor.restrictToPriority(null, 3)).isEqualTo(
+		"priority = 3");
+    }
+
+    @Test
+    public void shouldOnlyRequestAggregatedAndConfiguredFields() {
+	assertThat(sensor.getSearchFields()).isEqualTo(
+		JiraSensor.AGGREGATED_FIELDS);
+
+	settings.setProperty(JiraConstants.SEARCH_FIELDS_PROPERTY,
+		"components, fixVersions");
+	assertThat(sensor.getSearchFields()).contains("priority",
+		"components", "fixVersions");
     }
 
     @Test
@@ -176,7 +384,7 @@ public class JiraSensorTest {
 	when(jiraSoapService.getFavouriteFilters()).thenReturn(
 		new Filter[] { filter1, myFilter });
 
-	Filter foundFilter = sensor.findJiraFilter(jiraSoapService);
+	Filter foundFilter = sensor.findJiraFilter(jiraSoapService).get();
 	assertThat(foundFilter).isEqualTo(myFilter);
     }
 
@@ -190,7 +398,7 @@ public class JiraSensorTest {
 	when(jiraSoapService.getFavouriteFilters()).thenThrow(
 		RemoteException.class);
 
-	Filter foundFilter = sensor.findJiraFilter(jiraSoapService);
+	Filter foundFilter = sensor.findJiraFilter(jiraSoapService).get();
 	assertThat(foundFilter).isEqualTo(myFilter);
     }
 
@@ -199,10 +407,22 @@ public class JiraSensorTest {
 	JiraRestClient jiraSoapService = mock(JiraRestClient.class);
 	when(jiraSoapService.getFavouriteFilters()).thenReturn(new Filter[0]);
 
-	thrown.expect(IllegalStateException.class);
+	thrown.expect(ExecutionException.class);
 	thrown.expectMessage("Unable to find filter 'myFilter' in JIRA");
 
-	sensor.findJiraFilter(jiraSoapService);
+	sensor.findJiraFilter(jiraSoapService).get();
+    }
+
+    private static Issue issue(long priorityId) {
+	Issue issue = mock(Issue.class);
+	when(issue.getPriority()).thenReturn(
+		new BasicPriority(null, priorityId, "priority" + priorityId));
+	return issue;
     }
 
+    private static Issue issue(long id, long priorityId) {
+	Issue issue = issue(priorityId);
+	when(issue.getId()).thenReturn(id);
+	return issue;
+    }
 }
@@ -0,0 +1,568 @@
+/*
+ * Sonar, open source software quality management tool.
+ * Copyright (C) 2009 SonarSource
+ * mailto:contact AT sonarsource DOT com
+ *
+ * Sonar is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * Sonar is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with Sonar; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02
+ */
+
+package org.sonar.plugins.jira.rest;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.TimeZone;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import com.google.common.base.Charsets;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * Stand-in for the JIRA REST API, serving a synthetic set of issues over real
+ * HTTP so that the client, its JSON parsing and the paging are exercised.
+ * Latency, server errors and throttling can be injected. Only the resources
+ * used by the plugin are implemented, and the JQL is only understood as far
+ * as the "priority = n", "updated >= -nm" and "key in (...)" clauses the
+ * plugin sends.
+ */
+public class FakeJiraServer {
+
+    private static final String API = "/rest/api/2";
+    private static final Pattern API_VERSION = Pattern
+	    .compile("^/rest/api/[^/]+");
+    private static final Pattern PRIORITY_CLAUSE = Pattern
+	    .compile("priority\\s*=\\s*(\\d+)");
+    private static final Pattern UPDATED_CLAUSE = Pattern
+	    .compile("updated\\s*>=\\s*-(\\d+)m");
+    private static final Pattern KEY_CLAUSE = Pattern
+	    .compile("key\\s+in\\s*\\(([^)]*)\\)");
+    private static final String[] PRIORITY_NAMES = { "Blocker", "Critical",
+	    "Major", "Minor", "Trivial" };
+
+    private final HttpServer server;
+    private final ExecutorService executor;
+    private final Random random;
+    private final List<FakeIssue> issues = Lists.newArrayList();
+    private final Map<String, String> filters = Maps.newLinkedHashMap();
+    private final Map<String, Integer> requests = Maps.newHashMap();
+    private final List<String> createdIssues = Lists.newArrayList();
+    private final Set<String> createdKeys = Sets.newHashSet();
+    private final AtomicInteger nextIssueId = new AtomicInteger(10000);
+    private volatile long latencyMillis;
+    private volatile double errorRate;
+    private volatile double throttleRate;
+    private volatile int maxPageSize = 1000;
+    private volatile String rejectedText;
+
+    /**
+     * Creates a server holding the given number of issues in project TEST,
+     * spread over the five default priorities and updated during the last
+     * thirty days.
+     */
+    public FakeJiraServer(int issueCount) throws IOException {
+	this(issueCount, 42L);
+    }
+
+    public FakeJiraServer(int issueCount, long seed) throws IOException {
+	random = new Random(seed);
+	long now = System.currentTimeMillis();
+	for (int i = 0; i < issueCount; i++) {
+	    String key = "TEST-" + (i + 1);
+	    issues.add(new FakeIssue(nextIssueId.getAndIncrement(), key,
+		    "Issue " + key, 1 + random.nextInt(PRIORITY_NAMES.length),
+		    now - (long) (random.nextDouble() * TimeUnit.DAYS.toMillis(30)),
+		    null));
+	}
+	filters.put("myFilter", "project = TEST");
+
+	server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+	executor = Executors.newCachedThreadPool();
+	server.setExecutor(executor);
+	server.createContext("/rest/api/", exchange -> {
+	    try {
+		handle(exchange);
+	    } finally {
+		exchange.close();
+	    }
+	});
+    }
+
+    public FakeJiraServer start() {
+	server.start();
+	return this;
+    }
+
+    public void stop() {
+	server.stop(0);
+	executor.shutdownNow();
+    }
+
+    /**
+     * Base URL to configure as the JIRA server of the plugin.
+     */
+    public String getUrl() {
+	return "http://localhost:" + server.getAddress().getPort();
+    }
+
+    public FakeJiraServer setLatency(long millis) {
+	this.latencyMillis = millis;
+	return this;
+    }
+
+    /**
+     * Ratio of the requests answered with an internal server error.
+     */
+    public FakeJiraServer setErrorRate(double errorRate) {
+	this.errorRate = errorRate;
+	return this;
+    }
+
+    /**
+     * Ratio of the requests answered with "429 Too Many Requests".
+     */
+    public FakeJiraServer setThrottleRate(double throttleRate) {
+	this.throttleRate = throttleRate;
+	return this;
+    }
+
+    /**
+     * Largest page served, whatever the client asks for, as JIRA does.
+     */
+    public FakeJiraServer setMaxPageSize(int maxPageSize) {
+	this.maxPageSize = maxPageSize;
+	return this;
+    }
+
+    /**
+     * Issues to create whose JSON contains the given text are refused with
+     * "400 Bad Request".
+     */
+    public FakeJiraServer setRejectedText(String rejectedText) {
+	this.rejectedText = rejectedText;
+	return this;
+    }
+
+    public FakeJiraServer addFilter(String name, String jql) {
+	filters.put(name, jql);
+	return this;
+    }
+
+    /**
+     * Changes the priority of an issue, and marks it as just updated.
+     */
+    public synchronized void updateIssue(int index, long priorityId) {
+	FakeIssue issue = issues.get(index);
+	issues.set(index, new FakeIssue(issue.id, issue.key, issue.summary,
+		priorityId, System.currentTimeMillis(), issue.resolution));
+    }
+
+    /**
+     * Resolves an issue, or reopens it if the resolution is null, and marks
+     * it as just updated.
+     */
+    public synchronized void resolveIssue(String key, String resolution) {
+	for (int i = 0; i < issues.size(); i++) {
+	    FakeIssue issue = issues.get(i);
+	    if (issue.key.equals(key)) {
+		issues.set(i, new FakeIssue(issue.id, issue.key, issue.summary,
+			issue.priorityId, System.currentTimeMillis(),
+			resolution));
+	    }
+	}
+    }
+
+    /**
+     * Adds an issue with the given summary, as if created by someone else.
+     * 
+     * @return the key of the issue
+     */
+    public synchronized String addIssue(String summary) {
+	String key = "TEST-" + (issues.size() + createdIssues.size() + 1);
+	issues.add(new FakeIssue(nextIssueId.getAndIncrement(), key, summary,
+		3, System.currentTimeMillis(), null));
+	return key;
+    }
+
+    public synchronized void removeIssue(int index) {
+	issues.remove(index);
+    }
+
+    public synchronized int countIssues(long priorityId) {
+	int count = 0;
+	for (FakeIssue issue : issues) {
+	    if (issue.priorityId == priorityId) {
+		count++;
+	    }
+	}
+	return count;
+    }
+
+    /**
+     * Number of requests received on the resource, "search" or "issue" for
+     * instance.
+     */
+    public synchronized int getRequestCount(String resource) {
+	Integer count = requests.get(resource);
+	return count == null ? 0 : count;
+    }
+
+    /**
+     * JSON bodies of the issues created so far.
+     */
+    public synchronized List<String> getCreatedIssues() {
+	return Lists.newArrayList(createdIssues);
+    }
+
+    private void handle(HttpExchange exchange) throws IOException {
+	// the client asks for "latest", which is "2"
+	String path = API_VERSION.matcher(exchange.getRequestURI().getPath())
+		.replaceFirst("");
+	String resource = path.replaceAll("^/([^/]*).*$", "$1");
+	synchronized (this) {
+	    Integer count = requests.get(resource);
+	    requests.put(resource, count == null ? 1 : count + 1);
+	}
+	String body = read(exchange.getRequestBody());
+
+	if (latencyMillis > 0) {
+	    try {
+		Thread.sleep(latencyMillis);
+	    } catch (InterruptedException e) {
+		Thread.currentThread().interrupt();
+		return;
+	    }
+	}
+	if (random() < throttleRate) {
+	    exchange.getResponseHeaders().add("Retry-After", "1");
+	    send(exchange, 429, "{\"errorMessages\":[\"Rate limit exceeded\"],\"errors\":{}}");
+	    return;
+	}
+	if (random() < errorRate) {
+	    send(exchange, 500, "{\"errorMessages\":[\"Injected failure\"],\"errors\":{}}");
+	    return;
+	}
+
+	String method = exchange.getRequestMethod();
+	if ("/priority".equals(path)) {
+	    send(exchange, 200, priorities());
+	} else if ("/filter/favourite".equals(path)) {
+	    send(exchange, 200, favouriteFilters());
+	} else if ("/search".equals(path)) {
+	    Map<String, String> params = "POST".equals(method) ? jsonParams(body)
+		    : queryParams(exchange.getRequestURI().getRawQuery());
+	    String unknownKey = findUnknownKey(params.get("jql"));
+	    if (unknownKey != null) {
+		send(exchange, 400, "{\"errorMessages\":[\"An issue with key '"
+			+ escape(unknownKey)
+			+ "' does not exist for field 'key'.\"],\"errors\":{}}");
+	    } else {
+		send(exchange, 200, search(params));
+	    }
+	} else if (path.startsWith("/project/")) {
+	    send(exchange, 200, project(path.substring("/project/".length())));
+	} else if ("/issue".equals(path) && "POST".equals(method)) {
+	    if (isRejected(body)) {
+		send(exchange, 400, "{\"errorMessages\":[],\"errors\":{\"summary\":\"Rejected\"}}");
+	    } else {
+		send(exchange, 201, createIssue(body));
+	    }
+	} else {
+	    send(exchange, 404, "{\"errorMessages\":[\"Not implemented: "
+		    + escape(path) + "\"],\"errors\":{}}");
+	}
+    }
+
+    private synchronized double random() {
+	return random.nextDouble();
+    }
+
+    private String priorities() {
+	StringBuilder json = new StringBuilder("[");
+	for (int i = 0; i < PRIORITY_NAMES.length; i++) {
+	    if (i > 0) {
+		json.append(',');
+	    }
+	    json.append("{\"self\":\"").append(getUrl()).append(API)
+		    .append("/priority/").append(i + 1)
+		    .append("\",\"statusColor\":\"#cc0000\",\"description\":\"")
+		    .append(PRIORITY_NAMES[i]).append("\",\"iconUrl\":\"")
+		    .append(getUrl()).append("/images/icons/priority.gif\",\"name\":\"")
+		    .append(PRIORITY_NAMES[i]).append("\",\"id\":\"").append(i + 1)
+		    .append("\"}");
+	}
+	return json.append(']').toString();
+    }
+
+    private String favouriteFilters() {
+	StringBuilder json = new StringBuilder("[");
+	int id = 10000;
+	for (Map.Entry<String, String> filter : filters.entrySet()) {
+	    if (id > 10000) {
+		json.append(',');
+	    }
+	    json.append("{\"self\":\"").append(getUrl()).append(API)
+		    .append("/filter/").append(id).append("\",\"id\":\"")
+		    .append(id).append("\",\"name\":\"")
+		    .append(escape(filter.getKey()))
+		    .append("\",\"description\":\"\",\"owner\":").append(user())
+		    .append(",\"jql\":\"").append(escape(filter.getValue()))
+		    .append("\",\"viewUrl\":\"").append(getUrl())
+		    .append("/secure/IssueNavigator.jspa?mode=hide&requestId=")
+		    .append(id).append("\",\"searchUrl\":\"").append(getUrl())
+		    .append(API).append("/search?jql=")
+		    .append("\",\"favourite\":true,\"sharePermissions\":[],\"subscriptions\":{\"size\":0,\"items\":[]}}");
+	    id++;
+	}
+	return json.append(']').toString();
+    }
+
+    private synchronized String search(Map<String, String> params) {
+	String jql = params.containsKey("jql") ? params.get("jql") : "";
+	int startAt = params.containsKey("startAt") ? Integer.parseInt(params
+		.get("startAt")) : 0;
+	int maxResults = params.containsKey("maxResults") ? Math.min(
+		Integer.parseInt(params.get("maxResults")), maxPageSize)
+		: Math.min(50, maxPageSize);
+
+	Long priorityId = null;
+	Matcher priority = PRIORITY_CLAUSE.matcher(jql);
+	if (priority.find()) {
+	    priorityId = Long.valueOf(priority.group(1));
+	}
+	long updatedSince = 0;
+	Matcher updated = UPDATED_CLAUSE.matcher(jql);
+	if (updated.find()) {
+	    updatedSince = System.currentTimeMillis()
+		    - TimeUnit.MINUTES.toMillis(Long.parseLong(updated.group(1)));
+	}
+	Set<String> keys = getKeys(jql);
+	List<FakeIssue> matching = Lists.newArrayList();
+	for (FakeIssue issue : issues) {
+	    if ((priorityId == null || issue.priorityId == priorityId)
+		    && issue.updated >= updatedSince
+		    && (keys == null || keys.contains(issue.key))) {
+		matching.add(issue);
+	    }
+	}
+
+	StringBuilder json = new StringBuilder("{\"expand\":\"schema,names\",\"startAt\":")
+		.append(startAt).append(",\"maxResults\":").append(maxResults)
+		.append(",\"total\":").append(matching.size())
+		.append(",\"issues\":[");
+	int end = Math.min(matching.size(), startAt + maxResults);
+	for (int i = startAt; i < end; i++) {
+	    if (i > startAt) {
+		json.append(',');
+	    }
+	    appendIssue(json, matching.get(i));
+	}
+	return json.append("]}").toString();
+    }
+
+    /**
+     * @return the keys of the "key in (...)" clause, or null if there is none
+     */
+    private static Set<String> getKeys(String jql) {
+	Matcher clause = KEY_CLAUSE.matcher(jql == null ? "" : jql);
+	if (!clause.find()) {
+	    return null;
+	}
+	Set<String> keys = Sets.newHashSet();
+	for (String key : clause.group(1).split(",")) {
+	    keys.add(key.trim());
+	}
+	return keys;
+    }
+
+    /**
+     * JIRA refuses the whole query if one of the keys does not exist.
+     */
+    private synchronized String findUnknownKey(String jql) {
+	Set<String> keys = getKeys(jql);
+	if (keys == null) {
+	    return null;
+	}
+	for (FakeIssue issue : issues) {
+	    keys.remove(issue.key);
+	}
+	keys.removeAll(createdKeys);
+	return keys.isEmpty() ? null : keys.iterator().next();
+    }
+
+    private void appendIssue(StringBuilder json, FakeIssue issue) {
+	String date = formatDate(issue.updated);
+	json.append("{\"expand\":\"\",\"id\":\"").append(issue.id)
+		.append("\",\"self\":\"").append(getUrl()).append(API)
+		.append("/issue/").append(issue.id).append("\",\"key\":\"")
+		.append(issue.key).append("\",\"fields\":{\"summary\":\"")
+		.append(escape(issue.summary)).append("\",\"issuetype\":{\"self\":\"")
+		.append(getUrl()).append(API)
+		.append("/issuetype/3\",\"id\":\"3\",\"description\":\"A task\",\"iconUrl\":\"")
+		.append(getUrl())
+		.append("/images/icons/task.gif\",\"name\":\"Task\",\"subtask\":false},\"created\":\"")
+		.append(date).append("\",\"updated\":\"").append(date)
+		.append("\",\"resolution\":");
+	if (issue.resolution == null) {
+	    json.append("null");
+	} else {
+	    json.append("{\"self\":\"").append(getUrl()).append(API)
+		    .append("/resolution/1\",\"id\":\"1\",\"description\":\"\",\"name\":\"")
+		    .append(escape(issue.resolution)).append("\"}");
+	}
+	json.append(",\"project\":{\"self\":\"").append(getUrl())
+		.append(API)
+		.append("/project/TEST\",\"id\":\"10000\",\"key\":\"TEST\",\"name\":\"Test\"},\"status\":{\"self\":\"")
+		.append(getUrl()).append(API)
+		.append("/status/1\",\"description\":\"Open\",\"iconUrl\":\"")
+		.append(getUrl())
+		.append("/images/icons/status_open.gif\",\"name\":\"Open\",\"id\":\"1\"},\"priority\":{\"self\":\"")
+		.append(getUrl()).append(API).append("/priority/")
+		.append(issue.priorityId).append("\",\"iconUrl\":\"")
+		.append(getUrl()).append("/images/icons/priority.gif\",\"name\":\"")
+		.append(PRIORITY_NAMES[(int) issue.priorityId - 1])
+		.append("\",\"id\":\"").append(issue.priorityId).append("\"}}}");
+    }
+
+    private String project(String key) {
+	return "{\"self\":\"" + getUrl() + API + "/project/" + escape(key)
+		+ "\",\"id\":\"10000\",\"key\":\"" + escape(key)
+		+ "\",\"name\":\"" + escape(key) + "\",\"description\":\"\",\"lead\":"
+		+ user() + ",\"components\":[{\"self\":\"" + getUrl() + API
+		+ "/component/10100\",\"id\":\"10100\",\"name\":\"core\",\"description\":\"Core\"},{\"self\":\""
+		+ getUrl() + API
+		+ "/component/10101\",\"id\":\"10101\",\"name\":\"ui\",\"description\":\"User interface\"}],"
+		+ "\"issueTypes\":[],\"versions\":[],\"roles\":{}}";
+    }
+
+    private synchronized String createIssue(String body) {
+	createdIssues.add(body);
+	int id = nextIssueId.getAndIncrement();
+	String key = "TEST-" + (issues.size() + createdIssues.size());
+	createdKeys.add(key);
+	return "{\"id\":\"" + id + "\",\"key\":\"" + key + "\",\"self\":\""
+		+ getUrl() + API + "/issue/" + id + "\"}";
+    }
+
+    private boolean isRejected(String issueJson) {
+	String text = rejectedText;
+	return text != null && issueJson.contains(text);
+    }
+
+    private String user() {
+	return "{\"self\":\"" + getUrl() + API
+		+ "/user?username=admin\",\"name\":\"admin\",\"displayName\":\"Administrator\"}";
+    }
+
+    private static String formatDate(long time) {
+	SimpleDateFormat format = new SimpleDateFormat(
+		"yyyy-MM-dd'T'HH:mm:ss.SSSZ");
+	format.setTimeZone(TimeZone.getTimeZone("UTC"));
+	return format.format(new Date(time));
+    }
+
+    private static Map<String, String> queryParams(String query)
+	    throws IOException {
+	Map<String, String> params = Maps.newHashMap();
+	if (query == null) {
+	    return params;
+	}
+	for (String param : query.split("&")) {
+	    int index = param.indexOf('=');
+	    if (index > 0) {
+		params.put(URLDecoder.decode(param.substring(0, index), "UTF-8"),
+			URLDecoder.decode(param.substring(index + 1), "UTF-8"));
+	    }
+	}
+	return params;
+    }
+
+    /**
+     * Reads the top level string and number members of a JSON object, which
+     * is all the search request holds apart from its fields.
+     */
+    private static Map<String, String> jsonParams(String body) {
+	Map<String, String> params = Maps.newHashMap();
+	Matcher matcher = Pattern.compile(
+		"\"(\\w+)\"\\s*:\\s*(?:\"((?:[^\"\\\\]|\\\\.)*)\"|(-?\\d+))")
+		.matcher(body);
+	while (matcher.find()) {
+	    params.put(matcher.group(1), matcher.group(2) != null ? matcher
+		    .group(2).replaceAll("\\\\(.)", "$1") : matcher.group(3));
+	}
+	return params;
+    }
+
+    private static String escape(String value) {
+	return value.replace("\\", "\\\\").replace("\"", "\\\"");
+    }
+
+    private static String read(InputStream input) throws IOException {
+	ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+	byte[] buffer = new byte[4096];
+	int read;
+	while ((read = input.read(buffer)) != -1) {
+	    bytes.write(buffer, 0, read);
+	}
+	return new String(bytes.toByteArray(), Charsets.UTF_8);
+    }
+
+    private static void send(HttpExchange exchange, int status, String json)
+	    throws IOException {
+	byte[] bytes = json.getBytes(Charsets.UTF_8);
+	exchange.getResponseHeaders().set("Content-Type",
+		"application/json;charset=UTF-8");
+	exchange.sendResponseHeaders(status, bytes.length);
+	OutputStream output = exchange.getResponseBody();
+	output.write(bytes);
+	output.close();
+    }
+
+    private static final class FakeIssue {
+	private final long id;
+	private final String key;
+	private final String summary;
+	private final long priorityId;
+	private final long updated;
+	private final String resolution;
+
+	private FakeIssue(long id, String key, String summary,
+		long priorityId, long updated, String resolution) {
+	    this.id = id;
+	    this.key = key;
+	    this.summary = summary;
+	    this.priorityId = priorityId;
+	    this.updated = updated;
+	    this.resolution = resolution;
+	}
+    }
+}
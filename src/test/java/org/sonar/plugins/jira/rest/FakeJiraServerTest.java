@@ -0,0 +1,132 @@
+/*
+ * Sonar, open source software quality management tool.
+ * Copyright (C) 2009 SonarSource
+ * mailto:contact AT sonarsource DOT com
+ *
+ * Sonar is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * Sonar is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with Sonar; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02
+ */
+
+package org.sonar.plugins.jira.rest;
+
+import static org.fest.assertions.Assertions.*;
+import static org.junit.Assert.fail;
+
+import java.net.URL;
+import java.util.Map;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.atlassian.jira.rest.client.api.JiraRestClient;
+import com.atlassian.jira.rest.client.api.RestClientException;
+import com.atlassian.jira.rest.client.api.domain.BasicIssue;
+import com.atlassian.jira.rest.client.api.domain.Filter;
+import com.atlassian.jira.rest.client.api.domain.Priority;
+import com.atlassian.jira.rest.client.api.domain.SearchResult;
+import com.atlassian.jira.rest.client.api.domain.input.IssueInputBuilder;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Iterables;
+import com.google.common.collect.Maps;
+
+public class FakeJiraServerTest {
+
+    private FakeJiraServer server;
+    private JiraSession session;
+    private JiraRestClient client;
+
+    @Before
+    public void setUp() throws Exception {
+	server = new FakeJiraServer(250).setMaxPageSize(100).start();
+	session = new JiraSession(new URL(server.getUrl()));
+	session.connect("admin", "adminPwd");
+	client = session.getJiraRestClient();
+    }
+
+    @After
+    public void tearDown() {
+	session.disconnect();
+	server.stop();
+    }
+
+    @Test
+    public void shouldServePrioritiesAndFilters() throws Exception {
+	Map<Long, String> priorities = Maps.newHashMap();
+	for (Priority priority : client.getMetadataClient().getPriorities()
+		.get()) {
+	    priorities.put(priority.getId(), priority.getName());
+	}
+	assertThat(priorities.size()).isEqualTo(5);
+	assertThat(priorities.get(1L)).isEqualTo("Blocker");
+
+	Filter filter = Iterables.getOnlyElement(client.getSearchClient()
+		.getFavouriteFilters().get());
+	assertThat(filter.getName()).isEqualTo("myFilter");
+	assertThat(filter.getJql()).isEqualTo("project = TEST");
+    }
+
+    @Test
+    public void shouldServeSearchResultsByPage() throws Exception {
+	SearchResult page = client
+		.getSearchClient()
+		.searchJql("project = TEST", 500, 200,
+			ImmutableSet.of("summary", "issuetype", "created",
+				"updated", "project", "status", "priority"))
+		.get();
+
+	assertThat(page.getTotal()).isEqualTo(250);
+	assertThat(page.getMaxResults()).isEqualTo(100);
+	assertThat(Iterables.size(page.getIssues())).isEqualTo(50);
+	assertThat(Iterables.get(page.getIssues(), 0).getPriority())
+		.isNotNull();
+    }
+
+    @Test
+    public void shouldCountIssuesOfPriority() throws Exception {
+	SearchResult count = client.getSearchClient()
+		.searchJql("(project = TEST) AND priority = 2", 0, 0, null)
+		.get();
+
+	assertThat(count.getTotal()).isEqualTo(server.countIssues(2));
+	assertThat(Iterables.isEmpty(count.getIssues())).isTrue();
+    }
+
+    @Test
+    public void shouldCreateIssues() throws Exception {
+	BasicIssue issue = client
+		.getIssueClient()
+		.createIssue(
+			new IssueInputBuilder("TEST", 3L, "Sonar Issue #ABCD")
+				.build()).get();
+
+	assertThat(issue.getKey()).isEqualTo("TEST-251");
+	assertThat(server.getCreatedIssues()).hasSize(1);
+	assertThat(server.getCreatedIssues().get(0)).contains(
+		"Sonar Issue #ABCD");
+    }
+
+    @Test
+    public void shouldInjectThrottling() throws Exception {
+	server.setThrottleRate(1.0);
+
+	try {
+	    client.getMetadataClient().getPriorities().claim();
+	    fail();
+	} catch (RestClientException e) {
+	    assertThat(e.getStatusCode().get()).isEqualTo(429);
+	}
+	assertThat(server.getRequestCount("priority")).isEqualTo(1);
+    }
+}
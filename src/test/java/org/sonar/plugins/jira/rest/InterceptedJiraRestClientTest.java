@@ -0,0 +1,99 @@
+/*
+ * Sonar, open source software quality management tool.
+ * Copyright (C) 2009 SonarSource
+ * mailto:contact AT sonarsource DOT com
+ *
+ * Sonar is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * Sonar is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with Sonar; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02
+ */
+
+package org.sonar.plugins.jira.rest;
+
+import static org.fest.assertions.Assertions.*;
+import static org.mockito.Mockito.*;
+
+import java.util.List;
+import java.util.function.Supplier;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import com.atlassian.jira.rest.client.api.IssueRestClient;
+import com.atlassian.jira.rest.client.api.JiraRestClient;
+import com.atlassian.jira.rest.client.api.SearchRestClient;
+import com.atlassian.jira.rest.client.api.domain.SearchResult;
+import com.atlassian.util.concurrent.Promises;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Lists;
+import com.google.common.util.concurrent.ListenableFuture;
+
+public class InterceptedJiraRestClientTest {
+
+    private JiraRestClient client;
+    private SearchRestClient searchClient;
+    private final List<String> calls = Lists.newArrayList();
+
+    @Before
+    public void setUp() {
+	client = mock(JiraRestClient.class);
+	searchClient = mock(SearchRestClient.class);
+	when(client.getSearchClient()).thenReturn(searchClient);
+	when(client.getIssueClient()).thenReturn(mock(IssueRestClient.class));
+    }
+
+    @Test
+    public void shouldApplyInterceptorsOutermostFirst() {
+	SearchResult result = mock(SearchResult.class);
+	when(searchClient.searchJql("project = TEST")).thenReturn(
+		Promises.promise(result));
+
+	JiraRestClient wrapped = InterceptedJiraRestClient.wrap(client,
+		ImmutableList.of(recorder("outer"), recorder("inner")));
+
+	assertThat(wrapped.getSearchClient().searchJql("project = TEST").claim())
+		.isSameAs(result);
+	assertThat(calls).containsExactly("outer SEARCH", "inner SEARCH");
+    }
+
+    @Test
+    public void shouldReuseSubClients() {
+	JiraRestClient wrapped = InterceptedJiraRestClient.wrap(client,
+		ImmutableList.of(recorder("outer")));
+
+	assertThat(wrapped.getSearchClient()).isSameAs(
+		wrapped.getSearchClient());
+	assertThat(wrapped.getIssueClient()).isNotSameAs(
+		wrapped.getSearchClient());
+	assertThat(calls).isEmpty();
+    }
+
+    @Test
+    public void shouldNotWrapWithoutInterceptors() {
+	assertThat(
+		InterceptedJiraRestClient.wrap(client,
+			ImmutableList.<JiraCallInterceptor> of())).isSameAs(
+		client);
+    }
+
+    private JiraCallInterceptor recorder(String name) {
+	return new JiraCallInterceptor() {
+	    @Override
+	    public <T> ListenableFuture<T> intercept(JiraEndpoint endpoint,
+		    Supplier<ListenableFuture<T>> call) {
+		calls.add(name + " " + endpoint);
+		return call.get();
+	    }
+	};
+    }
+}
@@ -0,0 +1,112 @@
+/*
+ * Sonar, open source software quality management tool.
+ * Copyright (C) 2009 SonarSource
+ * mailto:contact AT sonarsource DOT com
+ *
+ * Sonar is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * Sonar is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with Sonar; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02
+ */
+
+package org.sonar.plugins.jira.rest;
+
+import static org.fest.assertions.Assertions.*;
+
+import java.lang.management.ManagementFactory;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.SettableFuture;
+
+public class JiraCallMetricsTest {
+
+    private JiraCallMetrics callMetrics;
+
+    @Before
+    public void setUp() {
+	callMetrics = new JiraCallMetrics("http://my.jira.server");
+    }
+
+    @After
+    public void tearDown() {
+	callMetrics.unregister();
+    }
+
+    @Test
+    public void shouldCountCallsPerEndpoint() {
+	callMetrics.intercept(JiraEndpoint.SEARCH,
+		() -> Futures.immediateFuture("issues"));
+	callMetrics.intercept(JiraEndpoint.SEARCH,
+		() -> Futures.immediateFailedFuture(new IllegalStateException()));
+
+	JiraEndpointMetrics search = callMetrics
+		.getMetrics(JiraEndpoint.SEARCH);
+	assertThat(search.getRequestCount()).isEqualTo(2L);
+	assertThat(search.getErrorCount()).isEqualTo(1L);
+	assertThat(search.getInFlight()).isEqualTo(0);
+	assertThat(
+		callMetrics.getMetrics(JiraEndpoint.PRIORITIES)
+			.getRequestCount()).isEqualTo(0L);
+    }
+
+    @Test
+    public void shouldTrackCallsInFlight() {
+	SettableFuture<String> call = SettableFuture.create();
+
+	callMetrics.intercept(JiraEndpoint.CREATE_ISSUE, () -> call);
+	JiraEndpointMetrics createIssue = callMetrics
+		.getMetrics(JiraEndpoint.CREATE_ISSUE);
+	assertThat(createIssue.getInFlight()).isEqualTo(1);
+
+	call.set("SONAR-1");
+	assertThat(createIssue.getInFlight()).isEqualTo(0);
+	assertThat(createIssue.getLatencyMax()).isGreaterThan(0.0);
+    }
+
+    @Test
+    public void shouldPublishMetricsOverJmx() throws Exception {
+	callMetrics.register();
+	callMetrics.intercept(JiraEndpoint.FILTERS,
+		() -> Futures.immediateFuture("filters"));
+
+	MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+	ObjectName name = new ObjectName(
+		"org.sonar.plugins.jira:type=Endpoint,server=\"http://my.jira.server\",name=filters");
+	assertThat(server.isRegistered(name)).isTrue();
+	assertThat(server.getAttribute(name, "RequestCount")).isEqualTo(1L);
+
+	callMetrics.unregister();
+	assertThat(server.isRegistered(name)).isFalse();
+    }
+
+    @Test
+    public void shouldReplaceMetricsOfSameServer() throws Exception {
+	callMetrics.register();
+	JiraCallMetrics other = new JiraCallMetrics("http://my.jira.server");
+	other.register();
+	other.intercept(JiraEndpoint.PROJECT,
+		() -> Futures.immediateFuture("project"));
+
+	MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+	assertThat(
+		server.getAttribute(
+			other.objectName(JiraEndpoint.PROJECT),
+			"RequestCount")).isEqualTo(1L);
+    }
+}
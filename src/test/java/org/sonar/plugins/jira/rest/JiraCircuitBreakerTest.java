@@ -0,0 +1,199 @@
+/*
+ * Sonar, open source software quality management tool.
+ * Copyright (C) 2009 SonarSource
+ * mailto:contact AT sonarsource DOT com
+ *
+ * Sonar is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * Sonar is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with Sonar; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02
+ */
+
+package org.sonar.plugins.jira.rest;
+
+import static org.fest.assertions.Assertions.*;
+import static org.junit.Assert.fail;
+import static org.mockito.Mockito.*;
+
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.sonar.api.config.Settings;
+import org.sonar.plugins.jira.JiraConstants;
+import org.sonar.plugins.jira.rest.JiraCircuitBreaker.State;
+
+import com.atlassian.jira.rest.client.api.RestClientException;
+import com.google.common.base.Optional;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.SettableFuture;
+
+public class JiraCircuitBreakerTest {
+
+    private static final long FAST = TimeUnit.MILLISECONDS.toNanos(50);
+    private static final long SLOW = TimeUnit.SECONDS.toNanos(10);
+    private static final long OPEN_DURATION = TimeUnit.SECONDS.toNanos(60);
+
+    private ScheduledExecutorService scheduler;
+    private Settings settings;
+    private JiraCircuitBreaker circuitBreaker;
+
+    @Before
+    public void setUp() {
+	scheduler = Executors.newSingleThreadScheduledExecutor();
+	settings = new Settings();
+	circuitBreaker = new JiraCircuitBreaker("http://my.jira.server",
+		settings, scheduler);
+    }
+
+    @After
+    public void tearDown() {
+	scheduler.shutdownNow();
+    }
+
+    @Test
+    public void shouldOpenWhenFailureRateIsReached() {
+	recordCalls(0L, 5, FAST, false);
+	assertThat(circuitBreaker.getState()).isEqualTo(State.CLOSED);
+
+	recordCalls(0L, 5, FAST, true);
+
+	assertThat(circuitBreaker.getState()).isEqualTo(State.OPEN);
+	assertThat(circuitBreaker.tryAcquirePermission(1L)).isFalse();
+    }
+
+    @Test
+    public void shouldWaitForMinimumNumberOfCalls() {
+	recordCalls(0L, JiraCircuitBreaker.MIN_CALLS - 1, FAST, true);
+
+	assertThat(circuitBreaker.getState()).isEqualTo(State.CLOSED);
+    }
+
+    @Test
+    public void shouldOpenWhenSlowCallRateIsReached() {
+	recordCalls(0L, 2, FAST, false);
+	recordCalls(0L, 8, SLOW, false);
+
+	assertThat(circuitBreaker.getState()).isEqualTo(State.OPEN);
+    }
+
+    @Test
+    public void shouldOnlyConsiderLastCalls() {
+	recordCalls(0L, JiraCircuitBreaker.WINDOW_SIZE, FAST, false);
+	recordCalls(0L, 9, FAST, true);
+	assertThat(circuitBreaker.getState()).isEqualTo(State.CLOSED);
+
+	recordCalls(0L, 1, FAST, true);
+
+	assertThat(circuitBreaker.getState()).isEqualTo(State.OPEN);
+    }
+
+    @Test
+    public void shouldCloseAfterSuccessfulTrialCalls() {
+	recordCalls(0L, 10, FAST, true);
+	long later = OPEN_DURATION + 1;
+
+	for (int i = 0; i < JiraCircuitBreaker.HALF_OPEN_CALLS; i++) {
+	    assertThat(circuitBreaker.tryAcquirePermission(later)).isTrue();
+	}
+	assertThat(circuitBreaker.getState()).isEqualTo(State.HALF_OPEN);
+	assertThat(circuitBreaker.tryAcquirePermission(later)).isFalse();
+
+	recordCalls(later, JiraCircuitBreaker.HALF_OPEN_CALLS, FAST, false);
+
+	assertThat(circuitBreaker.getState()).isEqualTo(State.CLOSED);
+	assertThat(circuitBreaker.tryAcquirePermission(later)).isTrue();
+    }
+
+    @Test
+    public void shouldOpenAgainWhenTrialCallFails() {
+	recordCalls(0L, 10, FAST, true);
+	long later = OPEN_DURATION + 1;
+	assertThat(circuitBreaker.tryAcquirePermission(later)).isTrue();
+
+	circuitBreaker.onResult(later, FAST, true);
+
+	assertThat(circuitBreaker.getState()).isEqualTo(State.OPEN);
+	assertThat(circuitBreaker.tryAcquirePermission(later + 1)).isFalse();
+    }
+
+    @Test
+    public void shouldFailFastWhileOpen() throws Exception {
+	recordCalls(System.nanoTime(), 10, FAST, true);
+	AtomicInteger calls = new AtomicInteger();
+
+	ListenableFuture<String> result = circuitBreaker.intercept(
+		JiraEndpoint.SEARCH, () -> {
+		    calls.incrementAndGet();
+		    return Futures.immediateFuture("issues");
+		});
+
+	try {
+	    result.get();
+	    fail();
+	} catch (ExecutionException e) {
+	    assertThat(e.getCause()).isInstanceOf(
+		    JiraCircuitOpenException.class);
+	    assertThat(e.getCause().getMessage()).contains(
+		    "http://my.jira.server");
+	}
+	assertThat(calls.get()).isEqualTo(0);
+    }
+
+    @Test
+    public void shouldAbandonCallsAfterDeadline() throws Exception {
+	settings.setProperty(JiraConstants.HTTP_CALL_TIMEOUT_PROPERTY, 1);
+	circuitBreaker = new JiraCircuitBreaker("http://my.jira.server",
+		settings, scheduler);
+	SettableFuture<String> call = SettableFuture.create();
+
+	ListenableFuture<String> result = circuitBreaker.intercept(
+		JiraEndpoint.SEARCH, () -> call);
+
+	try {
+	    result.get(5, TimeUnit.SECONDS);
+	    fail();
+	} catch (ExecutionException e) {
+	    assertThat(e.getCause()).isInstanceOf(TimeoutException.class);
+	}
+	assertThat(call.isCancelled()).isTrue();
+    }
+
+    @Test
+    public void shouldNotCountClientErrorsAsFailures() {
+	assertThat(JiraCircuitBreaker.isFailure(failure(404))).isFalse();
+	assertThat(JiraCircuitBreaker.isFailure(failure(429))).isFalse();
+	assertThat(JiraCircuitBreaker.isFailure(failure(503))).isTrue();
+	assertThat(JiraCircuitBreaker.isFailure(new TimeoutException()))
+		.isTrue();
+    }
+
+    private void recordCalls(long now, int count, long duration,
+	    boolean failed) {
+	for (int i = 0; i < count; i++) {
+	    circuitBreaker.onResult(now, duration, failed);
+	}
+    }
+
+    private static RestClientException failure(int status) {
+	RestClientException exception = mock(RestClientException.class);
+	when(exception.getStatusCode()).thenReturn(Optional.of(status));
+	return exception;
+    }
+}
@@ -0,0 +1,208 @@
+/*
+ * Sonar, open source software quality management tool.
+ * Copyright (C) 2009 SonarSource
+ * mailto:contact AT sonarsource DOT com
+ *
+ * Sonar is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * Sonar is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with Sonar; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02
+ */
+
+package org.sonar.plugins.jira.rest;
+
+import static org.fest.assertions.Assertions.*;
+import static org.mockito.Mockito.*;
+
+import java.util.Arrays;
+import java.util.Map;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.sonar.api.config.Settings;
+import org.sonar.plugins.jira.JiraConstants;
+import org.sonar.plugins.jira.JiraStorage;
+
+import com.atlassian.jira.rest.client.api.MetadataRestClient;
+import com.atlassian.jira.rest.client.api.ProjectRestClient;
+import com.atlassian.jira.rest.client.api.SearchRestClient;
+import com.atlassian.jira.rest.client.api.domain.BasicComponent;
+import com.atlassian.jira.rest.client.api.domain.Filter;
+import com.atlassian.jira.rest.client.api.domain.Priority;
+import com.atlassian.jira.rest.client.api.domain.Project;
+import com.atlassian.util.concurrent.Promises;
+
+public class JiraMetadataCacheTest {
+
+    private static final String SERVER = "http://my.jira.server";
+
+    @Rule
+    public TemporaryFolder temp = new TemporaryFolder();
+
+    private Settings settings;
+    private MetadataRestClient metadataClient;
+
+    @Before
+    public void setUp() throws Exception {
+	settings = new Settings();
+	settings.setProperty(JiraConstants.METADATA_TTL_PROPERTY, 60);
+	settings.setProperty(JiraConstants.STORAGE_PATH_PROPERTY, temp
+		.newFolder().getAbsolutePath());
+	metadataClient = mock(MetadataRestClient.class);
+	Iterable<Priority> priorities = Arrays.asList(new Priority(null, 1L,
+		"Blocker", null, null, null), new Priority(null, 2L,
+		"Critical", null, null, null));
+	when(metadataClient.getPriorities()).thenReturn(
+		Promises.promise(priorities));
+    }
+
+    @Test
+    public void shouldOnlyDownloadPrioritiesOnce() throws Exception {
+	JiraMetadataCache cache = new JiraMetadataCache(settings);
+
+	Map<Long, String> priorities = cache.getPriorities(SERVER,
+		metadataClient);
+	assertThat(priorities.get(1L)).isEqualTo("Blocker");
+	assertThat(priorities.get(2L)).isEqualTo("Critical");
+	assertThat(cache.getPriorities(SERVER, metadataClient)).isEqualTo(
+		priorities);
+	verify(metadataClient, times(1)).getPriorities();
+    }
+
+    @Test
+    public void shouldDownloadAgainExpiredEntries() throws Exception {
+	JiraMetadataCache cache = new JiraMetadataCache(settings);
+	cache.getPriorities(SERVER, metadataClient);
+
+	cache.evictExpiredEntries(System.currentTimeMillis() + 61000L);
+	cache.getPriorities(SERVER, metadataClient);
+
+	verify(metadataClient, times(2)).getPriorities();
+    }
+
+    @Test
+    public void shouldDownloadFavouriteFiltersEachTime() throws Exception {
+	SearchRestClient searchClient = mock(SearchRestClient.class);
+	Iterable<Filter> filters = Arrays.asList(new Filter(null, 10000L,
+		"myFilter", null, "project = SONAR", null, null, null, true),
+		new Filter(null, 10001L, "otherFilter", null, "project = JIRA",
+			null, null, null, true));
+	when(searchClient.getFavouriteFilters()).thenReturn(
+		Promises.promise(filters));
+	JiraMetadataCache cache = new JiraMetadataCache(settings);
+
+	Filter filter = cache.getFavouriteFilter(SERVER, "admin",
+		searchClient, "myFilter");
+	assertThat(filter.getId()).isEqualTo(10000L);
+	assertThat(filter.getJql()).isEqualTo("project = SONAR");
+	assertThat(
+		cache.getFavouriteFilter(SERVER, "admin", searchClient,
+			"unknown")).isNull();
+	// not cached, the JQL of a filter is edited in JIRA
+	verify(searchClient, times(2)).getFavouriteFilters();
+    }
+
+    @Test
+    public void shouldFindComponentById() throws Exception {
+	Project project = mock(Project.class);
+	Iterable<BasicComponent> components = Arrays.asList(
+		new BasicComponent(null, 1L, "core", null), new BasicComponent(
+			null, 2L, "ui", null));
+	when(project.getComponents()).thenReturn(components);
+	ProjectRestClient projectClient = mock(ProjectRestClient.class);
+	when(projectClient.getProject("TEST")).thenReturn(
+		Promises.promise(project));
+	JiraMetadataCache cache = new JiraMetadataCache(settings);
+
+	assertThat(cache.getComponent(SERVER, projectClient, "TEST", 2L)
+		.getName()).isEqualTo("ui");
+	assertThat(cache.getComponent(SERVER, projectClient, "TEST", 3L))
+		.isNull();
+	verify(projectClient, times(1)).getProject("TEST");
+    }
+
+    @Test
+    public void shouldRefreshComponentsBeforeTheyExpire() throws Exception {
+	settings.setProperty(JiraConstants.METADATA_TTL_PROPERTY, 1);
+	Project project = mock(Project.class);
+	when(project.getComponents()).thenReturn(
+		Arrays.asList(new BasicComponent(null, 1L, "core", null)),
+		Arrays.asList(new BasicComponent(null, 1L, "core", null),
+			new BasicComponent(null, 2L, "ui", null)));
+	ProjectRestClient projectClient = mock(ProjectRestClient.class);
+	when(projectClient.getProject("TEST")).thenReturn(
+		Promises.promise(project));
+	JiraMetadataCache cache = new JiraMetadataCache(settings);
+	assertThat(cache.getComponent(SERVER, projectClient, "TEST", 1L))
+		.isNotNull();
+
+	Thread.sleep(850L);
+	// still cached, while downloaded again in the background
+	assertThat(cache.getComponent(SERVER, projectClient, "TEST", 1L))
+		.isNotNull();
+	verify(projectClient, timeout(1000).times(2)).getProject("TEST");
+
+	assertThat(cache.getComponent(SERVER, projectClient, "TEST", 2L)
+		.getName()).isEqualTo("ui");
+	verify(projectClient, times(2)).getProject("TEST");
+    }
+
+    @Test
+    public void shouldKeepEntriesFromOneRunToTheOther() throws Exception {
+	JiraMetadataCache cache = new JiraMetadataCache(settings);
+	cache.start();
+	cache.getPriorities(SERVER, metadataClient);
+	cache.stop();
+
+	cache = new JiraMetadataCache(settings);
+	cache.start();
+	assertThat(cache.getPriorities(SERVER, metadataClient).get(1L))
+		.isEqualTo("Blocker");
+	verify(metadataClient, times(1)).getPriorities();
+    }
+
+    @Test
+    public void shouldSaveTogetherWithAnotherCache() throws Exception {
+	JiraMetadataCache cache = new JiraMetadataCache(settings);
+	JiraMetadataCache other = new JiraMetadataCache(settings);
+	cache.start();
+	other.start();
+	cache.getPriorities(SERVER, metadataClient);
+	other.getPriorities(SERVER, metadataClient);
+	cache.stop();
+	other.stop();
+
+	assertThat(JiraStorage.getDirectory(settings, "metadata").list())
+		.containsOnly("cache.bin");
+	cache = new JiraMetadataCache(settings);
+	cache.start();
+	assertThat(cache.getPriorities(SERVER, metadataClient).get(1L))
+		.isEqualTo("Blocker");
+	verify(metadataClient, times(2)).getPriorities();
+    }
+
+    @Test
+    public void shouldNotKeepEntriesWhenNotPersistent() throws Exception {
+	settings.setProperty(JiraConstants.METADATA_PERSISTENT_PROPERTY, false);
+	JiraMetadataCache cache = new JiraMetadataCache(settings);
+	cache.start();
+	cache.getPriorities(SERVER, metadataClient);
+	cache.stop();
+
+	cache = new JiraMetadataCache(settings);
+	cache.start();
+	cache.getPriorities(SERVER, metadataClient);
+	verify(metadataClient, times(2)).getPriorities();
+    }
+}
@@ -0,0 +1,140 @@
+/*
+ * Sonar, open source software quality management tool.
+ * Copyright (C) 2009 SonarSource
+ * mailto:contact AT sonarsource DOT com
+ *
+ * Sonar is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * Sonar is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with Sonar; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02
+ */
+
+package org.sonar.plugins.jira.rest;
+
+import static org.fest.assertions.Assertions.*;
+import static org.junit.Assert.fail;
+import static org.mockito.Mockito.*;
+
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.atlassian.jira.rest.client.api.RestClientException;
+import com.google.common.base.Optional;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+
+public class JiraRateLimiterTest {
+
+    private static final long MILLIS = TimeUnit.MILLISECONDS.toNanos(1);
+
+    private ScheduledExecutorService scheduler;
+    private JiraRateLimiter rateLimiter;
+
+    @Before
+    public void setUp() {
+	scheduler = Executors.newSingleThreadScheduledExecutor();
+	rateLimiter = new JiraRateLimiter(10, scheduler);
+    }
+
+    @After
+    public void tearDown() {
+	scheduler.shutdownNow();
+    }
+
+    @Test
+    public void shouldLetBurstThroughThenSpaceCalls() {
+	long now = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+	for (int i = 0; i < 10; i++) {
+	    assertThat(rateLimiter.reserve(now)).isLessThanOrEqualTo(0L);
+	}
+	assertThat(rateLimiter.reserve(now)).isEqualTo(100 * MILLIS);
+	assertThat(rateLimiter.reserve(now)).isEqualTo(200 * MILLIS);
+    }
+
+    @Test
+    public void shouldSlowDownAndPauseWhenThrottled() {
+	long now = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+
+	rateLimiter.onThrottled(now);
+
+	assertThat(rateLimiter.getRate()).isEqualTo(5.0);
+	assertThat(rateLimiter.reserve(now)).isEqualTo(1000 * MILLIS);
+	assertThat(rateLimiter.reserve(now)).isEqualTo(1200 * MILLIS);
+    }
+
+    @Test
+    public void shouldNotGoBelowMinimumRate() {
+	long now = System.nanoTime();
+	for (int i = 0; i < 20; i++) {
+	    rateLimiter.onThrottled(now);
+	}
+
+	assertThat(rateLimiter.getRate()).isEqualTo(JiraRateLimiter.MIN_RATE);
+    }
+
+    @Test
+    public void shouldRecoverRateWhileCallsSucceed() {
+	rateLimiter.onThrottled(System.nanoTime());
+	for (int i = 0; i < 100; i++) {
+	    rateLimiter.onAccepted();
+	}
+
+	assertThat(rateLimiter.getRate()).isEqualTo(10.0);
+    }
+
+    @Test
+    public void shouldQueueThrottledCallsInsteadOfFailing() throws Exception {
+	AtomicInteger attempts = new AtomicInteger();
+
+	ListenableFuture<String> result = rateLimiter.intercept(
+		JiraEndpoint.SEARCH, () -> attempts.incrementAndGet() == 1 ? Futures
+			.<String> immediateFailedFuture(failure(429)) : Futures
+			.immediateFuture("issues"));
+
+	assertThat(result.get(5, TimeUnit.SECONDS)).isEqualTo("issues");
+	assertThat(attempts.get()).isEqualTo(2);
+	assertThat(rateLimiter.getRate()).isLessThan(10.0);
+    }
+
+    @Test
+    public void shouldNotRetryOtherFailures() throws Exception {
+	AtomicInteger attempts = new AtomicInteger();
+	RestClientException error = failure(500);
+
+	ListenableFuture<String> result = rateLimiter.intercept(
+		JiraEndpoint.SEARCH, () -> {
+		    attempts.incrementAndGet();
+		    return Futures.<String> immediateFailedFuture(error);
+		});
+
+	try {
+	    result.get(5, TimeUnit.SECONDS);
+	    fail();
+	} catch (ExecutionException e) {
+	    assertThat(e.getCause()).isSameAs(error);
+	}
+	assertThat(attempts.get()).isEqualTo(1);
+    }
+
+    private static RestClientException failure(int status) {
+	RestClientException exception = mock(RestClientException.class);
+	when(exception.getStatusCode()).thenReturn(Optional.of(status));
+	return exception;
+    }
+}
@@ -0,0 +1,187 @@
+/*
+ * Sonar, open source software quality management tool.
+ * Copyright (C) 2009 SonarSource
+ * mailto:contact AT sonarsource DOT com
+ *
+ * Sonar is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * Sonar is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with Sonar; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02
+ */
+
+package org.sonar.plugins.jira.rest;
+
+import static org.fest.assertions.Assertions.*;
+import static org.junit.Assert.fail;
+import static org.mockito.Mockito.*;
+
+import java.io.IOException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.sonar.api.config.Settings;
+import org.sonar.plugins.jira.JiraConstants;
+
+import com.atlassian.jira.rest.client.api.RestClientException;
+import com.google.common.base.Optional;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.SettableFuture;
+
+public class JiraRetryPolicyTest {
+
+    private ScheduledExecutorService scheduler;
+    private Settings settings;
+
+    @Before
+    public void setUp() {
+	scheduler = Executors.newSingleThreadScheduledExecutor();
+	settings = new Settings();
+    }
+
+    @After
+    public void tearDown() {
+	scheduler.shutdownNow();
+    }
+
+    @Test
+    public void shouldRetryTransientFailuresOfReads() throws Exception {
+	AtomicInteger attempts = new AtomicInteger();
+
+	ListenableFuture<String> result = new JiraRetryPolicy(settings,
+		scheduler).intercept(JiraEndpoint.SEARCH,
+		() -> attempts.incrementAndGet() < 3 ? Futures
+			.<String> immediateFailedFuture(failure(503)) : Futures
+			.immediateFuture("issues"));
+
+	assertThat(result.get(5, TimeUnit.SECONDS)).isEqualTo("issues");
+	assertThat(attempts.get()).isEqualTo(3);
+    }
+
+    @Test
+    public void shouldGiveUpAfterMaxAttempts() throws Exception {
+	settings.setProperty(JiraConstants.RETRY_MAX_ATTEMPTS_PROPERTY, 2);
+	AtomicInteger attempts = new AtomicInteger();
+	RestClientException error = failure(503);
+
+	ListenableFuture<String> result = new JiraRetryPolicy(settings,
+		scheduler).intercept(JiraEndpoint.PRIORITIES, () -> {
+	    attempts.incrementAndGet();
+	    return Futures.<String> immediateFailedFuture(error);
+	});
+
+	try {
+	    result.get(5, TimeUnit.SECONDS);
+	    fail();
+	} catch (ExecutionException e) {
+	    assertThat(e.getCause()).isSameAs(error);
+	}
+	assertThat(attempts.get()).isEqualTo(2);
+    }
+
+    @Test
+    public void shouldNeverRetryIssueCreation() throws Exception {
+	AtomicInteger attempts = new AtomicInteger();
+
+	ListenableFuture<String> result = new JiraRetryPolicy(settings,
+		scheduler).intercept(JiraEndpoint.CREATE_ISSUE, () -> {
+	    attempts.incrementAndGet();
+	    return Futures.<String> immediateFailedFuture(failure(503));
+	});
+
+	try {
+	    result.get(5, TimeUnit.SECONDS);
+	    fail();
+	} catch (ExecutionException e) {
+	    assertThat(attempts.get()).isEqualTo(1);
+	}
+    }
+
+    @Test
+    public void shouldOnlyRetryTransientFailures() {
+	assertThat(JiraRetryPolicy.isRetryable(failure(503))).isTrue();
+	assertThat(JiraRetryPolicy.isRetryable(new TimeoutException()))
+		.isTrue();
+	assertThat(
+		JiraRetryPolicy.isRetryable(new RuntimeException(
+			new IOException("Connection reset")))).isTrue();
+	assertThat(JiraRetryPolicy.isRetryable(failure(400))).isFalse();
+	assertThat(
+		JiraRetryPolicy.isRetryable(new JiraCircuitOpenException(
+			"JIRA is down"))).isFalse();
+    }
+
+    @Test
+    public void shouldBoundJitteredBackoff() {
+	for (int attempt = 1; attempt < 10; attempt++) {
+	    long bound = Math.min(JiraRetryPolicy.MAX_DELAY_MILLIS,
+		    JiraRetryPolicy.BASE_DELAY_MILLIS << (attempt - 1));
+	    for (int i = 0; i < 100; i++) {
+		long delay = JiraRetryPolicy.backoff(attempt);
+		assertThat(delay).isGreaterThanOrEqualTo(0L);
+		assertThat(delay).isLessThanOrEqualTo(bound);
+	    }
+	}
+    }
+
+    @Test
+    public void shouldNotHedgeByDefault() throws Exception {
+	JiraRetryPolicy retryPolicy = new JiraRetryPolicy(settings, scheduler);
+	warmUp(retryPolicy);
+
+	assertThat(retryPolicy.getHedgeDelay(JiraEndpoint.SEARCH)).isEqualTo(
+		0L);
+    }
+
+    @Test
+    public void shouldHedgeSlowReads() throws Exception {
+	settings.setProperty(JiraConstants.RETRY_HEDGE_PERCENTILE_PROPERTY, 90);
+	JiraRetryPolicy retryPolicy = new JiraRetryPolicy(settings, scheduler);
+	warmUp(retryPolicy);
+	assertThat(retryPolicy.getHedgeDelay(JiraEndpoint.SEARCH))
+		.isGreaterThan(0L);
+	SettableFuture<String> stuck = SettableFuture.create();
+	AtomicInteger attempts = new AtomicInteger();
+
+	ListenableFuture<String> result = retryPolicy.intercept(
+		JiraEndpoint.SEARCH,
+		() -> attempts.incrementAndGet() == 1 ? stuck : Futures
+			.immediateFuture("hedged"));
+
+	assertThat(result.get(5, TimeUnit.SECONDS)).isEqualTo("hedged");
+	assertThat(attempts.get()).isEqualTo(2);
+	assertThat(stuck.isCancelled()).isTrue();
+    }
+
+    private void warmUp(JiraRetryPolicy retryPolicy) throws Exception {
+	for (int i = 0; i < JiraRetryPolicy.MIN_SAMPLES; i++) {
+	    SettableFuture<String> call = SettableFuture.create();
+	    scheduler.schedule(() -> call.set("issues"), 2,
+		    TimeUnit.MILLISECONDS);
+	    retryPolicy.intercept(JiraEndpoint.SEARCH, () -> call).get(5,
+		    TimeUnit.SECONDS);
+	}
+    }
+
+    private static RestClientException failure(int status) {
+	RestClientException exception = mock(RestClientException.class);
+	when(exception.getStatusCode()).thenReturn(Optional.of(status));
+	return exception;
+    }
+}
@@ -0,0 +1,106 @@
+/*
+ * Sonar, open source software quality management tool.
+ * Copyright (C) 2009 SonarSource
+ * mailto:contact AT sonarsource DOT com
+ *
+ * Sonar is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * Sonar is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with Sonar; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02
+ */
+
+package org.sonar.plugins.jira.rest;
+
+import static org.fest.assertions.Assertions.*;
+import static org.mockito.Mockito.*;
+
+import java.net.URL;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.sonar.api.config.Settings;
+import org.sonar.plugins.jira.JiraConstants;
+
+public class JiraSessionRegistryTest {
+
+    private JiraSessionRegistry registry;
+    private URL url;
+
+    @Before
+    public void setUp() throws Exception {
+	Settings settings = new Settings();
+	settings.setProperty(JiraConstants.HTTP_IDLE_TIMEOUT_PROPERTY, 60);
+	registry = new JiraSessionRegistry(settings) {
+	    @Override
+	    protected JiraSession newSession(URL url) {
+		return mock(JiraSession.class);
+	    }
+	};
+	url = new URL("http://my.jira.server");
+    }
+
+    @Test
+    public void shouldShareSessionForSameServerAndCredentials()
+	    throws Exception {
+	JiraSession first = registry.acquire(url, "admin", "adminPwd");
+	JiraSession second = registry.acquire(
+		new URL("http://my.jira.server"), "admin", "adminPwd");
+
+	assertThat(second).isSameAs(first);
+	assertThat(registry.size()).isEqualTo(1);
+	verify(first).connect("admin", "adminPwd");
+    }
+
+    @Test
+    public void shouldNotShareSessionBetweenUsers() throws Exception {
+	JiraSession admin = registry.acquire(url, "admin", "adminPwd");
+	JiraSession john = registry.acquire(url, "john", "1234");
+
+	assertThat(john).isNotSameAs(admin);
+	assertThat(registry.size()).isEqualTo(2);
+    }
+
+    @Test
+    public void shouldEvictIdleSessions() throws Exception {
+	JiraSession session = registry.acquire(url, "admin", "adminPwd");
+	registry.release(session);
+
+	registry.evictIdleSessions(System.currentTimeMillis());
+	assertThat(registry.size()).isEqualTo(1);
+
+	registry.evictIdleSessions(System.currentTimeMillis() + 61000L);
+	assertThat(registry.size()).isEqualTo(0);
+	verify(session).disconnect();
+    }
+
+    @Test
+    public void shouldNotEvictSessionsInUse() throws Exception {
+	JiraSession session = registry.acquire(url, "admin", "adminPwd");
+
+	registry.evictIdleSessions(System.currentTimeMillis() + 61000L);
+
+	assertThat(registry.size()).isEqualTo(1);
+	verify(session, never()).disconnect();
+    }
+
+    @Test
+    public void shouldDisconnectAllSessionsOnStop() throws Exception {
+	JiraSession admin = registry.acquire(url, "admin", "adminPwd");
+	JiraSession john = registry.acquire(url, "john", "1234");
+
+	registry.stop();
+
+	verify(admin).disconnect();
+	verify(john).disconnect();
+	assertThat(registry.size()).isEqualTo(0);
+    }
+}
@@ -0,0 +1,81 @@
+/*
+ * Sonar, open source software quality management tool.
+ * Copyright (C) 2009 SonarSource
+ * mailto:contact AT sonarsource DOT com
+ *
+ * Sonar is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * Sonar is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with Sonar; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02
+ */
+
+package org.sonar.plugins.jira.rest;
+
+import static org.fest.assertions.Assertions.*;
+
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+public class LatencyHistogramTest {
+
+    @Test
+    public void shouldBeEmptyInitially() {
+	LatencyHistogram histogram = new LatencyHistogram();
+
+	assertThat(histogram.getCount()).isEqualTo(0L);
+	assertThat(histogram.getPercentileMicros(99.0)).isEqualTo(0L);
+	assertThat(histogram.getMeanMicros()).isEqualTo(0.0);
+    }
+
+    @Test
+    public void shouldComputePercentiles() {
+	LatencyHistogram histogram = new LatencyHistogram();
+	for (int i = 1; i <= 1000; i++) {
+	    histogram.record(i, TimeUnit.MILLISECONDS);
+	}
+
+	assertThat(histogram.getCount()).isEqualTo(1000L);
+	assertThat(histogram.getMaxMicros()).isEqualTo(1000000L);
+	assertThat(histogram.getMeanMicros()).isEqualTo(500500.0);
+	assertWithinPrecision(histogram.getPercentileMicros(50.0), 500000L);
+	assertWithinPrecision(histogram.getPercentileMicros(95.0), 950000L);
+	assertWithinPrecision(histogram.getPercentileMicros(99.0), 990000L);
+	assertThat(histogram.getPercentileMicros(100.0)).isEqualTo(1000000L);
+    }
+
+    @Test
+    public void shouldKeepSmallValuesExact() {
+	for (int i = 0; i < 32; i++) {
+	    assertThat(LatencyHistogram.highestValueOf(LatencyHistogram
+		    .indexOf(i))).isEqualTo((long) i);
+	}
+    }
+
+    @Test
+    public void shouldMapValuesToEnclosingBucket() {
+	for (long value = 1; value < (1L << 39); value = value * 3 + 1) {
+	    int index = LatencyHistogram.indexOf(value);
+	    assertThat(LatencyHistogram.highestValueOf(index))
+		    .isGreaterThanOrEqualTo(value);
+	    if (index > 0) {
+		assertThat(LatencyHistogram.highestValueOf(index - 1))
+			.isLessThan(value);
+	    }
+	}
+    }
+
+    private static void assertWithinPrecision(long actual, long expected) {
+	assertThat(actual).isGreaterThanOrEqualTo(expected);
+	assertThat(actual).isLessThanOrEqualTo(expected + expected / 16);
+    }
+}
@@ -22,9 +22,11 @@ package org.sonar.plugins.jira.reviews;
 import org.junit.Test;
 import org.sonar.api.issue.action.Action;
 import org.sonar.api.issue.action.Actions;
+import org.sonar.api.issue.internal.DefaultIssue;
 
 import static org.fest.assertions.Assertions.assertThat;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
 
 public class JiraActionDefinitionTest {
 
@@ -32,8 +34,9 @@ public class JiraActionDefinitionTest {
   public void check_start() throws Exception {
     Actions actions = new Actions();
     LinkFunction function = mock(LinkFunction.class);
+    JiraLinkQueue linkQueue = mock(JiraLinkQueue.class);
 
-    JiraActionDefinition builder = new JiraActionDefinition(actions, function);
+    JiraActionDefinition builder = new JiraActionDefinition(actions, function, linkQueue);
     builder.start();
 
     Action action = actions.list().get(0);
@@ -42,4 +45,16 @@ public class JiraActionDefinitionTest {
     assertThat(action.conditions()).isNotEmpty();
   }
 
+  @Test
+  public void should_hide_action_while_link_is_pending() throws Exception {
+    Actions actions = new Actions();
+    JiraLinkQueue linkQueue = mock(JiraLinkQueue.class);
+    when(linkQueue.isPending("ABCD")).thenReturn(true);
+    new JiraActionDefinition(actions, mock(LinkFunction.class), linkQueue).start();
+
+    Action action = actions.list().get(0);
+    assertThat(action.supports(new DefaultIssue().setKey("ABCD"))).isFalse();
+    assertThat(action.supports(new DefaultIssue().setKey("EFGH"))).isTrue();
+  }
+
 }
@@ -0,0 +1,175 @@
+/*
+ * Sonar JIRA Plugin
+ * Copyright (C) 2009 SonarSource
+ * dev@sonar.codehaus.org
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02
+ */
+package org.sonar.plugins.jira.reviews;
+
+import static org.fest.assertions.Assertions.*;
+import static org.junit.Assert.fail;
+import static org.mockito.Mockito.*;
+
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.sonar.api.CoreProperties;
+import org.sonar.api.config.PropertyDefinitions;
+import org.sonar.api.config.Settings;
+import org.sonar.api.issue.Issue;
+import org.sonar.api.issue.internal.DefaultIssue;
+import org.sonar.api.rule.RuleKey;
+import org.sonar.api.rules.RuleFinder;
+import org.sonar.plugins.jira.JiraConstants;
+import org.sonar.plugins.jira.JiraPlugin;
+import org.sonar.plugins.jira.rest.FakeJiraServer;
+import org.sonar.plugins.jira.rest.JiraMetadataCache;
+import org.sonar.plugins.jira.rest.JiraSessionRegistry;
+
+import com.atlassian.jira.rest.client.api.domain.BasicIssue;
+import com.google.common.collect.Lists;
+
+/**
+ * Creates issues on {@link FakeJiraServer}, through HTTP and the JSON parsing
+ * of the REST client.
+ */
+public class JiraIssueCreatorServerTest {
+
+    @Rule
+    public TemporaryFolder temp = new TemporaryFolder();
+
+    private FakeJiraServer server;
+    private Settings settings;
+    private JiraSessionRegistry sessionRegistry;
+    private JiraIssueCreator jiraIssueCreator;
+    private Issue sonarIssue;
+
+    @Before
+    public void setUp() throws Exception {
+	server = new FakeJiraServer(0).start();
+	settings = new Settings(new PropertyDefinitions(JiraIssueCreator.class,
+		JiraPlugin.class));
+	settings.setProperty(CoreProperties.SERVER_BASE_URL,
+		"http://my.sonar.com");
+	settings.setProperty(JiraConstants.SERVER_URL_PROPERTY, server.getUrl());
+	settings.setProperty(JiraConstants.USERNAME_PROPERTY, "admin");
+	settings.setProperty(JiraConstants.PASSWORD_PROPERTY, "adminPwd");
+	settings.setProperty(JiraConstants.JIRA_PROJECT_KEY_PROPERTY, "TEST");
+	settings.setProperty(JiraConstants.METADATA_PERSISTENT_PROPERTY, false);
+	settings.setProperty(JiraConstants.STORAGE_PATH_PROPERTY, temp
+		.newFolder().getAbsolutePath());
+	sessionRegistry = new JiraSessionRegistry(settings);
+
+	JiraIssueIndex issueIndex = new JiraIssueIndex(settings);
+	jiraIssueCreator = new JiraIssueCreator(new JiraRuleCache(
+		mock(RuleFinder.class), settings),
+		sessionRegistry, new JiraMetadataCache(settings),
+		new JiraOutbox(settings, sessionRegistry, issueIndex,
+			mock(SonarIssueActions.class)), issueIndex);
+	sonarIssue = new DefaultIssue().setKey("ABCD").setSeverity("MAJOR")
+		.setMessage("Fix me").setRuleKey(RuleKey.of("squid", "S00100"));
+    }
+
+    @After
+    public void tearDown() {
+	sessionRegistry.stop();
+	server.stop();
+    }
+
+    @Test
+    public void shouldCreateOneIssueForConcurrentLinks() throws Exception {
+	server.setLatency(300);
+	int links = 8;
+	final CountDownLatch start = new CountDownLatch(1);
+	ExecutorService executor = Executors.newFixedThreadPool(links);
+	try {
+	    List<Future<BasicIssue>> results = Lists.newArrayList();
+	    for (int i = 0; i < links; i++) {
+		results.add(executor.submit(new Callable<BasicIssue>() {
+		    public BasicIssue call() throws Exception {
+			start.await();
+			return jiraIssueCreator.createIssue(sonarIssue,
+				settings);
+		    }
+		}));
+	    }
+	    start.countDown();
+
+	    for (Future<BasicIssue> result : results) {
+		assertThat(result.get().getKey()).isEqualTo("TEST-1");
+	    }
+	} finally {
+	    executor.shutdownNow();
+	}
+	assertThat(server.getCreatedIssues()).hasSize(1);
+    }
+
+    @Test
+    public void shouldReadComponentsOncePerProject() throws Exception {
+	settings.setProperty(JiraConstants.JIRA_ISSUE_COMPONENT_ID, 10100);
+
+	jiraIssueCreator.createIssue(sonarIssue, settings);
+	jiraIssueCreator.createIssue(
+		new DefaultIssue().setKey("EFGH").setSeverity("MINOR")
+			.setMessage("Fix me too")
+			.setRuleKey(RuleKey.of("squid", "S00100")), settings);
+
+	assertThat(server.getCreatedIssues()).hasSize(2);
+	assertThat(server.getCreatedIssues().get(0)).contains("components");
+	assertThat(server.getRequestCount("project")).isEqualTo(1);
+    }
+
+    @Test
+    public void shouldRejectUnknownComponentBeforeSendingIssue()
+	    throws Exception {
+	settings.setProperty(JiraConstants.JIRA_ISSUE_COMPONENT_ID, 999);
+
+	try {
+	    jiraIssueCreator.createIssue(sonarIssue, settings);
+	    fail();
+	} catch (IllegalStateException e) {
+	    assertThat(e.getMessage()).isEqualTo(
+		    "The JIRA component 999 does not exist in JIRA project TEST, check the property \""
+			    + JiraConstants.JIRA_ISSUE_COMPONENT_ID + "\"");
+	}
+	assertThat(server.getCreatedIssues()).isEmpty();
+    }
+
+    @Test
+    public void shouldCreateIssueAgainAfterFailure() throws Exception {
+	server.setRejectedText("Sonar Issue #ABCD");
+	try {
+	    jiraIssueCreator.createIssue(sonarIssue, settings);
+	    fail();
+	} catch (IllegalStateException e) {
+	    // expected
+	}
+	server.setRejectedText(null);
+
+	assertThat(jiraIssueCreator.createIssue(sonarIssue, settings).getKey())
+		.isNotNull();
+	assertThat(server.getCreatedIssues()).hasSize(1);
+    }
+}
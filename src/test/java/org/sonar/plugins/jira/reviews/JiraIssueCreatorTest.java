@@ -40,6 +40,8 @@ import org.sonar.api.rules.RulePriority;
 import org.sonar.plugins.jira.JiraConstants;
 import org.sonar.plugins.jira.JiraPlugin;
 import org.sonar.plugins.jira.rest.JiraSession;
+import org.sonar.plugins.jira.rest.JiraMetadataCache;
+import org.sonar.plugins.jira.rest.JiraSessionRegistry;
 
 import com.atlassian.jira.rest.client.api.JiraRestClient;
 import com.atlassian.jira.rest.client.api.domain.BasicIssue;
@@ -79,7 +81,11 @@ public class JiraIssueCreatorTest {
 	settings.setProperty(JiraConstants.PASSWORD_PROPERTY, "bar");
 	settings.setProperty(JiraConstants.JIRA_PROJECT_KEY_PROPERTY, "TEST");
 
-	jiraIssueCreator = new JiraIssueCreator(ruleFinder);
+	jiraIssueCreator = new JiraIssueCreator(new JiraRuleCache(
+		ruleFinder, settings),
+		new JiraSessionRegistry(settings),
+		new JiraMetadataCache(settings), mock(JiraOutbox.class),
+		mock(JiraIssueIndex.class));
     }
 
     @Test
@@ -257,21 +263,13 @@ public class JiraIssueCreatorTest {
 
     @Test
     public void shouldGiveDefaultPriority() throws Exception {
-	assertThat(
-		jiraIssueCreator.sonarSeverityToJiraPriorityId(
-			RulePriority.BLOCKER, settings)).isEqualTo(1);
-	assertThat(
-		jiraIssueCreator.sonarSeverityToJiraPriorityId(
-			RulePriority.CRITICAL, settings)).isEqualTo(2);
-	assertThat(
-		jiraIssueCreator.sonarSeverityToJiraPriorityId(
-			RulePriority.MAJOR, settings)).isEqualTo(3);
-	assertThat(
-		jiraIssueCreator.sonarSeverityToJiraPriorityId(
-			RulePriority.MINOR, settings)).isEqualTo(4);
-	assertThat(
-		jiraIssueCreator.sonarSeverityToJiraPriorityId(
-			RulePriority.INFO, settings)).isEqualTo(5);
+	JiraProjectConfig config = jiraIssueCreator.getConfig(settings, "proj");
+
+	assertThat(config.getPriorityId(RulePriority.BLOCKER)).isEqualTo(1L);
+	assertThat(config.getPriorityId(RulePriority.CRITICAL)).isEqualTo(2L);
+	assertThat(config.getPriorityId(RulePriority.MAJOR)).isEqualTo(3L);
+	assertThat(config.getPriorityId(RulePriority.MINOR)).isEqualTo(4L);
+	assertThat(config.getPriorityId(RulePriority.INFO)).isEqualTo(5L);
     }
 
     @Test
@@ -299,4 +297,28 @@ public class JiraIssueCreatorTest {
 		expectedIssue.getDescription());
 	assertThat(returnedIssue).isEqualTo(expectedIssue);
     }
+
+    @Test
+    public void shouldAddRuleDescription() throws Exception {
+	when(ruleFinder.findByKey(RuleKey.of("squid", "CycleBetweenPackages")))
+		.thenReturn(
+			org.sonar.api.rules.Rule.create()
+				.setName("Avoid cycle between java packages")
+				.setDescription("<p>Cycles make packages hard to change.</p>"));
+	settings.setProperty(JiraConstants.JIRA_ISSUE_RULE_DESCRIPTION, true);
+
+	assertThat(jiraIssueCreator.generateIssueSummary(sonarIssue))
+		.isEqualTo(
+			"Sonar Issue #ABCD - Avoid cycle between java packages");
+	assertThat(
+		jiraIssueCreator.generateIssueDescription(sonarIssue,
+			jiraIssueCreator.getConfig(settings, "proj")))
+		.isEqualTo(
+			"Issue detail:\n{quote}\nThe Cyclomatic Complexity of this method is 14 which is greater than 10 authorized.\n{quote}\n"
+				+ "\n\nRule description:\n{quote}\nCycles make packages hard to change.\n{quote}\n"
+				+ "\n\nCheck it on Sonar: http://my.sonar.com/issue/show/ABCD");
+	// the summary and the description read the rule once
+	verify(ruleFinder, times(1)).findByKey(
+		RuleKey.of("squid", "CycleBetweenPackages"));
+    }
 }
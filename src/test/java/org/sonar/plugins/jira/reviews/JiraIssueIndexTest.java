@@ -0,0 +1,154 @@
+/*
+ * Sonar JIRA Plugin
+ * Copyright (C) 2009 SonarSource
+ * dev@sonar.codehaus.org
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02
+ */
+package org.sonar.plugins.jira.reviews;
+
+import static org.fest.assertions.Assertions.*;
+
+import java.net.URL;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.sonar.api.config.Settings;
+import org.sonar.plugins.jira.JiraConstants;
+import org.sonar.plugins.jira.rest.FakeJiraServer;
+import org.sonar.plugins.jira.rest.JiraSession;
+import org.sonar.plugins.jira.rest.JiraSessionRegistry;
+
+import com.atlassian.jira.rest.client.api.domain.BasicIssue;
+
+public class JiraIssueIndexTest {
+
+    @Rule
+    public TemporaryFolder temp = new TemporaryFolder();
+
+    private FakeJiraServer server;
+    private Settings settings;
+    private JiraSessionRegistry sessionRegistry;
+    private JiraSession session;
+
+    @Before
+    public void setUp() throws Exception {
+	server = new FakeJiraServer(5).setMaxPageSize(3).start();
+	server.addIssue("Sonar Issue #AAAA - Avoid cycles");
+	server.addIssue("Sonar Issue #BBBB");
+	server.addIssue("Sonar Issue #CCCC - Unused import");
+	settings = new Settings();
+	settings.setProperty(JiraConstants.STORAGE_PATH_PROPERTY, temp
+		.newFolder().getAbsolutePath());
+	sessionRegistry = new JiraSessionRegistry(settings);
+	session = sessionRegistry.acquire(new URL(server.getUrl()), "admin",
+		"adminPwd");
+    }
+
+    @After
+    public void tearDown() {
+	sessionRegistry.release(session);
+	sessionRegistry.stop();
+	server.stop();
+    }
+
+    @Test
+    public void shouldFindIssuesCreatedFromSonar() {
+	JiraIssueIndex index = new JiraIssueIndex(settings);
+
+	assertThat(index.find(session, "TEST", "BBBB").getKey()).isEqualTo(
+		"TEST-7");
+	assertThat(index.find(session, "TEST", "CCCC").getKey()).isEqualTo(
+		"TEST-8");
+	assertThat(index.find(session, "TEST", "DDDD")).isNull();
+	assertThat(index.size()).isEqualTo(3);
+	// one scan, by pages of 3 issues, then one check by issue found
+	assertThat(server.getRequestCount("search")).isEqualTo(5);
+    }
+
+    @Test
+    public void shouldFindCreatedIssues() {
+	JiraIssueIndex index = new JiraIssueIndex(settings);
+
+	index.put(session, "DDDD", new BasicIssue(null, "TEST-2", 10001L));
+
+	assertThat(index.find(session, "TEST", "DDDD").getKey()).isEqualTo(
+		"TEST-2");
+    }
+
+    @Test
+    public void shouldKeepIndexAcrossRestarts() {
+	JiraIssueIndex index = new JiraIssueIndex(settings);
+	index.start();
+	index.find(session, "TEST", "AAAA");
+	index.put(session, "DDDD", new BasicIssue(null, "TEST-2", 10001L));
+	index.stop();
+
+	index = new JiraIssueIndex(settings);
+	index.start();
+
+	assertThat(index.find(session, "TEST", "DDDD").getKey()).isEqualTo(
+		"TEST-2");
+	assertThat(index.find(session, "TEST", "AAAA").getKey()).isEqualTo(
+		"TEST-6");
+	// one scan, then one check by issue found
+	assertThat(server.getRequestCount("search")).isEqualTo(6);
+    }
+
+    @Test
+    public void shouldSearchAgainIfIndexWasNotSaved() {
+	JiraIssueIndex index = new JiraIssueIndex(settings);
+	index.start();
+	index.find(session, "TEST", "AAAA");
+	index.put(session, "DDDD", new BasicIssue(null, "TEST-2", 10001L));
+	index.stop();
+	// stopped without saving its index
+	new JiraIssueIndex(settings).start();
+
+	index = new JiraIssueIndex(settings);
+	index.start();
+	index.find(session, "TEST", "AAAA");
+
+	assertThat(server.getRequestCount("search")).isEqualTo(8);
+	// the keys saved before are kept
+	assertThat(index.find(session, "TEST", "DDDD").getKey()).isEqualTo(
+		"TEST-2");
+    }
+
+    @Test
+    public void shouldForgetDeletedIssues() {
+	JiraIssueIndex index = new JiraIssueIndex(settings);
+	index.find(session, "TEST", "AAAA");
+	index.put(session, "DDDD", new BasicIssue(null, "TEST-42", 42L));
+
+	assertThat(index.find(session, "TEST", "DDDD")).isNull();
+	assertThat(index.size()).isEqualTo(3);
+    }
+
+    @Test
+    public void shouldReadSonarIssueKeyFromSummary() {
+	assertThat(
+		JiraIssueIndex
+			.sonarIssueKeyOf("Sonar Issue #AXlp-x_z - Avoid cycles"))
+		.isEqualTo("AXlp-x_z");
+	assertThat(JiraIssueIndex.sonarIssueKeyOf("Sonar Issue #1234"))
+		.isEqualTo("1234");
+	assertThat(JiraIssueIndex.sonarIssueKeyOf("Issue TEST-1")).isNull();
+	assertThat(JiraIssueIndex.sonarIssueKeyOf(null)).isNull();
+    }
+}
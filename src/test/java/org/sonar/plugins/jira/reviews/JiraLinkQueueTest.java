@@ -0,0 +1,189 @@
+/*
+ * Sonar JIRA Plugin
+ * Copyright (C) 2009 SonarSource
+ * dev@sonar.codehaus.org
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02
+ */
+package org.sonar.plugins.jira.reviews;
+
+import static org.fest.assertions.Assertions.*;
+import static org.mockito.Matchers.*;
+import static org.mockito.Mockito.*;
+
+import java.rmi.RemoteException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.sonar.api.config.Settings;
+import org.sonar.api.issue.Issue;
+import org.sonar.api.issue.internal.DefaultIssue;
+import org.sonar.plugins.jira.JiraConstants;
+
+import com.atlassian.jira.rest.client.api.domain.BasicIssue;
+
+public class JiraLinkQueueTest {
+
+    private JiraLinkQueue queue;
+    private JiraIssueCreator jiraIssueCreator;
+    private SonarIssueActions sonarIssueActions;
+    private Settings settings;
+    private Issue sonarIssue;
+
+    @Before
+    public void init() {
+	settings = new Settings();
+	settings.setProperty(JiraConstants.LINK_ASYNC_PROPERTY, true);
+	settings.setProperty(JiraConstants.LINK_WORKERS_PROPERTY, 1);
+	jiraIssueCreator = mock(JiraIssueCreator.class);
+	sonarIssueActions = mock(SonarIssueActions.class);
+	when(sonarIssueActions.isConfigured()).thenReturn(true);
+	sonarIssue = new DefaultIssue().setKey("ABCD");
+	queue = new JiraLinkQueue(settings, jiraIssueCreator,
+		sonarIssueActions);
+	queue.start();
+    }
+
+    @After
+    public void tearDown() {
+	queue.stop();
+    }
+
+    @Test
+    public void should_be_disabled_by_default() {
+	assertThat(
+		new JiraLinkQueue(new Settings(), jiraIssueCreator,
+			sonarIssueActions).isEnabled()).isFalse();
+	assertThat(queue.isEnabled()).isTrue();
+    }
+
+    @Test
+    public void should_create_issue_in_background() throws Exception {
+	BasicIssue remoteIssue = new BasicIssue(null, "FOO-15", 15L);
+	when(jiraIssueCreator.createIssue(sonarIssue, settings)).thenReturn(
+		remoteIssue);
+
+	assertThat(queue.enqueue(sonarIssue, settings)).isTrue();
+
+	verify(sonarIssueActions, timeout(5000)).doAction("ABCD",
+		JiraActionDefinition.LINK_TO_JIRA_ID);
+	assertThat(queue.getQueueDepth()).isEqualTo(0);
+	assertThat(queue.getProcessedCount()).isEqualTo(1);
+	assertThat(queue.takeCreated("ABCD")).isSameAs(remoteIssue);
+	assertThat(queue.takeCreated("ABCD")).isNull();
+    }
+
+    @Test
+    public void should_queue_each_issue_once() throws Exception {
+	final CountDownLatch release = new CountDownLatch(1);
+	when(jiraIssueCreator.createIssue(sonarIssue, settings)).thenAnswer(
+		invocation -> {
+		    release.await(5, TimeUnit.SECONDS);
+		    return new BasicIssue(null, "FOO-15", 15L);
+		});
+
+	assertThat(queue.enqueue(sonarIssue, settings)).isTrue();
+	assertThat(queue.enqueue(sonarIssue, settings)).isFalse();
+	assertThat(queue.isPending("ABCD")).isTrue();
+	assertThat(queue.getQueueDepth()).isEqualTo(1);
+	release.countDown();
+
+	verify(sonarIssueActions, timeout(5000)).doAction("ABCD",
+		JiraActionDefinition.LINK_TO_JIRA_ID);
+	verify(jiraIssueCreator, times(1)).createIssue(sonarIssue, settings);
+    }
+
+    @Test
+    public void should_not_be_pending_when_the_action_runs_again()
+	    throws Exception {
+	BasicIssue remoteIssue = new BasicIssue(null, "FOO-15", 15L);
+	when(jiraIssueCreator.createIssue(sonarIssue, settings)).thenReturn(
+		remoteIssue);
+	final AtomicBoolean pending = new AtomicBoolean(true);
+	final CountDownLatch written = new CountDownLatch(1);
+	doAnswer(invocation -> {
+	    pending.set(queue.isPending("ABCD"));
+	    written.countDown();
+	    throw new IllegalStateException("Issue not found");
+	}).when(sonarIssueActions).doAction("ABCD",
+		JiraActionDefinition.LINK_TO_JIRA_ID);
+
+	queue.enqueue(sonarIssue, settings);
+
+	assertThat(written.await(5, TimeUnit.SECONDS)).isTrue();
+	assertThat(pending.get()).isFalse();
+	// a failed write back is not a failed creation
+	assertThat(queue.getFailedCount()).isEqualTo(0);
+	assertThat(queue.takeCreated("ABCD")).isSameAs(remoteIssue);
+    }
+
+    @Test
+    public void should_report_failure_through_the_action() throws Exception {
+	when(jiraIssueCreator.createIssue(sonarIssue, settings)).thenThrow(
+		new RemoteException("Server Error"));
+
+	queue.enqueue(sonarIssue, settings);
+
+	// the action clears the pending attribute and comments the failure
+	verify(sonarIssueActions, timeout(5000)).doAction("ABCD",
+		JiraActionDefinition.LINK_TO_JIRA_ID);
+	assertThat(queue.getFailedCount()).isEqualTo(1);
+	assertThat(queue.takeCreated("ABCD")).isNull();
+	assertThat(queue.takeFailure("ABCD")).isEqualTo("Server Error");
+	assertThat(queue.takeFailure("ABCD")).isNull();
+    }
+
+    @Test
+    public void should_keep_a_bounded_number_of_created_issues()
+	    throws Exception {
+	when(jiraIssueCreator.createIssue(any(Issue.class), eq(settings)))
+		.thenAnswer(invocation -> new BasicIssue(null,
+			((Issue) invocation.getArguments()[0]).key(), 1L));
+
+	for (int i = 0; i <= JiraLinkQueue.MAX_KEPT_ISSUES; i++) {
+	    queue.enqueue(new DefaultIssue().setKey("ISSUE-" + i), settings);
+	}
+
+	verify(sonarIssueActions, timeout(30000).times(
+		JiraLinkQueue.MAX_KEPT_ISSUES + 1)).doAction(anyString(),
+		eq(JiraActionDefinition.LINK_TO_JIRA_ID));
+	assertThat(queue.takeCreated("ISSUE-0")).isNull();
+	assertThat(
+		queue.takeCreated("ISSUE-" + JiraLinkQueue.MAX_KEPT_ISSUES))
+		.isNotNull();
+    }
+
+    @Test
+    public void should_keep_the_mode_read_on_start() {
+	JiraLinkQueue synchronous = new JiraLinkQueue(settings,
+		jiraIssueCreator, sonarIssueActions);
+	settings.setProperty(JiraConstants.LINK_ASYNC_PROPERTY, false);
+	synchronous.start();
+	settings.setProperty(JiraConstants.LINK_ASYNC_PROPERTY, true);
+
+	assertThat(synchronous.isEnabled()).isFalse();
+	assertThat(queue.isEnabled()).isTrue();
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void should_fail_to_enqueue_when_disabled() {
+	new JiraLinkQueue(new Settings(), jiraIssueCreator, sonarIssueActions)
+		.enqueue(sonarIssue, settings);
+    }
+}
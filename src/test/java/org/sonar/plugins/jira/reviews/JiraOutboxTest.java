@@ -0,0 +1,261 @@
+/*
+ * Sonar JIRA Plugin
+ * Copyright (C) 2009 SonarSource
+ * dev@sonar.codehaus.org
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02
+ */
+package org.sonar.plugins.jira.reviews;
+
+import static org.fest.assertions.Assertions.*;
+import static org.mockito.Matchers.*;
+import static org.mockito.Mockito.*;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.net.URL;
+import java.util.Arrays;
+import java.util.concurrent.CompletableFuture;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.sonar.api.config.Settings;
+import org.sonar.plugins.jira.JiraConstants;
+import org.sonar.plugins.jira.rest.JiraSession;
+import org.sonar.plugins.jira.rest.JiraSessionRegistry;
+
+import com.atlassian.jira.rest.client.api.IssueRestClient;
+import com.atlassian.jira.rest.client.api.JiraRestClient;
+import com.atlassian.jira.rest.client.api.domain.BasicIssue;
+import com.atlassian.jira.rest.client.api.domain.input.ComplexIssueInputFieldValue;
+import com.atlassian.jira.rest.client.api.domain.input.FieldInput;
+import com.atlassian.jira.rest.client.api.domain.input.IssueInput;
+import com.atlassian.util.concurrent.Promises;
+
+public class JiraOutboxTest {
+
+    private static final String SERVER = "http://my.jira.server";
+
+    @Rule
+    public TemporaryFolder temp = new TemporaryFolder();
+
+    private Settings settings;
+    private File directory;
+    private JiraSessionRegistry sessionRegistry;
+    private JiraIssueIndex issueIndex;
+    private SonarIssueActions sonarIssueActions;
+    private JiraOutbox outbox;
+
+    @Before
+    public void setUp() throws Exception {
+	settings = new Settings();
+	settings.setProperty(JiraConstants.STORAGE_PATH_PROPERTY, temp
+		.newFolder().getAbsolutePath());
+	directory = new File(
+		settings.getString(JiraConstants.STORAGE_PATH_PROPERTY),
+		"outbox");
+	sessionRegistry = mock(JiraSessionRegistry.class);
+	issueIndex = mock(JiraIssueIndex.class);
+	sonarIssueActions = mock(SonarIssueActions.class);
+	outbox = restart(null);
+    }
+
+    @After
+    public void tearDown() {
+	outbox.stop();
+    }
+
+    @Test
+    public void shouldKeepPendingIssuesAcrossRestarts() {
+	outbox.append("ABCD", SERVER, "foo", input("ABCD"));
+	outbox.append("EFGH", SERVER, "foo", input("EFGH"));
+	outbox.acknowledge("ABCD", new BasicIssue(null, "TEST-1", 1L));
+
+	outbox = restart(outbox);
+
+	assertThat(outbox.getPending()).hasSize(1);
+	JiraOutbox.Entry entry = outbox.getPending("EFGH");
+	assertThat(entry.getServerUrl()).isEqualTo(SERVER);
+	assertThat(entry.getUserName()).isEqualTo("foo");
+	IssueInput input = entry.getInput();
+	assertThat(input.getField("summary").getValue()).isEqualTo(
+		"Sonar Issue #EFGH");
+	assertThat(
+		((ComplexIssueInputFieldValue) input.getField("project")
+			.getValue()).getValuesMap().get("key")).isEqualTo(
+		"TEST");
+	assertThat(input.getField("components").getValue()).isInstanceOf(
+		Iterable.class);
+	assertThat(input.getField("duedate").getValue()).isNull();
+    }
+
+    @Test
+    public void shouldNotKeepDiscardedIssues() {
+	outbox.append("ABCD", SERVER, "foo", input("ABCD"));
+	outbox.discard("ABCD");
+
+	outbox = restart(outbox);
+
+	assertThat(outbox.getPending()).isEmpty();
+    }
+
+    @Test
+    public void shouldDeleteAcknowledgedSegments() {
+	outbox.stop();
+	outbox = new JiraOutbox(settings, sessionRegistry, issueIndex,
+		sonarIssueActions, 1L);
+	outbox.start();
+
+	outbox.append("ABCD", SERVER, "foo", input("ABCD"));
+	outbox.acknowledge("ABCD", new BasicIssue(null, "TEST-1", 1L));
+	outbox.append("EFGH", SERVER, "foo", input("EFGH"));
+	outbox.append("IJKL", SERVER, "foo", input("IJKL"));
+
+	assertThat(directory.list()).hasSize(2);
+
+	outbox.acknowledge("EFGH", new BasicIssue(null, "TEST-2", 2L));
+	assertThat(directory.list()).hasSize(2);
+
+	outbox = restart(outbox);
+	assertThat(outbox.getPending()).hasSize(1);
+	assertThat(outbox.getPending("IJKL")).isNotNull();
+    }
+
+    @Test
+    public void shouldIgnoreIncompleteWrite() throws Exception {
+	outbox.append("ABCD", SERVER, "foo", input("ABCD"));
+	outbox.stop();
+	File segment = directory.listFiles()[0];
+	FileOutputStream output = new FileOutputStream(segment, true);
+	output.write(new byte[] { 0, 0, 1, 0, 42 });
+	output.close();
+
+	outbox = restart(null);
+	outbox.append("EFGH", SERVER, "foo", input("EFGH"));
+	outbox = restart(outbox);
+
+	assertThat(outbox.getPending()).hasSize(2);
+    }
+
+    @Test
+    public void shouldSendPendingIssuesOnStart() throws Exception {
+	settings.setProperty(JiraConstants.SERVER_URL_PROPERTY, SERVER);
+	settings.setProperty(JiraConstants.USERNAME_PROPERTY, "foo");
+	settings.setProperty(JiraConstants.PASSWORD_PROPERTY, "bar");
+	outbox.append("ABCD", SERVER, "foo", input("ABCD"));
+	outbox.append("EFGH", "http://other.jira.server", "foo",
+		input("EFGH"));
+	outbox.stop();
+
+	BasicIssue created = new BasicIssue(null, "TEST-1", 1L);
+	IssueRestClient issueClient = mock(IssueRestClient.class);
+	when(issueClient.createIssue(any(IssueInput.class))).thenReturn(
+		Promises.promise(created));
+	JiraRestClient restClient = mock(JiraRestClient.class);
+	when(restClient.getIssueClient()).thenReturn(issueClient);
+	JiraSession session = mock(JiraSession.class);
+	when(session.getJiraRestClient()).thenReturn(restClient);
+	when(sessionRegistry.acquire(new URL(SERVER), "foo", "bar"))
+		.thenReturn(session);
+	when(sonarIssueActions.isConfigured()).thenReturn(true);
+
+	outbox = restart(null);
+
+	verify(sonarIssueActions, timeout(5000)).doAction("ABCD",
+		JiraActionDefinition.LINK_TO_JIRA_ID);
+	verify(sessionRegistry).release(session);
+	assertThat(outbox.takeReplayed("ABCD")).isSameAs(created);
+	assertThat(outbox.takeReplayed("ABCD")).isNull();
+	assertThat(outbox.getPending()).hasSize(1);
+	assertThat(outbox.getPending("EFGH")).isNotNull();
+	verify(issueIndex).put(session, "ABCD", created);
+    }
+
+    @Test
+    public void shouldNotSendAgainIssuesCreatedBeforeRestart()
+	    throws Exception {
+	settings.setProperty(JiraConstants.SERVER_URL_PROPERTY, SERVER);
+	settings.setProperty(JiraConstants.USERNAME_PROPERTY, "foo");
+	settings.setProperty(JiraConstants.PASSWORD_PROPERTY, "bar");
+	outbox.append("ABCD", SERVER, "foo", input("ABCD"));
+	outbox.stop();
+
+	BasicIssue existing = new BasicIssue(null, "TEST-1", null);
+	IssueRestClient issueClient = mock(IssueRestClient.class);
+	JiraRestClient restClient = mock(JiraRestClient.class);
+	when(restClient.getIssueClient()).thenReturn(issueClient);
+	JiraSession session = mock(JiraSession.class);
+	when(session.getJiraRestClient()).thenReturn(restClient);
+	when(sessionRegistry.acquire(new URL(SERVER), "foo", "bar"))
+		.thenReturn(session);
+	when(issueIndex.find(session, "TEST", "ABCD")).thenReturn(existing);
+
+	outbox = restart(null);
+
+	verify(sessionRegistry, timeout(5000)).release(session);
+	verify(issueClient, never()).createIssue(any(IssueInput.class));
+	assertThat(outbox.takeReplayed("ABCD")).isSameAs(existing);
+	assertThat(outbox.getPending()).isEmpty();
+    }
+
+    @Test
+    public void shouldNotSendIssuesBeingLinked() throws Exception {
+	settings.setProperty(JiraConstants.SERVER_URL_PROPERTY, SERVER);
+	settings.setProperty(JiraConstants.USERNAME_PROPERTY, "foo");
+	settings.setProperty(JiraConstants.PASSWORD_PROPERTY, "bar");
+	outbox.append("ABCD", SERVER, "foo", input("ABCD"));
+	outbox.stop();
+
+	outbox = new JiraOutbox(settings, sessionRegistry, issueIndex,
+		sonarIssueActions);
+	CompletableFuture<BasicIssue> click = new CompletableFuture<BasicIssue>();
+	assertThat(outbox.beginCreation("ABCD", click)).isNull();
+	outbox.start();
+	Thread.sleep(100);
+
+	verify(sessionRegistry, never()).acquire(any(URL.class), anyString(),
+		anyString());
+	assertThat(outbox.getPending("ABCD")).isNotNull();
+	assertThat(
+		outbox.beginCreation("ABCD",
+			new CompletableFuture<BasicIssue>())).isSameAs(click);
+	outbox.endCreation("ABCD", click);
+    }
+
+    private JiraOutbox restart(JiraOutbox previous) {
+	if (previous != null) {
+	    previous.stop();
+	}
+	JiraOutbox started = new JiraOutbox(settings, sessionRegistry,
+		issueIndex, sonarIssueActions);
+	started.start();
+	return started;
+    }
+
+    private static IssueInput input(String sonarIssueKey) {
+	return IssueInput.createWithFields(
+		new FieldInput("project", ComplexIssueInputFieldValue.with(
+			"key", "TEST")),
+		new FieldInput("summary", "Sonar Issue #" + sonarIssueKey),
+		new FieldInput("priority", ComplexIssueInputFieldValue.with(
+			"id", "3")),
+		new FieldInput("components", Arrays
+			.asList(ComplexIssueInputFieldValue.with("id", "18"))),
+		new FieldInput("duedate", null));
+    }
+}
@@ -0,0 +1,147 @@
+/*
+ * Sonar JIRA Plugin
+ * Copyright (C) 2009 SonarSource
+ * dev@sonar.codehaus.org
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02
+ */
+package org.sonar.plugins.jira.reviews;
+
+import static org.fest.assertions.Assertions.*;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.ExpectedException;
+import org.sonar.api.CoreProperties;
+import org.sonar.api.config.PropertyDefinitions;
+import org.sonar.api.config.Settings;
+import org.sonar.api.rules.RulePriority;
+import org.sonar.plugins.jira.JiraConstants;
+import org.sonar.plugins.jira.JiraPlugin;
+
+public class JiraProjectConfigTest {
+
+    @Rule
+    public ExpectedException thrown = ExpectedException.none();
+
+    private Settings settings;
+
+    @Before
+    public void setUp() {
+	settings = new Settings(new PropertyDefinitions(JiraIssueCreator.class,
+		JiraPlugin.class));
+	settings.setProperty(CoreProperties.SERVER_BASE_URL,
+		"http://my.sonar.com");
+	settings.setProperty(JiraConstants.SERVER_URL_PROPERTY,
+		"http://my.jira.com");
+	settings.setProperty(JiraConstants.USERNAME_PROPERTY, "foo");
+	settings.setProperty(JiraConstants.PASSWORD_PROPERTY, "bar");
+	settings.setProperty(JiraConstants.JIRA_PROJECT_KEY_PROPERTY, "TEST");
+    }
+
+    @Test
+    public void shouldReadProperties() {
+	settings.setProperty(JiraConstants.JIRA_MAJOR_PRIORITY_ID, 7);
+	settings.setProperty(JiraConstants.JIRA_ISSUE_COMPONENT_ID, 18);
+
+	JiraProjectConfig config = new JiraProjectConfig(settings);
+	config.checkConditions();
+
+	assertThat(config.getServerUrl()).isEqualTo("http://my.jira.com");
+	assertThat(config.getUserName()).isEqualTo("foo");
+	assertThat(config.getSonarUrl()).isEqualTo("http://my.sonar.com");
+	assertThat(config.getProjectKey()).isEqualTo("TEST");
+	assertThat(config.getIssueTypeId()).isEqualTo(3L);
+	assertThat(config.getComponentId()).isEqualTo(18L);
+	assertThat(config.isRuleDescription()).isFalse();
+	assertThat(config.getPriorityId(RulePriority.INFO)).isEqualTo(5L);
+	assertThat(config.getPriorityId(RulePriority.MAJOR)).isEqualTo(7L);
+	assertThat(config.getPriorityId(RulePriority.BLOCKER)).isEqualTo(1L);
+    }
+
+    @Test
+    public void shouldHaveNoComponentByDefault() {
+	assertThat(new JiraProjectConfig(settings).getComponentId()).isNull();
+    }
+
+    @Test
+    public void shouldFailIfPropertyIsMissing() {
+	settings.removeProperty(JiraConstants.PASSWORD_PROPERTY);
+	JiraProjectConfig config = new JiraProjectConfig(settings);
+
+	thrown.expect(IllegalStateException.class);
+	thrown.expectMessage("The JIRA property \""
+		+ JiraConstants.PASSWORD_PROPERTY
+		+ "\" must be defined before you can use the \"Link to Jira\" button");
+
+	config.checkConditions();
+    }
+
+    @Test
+    public void shouldFailIfIdIsNotANumber() {
+	settings.setProperty(JiraConstants.JIRA_ISSUE_COMPONENT_ID, "core");
+	JiraProjectConfig config = new JiraProjectConfig(settings);
+
+	assertThat(config.getComponentId()).isNull();
+	thrown.expect(IllegalStateException.class);
+	thrown.expectMessage("The JIRA property \""
+		+ JiraConstants.JIRA_ISSUE_COMPONENT_ID
+		+ "\" must be a number: core");
+
+	config.checkConditions();
+    }
+
+    @Test
+    public void shouldDetectChangedProperties() {
+	JiraProjectConfig config = new JiraProjectConfig(settings);
+
+	assertThat(config.isReadFrom(settings)).isTrue();
+	settings.setProperty("sonar.other.property", "value");
+	assertThat(config.isReadFrom(settings)).isTrue();
+	settings.setProperty(JiraConstants.JIRA_PROJECT_KEY_PROPERTY
+		+ ".proj.web", "WEB");
+	assertThat(config.isReadFrom(settings)).isFalse();
+	settings.removeProperty(JiraConstants.JIRA_PROJECT_KEY_PROPERTY
+		+ ".proj.web");
+	assertThat(config.isReadFrom(settings)).isTrue();
+	settings.setProperty(CoreProperties.SERVER_BASE_URL,
+		"http://other.sonar.com");
+	assertThat(config.isReadFrom(settings)).isFalse();
+    }
+
+    @Test
+    public void shouldDetectChangedValue() {
+	JiraProjectConfig config = new JiraProjectConfig(settings);
+
+	settings.setProperty(JiraConstants.JIRA_PROJECT_KEY_PROPERTY, "OTHER");
+	assertThat(config.isReadFrom(settings)).isFalse();
+    }
+
+    @Test
+    public void shouldRouteToDefaultProject() {
+	settings.setProperty(JiraConstants.JIRA_TOP_LEVEL_PACKAGE + ".proj",
+		"com.acme");
+	settings.setProperty(JiraConstants.JIRA_PROJECT_KEY_PROPERTY
+		+ ".proj.web", "WEB");
+	JiraProjectRouting routing = new JiraProjectConfig(settings)
+		.getRouting();
+
+	assertThat(routing.getJiraProjectKey("proj", "com.acme.web:Home.java"))
+		.isEqualTo("WEB");
+	assertThat(routing.getJiraProjectKey("proj", "com.acme.core:Main.java"))
+		.isEqualTo("TEST");
+    }
+}
@@ -0,0 +1,119 @@
+/*
+ * Sonar JIRA Plugin
+ * Copyright (C) 2009 SonarSource
+ * dev@sonar.codehaus.org
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02
+ */
+package org.sonar.plugins.jira.reviews;
+
+import static org.fest.assertions.Assertions.*;
+
+import java.util.Map;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.sonar.plugins.jira.JiraConstants;
+
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Maps;
+
+public class JiraProjectRoutingTest {
+
+    private Map<String, String> properties;
+
+    @Before
+    public void setUp() {
+	properties = Maps.newHashMap();
+	properties.put(JiraConstants.JIRA_TOP_LEVEL_PACKAGE + ".proj",
+		"com.acme");
+	properties.put(JiraConstants.JIRA_PROJECT_KEY_PROPERTY + ".proj",
+		"PROJ");
+	properties.put(JiraConstants.JIRA_PROJECT_KEY_PROPERTY
+		+ ".proj.billing", "BILL");
+	properties.put(JiraConstants.JIRA_PROJECT_KEY_PROPERTY
+		+ ".proj.billing.tax", "TAX");
+    }
+
+    @Test
+    public void shouldUseLongestMappedPackage() {
+	JiraProjectRouting routing = new JiraProjectRouting(properties,
+		"DEFAULT");
+
+	assertThat(
+		routing.getJiraProjectKey("proj",
+			"com.acme.billing.tax:Vat.java")).isEqualTo("TAX");
+	assertThat(
+		routing.getJiraProjectKey("proj",
+			"com.acme.billing.tax.eu:Vat.java")).isEqualTo("TAX");
+	assertThat(
+		routing.getJiraProjectKey("proj",
+			"com.acme.billing.invoice:Invoice.java")).isEqualTo(
+		"BILL");
+	assertThat(routing.getJiraProjectKey("proj", "com.acme.web:Home.java"))
+		.isEqualTo("PROJ");
+    }
+
+    @Test
+    public void shouldNotMatchPartOfPackageName() {
+	JiraProjectRouting routing = new JiraProjectRouting(properties,
+		"DEFAULT");
+
+	assertThat(
+		routing.getJiraProjectKey("proj",
+			"com.acme.billingapi:Client.java")).isEqualTo("PROJ");
+	assertThat(
+		routing.getJiraProjectKey("proj",
+			"com.acme.billing.taxes:Vat.java")).isEqualTo("BILL");
+    }
+
+    @Test
+    public void shouldIgnoreComponentPath() {
+	JiraProjectRouting routing = new JiraProjectRouting(ImmutableMap.of(
+		JiraConstants.JIRA_TOP_LEVEL_PACKAGE + ".proj", "com.acme",
+		JiraConstants.JIRA_PROJECT_KEY_PROPERTY + ".proj.web", "WEB"),
+		"DEFAULT");
+
+	assertThat(routing.getJiraProjectKey("proj", "com.acme:web"))
+		.isEqualTo("DEFAULT");
+	assertThat(routing.getJiraProjectKey("proj", "com.acme:web:Home.java"))
+		.isEqualTo("WEB");
+    }
+
+    @Test
+    public void shouldUseDefaultProjectWhenNotMapped() {
+	JiraProjectRouting routing = new JiraProjectRouting(properties,
+		"DEFAULT");
+
+	assertThat(routing.getJiraProjectKey("other", "com.acme.billing:A.java"))
+		.isEqualTo("DEFAULT");
+	assertThat(routing.getJiraProjectKey("proj", "org.other:A.java"))
+		.isEqualTo("DEFAULT");
+	assertThat(routing.getJiraProjectKey("proj", "com.acme.billing"))
+		.isEqualTo("DEFAULT");
+    }
+
+    @Test
+    public void shouldIgnoreBlankProperties() {
+	properties.put(JiraConstants.JIRA_PROJECT_KEY_PROPERTY
+		+ ".proj.billing.tax", " ");
+	JiraProjectRouting routing = new JiraProjectRouting(properties,
+		"DEFAULT");
+
+	assertThat(
+		routing.getJiraProjectKey("proj",
+			"com.acme.billing.tax:Vat.java")).isEqualTo("BILL");
+    }
+}
@@ -0,0 +1,101 @@
+/*
+ * Sonar JIRA Plugin
+ * Copyright (C) 2009 SonarSource
+ * dev@sonar.codehaus.org
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02
+ */
+package org.sonar.plugins.jira.reviews;
+
+import static org.fest.assertions.Assertions.*;
+import static org.mockito.Mockito.*;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.sonar.api.config.Settings;
+import org.sonar.api.rule.RuleKey;
+import org.sonar.api.rules.Rule;
+import org.sonar.api.rules.RuleFinder;
+import org.sonar.plugins.jira.JiraConstants;
+
+public class JiraRuleCacheTest {
+
+    private static final RuleKey CYCLES = RuleKey.of("squid",
+	    "CycleBetweenPackages");
+    private static final RuleKey COMPLEXITY = RuleKey.of("squid",
+	    "MethodCyclomaticComplexity");
+    private static final RuleKey IMPORTS = RuleKey.of("squid",
+	    "UnusedImports");
+
+    private RuleFinder ruleFinder;
+    private Settings settings;
+
+    @Before
+    public void setUp() {
+	ruleFinder = mock(RuleFinder.class);
+	when(ruleFinder.findByKey(CYCLES)).thenReturn(
+		Rule.create().setName("Avoid cycle between java packages")
+			.setDescription("<p>Cycles &amp; tangles<br/>hurt</p>"));
+	when(ruleFinder.findByKey(COMPLEXITY)).thenReturn(
+		Rule.create().setName("Methods should not be too complex"));
+	settings = new Settings();
+    }
+
+    @Test
+    public void shouldReadEachRuleOnce() {
+	JiraRuleCache cache = new JiraRuleCache(ruleFinder, settings);
+
+	assertThat(cache.getName(CYCLES)).isEqualTo(
+		"Avoid cycle between java packages");
+	assertThat(cache.getDescription(CYCLES)).isEqualTo(
+		"Cycles & tangles\nhurt");
+	assertThat(cache.getName(CYCLES)).isEqualTo(
+		"Avoid cycle between java packages");
+	assertThat(cache.getDescription(COMPLEXITY)).isNull();
+
+	verify(ruleFinder, times(1)).findByKey(CYCLES);
+	verify(ruleFinder, times(1)).findByKey(COMPLEXITY);
+	assertThat(cache.getHitCount()).isEqualTo(2);
+	assertThat(cache.getMissCount()).isEqualTo(2);
+	assertThat(cache.getSize()).isEqualTo(2);
+    }
+
+    @Test
+    public void shouldRememberUnknownRules() {
+	JiraRuleCache cache = new JiraRuleCache(ruleFinder, settings);
+
+	assertThat(cache.getName(IMPORTS)).isNull();
+	assertThat(cache.getName(IMPORTS)).isNull();
+
+	verify(ruleFinder, times(1)).findByKey(IMPORTS);
+    }
+
+    @Test
+    public void shouldEvictLeastRecentlyUsedRule() {
+	settings.setProperty(JiraConstants.RULE_CACHE_SIZE_PROPERTY, 2);
+	JiraRuleCache cache = new JiraRuleCache(ruleFinder, settings);
+
+	cache.getName(CYCLES);
+	cache.getName(COMPLEXITY);
+	cache.getName(CYCLES);
+	cache.getName(IMPORTS);
+	cache.getName(CYCLES);
+	cache.getName(COMPLEXITY);
+
+	assertThat(cache.getSize()).isEqualTo(2);
+	verify(ruleFinder, times(1)).findByKey(CYCLES);
+	verify(ruleFinder, times(2)).findByKey(COMPLEXITY);
+    }
+}
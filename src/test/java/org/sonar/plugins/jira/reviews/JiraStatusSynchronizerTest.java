@@ -0,0 +1,219 @@
+/*
+ * Sonar JIRA Plugin
+ * Copyright (C) 2009 SonarSource
+ * dev@sonar.codehaus.org
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02
+ */
+package org.sonar.plugins.jira.reviews;
+
+import static org.fest.assertions.Assertions.*;
+import static org.mockito.Matchers.*;
+import static org.mockito.Mockito.*;
+
+import java.net.URL;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.sonar.api.config.Settings;
+import org.sonar.plugins.jira.JiraConstants;
+import org.sonar.plugins.jira.rest.FakeJiraServer;
+import org.sonar.plugins.jira.rest.JiraSession;
+import org.sonar.plugins.jira.rest.JiraSessionRegistry;
+
+import com.atlassian.jira.rest.client.api.domain.BasicIssue;
+import com.google.common.collect.ImmutableList;
+
+public class JiraStatusSynchronizerTest {
+
+    @Rule
+    public TemporaryFolder temp = new TemporaryFolder();
+
+    private FakeJiraServer server;
+    private Settings settings;
+    private JiraSessionRegistry sessionRegistry;
+    private JiraIssueIndex issueIndex;
+    private SonarIssueActions sonarIssueActions;
+
+    @Before
+    public void setUp() throws Exception {
+	server = new FakeJiraServer(5).start();
+	settings = new Settings();
+	settings.setProperty(JiraConstants.SERVER_URL_PROPERTY, server.getUrl());
+	settings.setProperty(JiraConstants.USERNAME_PROPERTY, "admin");
+	settings.setProperty(JiraConstants.PASSWORD_PROPERTY, "adminPwd");
+	settings.setProperty(JiraConstants.SYNC_BATCH_SIZE_PROPERTY, 2);
+	settings.setProperty(JiraConstants.STORAGE_PATH_PROPERTY, temp
+		.newFolder().getAbsolutePath());
+	sessionRegistry = new JiraSessionRegistry(settings);
+	issueIndex = new JiraIssueIndex(settings);
+	JiraSession session = sessionRegistry.acquire(
+		new URL(server.getUrl()), "admin", "adminPwd");
+	link(session, "AAAA", "TEST-1");
+	link(session, "BBBB", "TEST-2");
+	link(session, "CCCC", "TEST-3");
+	sessionRegistry.release(session);
+	sonarIssueActions = mock(SonarIssueActions.class);
+	when(sonarIssueActions.doTransition(anyString(), anyString()))
+		.thenReturn(true);
+    }
+
+    @After
+    public void tearDown() {
+	sessionRegistry.stop();
+	server.stop();
+    }
+
+    @Test
+    public void shouldResolveSonarIssuesOfResolvedJiraIssues()
+	    throws Exception {
+	server.resolveIssue("TEST-1", "Fixed");
+	JiraStatusSynchronizer synchronizer = newSynchronizer();
+
+	assertThat(synchronizer.synchronize()).isEqualTo(1);
+	verify(sonarIssueActions).doTransition("AAAA",
+		JiraStatusSynchronizer.RESOLVE);
+	verify(sonarIssueActions, never()).doTransition(eq("BBBB"),
+		anyString());
+
+	// already done
+	assertThat(synchronizer.synchronize()).isEqualTo(0);
+	verify(sonarIssueActions, times(1)).doTransition(anyString(),
+		anyString());
+    }
+
+    @Test
+    public void shouldReopenSonarIssuesOfReopenedJiraIssues()
+	    throws Exception {
+	server.resolveIssue("TEST-2", "Fixed");
+	JiraStatusSynchronizer synchronizer = newSynchronizer();
+	synchronizer.synchronize();
+
+	server.resolveIssue("TEST-2", null);
+	assertThat(synchronizer.synchronize()).isEqualTo(1);
+
+	verify(sonarIssueActions).doTransition("BBBB",
+		JiraStatusSynchronizer.REOPEN);
+    }
+
+    @Test
+    public void shouldMarkFalsePositives() throws Exception {
+	settings.setProperty(
+		JiraConstants.SYNC_FALSE_POSITIVE_RESOLUTIONS_PROPERTY,
+		"Won't Fix, Not a Bug");
+	server.resolveIssue("TEST-3", "Won't Fix");
+
+	newSynchronizer().synchronize();
+
+	verify(sonarIssueActions).doTransition("CCCC",
+		JiraStatusSynchronizer.FALSE_POSITIVE);
+    }
+
+    @Test
+    public void shouldTryFailedUpdatesAgain() throws Exception {
+	server.resolveIssue("TEST-1", "Fixed");
+	when(sonarIssueActions.doTransition("AAAA",
+		JiraStatusSynchronizer.RESOLVE)).thenThrow(
+		new IllegalStateException("Issue not found")).thenReturn(true);
+	JiraStatusSynchronizer synchronizer = newSynchronizer();
+
+	assertThat(synchronizer.synchronize()).isEqualTo(0);
+	assertThat(synchronizer.synchronize()).isEqualTo(1);
+
+	verify(sonarIssueActions, times(2)).doTransition("AAAA",
+		JiraStatusSynchronizer.RESOLVE);
+    }
+
+    @Test
+    public void shouldSkipDeletedJiraIssues() throws Exception {
+	JiraSession session = sessionRegistry.acquire(new URL(server.getUrl()),
+		"admin", "adminPwd");
+	link(session, "DDDD", "TEST-99");
+	sessionRegistry.release(session);
+	server.resolveIssue("TEST-3", "Fixed");
+
+	assertThat(newSynchronizer().synchronize()).isEqualTo(1);
+
+	verify(sonarIssueActions).doTransition("CCCC",
+		JiraStatusSynchronizer.RESOLVE);
+	assertThat(issueIndex.size()).isEqualTo(3);
+    }
+
+    @Test
+    public void shouldSynchronizeIssuesOfConfiguredProjects()
+	    throws Exception {
+	settings.setProperty(JiraConstants.JIRA_PROJECT_KEY_PROPERTY, "TEST");
+	// linked before the index existed
+	String jiraKey = server.addIssue("Sonar Issue #EEEE - Unused import");
+	server.resolveIssue(jiraKey, "Fixed");
+
+	assertThat(newSynchronizer().synchronize()).isEqualTo(1);
+
+	verify(sonarIssueActions).doTransition("EEEE",
+		JiraStatusSynchronizer.RESOLVE);
+    }
+
+    @Test
+    public void shouldSearchUpdatedIssuesOnlyAfterRestart() throws Exception {
+	server.resolveIssue("TEST-1", "Fixed");
+	JiraStatusSynchronizer synchronizer = newSynchronizer();
+	synchronizer.start();
+	synchronizer.synchronize();
+	synchronizer.stop();
+
+	server.resolveIssue("TEST-2", "Fixed");
+	synchronizer = newSynchronizer();
+	synchronizer.start();
+	assertThat(synchronizer.synchronize()).isEqualTo(1);
+	synchronizer.stop();
+
+	verify(sonarIssueActions, times(1)).doTransition("AAAA",
+		JiraStatusSynchronizer.RESOLVE);
+	verify(sonarIssueActions).doTransition("BBBB",
+		JiraStatusSynchronizer.RESOLVE);
+    }
+
+    @Test
+    public void shouldRefreshGivenIssues() throws Exception {
+	server.resolveIssue("TEST-2", "Fixed");
+	JiraStatusSynchronizer synchronizer = newSynchronizer();
+
+	// not linked, not searched
+	assertThat(synchronizer.refresh(ImmutableList.of("TEST-2", "TEST-4")))
+		.isEqualTo(1);
+	verify(sonarIssueActions).doTransition("BBBB",
+		JiraStatusSynchronizer.RESOLVE);
+
+	// deleted, the Sonar issue is left as is
+	server.removeIssue(1);
+	assertThat(synchronizer.refresh(ImmutableList.of("TEST-2")))
+		.isEqualTo(0);
+	verify(sonarIssueActions, times(1)).doTransition(anyString(),
+		anyString());
+	assertThat(issueIndex.size()).isEqualTo(2);
+    }
+
+    private JiraStatusSynchronizer newSynchronizer() {
+	return new JiraStatusSynchronizer(settings, sessionRegistry,
+		issueIndex, sonarIssueActions);
+    }
+
+    private void link(JiraSession session, String sonarKey, String jiraKey) {
+	issueIndex.put(session, sonarKey, new BasicIssue(null, jiraKey, null));
+    }
+}
@@ -0,0 +1,172 @@
+/*
+ * Sonar JIRA Plugin
+ * Copyright (C) 2009 SonarSource
+ * dev@sonar.codehaus.org
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02
+ */
+package org.sonar.plugins.jira.reviews;
+
+import static org.fest.assertions.Assertions.*;
+import static org.mockito.Matchers.*;
+import static org.mockito.Mockito.*;
+
+import java.util.concurrent.CountDownLatch;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.sonar.api.config.Settings;
+import org.sonar.api.server.ws.Request;
+import org.sonar.api.server.ws.Response;
+import org.sonar.api.server.ws.WebService;
+import org.sonar.plugins.jira.JiraConstants;
+
+import com.google.common.collect.ImmutableSet;
+
+public class JiraWebhookReceiverTest {
+
+    private Settings settings;
+    private JiraStatusSynchronizer synchronizer;
+    private JiraWebhookReceiver receiver;
+
+    @Before
+    public void setUp() throws Exception {
+	settings = new Settings();
+	settings.setProperty(JiraConstants.WEBHOOK_ENABLED_PROPERTY, true);
+	settings.setProperty(JiraConstants.WEBHOOK_SECRET_PROPERTY, "s3cr3t");
+	synchronizer = mock(JiraStatusSynchronizer.class);
+	SonarIssueActions sonarIssueActions = mock(SonarIssueActions.class);
+	when(sonarIssueActions.isConfigured()).thenReturn(true);
+	receiver = new JiraWebhookReceiver(settings, synchronizer,
+		sonarIssueActions);
+    }
+
+    @After
+    public void tearDown() {
+	receiver.stop();
+    }
+
+    @Test
+    public void shouldDefineWebService() {
+	WebService.Context context = new WebService.Context();
+	receiver.define(context);
+
+	WebService.Action action = context.controller(
+		JiraWebhookReceiver.CONTROLLER).action(
+		JiraWebhookReceiver.ACTION);
+	assertThat(action.isPost()).isTrue();
+	assertThat(action.handler()).isSameAs(receiver);
+	assertThat(action.param(JiraWebhookReceiver.ISSUE_PARAM).isRequired())
+		.isTrue();
+	assertThat(action.param(JiraWebhookReceiver.SECRET_PARAM).isRequired())
+		.isTrue();
+    }
+
+    @Test
+    public void shouldRefreshReceivedIssues() throws Exception {
+	receiver.start();
+	Response response = response();
+
+	receiver.handle(request("TEST-1"), response);
+
+	verify(response).noContent();
+	verify(synchronizer, timeout(5000)).refresh(ImmutableSet.of("TEST-1"));
+    }
+
+    @Test
+    public void shouldAskToRetryWhenQueueIsFull() throws Exception {
+	settings.setProperty(JiraConstants.WEBHOOK_QUEUE_SIZE_PROPERTY, 1);
+	CountDownLatch release = new CountDownLatch(1);
+	when(synchronizer.refresh(anyCollectionOf(String.class))).thenAnswer(
+		invocation -> {
+		    release.await();
+		    return 0;
+		});
+	receiver.start();
+
+	receiver.handle(request("TEST-1"), response());
+	// the worker is busy with the first issue
+	verify(synchronizer, timeout(5000)).refresh(
+		anyCollectionOf(String.class));
+	Response accepted = response();
+	receiver.handle(request("TEST-2"), accepted);
+	verify(accepted).noContent();
+	Response refused = response();
+	receiver.handle(request("TEST-3"), refused);
+	verify(refused.stream()).setStatus(503);
+
+	release.countDown();
+	verify(synchronizer, timeout(5000).times(2)).refresh(
+		anyCollectionOf(String.class));
+    }
+
+    @Test
+    public void shouldRejectWrongSecret() throws Exception {
+	receiver.start();
+	Response guessed = response();
+	Response missing = response();
+
+	receiver.handle(request("TEST-1", "guess"), guessed);
+	receiver.handle(request("TEST-1", null), missing);
+
+	verify(guessed.stream()).setStatus(403);
+	verify(missing.stream()).setStatus(403);
+	verifyZeroInteractions(synchronizer);
+    }
+
+    @Test
+    public void shouldBeDisabledWithoutSecret() throws Exception {
+	settings.removeProperty(JiraConstants.WEBHOOK_SECRET_PROPERTY);
+	receiver.start();
+	Response response = response();
+
+	receiver.handle(request("TEST-1"), response);
+
+	verify(response.stream()).setStatus(404);
+    }
+
+    @Test
+    public void shouldBeDisabledByDefault() throws Exception {
+	settings.removeProperty(JiraConstants.WEBHOOK_ENABLED_PROPERTY);
+	receiver.start();
+	Response response = response();
+
+	receiver.handle(request("TEST-1"), response);
+
+	verify(response.stream()).setStatus(404);
+	verifyZeroInteractions(synchronizer);
+    }
+
+    private static Request request(String jiraKey) {
+	return request(jiraKey, "s3cr3t");
+    }
+
+    private static Request request(String jiraKey, String secret) {
+	Request request = mock(Request.class);
+	when(request.mandatoryParam(JiraWebhookReceiver.ISSUE_PARAM))
+		.thenReturn(jiraKey);
+	when(request.param(JiraWebhookReceiver.SECRET_PARAM))
+		.thenReturn(secret);
+	return request;
+    }
+
+    private static Response response() {
+	Response response = mock(Response.class);
+	Response.Stream stream = mock(Response.Stream.class);
+	when(response.stream()).thenReturn(stream);
+	return response;
+    }
+}
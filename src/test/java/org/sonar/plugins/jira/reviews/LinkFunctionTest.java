@@ -29,6 +29,8 @@ import org.junit.Before;
 import org.junit.Rule;
 import org.junit.Test;
 import org.junit.rules.ExpectedException;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
 import org.sonar.api.config.Settings;
 import org.sonar.api.issue.Issue;
 import org.sonar.api.issue.action.Function;
@@ -43,6 +45,7 @@ public class LinkFunctionTest {
     public ExpectedException thrown = ExpectedException.none();
     private LinkFunction function;
     private JiraIssueCreator jiraIssueCreator;
+    private JiraLinkQueue linkQueue;
     private Issue sonarIssue;
     private Function.Context context;
     private BasicIssue remoteIssue;
@@ -50,7 +53,7 @@ public class LinkFunctionTest {
 
     @Before
     public void init() throws Exception {
-	sonarIssue = new DefaultIssue().setKey("ABCD");
+	sonarIssue = new DefaultIssue().setKey("ABCD").setProjectKey("proj");
 	settings = new Settings();
 
 	context = mock(Function.Context.class);
@@ -58,11 +61,91 @@ public class LinkFunctionTest {
 	when(context.projectSettings()).thenReturn(settings);
 
 	jiraIssueCreator = mock(JiraIssueCreator.class);
+	when(jiraIssueCreator.getConfig(settings, "proj")).thenAnswer(
+		new Answer<JiraProjectConfig>() {
+		    public JiraProjectConfig answer(InvocationOnMock invocation) {
+			return new JiraProjectConfig(settings);
+		    }
+		});
 	remoteIssue = new BasicIssue(null, "FOO-15", (long) 0);
 	when(jiraIssueCreator.createIssue(sonarIssue, settings)).thenReturn(
 		remoteIssue);
 
-	function = new LinkFunction(jiraIssueCreator);
+	linkQueue = mock(JiraLinkQueue.class);
+	function = new LinkFunction(jiraIssueCreator, linkQueue);
+    }
+
+    @Test
+    public void should_create_issue_while_queue_is_disabled()
+	    throws Exception {
+	configureJira();
+	function.execute(context);
+
+	verify(jiraIssueCreator).createIssue(sonarIssue, settings);
+	verify(linkQueue, never()).enqueue(sonarIssue, settings);
+	verify(context).setAttribute(
+		JiraConstants.SONAR_ISSUE_DATA_PROPERTY_KEY, "FOO-15");
+    }
+
+    @Test
+    public void should_enqueue_issue_while_queue_is_enabled()
+	    throws Exception {
+	when(linkQueue.isEnabled()).thenReturn(true);
+	when(linkQueue.enqueue(sonarIssue, settings)).thenReturn(true);
+
+	configureJira();
+	function.execute(context);
+
+	verify(jiraIssueCreator, never()).createIssue(sonarIssue, settings);
+	verify(context).addComment("JIRA issue creation pending");
+	verify(context).setAttribute(
+		JiraConstants.SONAR_ISSUE_PENDING_PROPERTY_KEY, "true");
+	verify(context, never()).setAttribute(
+		eq(JiraConstants.SONAR_ISSUE_DATA_PROPERTY_KEY), anyString());
+    }
+
+    @Test
+    public void should_not_comment_twice_an_issue_already_queued()
+	    throws Exception {
+	when(linkQueue.isEnabled()).thenReturn(true);
+	when(linkQueue.enqueue(sonarIssue, settings)).thenReturn(false);
+
+	configureJira();
+	function.execute(context);
+
+	verify(context, never()).addComment(anyString());
+    }
+
+    @Test
+    public void should_link_issue_created_in_background() throws Exception {
+	when(linkQueue.isEnabled()).thenReturn(true);
+	when(linkQueue.takeCreated("ABCD")).thenReturn(remoteIssue);
+
+	configureJira();
+	function.execute(context);
+
+	verify(jiraIssueCreator, never()).createIssue(sonarIssue, settings);
+	verify(linkQueue, never()).enqueue(sonarIssue, settings);
+	verify(context).setAttribute(
+		JiraConstants.SONAR_ISSUE_DATA_PROPERTY_KEY, "FOO-15");
+	verify(context).setAttribute(
+		JiraConstants.SONAR_ISSUE_PENDING_PROPERTY_KEY, null);
+    }
+
+    @Test
+    public void should_report_issue_failed_in_background() throws Exception {
+	when(linkQueue.isEnabled()).thenReturn(true);
+	when(linkQueue.takeFailure("ABCD")).thenReturn("Server Error");
+
+	configureJira();
+	function.execute(context);
+
+	verify(jiraIssueCreator, never()).createIssue(sonarIssue, settings);
+	verify(linkQueue, never()).enqueue(sonarIssue, settings);
+	verify(context).addComment(
+		"Impossible to create an issue on JIRA: Server Error");
+	verify(context).setAttribute(
+		JiraConstants.SONAR_ISSUE_PENDING_PROPERTY_KEY, null);
     }
 
     @Test
@@ -111,6 +194,21 @@ public class LinkFunctionTest {
 
     @Test
     public void should_check_settings() {
+	configureJira();
+
+	function.checkConditions(context);
+    }
+
+    @Test
+    public void should_fail_if_settings_is_empty() {
+	try {
+	    function.checkConditions(context);
+	} catch (Exception e) {
+	    assertThat(e).isInstanceOf(IllegalStateException.class);
+	}
+    }
+
+    private void configureJira() {
 	settings.setProperty(JiraConstants.SERVER_URL_PROPERTY,
 		"http://my.jira.server");
 	settings.setProperty(JiraConstants.SOAP_BASE_URL_PROPERTY,
@@ -125,17 +223,5 @@ public class LinkFunctionTest {
 	settings.setProperty(JiraConstants.JIRA_BLOCKER_PRIORITY_ID, 1);
 	settings.setProperty(JiraConstants.JIRA_ISSUE_TYPE_ID, 3);
 	settings.setProperty(JiraConstants.JIRA_ISSUE_COMPONENT_ID, 18);
-
-	function.checkConditions(settings);
     }
-
-    @Test
-    public void should_fail_if_settings_is_empty() {
-	try {
-	    function.checkConditions(settings);
-	} catch (Exception e) {
-	    assertThat(e).isInstanceOf(IllegalStateException.class);
-	}
-    }
-
 }